@@ -0,0 +1,108 @@
+package benchmarks;
+
+import configs.GenericConfig;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import tools.GraphGenerator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Graphs the benchmarks run against, named by a short spec:
+ * - "simple", "complex" - the files in config_files (set -Dbench.configDir if the
+ *   benchmarks are not run from the project or benchmarks directory)
+ * - "chain-N" - N IncAgents in a row
+ * - "layered-WxD" - D layers of W PlusAgents, each adding two topics of the layer below,
+ *   so every wave fans out and joins again
+ * Synthetic graphs come from {@link GraphGenerator} with a fixed seed.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+final class BenchmarkGraphs {
+
+    private BenchmarkGraphs() {
+    }
+
+    /**
+     * Returns the config file for a spec, generating synthetic graphs into a temp file.
+     */
+    static Path resolve(String spec) {
+        try {
+            if (spec.startsWith("chain-")) {
+                int length = Integer.parseInt(spec.substring("chain-".length()));
+                GraphGenerator generator = new GraphGenerator();
+                generator.setAgents(length);
+                generator.setDepth(length);
+                generator.setInputs(1);
+                generator.setFanIn(1);
+                generator.setFanOut(1);
+                return write(spec, generator.generate());
+            }
+            if (spec.startsWith("layered-")) {
+                String[] size = spec.substring("layered-".length()).split("x");
+                int width = Integer.parseInt(size[0]);
+                int depth = Integer.parseInt(size[1]);
+                GraphGenerator generator = new GraphGenerator();
+                generator.setAgents(width * depth);
+                generator.setDepth(depth);
+                generator.setInputs(width);
+                generator.setFanIn(2);
+                generator.setFanOut(2);
+                return write(spec, generator.generate());
+            }
+            String dir = System.getProperty("bench.configDir");
+            List<Path> candidates = dir != null
+                    ? List.of(Paths.get(dir))
+                    : List.of(Paths.get("config_files"), Paths.get("..", "config_files"));
+            for (Path candidate : candidates) {
+                Path file = candidate.resolve(spec + ".conf");
+                if (Files.isRegularFile(file)) {
+                    return file;
+                }
+            }
+            throw new IllegalArgumentException("Config not found: " + spec + ".conf in " + candidates);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Clears all topics and loads a graph, the same way the /upload servlet does.
+     */
+    static GenericConfig load(String spec) {
+        TopicManagerSingleton.get().clear();
+        GenericConfig config = new GenericConfig();
+        config.setConfFile(resolve(spec).toString());
+        config.create();
+        return config;
+    }
+
+    /**
+     * Returns the loaded topics that nothing publishes to, which are the graph's inputs.
+     */
+    static List<String> inputTopics() {
+        List<String> inputs = new ArrayList<>();
+        for (Topic topic : TopicManagerSingleton.get().getTopics()) {
+            if (topic.getPubs().isEmpty() && !topic.getSubs().isEmpty()) {
+                inputs.add(topic.name);
+            }
+        }
+        if (inputs.isEmpty()) {
+            throw new IllegalStateException("The graph has no input topics");
+        }
+        return inputs;
+    }
+
+    private static Path write(String spec, String conf) throws IOException {
+        Path file = Files.createTempFile("bench-" + spec + "-", ".conf");
+        file.toFile().deleteOnExit();
+        Files.writeString(file, conf);
+        return file;
+    }
+}
@@ -0,0 +1,78 @@
+package benchmarks;
+
+import configs.GenericConfig;
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.Wave;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end evaluation: one publish to an input topic, measured until every agent
+ * it reached has finished (the wave has settled). Inputs are published to in turn.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EvaluationBenchmark {
+    private static final long SETTLE_TIMEOUT_MS = 10_000;
+
+    @Param({"simple", "complex", "chain-100", "layered-32x8"})
+    public String graph;
+
+    private GenericConfig config;
+    private Topic[] inputs;
+    private int next;
+    private double value;
+
+    @Setup
+    public void setup() {
+        config = BenchmarkGraphs.load(graph);
+        List<String> names = BenchmarkGraphs.inputTopics();
+        inputs = new Topic[names.size()];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = TopicManagerSingleton.get().getTopic(names.get(i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        config.close();
+        TopicManagerSingleton.get().clear();
+    }
+
+    @Benchmark
+    public boolean publishAndSettle() throws InterruptedException {
+        Topic input = inputs[next];
+        next = (next + 1) % inputs.length;
+        Wave wave = Wave.begin(input.name);
+        try {
+            input.publish(new Message(value++));
+        } finally {
+            wave.end();
+        }
+        if (!wave.await(SETTLE_TIMEOUT_MS)) {
+            throw new IllegalStateException("Wave " + wave.getId() + " did not settle");
+        }
+        return true;
+    }
+}
@@ -0,0 +1,77 @@
+package benchmarks;
+
+import configs.GenericConfig;
+import configs.Graph;
+import graph.TopicManagerSingleton;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import views.GraphBinaryWriter;
+import views.HtmlGraphWriter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work done on every config load and every /graph-data request: building the
+ * {@link Graph} from the topics, the cycle check and rendering the graph as JSON.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GraphBenchmark {
+
+    @Param({"simple", "complex", "chain-100", "layered-32x8"})
+    public String graph;
+
+    private GenericConfig config;
+    private Graph built;
+
+    @Setup
+    public void setup() {
+        config = BenchmarkGraphs.load(graph);
+        built = new Graph();
+        built.createFromTopics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        config.close();
+        TopicManagerSingleton.get().clear();
+    }
+
+    @Benchmark
+    public Graph createFromTopics() {
+        Graph g = new Graph();
+        g.createFromTopics();
+        return g;
+    }
+
+    @Benchmark
+    public boolean hasCycles() {
+        return built.hasCycles();
+    }
+
+    @Benchmark
+    public String graphToJson() {
+        return HtmlGraphWriter.graphToJson(built);
+    }
+
+    @Benchmark
+    public byte[] graphToBinary() {
+        return GraphBinaryWriter.encode(built);
+    }
+}
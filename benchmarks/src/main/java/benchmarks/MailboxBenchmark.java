@@ -0,0 +1,105 @@
+package benchmarks;
+
+import graph.Agent;
+import graph.Message;
+import graph.ParallelAgent;
+import graph.TopicManagerSingleton;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput of handing messages to a {@link ParallelAgent} whose agent does no work.
+ * Publishers run on the benchmark threads; the agent runs on its own thread.
+ * With the drop and conflate policies a full mailbox does not slow publishers down,
+ * so compare the {@code handled} counter as well as the score.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MailboxBenchmark {
+
+    @Param({"block", "drop-newest", "conflate"})
+    public String policy;
+
+    @Param({"park", "yield"})
+    public String wait;
+
+    @Param({"1024"})
+    public int capacity;
+
+    private ParallelAgent agent;
+    private CountingAgent counter;
+    private Message message;
+
+    @Setup
+    public void setup() {
+        TopicManagerSingleton.get().clear();
+        counter = new CountingAgent();
+        agent = new ParallelAgent(counter, capacity, ParallelAgent.OverflowPolicy.parse(policy),
+                100, ParallelAgent.WaitStrategy.parse(wait)).start();
+        message = new Message(1.0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println("handled " + counter.handled.sum() + ", dropped " + agent.getDroppedCount()
+                + ", conflated " + agent.getConflatedCount());
+        agent.close();
+        TopicManagerSingleton.get().clear();
+    }
+
+    @Benchmark
+    public void enqueue() {
+        agent.callback("in", message);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void enqueueContended() {
+        agent.callback("in", message);
+    }
+
+    /**
+     * Agent that only counts the messages it gets.
+     */
+    static final class CountingAgent implements Agent {
+        final LongAdder handled = new LongAdder();
+
+        @Override
+        public String getName() {
+            return "counter";
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            handled.increment();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package benchmarks;
+
+import graph.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building a message from each kind of payload.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageBenchmark {
+    private String number = "42.5";
+    private String text = "not a number";
+    private byte[] bytes = "42.5".getBytes(StandardCharsets.UTF_8);
+    private double value = 42.5;
+
+    @Benchmark
+    public Message fromNumericString() {
+        return new Message(number);
+    }
+
+    @Benchmark
+    public Message fromText() {
+        return new Message(text);
+    }
+
+    @Benchmark
+    public Message fromBytes() {
+        return new Message(bytes);
+    }
+
+    @Benchmark
+    public Message fromDouble() {
+        return new Message(value);
+    }
+}
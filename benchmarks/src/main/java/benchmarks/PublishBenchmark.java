@@ -0,0 +1,93 @@
+package benchmarks;
+
+import graph.Agent;
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synchronous {@link Topic#publish(Message)} fan-out to subscribers that do no work,
+ * which isolates the cost of the topic itself.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PublishBenchmark {
+
+    @Param({"1", "4", "16", "64"})
+    public int subscribers;
+
+    private Topic topic;
+    private Message message;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        TopicManagerSingleton.get().clear();
+        topic = TopicManagerSingleton.get().getTopic("bench");
+        for (int i = 0; i < subscribers; i++) {
+            topic.subscribe(new SinkAgent("sink" + i, blackhole));
+        }
+        message = new Message(1.0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        TopicManagerSingleton.get().clear();
+    }
+
+    @Benchmark
+    public void publish() {
+        topic.publish(message);
+    }
+
+    /**
+     * Subscriber that hands the message to the blackhole and does nothing else.
+     */
+    static final class SinkAgent implements Agent {
+        private final String name;
+        private final Blackhole blackhole;
+
+        SinkAgent(String name, Blackhole blackhole) {
+            this.name = name;
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            blackhole.consume(msg);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
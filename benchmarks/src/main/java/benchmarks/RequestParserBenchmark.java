@@ -0,0 +1,70 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.RequestParser;
+import server.RequestParser.RequestInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the requests the UI sends most: a publish and a config upload.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestParserBenchmark {
+    private static final String CONFIG =
+            "configs.PlusAgent\nA,B\nC\nconfigs.IncAgent\nC\nD\nconfigs.MulAgent\nC,D\nE\n";
+
+    private final String publish = "GET /publish?topic=A&message=42.5 HTTP/1.1\r\n" +
+            "Host: localhost:8080\r\n" +
+            "User-Agent: Mozilla/5.0\r\n" +
+            "Accept: */*\r\n" +
+            "Referer: http://localhost:8080/app/index.html\r\n" +
+            "Connection: keep-alive\r\n" +
+            "\r\n";
+
+    private final String upload = "POST /upload HTTP/1.1\r\n" +
+            "Host: localhost:8080\r\n" +
+            "Content-Type: text/plain\r\n" +
+            "Content-Length: " + CONFIG.length() + "\r\n" +
+            "\r\n" +
+            CONFIG;
+
+    private final byte[] publishBytes = publish.getBytes(StandardCharsets.UTF_8);
+    private final byte[] uploadBytes = upload.getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public RequestInfo parseGet() throws IOException {
+        return RequestParser.parseRequest(new BufferedInputStream(new ByteArrayInputStream(publishBytes)));
+    }
+
+    @Benchmark
+    public RequestInfo parsePost() throws IOException {
+        return RequestParser.parseRequest(new BufferedInputStream(new ByteArrayInputStream(uploadBytes)));
+    }
+
+    @Benchmark
+    public RequestInfo parseGetReader() throws IOException {
+        return RequestParser.parseRequest(new BufferedReader(new StringReader(publish)));
+    }
+}
@@ -0,0 +1,75 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.RequestParser.RequestInfo;
+import server.Router;
+import server.Servlet;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the servlet for a request as the number of registered routes grows; the
+ * time should stay flat.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RouterBenchmark {
+    @Param({ "10", "1000" })
+    public int routes;
+
+    private final Router router = new Router();
+    private final String[] publish = { "publish" };
+    private final String[] topic = { "topics", "A" };
+    private final String[] asset = { "app", "css", "style.css" };
+
+    @Setup
+    public void setUp() {
+        Servlet servlet = new Servlet() {
+            @Override
+            public void handle(RequestInfo ri, OutputStream toClient) {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        router.add("GET", "/publish", servlet);
+        router.add("GET", "/topics/{name}", servlet);
+        router.add("GET", "/app/", servlet);
+        for (int i = 0; i < routes; i++) {
+            router.add("GET", "/graphs/g" + i + "/nodes", servlet);
+        }
+    }
+
+    @Benchmark
+    public Router.Match literal() {
+        return router.find("GET", publish);
+    }
+
+    @Benchmark
+    public Router.Match parameter() {
+        return router.find("GET", topic);
+    }
+
+    @Benchmark
+    public Router.Match prefix() {
+        return router.find("GET", asset);
+    }
+}
@@ -1,6 +1,13 @@
+import cluster.ClusterNode;
+import graph.TopicJournal;
+import graph.TopicManagerSingleton;
+import replication.ReplicationFollower;
+import replication.ReplicationLeader;
 import server.*;
 import servlets.*;
 
+import java.nio.file.Paths;
+
 /**
  * Main entry point for the Computational Graph Web Application.
  * 
@@ -13,32 +20,135 @@ import servlets.*;
  * - POST /upload - Configuration file upload and processing
  * - POST /generate-config - AI-powered configuration generation
  * - GET /publish - Message publishing to topics
+ * - POST /publish - Binary batch publishing, see {@link BinaryPublish}
  * - GET /graph-data - Graph data retrieval for visualization
+ * - GET /history - Downsampled value history of a topic
+ * - GET /topics/{name}, GET /topics?names=A,B - Current topic values as JSON, with ETags
+ * 
+ * Topics keep a history of their last N numeric values when the
+ * {@code history.capacity} system property is set (e.g. {@code -Dhistory.capacity=100000}).
+ * Topic values are journaled to disk and recovered on startup when the
+ * {@code journal.dir} system property is set (e.g. {@code -Djournal.dir=journal}).
+ * The HTTP port is set with {@code http.port} and the number of worker threads with
+ * {@code http.threads}; see {@link MyHTTPServer} for the load shedding settings. When {@code cluster.nodes} is set the server
+ * runs one partition of a graph split over several processes, see {@link ClusterNode}.
+ * When {@code replication.port} is set the server streams its topic values to read replicas,
+ * and when {@code replication.leader} is set it runs as a read replica of that leader,
+ * see {@link ReplicationLeader} and {@link ReplicationFollower}.
  * 
  * @author Omri Triki, Yuval Disatnik
  */
 public class Main {
     public static void main(String[] args) throws Exception{
 
-        HTTPServer server=new MyHTTPServer(8080,5);
+        TopicManagerSingleton.get().setHistoryCapacity(Integer.getInteger("history.capacity", 0));
+        int port = Integer.getInteger("http.port", 8080);
+        ReplicationFollower follower = ReplicationFollower.fromSystemProperties();
+        ClusterNode cluster = follower == null ? ClusterNode.fromSystemProperties() : null;
+        TopicJournal journal = null;
+        if (cluster == null && follower == null) {
+            journal = startJournal(System.getProperty("journal.dir"));
+        } else if (System.getProperty("journal.dir") != null) {
+            System.out.println("Journaling is not supported in cluster or replica mode, ignoring journal.dir");
+        }
+
+        int threads = Integer.getInteger("http.threads", 5);
+        MyHTTPServer server=new MyHTTPServer(port,threads);
         Servlet confLoader = new ConfLoader();
 
         // Register servlets for different endpoints
-        server.addServlet("GET", "/publish", new TopicDisplayer());
+        Servlet topicDisplayer = new TopicDisplayer();
+        server.addServlet("GET", "/publish", topicDisplayer);
+        server.addServlet("POST", "/publish", topicDisplayer);
         server.addServlet("POST", "/upload", confLoader);
         server.addServlet("GET", "/app/", new HtmlLoader("html_files"));
         server.addServlet("GET", "/graph-data", confLoader);
         server.addServlet("GET", "/docs/", new DocLoader());
+        server.addServlet("GET", "/history", new TopicHistoryServlet());
+        Servlet topicValues = new TopicValueServlet();
+        server.addServlet("GET", "/topics", topicValues);
+        server.addServlet("GET", "/topics/{name}", topicValues);
+        server.addServlet("GET", "/metrics", new MetricsServlet());
+        Servlet trace = new TraceServlet();
+        server.addServlet("GET", "/trace", trace);
+        server.addServlet("POST", "/trace", trace);
+        Servlet jfr = new JfrAdminServlet();
+        server.addServlet("GET", "/admin/jfr", jfr);
+        server.addServlet("POST", "/admin/jfr", jfr);
+
+        // No route may take every worker: uploads are serialized anyway, publishes may wait
+        // for their wave, and the rest leaves room for /metrics and the other routes
+        int share = Math.max(1, threads - 2);
+        server.setConcurrencyLimit("POST", "/upload", 1);
+        server.setConcurrencyLimit("GET", "/publish", share);
+        server.setConcurrencyLimit("POST", "/publish", share);
+        server.setConcurrencyLimit("GET", "/graph-data", share);
+        server.setConcurrencyLimit("GET", "/history", share);
+        server.setConcurrencyLimit("GET", "/topics", share);
+        server.setConcurrencyLimit("GET", "/topics/{name}", share);
+        server.setConcurrencyLimit("GET", "/app/", share);
+        server.setConcurrencyLimit("GET", "/docs/", share);
+
+        if (cluster != null) {
+            String config = System.getProperty("cluster.config");
+            if (config == null || config.isEmpty()) {
+                throw new IllegalArgumentException("cluster.config must name the configuration file of the cluster");
+            }
+            cluster.start(Paths.get(config));
+        }
+
+        ReplicationLeader leader = null;
+        if (follower != null) {
+            ConfLoader.setUploadsEnabled(false);
+            TopicDisplayer.setPublishEnabled(false);
+            follower.start();
+        } else if (System.getProperty("replication.port") != null) {
+            leader = new ReplicationLeader(Integer.getInteger("replication.port"),
+                    Integer.getInteger("replication.backlog", ReplicationLeader.DEFAULT_BACKLOG));
+            leader.start();
+        }
 
         // Start the server
         server.start();
         System.out.println("Computational Graph Server is running!");
-        System.out.println("Please navigate to: http://localhost:8080/app/index.html");
+        System.out.println("Please navigate to: http://localhost:" + port + "/app/index.html");
         System.out.println("Press Enter to stop the server...");
         
         // Wait for user input to stop the server
         System.in.read();
         server.close();
+        if (cluster != null) {
+            cluster.close();
+        }
+        if (leader != null) {
+            leader.close();
+        }
+        if (follower != null) {
+            follower.close();
+        }
+        if (journal != null) {
+            journal.close();
+        }
         System.out.println("Server stopped successfully.");
     }
+
+    /**
+     * Recovers the last graph and topic values from the journal directory,
+     * then starts journaling new publishes. Returns null if journaling is disabled.
+     */
+    private static TopicJournal startJournal(String dir) throws Exception {
+        if (dir == null || dir.isEmpty()) {
+            return null;
+        }
+        TopicJournal journal = new TopicJournal(Paths.get(dir));
+        TopicJournal.Recovery recovery = journal.recover();
+        if (recovery.getConfigFile() != null) {
+            System.out.println("Recovering graph from " + recovery.getConfigFile());
+            ConfLoader.loadConfig(Paths.get(recovery.getConfigFile()));
+            recovery.apply();
+        }
+        TopicManagerSingleton.get().setJournal(journal);
+        journal.start();
+        return journal;
+    }
 }
\ No newline at end of file
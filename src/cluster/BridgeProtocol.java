@@ -0,0 +1,114 @@
+package cluster;
+
+import graph.Message;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The binary protocol spoken between cluster nodes.
+ *
+ * The node that publishes a topic connects to every node that reads it. After the
+ * connection is made:
+ * <pre>
+ * sender   -&gt; receiver  HELLO   int MAGIC, byte VERSION, int sender node id
+ * receiver -&gt; sender    CREDIT  int n           - the sender may send n more messages
+ * sender   -&gt; receiver  TOPIC   byte 1, short id, STR name
+ * sender   -&gt; receiver  BATCH   byte 2, short count, count x (short topic id, message)
+ * message                       byte 0, double  - a number
+ *                               byte 1, STR     - anything else
+ * </pre>
+ * A STR is an int byte length followed by the UTF-8 bytes, so text of any length
+ * fits ({@link DataOutputStream#writeUTF} stops at 65535 bytes).
+ * Topic names are sent once per connection and referred to by id afterwards. The
+ * receiver grants a window of credits when the connection opens and returns the
+ * credits of each batch once it has published the batch locally, so a slow node
+ * stops its senders instead of being flooded.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+final class BridgeProtocol {
+    static final int MAGIC = 0x43474231; // "CGB1"
+    static final byte VERSION = 2;
+
+    static final byte TOPIC = 1;
+    static final byte BATCH = 2;
+
+    static final byte NUMBER = 0;
+    static final byte TEXT = 1;
+
+    /** Most messages in one batch */
+    static final int MAX_BATCH = 512;
+    /** Most distinct topics per connection, limited by the short topic id */
+    static final int MAX_TOPICS = Short.MAX_VALUE;
+
+    private BridgeProtocol() {
+    }
+
+    static void writeHello(DataOutputStream out, int nodeId) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(nodeId);
+    }
+
+    /**
+     * Reads the sender's HELLO.
+     *
+     * @return The sender's node id
+     * @throws IOException If the peer does not speak this protocol
+     */
+    static int readHello(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a cluster bridge connection");
+        }
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported bridge protocol version " + version);
+        }
+        return in.readInt();
+    }
+
+    /**
+     * Writes a message as a number when its text is exactly how the number prints,
+     * which is the case for everything agents publish, and as text otherwise.
+     */
+    static void writeMessage(DataOutputStream out, Message msg) throws IOException {
+        if (!Double.isNaN(msg.asDouble) && String.valueOf(msg.asDouble).equals(msg.asText)) {
+            out.writeByte(NUMBER);
+            out.writeDouble(msg.asDouble);
+        } else {
+            out.writeByte(TEXT);
+            writeString(out, msg.asText);
+        }
+    }
+
+    static Message readMessage(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        switch (kind) {
+            case NUMBER:
+                return new Message(in.readDouble());
+            case TEXT:
+                return new Message(readString(in));
+            default:
+                throw new IOException("Unknown message kind " + kind);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
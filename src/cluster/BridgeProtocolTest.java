@@ -0,0 +1,147 @@
+package cluster;
+
+import graph.Message;
+import graph.TopicManagerSingleton;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+public class BridgeProtocolTest {
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Testing Cluster Bridge Protocol ===\n");
+
+        testHello();
+        testMessages();
+        testBadFrames();
+        testLoopback();
+
+        System.out.println(failures == 0 ? "All bridge tests passed" : failures + " bridge test(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void testHello() throws IOException {
+        System.out.println("Test Case 1: HELLO");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BridgeProtocol.writeHello(new DataOutputStream(bytes), 7);
+        check("HELLO is 9 bytes", bytes.size() == 9);
+        check("node id round-trips", BridgeProtocol.readHello(input(bytes.toByteArray())) == 7);
+
+        byte[] badMagic = bytes.toByteArray();
+        badMagic[0] ^= 1;
+        check("wrong magic is rejected", readHelloFails(badMagic));
+        byte[] badVersion = bytes.toByteArray();
+        badVersion[4] = 99;
+        check("wrong version is rejected", readHelloFails(badVersion));
+    }
+
+    private static void testMessages() throws IOException {
+        System.out.println("Test Case 2: Messages");
+        check("number", roundTrip(new Message(2.5), BridgeProtocol.NUMBER, "2.5"));
+        check("negative zero", roundTrip(new Message(-0.0), BridgeProtocol.NUMBER, "-0.0"));
+        check("infinity", roundTrip(new Message(Double.POSITIVE_INFINITY), BridgeProtocol.NUMBER, "Infinity"));
+        check("text", roundTrip(new Message("hello"), BridgeProtocol.TEXT, "hello"));
+        check("number text that prints differently keeps its text", roundTrip(new Message("1"), BridgeProtocol.TEXT, "1"));
+        check("NaN is sent as text", roundTrip(new Message("NaN"), BridgeProtocol.TEXT, "NaN"));
+        check("unicode text", roundTrip(new Message("ünïcødé ✓"), BridgeProtocol.TEXT, "ünïcødé ✓"));
+        String big = "ü".repeat(40 * 1024);
+        check("text longer than 64 KB", roundTrip(new Message(big), BridgeProtocol.TEXT, big));
+    }
+
+    private static void testBadFrames() {
+        System.out.println("Test Case 3: Bad frames");
+        boolean rejected = false;
+        try {
+            BridgeProtocol.readMessage(input(new byte[] {5, 0, 0}));
+        } catch (IOException e) {
+            rejected = true;
+        }
+        check("unknown message kind is rejected", rejected);
+
+        boolean truncated = false;
+        try {
+            BridgeProtocol.readMessage(input(new byte[] {BridgeProtocol.NUMBER, 1, 2}));
+        } catch (IOException e) {
+            truncated = true;
+        }
+        check("truncated number is rejected", truncated);
+    }
+
+    private static void testLoopback() throws Exception {
+        System.out.println("Test Case 4: Sender to receiver over a socket");
+        TopicManagerSingleton.get().clear();
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        // A window smaller than the number of messages makes the sender wait for credits
+        BridgeReceiver receiver = new BridgeReceiver(1, port, 16);
+        receiver.start();
+        BridgeSender sender = new BridgeSender(0, 1, new InetSocketAddress("localhost", port));
+        sender.start();
+
+        int count = 2000;
+        for (int i = 0; i < count; i++) {
+            sender.callback(i % 2 == 0 ? "BRIDGE_A" : "BRIDGE_B", new Message(i));
+        }
+        String big = "x".repeat(70 * 1024);
+        sender.callback("BRIDGE_BIG", new Message(big));
+        sender.callback("BRIDGE_TEXT", new Message("done"));
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (received(receiver) < count + 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        check("every message arrived", received(receiver) == count + 2);
+        check("70 KB message arrived", big.equals(TopicManagerSingleton.get().getTopic("BRIDGE_BIG").getLastMessage()));
+        check("last number on each topic",
+                "1998.0".equals(TopicManagerSingleton.get().getTopic("BRIDGE_A").getLastMessage())
+                        && "1999.0".equals(TopicManagerSingleton.get().getTopic("BRIDGE_B").getLastMessage()));
+        check("text message arrived", "done".equals(TopicManagerSingleton.get().getTopic("BRIDGE_TEXT").getLastMessage()));
+        check("messages were batched (" + sender.getBatchCount() + " batches)", sender.getBatchCount() < count);
+        check("nothing dropped", sender.getDroppedCount() == 0);
+
+        sender.close();
+        receiver.close();
+        TopicManagerSingleton.get().clear();
+    }
+
+    private static long received(BridgeReceiver receiver) {
+        return receiver.getReceivedCounts().containsKey(0) ? receiver.getReceivedCounts().get(0).sum() : 0;
+    }
+
+    private static boolean roundTrip(Message msg, byte expectedKind, String expectedText) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BridgeProtocol.writeMessage(new DataOutputStream(bytes), msg);
+        byte[] encoded = bytes.toByteArray();
+        Message decoded = BridgeProtocol.readMessage(input(encoded));
+        return encoded[0] == expectedKind && decoded.asText.equals(expectedText);
+    }
+
+    private static boolean readHelloFails(byte[] bytes) {
+        try {
+            BridgeProtocol.readHello(input(bytes));
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private static DataInputStream input(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    private static void check(String name, boolean ok) {
+        System.out.println((ok ? "  PASS " : "  FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
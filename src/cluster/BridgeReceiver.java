@@ -0,0 +1,157 @@
+package cluster;
+
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accepts bridge connections from the other cluster nodes and publishes the messages
+ * they send into the local topics. Each connection has its own thread; a batch's
+ * credits are returned once all of its messages have been published.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class BridgeReceiver {
+    public static final int DEFAULT_WINDOW = Integer.getInteger("cluster.window", 4096);
+
+    /** Set while a received message is being published, so bridges don't send it back out */
+    private static final ThreadLocal<Boolean> DELIVERING = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private final int nodeId;
+    private final ServerSocket serverSocket;
+    private final int window;
+    private final List<Socket> connections = new CopyOnWriteArrayList<>();
+    private final Map<Integer, LongAdder> received = new ConcurrentHashMap<>();
+    private volatile boolean stop = false;
+
+    /**
+     * Opens the bridge port.
+     *
+     * @param nodeId This node's id
+     * @param port The port to listen on
+     * @param window How many messages a sender may have in flight
+     */
+    public BridgeReceiver(int nodeId, int port, int window) throws IOException {
+        this.nodeId = nodeId;
+        this.serverSocket = new ServerSocket(port);
+        this.window = window;
+    }
+
+    /**
+     * Returns whether the current thread is publishing a message received from another node.
+     */
+    static boolean isDelivering() {
+        return DELIVERING.get();
+    }
+
+    public void start() {
+        Thread acceptor = new Thread(this::acceptLoop, "bridge-accept-" + nodeId);
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("[BridgeReceiver] Node " + nodeId + " listening on port " + serverSocket.getLocalPort());
+    }
+
+    private void acceptLoop() {
+        while (!stop) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                Thread thread = new Thread(() -> serve(socket), "bridge-recv-" + nodeId);
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!stop) {
+                    System.out.println("[BridgeReceiver] Accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        int peer = -1;
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            peer = BridgeProtocol.readHello(in);
+            Thread.currentThread().setName("bridge-" + peer + "->" + nodeId);
+            System.out.println("[BridgeReceiver] Node " + peer + " connected");
+            LongAdder count = received.computeIfAbsent(peer, p -> new LongAdder());
+            out.writeInt(window);
+            out.flush();
+
+            List<Topic> topics = new ArrayList<>();
+            while (!stop) {
+                byte type = in.readByte();
+                if (type == BridgeProtocol.TOPIC) {
+                    int id = in.readShort();
+                    String name = BridgeProtocol.readString(in);
+                    while (topics.size() <= id) {
+                        topics.add(null);
+                    }
+                    topics.set(id, TopicManagerSingleton.get().getTopic(name));
+                } else if (type == BridgeProtocol.BATCH) {
+                    int size = in.readShort();
+                    DELIVERING.set(Boolean.TRUE);
+                    try {
+                        for (int i = 0; i < size; i++) {
+                            Topic topic = topics.get(in.readShort());
+                            Message msg = BridgeProtocol.readMessage(in);
+                            topic.publish(msg);
+                        }
+                    } finally {
+                        DELIVERING.set(Boolean.FALSE);
+                    }
+                    count.add(size);
+                    out.writeInt(size);
+                    out.flush();
+                } else {
+                    throw new IOException("Unknown frame type " + type);
+                }
+            }
+        } catch (IOException e) {
+            if (!stop) {
+                System.out.println("[BridgeReceiver] Connection from node " + peer + " closed: " + e.getMessage());
+            }
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    /**
+     * Returns how many messages were received from each node.
+     */
+    public Map<Integer, LongAdder> getReceivedCounts() {
+        return received;
+    }
+
+    public void close() {
+        stop = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        for (Socket socket : connections) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+    }
+}
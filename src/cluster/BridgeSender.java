@@ -0,0 +1,237 @@
+package cluster;
+
+import graph.Agent;
+import graph.Message;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Forwards the messages of local topics to one other cluster node.
+ *
+ * The sender subscribes to the topics the other node reads. Messages are queued and
+ * a background thread sends them in batches, as many as the receiver has credits
+ * for. When the receiver falls behind the queue fills up and publishers wait, like
+ * with a blocking mailbox; a message that cannot be queued within the timeout (for
+ * example because the other node is down) is dropped and counted.
+ *
+ * The sender reconnects with a growing delay when the connection fails. Messages of
+ * a batch that was being written when the connection broke are lost.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class BridgeSender implements Agent {
+    public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+    public static final long DEFAULT_TIMEOUT_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 2000;
+
+    private final int nodeId;
+    private final int peerId;
+    private final InetSocketAddress address;
+    private final BlockingQueue<Outgoing> queue;
+    private final long timeoutMs;
+    private final Thread thread;
+    private volatile boolean stop = false;
+    private volatile boolean connected = false;
+    private volatile Socket socket;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public BridgeSender(int nodeId, int peerId, InetSocketAddress address) {
+        this(nodeId, peerId, address, DEFAULT_QUEUE_CAPACITY, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * @param nodeId This node's id
+     * @param peerId The id of the node messages are sent to
+     * @param address The bridge address of that node
+     * @param queueCapacity How many messages may wait to be sent
+     * @param timeoutMs How long a publisher waits for room in the queue before the message is dropped
+     */
+    public BridgeSender(int nodeId, int peerId, InetSocketAddress address, int queueCapacity, long timeoutMs) {
+        this.nodeId = nodeId;
+        this.peerId = peerId;
+        this.address = address;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.timeoutMs = timeoutMs;
+        this.thread = new Thread(this::run, "bridge-" + nodeId + "->" + peerId);
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    @Override
+    public String getName() {
+        return "bridge->" + peerId;
+    }
+
+    @Override
+    public void reset() {
+        queue.clear();
+    }
+
+    @Override
+    public void callback(String topic, Message msg) {
+        // Messages that came from another node are not passed on, they were sent to every reader already
+        if (stop || BridgeReceiver.isDelivering()) {
+            return;
+        }
+        try {
+            if (!queue.offer(new Outgoing(topic, msg), timeoutMs, TimeUnit.MILLISECONDS)) {
+                dropped.increment();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dropped.increment();
+        }
+    }
+
+    private void run() {
+        long backoff = 100;
+        while (!stop) {
+            try (Socket s = new Socket()) {
+                socket = s;
+                s.setTcpNoDelay(true);
+                s.connect(address, (int) MAX_BACKOFF_MS);
+                System.out.println("[BridgeSender] Connected to node " + peerId + " at " + address);
+                connected = true;
+                backoff = 100;
+                session(s);
+            } catch (IOException e) {
+                if (!stop && connected) {
+                    System.out.println("[BridgeSender] Connection to node " + peerId + " lost: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                connected = false;
+            }
+            if (!stop) {
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                backoff = Math.min(MAX_BACKOFF_MS, backoff * 2);
+            }
+        }
+    }
+
+    private void session(Socket s) throws IOException, InterruptedException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 1 << 16));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+        BridgeProtocol.writeHello(out, nodeId);
+        out.flush();
+
+        Map<String, Integer> topicIds = new HashMap<>();
+        List<Outgoing> batch = new ArrayList<>(BridgeProtocol.MAX_BATCH);
+        long credits = 0;
+        while (!stop) {
+            while (in.available() >= Integer.BYTES) {
+                credits += in.readInt();
+            }
+            if (credits == 0) {
+                // Nothing may be sent until the receiver catches up; close() unblocks this
+                credits += in.readInt();
+                continue;
+            }
+            Outgoing first = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (first == null) {
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, (int) Math.min(credits, BridgeProtocol.MAX_BATCH) - 1);
+
+            for (Outgoing o : batch) {
+                if (!topicIds.containsKey(o.topic)) {
+                    if (topicIds.size() >= BridgeProtocol.MAX_TOPICS) {
+                        throw new IOException("Too many bridged topics");
+                    }
+                    int id = topicIds.size();
+                    topicIds.put(o.topic, id);
+                    out.writeByte(BridgeProtocol.TOPIC);
+                    out.writeShort(id);
+                    BridgeProtocol.writeString(out, o.topic);
+                }
+            }
+            out.writeByte(BridgeProtocol.BATCH);
+            out.writeShort(batch.size());
+            for (Outgoing o : batch) {
+                out.writeShort(topicIds.get(o.topic));
+                BridgeProtocol.writeMessage(out, o.msg);
+            }
+            out.flush();
+
+            credits -= batch.size();
+            sent.add(batch.size());
+            batches.increment();
+            batch.clear();
+        }
+    }
+
+    public int getPeerId() {
+        return peerId;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    @Override
+    public void close() {
+        stop = true;
+        thread.interrupt();
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+    }
+
+    private static final class Outgoing {
+        final String topic;
+        final Message msg;
+
+        Outgoing(String topic, Message msg) {
+            this.topic = topic;
+            this.msg = msg;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package cluster;
+
+import configs.AgentSpec;
+import configs.Graph;
+import graph.TopicManagerSingleton;
+import servlets.ConfLoader;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * One server process of a cluster that runs a single configuration split over several
+ * processes.
+ *
+ * Every node loads the same configuration file and computes the same partitions with
+ * the {@link Partitioner}, then creates only the agents of its own partition. For each
+ * topic that crosses partitions, the nodes that publish it (or every node, for input
+ * topics, which are published over HTTP) forward its messages to the nodes that read
+ * it, through a {@link BridgeSender} per peer and the peer's {@link BridgeReceiver}.
+ *
+ * A node is configured with system properties:
+ * <ul>
+ *   <li><strong>cluster.nodes</strong> - bridge addresses of all nodes, e.g. {@code localhost:9001,localhost:9002}</li>
+ *   <li><strong>cluster.id</strong> - this node's index in that list</li>
+ *   <li><strong>cluster.config</strong> - the configuration file, the same on every node</li>
+ *   <li><strong>cluster.imbalance</strong> - allowed partition size imbalance, default 0.1</li>
+ *   <li><strong>cluster.window</strong> - messages a peer may have in flight to this node, default 4096</li>
+ * </ul>
+ *
+ * Each node's /graph-data shows its own partition. Publish-and-await waits for the
+ * local part of a wave only.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class ClusterNode {
+    private static volatile ClusterNode current;
+
+    private final int id;
+    private final List<InetSocketAddress> nodes;
+    private final double imbalance;
+    private final List<BridgeSender> senders = new ArrayList<>();
+    private BridgeReceiver receiver;
+    private Partitioner.Assignment assignment;
+    /** Topics this node forwards, per peer node id */
+    private final Map<Integer, Set<String>> routes = new TreeMap<>();
+
+    public ClusterNode(int id, List<InetSocketAddress> nodes, double imbalance) {
+        if (id < 0 || id >= nodes.size()) {
+            throw new IllegalArgumentException("Node id " + id + " is not in the list of " + nodes.size() + " nodes");
+        }
+        this.id = id;
+        this.nodes = nodes;
+        this.imbalance = imbalance;
+    }
+
+    /**
+     * Creates a node from the cluster.* system properties.
+     *
+     * @return The node, or null if cluster.nodes is not set
+     */
+    public static ClusterNode fromSystemProperties() {
+        String list = System.getProperty("cluster.nodes");
+        if (list == null || list.isEmpty()) {
+            return null;
+        }
+        List<InetSocketAddress> nodes = new ArrayList<>();
+        for (String entry : list.split(",")) {
+            String hostPort = entry.trim();
+            int colon = hostPort.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Invalid cluster node address '" + hostPort + "', expected host:port");
+            }
+            nodes.add(new InetSocketAddress(hostPort.substring(0, colon), Integer.parseInt(hostPort.substring(colon + 1))));
+        }
+        double imbalance = Double.parseDouble(System.getProperty("cluster.imbalance", String.valueOf(Partitioner.DEFAULT_IMBALANCE)));
+        return new ClusterNode(Integer.getInteger("cluster.id", 0), nodes, imbalance);
+    }
+
+    /**
+     * Returns the node running in this process, or null when not in cluster mode.
+     */
+    public static ClusterNode getCurrent() {
+        return current;
+    }
+
+    /**
+     * Loads this node's partition of a configuration and connects it to the other nodes.
+     * Uploading other configurations is disabled, as the other nodes would not follow.
+     *
+     * @param config The configuration file, the same on every node
+     * @return The graph of this node's partition
+     */
+    public Graph start(Path config) throws IOException {
+        ConfLoader.setPartitionFilter(this::selectPartition);
+        ConfLoader.setUploadsEnabled(false);
+        Graph graph = ConfLoader.loadConfig(config);
+
+        receiver = new BridgeReceiver(id, nodes.get(id).getPort(), BridgeReceiver.DEFAULT_WINDOW);
+        receiver.start();
+        for (Map.Entry<Integer, Set<String>> route : routes.entrySet()) {
+            BridgeSender sender = new BridgeSender(id, route.getKey(), nodes.get(route.getKey()));
+            for (String topic : route.getValue()) {
+                TopicManagerSingleton.get().getTopic(topic).subscribe(sender);
+            }
+            sender.start();
+            senders.add(sender);
+        }
+        current = this;
+        return graph;
+    }
+
+    /**
+     * Partitions the agents of the configuration, records which topics go to which
+     * peer and keeps the agents of this node.
+     */
+    private List<AgentSpec> selectPartition(List<AgentSpec> specs) {
+        Graph graph = new Graph();
+        graph.createFromSpecs(specs);
+        assignment = Partitioner.partition(graph, nodes.size(), imbalance);
+
+        Map<String, Set<Integer>> publishers = new TreeMap<>();
+        Map<String, Set<Integer>> readers = new TreeMap<>();
+        List<AgentSpec> local = new ArrayList<>();
+        for (int i = 0; i < specs.size(); i++) {
+            AgentSpec spec = specs.get(i);
+            int partition = assignment.getPartition("A#" + i);
+            for (String pub : spec.getPubs()) {
+                publishers.computeIfAbsent(pub, t -> new TreeSet<>()).add(partition);
+            }
+            for (String sub : spec.getSubs()) {
+                readers.computeIfAbsent(sub, t -> new TreeSet<>()).add(partition);
+            }
+            if (partition == id) {
+                local.add(spec);
+            }
+        }
+
+        routes.clear();
+        for (Map.Entry<String, Set<Integer>> topic : readers.entrySet()) {
+            Set<Integer> from = publishers.get(topic.getKey());
+            // Input topics can be published over HTTP on any node
+            if (from != null && !from.contains(id)) {
+                continue;
+            }
+            for (int peer : topic.getValue()) {
+                if (peer != id) {
+                    routes.computeIfAbsent(peer, p -> new TreeSet<>()).add(topic.getKey());
+                }
+            }
+        }
+
+        System.out.println("[ClusterNode] Node " + id + " of " + nodes.size() + ": " + assignment
+                + "; running " + local.size() + " agent(s), forwarding " + routes);
+        return local;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Partitioner.Assignment getAssignment() {
+        return assignment;
+    }
+
+    /**
+     * Returns the topics forwarded to each peer.
+     */
+    public Map<Integer, Set<String>> getRoutes() {
+        return Collections.unmodifiableMap(routes);
+    }
+
+    public List<BridgeSender> getSenders() {
+        return Collections.unmodifiableList(senders);
+    }
+
+    public BridgeReceiver getReceiver() {
+        return receiver;
+    }
+
+    public void close() {
+        for (BridgeSender sender : senders) {
+            sender.close();
+        }
+        if (receiver != null) {
+            receiver.close();
+        }
+        if (current == this) {
+            current = null;
+        }
+    }
+}
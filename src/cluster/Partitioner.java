@@ -0,0 +1,265 @@
+package cluster;
+
+import configs.Graph;
+import configs.Node;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits the agents of a graph into partitions, one per cluster node, keeping the
+ * number of topics that cross partitions low.
+ *
+ * Every topic links the agents that publish and read it. A topic whose agents are in
+ * {@code k} partitions has to be bridged {@code k - 1} times, so the cost minimized is
+ * the sum of {@code k - 1} over all topics. Partitions hold at most
+ * {@code ceil(agents / parts * (1 + imbalance))} agents.
+ *
+ * Agents are first placed greedily in breadth-first order through the topics, each
+ * going to the partition that already holds most of its topics, weighted by how much
+ * room is left there. Then single agents are moved between partitions as long as a
+ * move lowers the cost. The result only depends on the graph, so every node computes
+ * the same partitions.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class Partitioner {
+    public static final double DEFAULT_IMBALANCE = 0.1;
+    private static final int REFINE_PASSES = 10;
+
+    private Partitioner() {
+    }
+
+    /**
+     * Partitions the agent nodes (names starting with "A") of a graph.
+     *
+     * @param graph A graph of topic and agent nodes, e.g. from {@link Graph#createFromSpecs}
+     * @param parts The number of partitions
+     * @param imbalance How much larger than an even share a partition may get, e.g. 0.1 for 10%
+     * @return The partition of every agent node
+     */
+    public static Assignment partition(Graph graph, int parts, double imbalance) {
+        if (parts < 1) {
+            throw new IllegalArgumentException("Need at least one partition");
+        }
+
+        // Index the agents and, per topic, the agents that publish or read it
+        List<Node> agents = new ArrayList<>();
+        Map<Node, Integer> agentIndex = new HashMap<>();
+        Map<Node, List<Integer>> topicMembers = new HashMap<>();
+        List<Node> topics = new ArrayList<>();
+        for (Node node : graph) {
+            if (node.getName().startsWith("A")) {
+                agentIndex.put(node, agents.size());
+                agents.add(node);
+            } else {
+                topics.add(node);
+                topicMembers.put(node, new ArrayList<>());
+            }
+        }
+        for (Node topic : topics) {
+            for (Node sub : topic.getEdges()) {
+                addMember(topicMembers.get(topic), agentIndex.get(sub));
+            }
+        }
+        for (int a = 0; a < agents.size(); a++) {
+            for (Node pub : agents.get(a).getEdges()) {
+                addMember(topicMembers.get(pub), a);
+            }
+        }
+
+        int[][] members = new int[topics.size()][];
+        List<List<Integer>> agentTopicLists = new ArrayList<>();
+        for (int a = 0; a < agents.size(); a++) {
+            agentTopicLists.add(new ArrayList<>());
+        }
+        for (int t = 0; t < topics.size(); t++) {
+            List<Integer> list = topicMembers.get(topics.get(t));
+            members[t] = list.stream().mapToInt(Integer::intValue).toArray();
+            for (int a : members[t]) {
+                agentTopicLists.get(a).add(t);
+            }
+        }
+        int[][] agentTopics = new int[agents.size()][];
+        for (int a = 0; a < agents.size(); a++) {
+            agentTopics[a] = agentTopicLists.get(a).stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        int capacity = Math.max((agents.size() + parts - 1) / parts,
+                (int) Math.ceil(agents.size() / (double) parts * (1 + imbalance)));
+        int[] partOf = new int[agents.size()];
+        Arrays.fill(partOf, -1);
+        int[] sizes = new int[parts];
+        // presence[t][p] = agents of topic t in partition p
+        int[][] presence = new int[topics.size()][parts];
+
+        for (int a : breadthFirstOrder(agents.size(), members, agentTopics)) {
+            int best = -1;
+            double bestScore = -1;
+            for (int p = 0; p < parts; p++) {
+                if (sizes[p] >= capacity) {
+                    continue;
+                }
+                int shared = 0;
+                for (int t : agentTopics[a]) {
+                    if (presence[t][p] > 0) {
+                        shared++;
+                    }
+                }
+                double score = (shared + 1) * (1 - sizes[p] / (double) capacity);
+                if (score > bestScore || (score == bestScore && sizes[p] < sizes[best])) {
+                    best = p;
+                    bestScore = score;
+                }
+            }
+            move(a, -1, best, partOf, sizes, presence, agentTopics);
+        }
+
+        for (int pass = 0; pass < REFINE_PASSES; pass++) {
+            boolean moved = false;
+            for (int a = 0; a < agents.size(); a++) {
+                int from = partOf[a];
+                int best = from;
+                int bestGain = 0;
+                for (int to = 0; to < parts; to++) {
+                    if (to == from || sizes[to] >= capacity) {
+                        continue;
+                    }
+                    int gain = 0;
+                    for (int t : agentTopics[a]) {
+                        if (presence[t][from] == 1) gain++;
+                        if (presence[t][to] == 0) gain--;
+                    }
+                    if (gain > bestGain) {
+                        best = to;
+                        bestGain = gain;
+                    }
+                }
+                if (best != from) {
+                    move(a, from, best, partOf, sizes, presence, agentTopics);
+                    moved = true;
+                }
+            }
+            if (!moved) {
+                break;
+            }
+        }
+
+        int cut = 0;
+        for (int[] counts : presence) {
+            int spanned = 0;
+            for (int count : counts) {
+                if (count > 0) spanned++;
+            }
+            cut += Math.max(0, spanned - 1);
+        }
+        Map<String, Integer> byName = new HashMap<>();
+        for (int a = 0; a < agents.size(); a++) {
+            byName.put(agents.get(a).getName(), partOf[a]);
+        }
+        return new Assignment(byName, sizes, cut);
+    }
+
+    private static void addMember(List<Integer> members, Integer agent) {
+        if (agent != null && !members.contains(agent)) {
+            members.add(agent);
+        }
+    }
+
+    private static void move(int agent, int from, int to, int[] partOf, int[] sizes, int[][] presence, int[][] agentTopics) {
+        if (from >= 0) {
+            sizes[from]--;
+            for (int t : agentTopics[agent]) {
+                presence[t][from]--;
+            }
+        }
+        partOf[agent] = to;
+        sizes[to]++;
+        for (int t : agentTopics[agent]) {
+            presence[t][to]++;
+        }
+    }
+
+    /**
+     * Orders the agents so that agents sharing a topic come close together, starting a
+     * new search from the first unvisited agent whenever one runs out.
+     */
+    private static int[] breadthFirstOrder(int agentCount, int[][] members, int[][] agentTopics) {
+        int[] order = new int[agentCount];
+        boolean[] seen = new boolean[agentCount];
+        boolean[] topicSeen = new boolean[members.length];
+        Deque<Integer> todo = new ArrayDeque<>();
+        int n = 0;
+        for (int start = 0; start < agentCount; start++) {
+            if (seen[start]) {
+                continue;
+            }
+            seen[start] = true;
+            todo.add(start);
+            while (!todo.isEmpty()) {
+                int a = todo.poll();
+                order[n++] = a;
+                for (int t : agentTopics[a]) {
+                    if (topicSeen[t]) {
+                        continue;
+                    }
+                    topicSeen[t] = true;
+                    for (int next : members[t]) {
+                        if (!seen[next]) {
+                            seen[next] = true;
+                            todo.add(next);
+                        }
+                    }
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * The result of partitioning.
+     */
+    public static class Assignment {
+        private final Map<String, Integer> partitions;
+        private final int[] sizes;
+        private final int cut;
+
+        Assignment(Map<String, Integer> partitions, int[] sizes, int cut) {
+            this.partitions = partitions;
+            this.sizes = sizes;
+            this.cut = cut;
+        }
+
+        /**
+         * Returns the partition of an agent node, or -1 if the graph had no such agent.
+         */
+        public int getPartition(String agentNode) {
+            return partitions.getOrDefault(agentNode, -1);
+        }
+
+        /**
+         * Returns the number of agents in each partition.
+         */
+        public int[] getSizes() {
+            return sizes.clone();
+        }
+
+        /**
+         * Returns how many topic bridges the partitions need: the sum over all topics of
+         * the number of partitions the topic's agents are in, minus one.
+         */
+        public int getCut() {
+            return cut;
+        }
+
+        @Override
+        public String toString() {
+            return "partition sizes " + Arrays.toString(sizes) + ", " + cut + " bridged topic(s)";
+        }
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * Running one computational graph across several server processes.
+ *
+ * <ul>
+ *   <li><strong>ClusterNode</strong> - Loads this process's partition of a configuration and connects it to the other nodes</li>
+ *   <li><strong>Partitioner</strong> - Splits the agents into balanced partitions with few topics crossing between them</li>
+ *   <li><strong>BridgeSender</strong> - Forwards local topics to another node in credit-limited batches</li>
+ *   <li><strong>BridgeReceiver</strong> - Publishes the messages other nodes send into the local topics</li>
+ *   <li><strong>BridgeProtocol</strong> - The binary wire format between nodes</li>
+ * </ul>
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+package cluster;
@@ -0,0 +1,152 @@
+package configs;
+
+import graph.Agent;
+
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parsed description of one agent in a configuration file.
+ *
+ * Each agent takes three lines in the file: the class line, the subscriptions
+ * and the publications. The class line may carry options after the class name,
+ * separated from it by whitespace and from each other by semicolons:
+ * <pre>
+ * configs.WindowAgent stat=mean;window=20
+ * PRICE
+ * AVG
+ * </pre>
+ * Agents that accept options declare a constructor
+ * {@code (String[] subs, String[] pubs, Map<String, String> options)};
+ * other agents are created with {@code (String[] subs, String[] pubs)}.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class AgentSpec {
+    private final String className;
+    private final String[] subs;
+    private final String[] pubs;
+    private final Map<String, String> options;
+
+    public AgentSpec(String className, String[] subs, String[] pubs, Map<String, String> options) {
+        this.className = className;
+        this.subs = subs;
+        this.pubs = pubs;
+        this.options = options;
+    }
+
+    /**
+     * Parses the three configuration lines describing an agent.
+     *
+     * @param classLine The class name, optionally followed by options
+     * @param subsLine Comma-separated input topics
+     * @param pubsLine Comma-separated output topics
+     * @return The parsed specification
+     */
+    public static AgentSpec parse(String classLine, String subsLine, String pubsLine) {
+        String line = classLine.trim();
+        String className = line;
+        Map<String, String> options = new LinkedHashMap<>();
+
+        int space = indexOfWhitespace(line);
+        if (space > 0) {
+            className = line.substring(0, space);
+            for (String option : line.substring(space + 1).split(";")) {
+                option = option.trim();
+                if (option.isEmpty()) {
+                    continue;
+                }
+                int eq = option.indexOf('=');
+                if (eq <= 0) {
+                    throw new IllegalArgumentException("Invalid option '" + option + "' for " + className + ", expected key=value");
+                }
+                options.put(option.substring(0, eq).trim(), option.substring(eq + 1).trim());
+            }
+        }
+        return new AgentSpec(className, splitTopics(subsLine), splitTopics(pubsLine), options);
+    }
+
+    private static int indexOfWhitespace(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isWhitespace(s.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String[] splitTopics(String line) {
+        String[] topics = line.split(",");
+        for (int i = 0; i < topics.length; i++) {
+            topics[i] = topics[i].trim();
+        }
+        return topics;
+    }
+
+    /**
+     * Creates the agent described by this specification.
+     *
+     * @return The new agent
+     * @throws ReflectiveOperationException If the class cannot be instantiated
+     */
+    public Agent instantiate() throws ReflectiveOperationException {
+        Class<?> clazz = Class.forName(className);
+        if (!Agent.class.isAssignableFrom(clazz)) {
+            throw new IllegalArgumentException("Class " + className + " does not implement Agent interface");
+        }
+
+        Object agentInstance;
+        Constructor<?> withOptions = findOptionsConstructor(clazz);
+        if (withOptions != null) {
+            agentInstance = withOptions.newInstance((Object) subs, (Object) pubs, options);
+        } else {
+            agentInstance = clazz.getConstructor(String[].class, String[].class)
+                    .newInstance((Object) subs, (Object) pubs);
+        }
+        return (Agent) agentInstance;
+    }
+
+    private static Constructor<?> findOptionsConstructor(Class<?> clazz) {
+        try {
+            return clazz.getConstructor(String[].class, String[].class, Map.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String[] getSubs() {
+        return subs;
+    }
+
+    public String[] getPubs() {
+        return pubs;
+    }
+
+    public Map<String, String> getOptions() {
+        return Collections.unmodifiableMap(options);
+    }
+
+    /**
+     * Returns the value of an option.
+     *
+     * @param key The option name
+     * @param defaultValue The value to return if the option is not set
+     * @return The option value or the default
+     */
+    public String getOption(String key, String defaultValue) {
+        return options.getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public String toString() {
+        return className + (options.isEmpty() ? "" : " " + options)
+                + " " + Arrays.toString(subs) + " -> " + Arrays.toString(pubs);
+    }
+}
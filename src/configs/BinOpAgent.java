@@ -2,13 +2,13 @@ package configs;
 
 import java.util.function.BinaryOperator;
 
-import graph.Agent;
 import graph.Message;
+import graph.StatefulAgent;
 import graph.Topic;
 import graph.TopicManagerSingleton;
 import graph.TopicManagerSingleton.TopicManager;
 
-public class BinOpAgent implements Agent {
+public class BinOpAgent implements StatefulAgent {
 
     private final String name;
     private final String firstInputTopic;
@@ -68,6 +68,18 @@ public class BinOpAgent implements Agent {
         }
     }
 
+    @Override
+    public String saveState() {
+        return firstInputValue + "," + secondInputValue;
+    }
+
+    @Override
+    public void restoreState(String state) {
+        String[] parts = state.split(",");
+        firstInputValue = "null".equals(parts[0]) ? null : Double.valueOf(parts[0]);
+        secondInputValue = "null".equals(parts[1]) ? null : Double.valueOf(parts[1]);
+    }
+
     @Override
     public void close() {
 
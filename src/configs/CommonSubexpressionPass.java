@@ -0,0 +1,128 @@
+package configs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Config optimization that removes agents computing the same thing twice.
+ *
+ * Two agents are identical when they have the same class, the same options and
+ * subscribe to the same topics in the same order. Only the first one is created;
+ * the output topics of each duplicate become aliases of the kept agent's outputs
+ * in the {@link graph.TopicManagerSingleton.TopicManager}, so readers, publishers
+ * and downstream agents of the duplicate's topics see the kept agent's values.
+ * Inputs are compared after resolving aliases and the pass repeats until nothing
+ * changes, so duplicate chains collapse completely.
+ *
+ * A duplicate is only removed when it is the sole publisher of its output topics,
+ * otherwise aliasing would merge values from unrelated agents.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class CommonSubexpressionPass {
+
+    private CommonSubexpressionPass() {
+    }
+
+    /**
+     * Removes duplicate agents from a config.
+     *
+     * @param specs The agents of the config, in file order
+     * @param aliases Receives the topic aliases to register, keyed by alias name
+     * @param report Receives one line per removed agent
+     * @return The remaining agents, with subscriptions rewritten to canonical topic names
+     */
+    public static List<AgentSpec> apply(List<AgentSpec> specs, Map<String, String> aliases, List<String> report) {
+        Map<String, Integer> publisherCount = new HashMap<>();
+        for (AgentSpec spec : specs) {
+            for (String t : spec.getPubs()) {
+                publisherCount.merge(t, 1, Integer::sum);
+            }
+        }
+
+        List<AgentSpec> remaining = new ArrayList<>(specs);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            Map<String, AgentSpec> seen = new HashMap<>();
+            for (int i = 0; i < remaining.size(); i++) {
+                AgentSpec spec = remaining.get(i);
+                String key = keyOf(spec, aliases);
+                AgentSpec kept = seen.putIfAbsent(key, spec);
+                if (kept == null || !canAlias(spec, kept, aliases, publisherCount)) {
+                    continue;
+                }
+                for (int p = 0; p < spec.getPubs().length; p++) {
+                    String target = resolve(kept.getPubs()[p], aliases);
+                    aliases.put(spec.getPubs()[p], target);
+                }
+                report.add("Removed duplicate " + spec + ", outputs aliased to " + String.join(",", kept.getPubs()));
+                remaining.remove(i);
+                i--;
+                changed = true;
+            }
+        }
+
+        // Point aliases directly at their final target
+        for (Map.Entry<String, String> e : aliases.entrySet()) {
+            e.setValue(resolve(e.getValue(), aliases));
+        }
+
+        List<AgentSpec> result = new ArrayList<>();
+        for (AgentSpec spec : remaining) {
+            String[] subs = new String[spec.getSubs().length];
+            for (int i = 0; i < subs.length; i++) {
+                subs[i] = resolve(spec.getSubs()[i], aliases);
+            }
+            result.add(new AgentSpec(spec.getClassName(), subs, spec.getPubs(), new HashMap<>(spec.getOptions())));
+        }
+        return result;
+    }
+
+    private static boolean canAlias(AgentSpec duplicate, AgentSpec kept, Map<String, String> aliases,
+                                    Map<String, Integer> publisherCount) {
+        for (String out : duplicate.getPubs()) {
+            if (out.isEmpty() || publisherCount.getOrDefault(out, 0) != 1 || aliases.containsKey(out)) {
+                return false;
+            }
+            // An agent reading its own output would alias a topic onto itself
+            for (String in : duplicate.getSubs()) {
+                if (resolve(in, aliases).equals(out)) {
+                    return false;
+                }
+            }
+        }
+        for (int p = 0; p < duplicate.getPubs().length; p++) {
+            if (resolve(kept.getPubs()[p], aliases).equals(duplicate.getPubs()[p])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String keyOf(AgentSpec spec, Map<String, String> aliases) {
+        StringBuilder key = new StringBuilder(spec.getClassName());
+        key.append('|').append(new TreeMap<>(spec.getOptions()));
+        key.append('|');
+        for (String in : spec.getSubs()) {
+            key.append(resolve(in, aliases)).append(',');
+        }
+        key.append('|').append(spec.getPubs().length);
+        return key.toString();
+    }
+
+    private static String resolve(String topic, Map<String, String> aliases) {
+        String current = topic;
+        for (int hops = 0; hops <= aliases.size(); hops++) {
+            String next = aliases.get(current);
+            if (next == null) {
+                return current;
+            }
+            current = next;
+        }
+        throw new IllegalStateException("Alias cycle at topic " + topic);
+    }
+}
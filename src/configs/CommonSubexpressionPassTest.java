@@ -0,0 +1,131 @@
+package configs;
+
+import graph.Agent;
+import graph.Message;
+import graph.TopicManagerSingleton;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class CommonSubexpressionPassTest {
+    /** Agents of the test graph: class line, subscriptions, publications */
+    private static final String[][] CONFIG = {
+            {"configs.PlusAgent", "A,B", "C1"},
+            {"configs.PlusAgent", "A,B", "C2"},
+            {"configs.MulAgent", "C1,Y", "Z1"},
+            {"configs.MulAgent", "C2,Y", "Z2"},
+            {"configs.PlusAgent", "B,A", "C3"},
+            {"configs.SubAgent", "Z2,C3", "W"},
+            {"configs.ExpressionAgent expr=A*2", "A", "E1"},
+            {"configs.ExpressionAgent expr=A*3", "A", "E2"},
+            {"configs.PlusAgent", "A,B", "P"},
+            {"configs.IncAgent", "Y", "P"},
+    };
+    private static final String[] INPUTS = {"A", "B", "Y"};
+    private static final String[] OBSERVED = {"C1", "C2", "C3", "Z1", "Z2", "W", "E1", "E2"};
+    private static int failures = 0;
+
+    public static void main(String[] args) throws ReflectiveOperationException {
+        System.out.println("=== Testing Common Subexpression Pass ===\n");
+
+        testDuplicatesAreRemoved();
+        testOptimizedGraphComputesTheSameValues();
+
+        System.out.println(failures == 0 ? "All CSE tests passed" : failures + " CSE test(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void testDuplicatesAreRemoved() {
+        System.out.println("Test Case 1: Duplicates are removed");
+        Map<String, String> aliases = new LinkedHashMap<>();
+        List<String> report = new ArrayList<>();
+        List<AgentSpec> remaining = CommonSubexpressionPass.apply(specs(), aliases, report);
+        check("duplicate PlusAgent is aliased", "C1".equals(aliases.get("C2")));
+        check("duplicate chain collapses", "Z1".equals(aliases.get("Z2")));
+        check("inputs in another order are not a duplicate", !aliases.containsKey("C3"));
+        check("different options are not a duplicate", !aliases.containsKey("E2"));
+        check("topic with two publishers is kept", !aliases.containsKey("P"));
+        check("two agents removed", remaining.size() == CONFIG.length - 2 && report.size() == 2);
+        boolean rewritten = false;
+        for (AgentSpec spec : remaining) {
+            if (spec.getPubs()[0].equals("W")) {
+                rewritten = spec.getSubs()[0].equals("Z1");
+            }
+        }
+        check("subscriptions use the kept topic", rewritten);
+    }
+
+    private static void testOptimizedGraphComputesTheSameValues() throws ReflectiveOperationException {
+        System.out.println("Test Case 2: Optimized graph computes the same values");
+        List<String> plain = run(false);
+        List<String> optimized = run(true);
+        int firstDifference = -1;
+        for (int i = 0; i < Math.min(plain.size(), optimized.size()) && firstDifference < 0; i++) {
+            if (!plain.get(i).equals(optimized.get(i))) {
+                firstDifference = i;
+            }
+        }
+        check("same number of observations", plain.size() == optimized.size());
+        check("values match after every publish"
+                + (firstDifference >= 0 ? ": " + plain.get(firstDifference) + " vs " + optimized.get(firstDifference) : ""),
+                firstDifference < 0);
+    }
+
+    /**
+     * Publishes the same random values to the graph's inputs and records the value of
+     * every observed topic, read through its alias if it has one, after each publish.
+     */
+    private static List<String> run(boolean cse) throws ReflectiveOperationException {
+        TopicManagerSingleton.get().clear();
+        List<AgentSpec> specs = specs();
+        if (cse) {
+            Map<String, String> aliases = new LinkedHashMap<>();
+            specs = CommonSubexpressionPass.apply(specs, aliases, new ArrayList<>());
+            for (Map.Entry<String, String> alias : aliases.entrySet()) {
+                TopicManagerSingleton.get().alias(alias.getKey(), alias.getValue());
+            }
+        }
+        List<Agent> agents = new ArrayList<>();
+        for (AgentSpec spec : specs) {
+            agents.add(spec.instantiate());
+        }
+
+        Random random = new Random(3);
+        List<String> observations = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            String input = INPUTS[random.nextInt(INPUTS.length)];
+            String message = Integer.toString(random.nextInt(21) - 10);
+            TopicManagerSingleton.get().getTopic(input).publish(new Message(message));
+            StringBuilder line = new StringBuilder(input + "=" + message + ":");
+            for (String topic : OBSERVED) {
+                line.append(' ').append(topic).append('=').append(TopicManagerSingleton.get().getTopic(topic).getLastMessage());
+            }
+            observations.add(line.toString());
+        }
+        for (Agent agent : agents) {
+            agent.close();
+        }
+        TopicManagerSingleton.get().clear();
+        return observations;
+    }
+
+    private static List<AgentSpec> specs() {
+        List<AgentSpec> specs = new ArrayList<>();
+        for (String[] agent : CONFIG) {
+            specs.add(AgentSpec.parse(agent[0], agent[1], agent[2]));
+        }
+        return specs;
+    }
+
+    private static void check(String name, boolean ok) {
+        System.out.println((ok ? "  PASS " : "  FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
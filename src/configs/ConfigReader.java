@@ -0,0 +1,130 @@
+package configs;
+
+import graph.Agent;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a configuration one line at a time, so a configuration arriving over the network
+ * is checked while it arrives and never held whole in memory.
+ *
+ * Each complete agent is parsed into an {@link AgentSpec} as soon as its third line is
+ * read, and its class is looked up, so a bad agent is reported with its line number
+ * before the rest of the file is read. Blank lines and comments are skipped; directives
+ * ({@code #!name=value}) are collected for {@link GenericConfig} to apply.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class ConfigReader {
+    static final String DIRECTIVE_PREFIX = "#!";
+
+    private final String source;
+    private final List<AgentSpec> specs = new ArrayList<>();
+    private final List<String> directives = new ArrayList<>();
+    private final String[] pending = new String[2];
+    private int pendingCount = 0;
+    private int lineNumber = 0;
+    private int agentLine = 0;
+
+    /**
+     * @param source The file or upload being read, used in error messages
+     */
+    public ConfigReader(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Reads a whole configuration file.
+     */
+    public static ConfigReader read(String file) throws IOException {
+        ConfigReader config = new ConfigReader(file);
+        try (BufferedReader reader = Files.newBufferedReader(Path.of(file), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                config.line(line);
+            }
+        }
+        return config;
+    }
+
+    /**
+     * Reads the next line.
+     *
+     * @throws IllegalArgumentException If the line completes an agent that is not valid
+     */
+    public void line(String line) {
+        lineNumber++;
+        String trimmed = line.trim();
+        if (trimmed.startsWith(DIRECTIVE_PREFIX)) {
+            directives.add(trimmed.substring(DIRECTIVE_PREFIX.length()));
+            return;
+        }
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return;
+        }
+        if (pendingCount < pending.length) {
+            if (pendingCount == 0) {
+                agentLine = lineNumber;
+            }
+            pending[pendingCount++] = trimmed;
+            return;
+        }
+        pendingCount = 0;
+        try {
+            AgentSpec spec = AgentSpec.parse(pending[0], pending[1], trimmed);
+            checkClass(spec.getClassName());
+            specs.add(spec);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Line " + agentLine + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void checkClass(String className) {
+        Class<?> clazz;
+        try {
+            clazz = Class.forName(className, false, ConfigReader.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Class not found: " + className);
+        }
+        if (!Agent.class.isAssignableFrom(clazz)) {
+            throw new IllegalArgumentException("Class " + className + " does not implement Agent interface");
+        }
+    }
+
+    /**
+     * Returns whether no agent line has been read yet.
+     */
+    public boolean isEmpty() {
+        return specs.isEmpty() && pendingCount == 0;
+    }
+
+    /**
+     * Ends the configuration and returns its agents.
+     *
+     * @throws IllegalArgumentException If the last agent has fewer than three lines
+     */
+    public List<AgentSpec> finish() {
+        if (pendingCount != 0) {
+            throw new IllegalArgumentException("Invalid config file: " + source + " (the agent on line "
+                    + agentLine + " needs 3 lines: class name, subscriptions, publications)");
+        }
+        return specs;
+    }
+
+    /**
+     * Returns the directives in the order they appeared, without the "#!" prefix.
+     */
+    public List<String> getDirectives() {
+        return directives;
+    }
+
+    public String getSource() {
+        return source;
+    }
+}
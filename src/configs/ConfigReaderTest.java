@@ -0,0 +1,136 @@
+package configs;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class ConfigReaderTest {
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("=== Testing Config Reader ===\n");
+
+        testValidConfig();
+        testOptions();
+        testBadAgents();
+        testIncompleteConfigs();
+        testReadFile();
+
+        System.out.println(failures == 0 ? "All config reader tests passed" : failures + " config reader test(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void testValidConfig() {
+        System.out.println("Test Case 1: Agents, blank lines, comments and directives");
+        ConfigReader reader = read(
+                "#!fuse=false",
+                "# two agents",
+                "",
+                "configs.PlusAgent",
+                "  A , B ",
+                "C",
+                "",
+                "   #!glitchfree=true  ",
+                "configs.IncAgent",
+                "C",
+                "D");
+        List<AgentSpec> specs = reader.finish();
+        check("two agents", specs.size() == 2);
+        check("class names", specs.get(0).getClassName().equals("configs.PlusAgent")
+                && specs.get(1).getClassName().equals("configs.IncAgent"));
+        check("topics are trimmed", List.of(specs.get(0).getSubs()).equals(List.of("A", "B"))
+                && List.of(specs.get(0).getPubs()).equals(List.of("C")));
+        check("directives in order without the prefix", reader.getDirectives().equals(List.of("fuse=false", "glitchfree=true")));
+        check("agent without options has none", specs.get(1).getOptions().isEmpty());
+        check("source is kept", reader.getSource().equals("test"));
+    }
+
+    private static void testOptions() {
+        System.out.println("Test Case 2: Options on the class line");
+        List<AgentSpec> specs = read("configs.WindowAgent  stat=variance; window=20 ;", "PRICE", "VAR").finish();
+        check("class name stops at the whitespace", specs.get(0).getClassName().equals("configs.WindowAgent"));
+        check("options are parsed", "variance".equals(specs.get(0).getOption("stat", null))
+                && "20".equals(specs.get(0).getOption("window", null)) && specs.get(0).getOptions().size() == 2);
+        check("missing option uses the default", specs.get(0).getOption("other", "x").equals("x"));
+        check("option without a value is rejected",
+                error("configs.WindowAgent stat", "PRICE", "VAR").startsWith("Line 1: Invalid option 'stat'"));
+    }
+
+    private static void testBadAgents() {
+        System.out.println("Test Case 3: Bad agents are reported with their line number");
+        String notFound = error("configs.PlusAgent", "A,B", "C", "", "# next", "configs.NoSuchAgent", "X", "Y");
+        check("unknown class on line 6", notFound.equals("Line 6: Class not found: configs.NoSuchAgent"));
+        String notAgent = error("configs.Graph", "A", "B");
+        check("class that is not an agent", notAgent.equals("Line 1: Class configs.Graph does not implement Agent interface"));
+
+        ConfigReader reader = new ConfigReader("test");
+        reader.line("configs.NoSuchAgent");
+        reader.line("X");
+        boolean rejectedEarly = false;
+        try {
+            reader.line("Y");
+        } catch (IllegalArgumentException e) {
+            rejectedEarly = true;
+        }
+        check("error is raised by the agent's third line", rejectedEarly);
+    }
+
+    private static void testIncompleteConfigs() {
+        System.out.println("Test Case 4: Empty and truncated configs");
+        ConfigReader empty = read("", "# nothing here", "#!fuse=false");
+        check("comments and directives only is empty", empty.isEmpty() && empty.finish().isEmpty());
+
+        ConfigReader truncated = read("configs.PlusAgent", "A,B", "C", "", "configs.IncAgent", "C");
+        check("pending agent is not empty", !truncated.isEmpty());
+        String message = "";
+        try {
+            truncated.finish();
+        } catch (IllegalArgumentException e) {
+            message = e.getMessage();
+        }
+        check("truncated agent names its line", message.contains("the agent on line 5 needs 3 lines"));
+    }
+
+    private static void testReadFile() throws IOException {
+        System.out.println("Test Case 5: Reading a file");
+        Path file = Files.createTempFile("config", ".conf");
+        try {
+            Files.writeString(file, "configs.MulAgent\r\nA,B\r\nC\r\n", StandardCharsets.UTF_8);
+            ConfigReader reader = ConfigReader.read(file.toString());
+            List<AgentSpec> specs = reader.finish();
+            check("agent read from the file", specs.size() == 1 && specs.get(0).getClassName().equals("configs.MulAgent"));
+            check("CRLF line endings", specs.get(0).getPubs()[0].equals("C"));
+            check("source is the file name", reader.getSource().equals(file.toString()));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static ConfigReader read(String... lines) {
+        ConfigReader reader = new ConfigReader("test");
+        for (String line : lines) {
+            reader.line(line);
+        }
+        return reader;
+    }
+
+    private static String error(String... lines) {
+        try {
+            read(lines).finish();
+            return "";
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static void check(String name, boolean ok) {
+        System.out.println((ok ? "  PASS " : "  FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
@@ -1,10 +1,10 @@
 package configs;
 
-import graph.Agent;
 import graph.Message;
+import graph.StatefulAgent;
 import graph.TopicManagerSingleton;
 
-public class DivAgent implements Agent {
+public class DivAgent implements StatefulAgent {
 
     private double x = 0;
     private double y = 0;
@@ -78,13 +78,31 @@ public class DivAgent implements Agent {
         } catch (NumberFormatException e) {
             return;
         }
-        if (topic.equals(TopicManagerSingleton.get().getTopic(subs[0]).name)) {
+        boolean isFirst = topic.equals(TopicManagerSingleton.get().getTopic(subs[0]).name);
+        boolean isSecond = topic.equals(TopicManagerSingleton.get().getTopic(subs[1]).name);
+        if (isFirst && isSecond) {
+            // Both inputs are the same topic (or aliases of it)
+            x = msg.asDouble;
+            updateY(msg);
+        } else if (isFirst) {
             updateX(msg);
-        } else if (topic.equals(TopicManagerSingleton.get().getTopic(subs[1]).name)) {
+        } else if (isSecond) {
             updateY(msg);
         }
     }
 
+    @Override
+    public String saveState() {
+        return x + "," + y;
+    }
+
+    @Override
+    public void restoreState(String state) {
+        String[] parts = state.split(",");
+        x = Double.parseDouble(parts[0]);
+        y = Double.parseDouble(parts[1]);
+    }
+
     @Override
     public void close() {
         this.reset();
@@ -0,0 +1,213 @@
+package configs;
+
+import graph.Message;
+import graph.StatefulAgent;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Agent that evaluates an arithmetic formula over its input topics.
+ *
+ * The formula is given with the {@code expr} option and may use every subscribed
+ * topic as a variable. It is compiled once by {@link ExpressionCompiler}, so a chain
+ * such as {@code (A+B)*C-D} runs as a single agent instead of a PlusAgent, MulAgent
+ * and SubAgent with their own threads, queues and intermediate topics:
+ * <pre>
+ * configs.ExpressionAgent expr=(A+B)*C-D
+ * A,B,C,D
+ * DIFF1
+ * </pre>
+ * Like the arithmetic agents, inputs start at 0, every numeric input publishes a new
+ * result and messages that are not numbers are ignored. The inputs listed in the
+ * {@code nan.inputs} option instead store such messages as NaN and publish; with
+ * {@code ifnan} in the formula this is how the fusion pass keeps the way IncAgent and
+ * DecAgent count non-numeric input as 0.
+ *
+ * Options named {@code derive.<topic>} give formulas for additional topics that are
+ * not published but computed when their value is read. The fusion pass uses them to
+ * keep the intermediate topics of a fused chain visible.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public final class ExpressionAgent implements StatefulAgent {
+    /** Prefix of options that define lazily computed topics */
+    public static final String DERIVE_PREFIX = "derive.";
+    /** Option listing the inputs on which a message that is not a number counts as NaN */
+    public static final String NAN_INPUTS = "nan.inputs";
+
+    private final String[] subs;
+    private final String[] pubs;
+    private final String formula;
+    private final ExpressionCompiler.Expression expression;
+    /** Current input values, one per distinct input topic */
+    private final double[] values;
+    /** Index into {@link #values} of each input topic, keyed by resolved topic name */
+    private final Map<String, Integer> slots = new HashMap<>();
+    /** Resolved names of the inputs listed in {@link #NAN_INPUTS} */
+    private final Set<String> nanInputs = new HashSet<>();
+    /**
+     * Copy of the input values as of the latest message, for derived topics, which are
+     * read on other threads. Null until the first input arrives, so they have no value.
+     */
+    private volatile double[] snapshot = null;
+    private final boolean hasDerived;
+    private int id;
+    private static int expressionCounter = 0;
+
+    public ExpressionAgent(String[] subs, String[] pubs) {
+        this(subs, pubs, new HashMap<>());
+    }
+
+    public ExpressionAgent(String[] subs, String[] pubs, Map<String, String> options) {
+        this.subs = subs;
+        this.pubs = pubs;
+        this.formula = options.get("expr");
+        if (formula == null || formula.isEmpty()) {
+            throw new IllegalArgumentException("ExpressionAgent requires an expr option");
+        }
+        if (subs.length < 1) {
+            throw new IllegalArgumentException("ExpressionAgent requires at least 1 subscriptions");
+        }
+
+        // Inputs listed twice, or aliases of one topic, share a single variable slot
+        List<String> inputs = new ArrayList<>();
+        Map<String, String> renames = new HashMap<>();
+        for (String sub : subs) {
+            String name = TopicManagerSingleton.get().getTopic(sub).name;
+            if (!slots.containsKey(name)) {
+                slots.put(name, inputs.size());
+                inputs.add(name);
+            }
+            if (!name.equals(sub)) {
+                renames.put(sub, ExpressionCompiler.quote(name));
+            }
+        }
+        this.expression = ExpressionCompiler.compile(ExpressionCompiler.substitute(formula, renames), inputs);
+        this.values = new double[inputs.size()];
+        this.hasDerived = options.keySet().stream().anyMatch(key -> key.startsWith(DERIVE_PREFIX));
+        this.id = nextId();
+
+        for (String name : inputs) {
+            TopicManagerSingleton.get().getTopic(name).subscribe(this);
+        }
+
+        String nanOption = options.get(NAN_INPUTS);
+        if (nanOption != null && !nanOption.isEmpty()) {
+            for (String input : nanOption.split(",")) {
+                if (!Arrays.asList(subs).contains(input.trim())) {
+                    throw new IllegalArgumentException(NAN_INPUTS + " names " + input.trim() + ", which is not an input");
+                }
+                nanInputs.add(TopicManagerSingleton.get().getTopic(input.trim()).name);
+            }
+        }
+
+        // Register as publisher for output topics
+        if (pubs.length > 0) {
+            TopicManagerSingleton.get().getTopic(pubs[0]).addPublisher(this);
+        }
+
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            if (option.getKey().startsWith(DERIVE_PREFIX)) {
+                String topicName = option.getKey().substring(DERIVE_PREFIX.length());
+                ExpressionCompiler.Expression derived = ExpressionCompiler.compile(
+                        ExpressionCompiler.substitute(option.getValue(), renames), inputs);
+                Topic topic = TopicManagerSingleton.get().getTopic(topicName);
+                topic.addPublisher(this);
+                topic.setValueSupplier(() -> {
+                    double[] current = snapshot;
+                    return current != null ? String.valueOf(derived.eval(current)) : null;
+                });
+            }
+        }
+    }
+
+    private static synchronized int nextId() {
+        return expressionCounter++;
+    }
+
+    /**
+     * Returns the formula this agent evaluates.
+     *
+     * @return The formula
+     */
+    public String getFormula() {
+        return formula;
+    }
+
+    private void publishResult() {
+        if (pubs.length > 0) {
+            double result = expression.eval(values);
+            TopicManagerSingleton.get().getTopic(pubs[0]).publish(new Message(result));
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "ExpressionAgent" + id;
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(values, 0);
+        if (snapshot != null) {
+            snapshot = values.clone();
+        }
+    }
+
+    @Override
+    public void callback(String topic, Message msg) {
+        Integer slot = slots.get(topic);
+        if (slot == null) {
+            return;
+        }
+        if (Double.isNaN(msg.asDouble) && !isNumber(msg.asText) && !nanInputs.contains(topic)) {
+            return;
+        }
+        values[slot] = msg.asDouble;
+        if (hasDerived) {
+            snapshot = values.clone();
+        }
+        publishResult();
+    }
+
+    /** Tells "NaN", which the arithmetic agents accept, from text that is not a number */
+    private static boolean isNumber(String text) {
+        try {
+            Double.parseDouble(text);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String saveState() {
+        List<String> parts = new ArrayList<>();
+        for (double v : values) {
+            parts.add(String.valueOf(v));
+        }
+        return String.join(",", parts);
+    }
+
+    @Override
+    public void restoreState(String state) {
+        String[] parts = state.split(",");
+        for (int i = 0; i < parts.length && i < values.length; i++) {
+            values[i] = Double.parseDouble(parts[i]);
+        }
+        snapshot = values.clone();
+    }
+
+    @Override
+    public void close() {
+        this.reset();
+    }
+}
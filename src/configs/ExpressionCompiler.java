@@ -0,0 +1,407 @@
+package configs;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Compiles arithmetic formulas into trees of small lambdas.
+ *
+ * The formula is parsed once; each node becomes an {@link Expression} that calls
+ * its children directly, so evaluation involves no parsing, no maps and no boxing,
+ * and the JIT can inline the whole tree. Constant sub-expressions are folded.
+ *
+ * Supported syntax:
+ * <ul>
+ *   <li>numbers such as {@code 2}, {@code 0.5}, {@code 1e-3}</li>
+ *   <li>variables: names made of letters, digits, '_' and '.', or any name in backticks</li>
+ *   <li>operators {@code + - * / %} and {@code ^} (power), unary minus, parentheses</li>
+ *   <li>functions {@code abs, sqrt, exp, log, min, max, pow}, and {@code ifnan(x, y)}, which is
+ *       {@code y} when {@code x} is NaN and {@code x} otherwise</li>
+ * </ul>
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class ExpressionCompiler {
+
+    /**
+     * A compiled formula. Variables are read from the array by the index they had
+     * in the variable list given to {@link ExpressionCompiler#compile(String, List)}.
+     */
+    @FunctionalInterface
+    public interface Expression {
+        double eval(double[] vars);
+    }
+
+    private final String src;
+    private final List<String> variables;
+    private final Set<String> referenced = new LinkedHashSet<>();
+    private int pos = 0;
+
+    private ExpressionCompiler(String src, List<String> variables) {
+        this.src = src;
+        this.variables = variables;
+    }
+
+    /**
+     * Compiles a formula.
+     *
+     * @param formula The formula to compile
+     * @param variables The allowed variable names; their index is the slot read at evaluation
+     * @return The compiled expression
+     * @throws IllegalArgumentException If the formula is invalid or uses an unknown variable
+     */
+    public static Expression compile(String formula, List<String> variables) {
+        ExpressionCompiler c = new ExpressionCompiler(formula, variables);
+        return c.parseFormula().fn;
+    }
+
+    /**
+     * Returns the variable names a formula references, in order of first use.
+     *
+     * @param formula The formula to inspect
+     * @return The referenced variable names
+     */
+    public static Set<String> variablesOf(String formula) {
+        ExpressionCompiler c = new ExpressionCompiler(formula, null);
+        c.parseFormula();
+        return c.referenced;
+    }
+
+    /**
+     * Quotes a name so it can be used as a variable in a formula.
+     *
+     * @param name The variable name
+     * @return The name in backticks
+     */
+    public static String quote(String name) {
+        if (name.indexOf('`') >= 0) {
+            throw new IllegalArgumentException("Variable names cannot contain backticks: " + name);
+        }
+        return "`" + name + "`";
+    }
+
+    /**
+     * Replaces variables in a formula with other formulas, e.g. substituting
+     * {@code A+B} for {@code SUM1} in {@code SUM1*C} gives {@code (A+B)*C}.
+     * Function names and variables without a replacement are kept as they are.
+     *
+     * @param formula The formula to rewrite
+     * @param replacements Formulas to substitute, keyed by variable name
+     * @return The rewritten formula
+     */
+    public static String substitute(String formula, Map<String, String> replacements) {
+        StringBuilder out = new StringBuilder(formula.length());
+        int i = 0;
+        while (i < formula.length()) {
+            char c = formula.charAt(i);
+            String name = null;
+            int end = i;
+            if (c == '`') {
+                end = formula.indexOf('`', i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unterminated quoted name in formula: " + formula);
+                }
+                name = formula.substring(i + 1, end);
+                end++;
+            } else if (Character.isLetter(c) || c == '_') {
+                while (end < formula.length() && isNameChar(formula.charAt(end))) {
+                    end++;
+                }
+                int next = end;
+                while (next < formula.length() && Character.isWhitespace(formula.charAt(next))) {
+                    next++;
+                }
+                if (next >= formula.length() || formula.charAt(next) != '(') {
+                    name = formula.substring(i, end);
+                }
+            } else if (Character.isDigit(c) || c == '.') {
+                // Skip numbers so exponents like 1e5 are not read as variables
+                while (end < formula.length() && (Character.isLetterOrDigit(formula.charAt(end)) || formula.charAt(end) == '.'
+                        || ((formula.charAt(end) == '+' || formula.charAt(end) == '-')
+                            && (formula.charAt(end - 1) == 'e' || formula.charAt(end - 1) == 'E')))) {
+                    end++;
+                }
+            }
+
+            if (end == i) {
+                out.append(c);
+                i++;
+                continue;
+            }
+            String replacement = name != null ? replacements.get(name) : null;
+            if (replacement != null) {
+                out.append('(').append(replacement).append(')');
+            } else {
+                out.append(formula, i, end);
+            }
+            i = end;
+        }
+        return out.toString();
+    }
+
+    /** A compiled node; constant nodes are folded at compile time */
+    private static class Node {
+        final Expression fn;
+        final boolean constant;
+        final double value;
+
+        Node(Expression fn) {
+            this.fn = fn;
+            this.constant = false;
+            this.value = 0;
+        }
+
+        Node(double value) {
+            this.fn = vars -> value;
+            this.constant = true;
+            this.value = value;
+        }
+    }
+
+    private Node parseFormula() {
+        Node n = parseSum();
+        skipSpaces();
+        if (pos < src.length()) {
+            throw error("Unexpected '" + src.charAt(pos) + "'");
+        }
+        return n;
+    }
+
+    private Node parseSum() {
+        Node left = parseProduct();
+        while (true) {
+            char op = peek();
+            if (op != '+' && op != '-') {
+                return left;
+            }
+            pos++;
+            left = binary(op, left, parseProduct());
+        }
+    }
+
+    private Node parseProduct() {
+        Node left = parseUnary();
+        while (true) {
+            char op = peek();
+            if (op != '*' && op != '/' && op != '%') {
+                return left;
+            }
+            pos++;
+            left = binary(op, left, parseUnary());
+        }
+    }
+
+    private Node parseUnary() {
+        char c = peek();
+        if (c == '-') {
+            pos++;
+            Node operand = parseUnary();
+            if (operand.constant) {
+                return new Node(-operand.value);
+            }
+            Expression f = operand.fn;
+            return new Node(vars -> -f.eval(vars));
+        }
+        if (c == '+') {
+            pos++;
+            return parseUnary();
+        }
+        return parsePower();
+    }
+
+    private Node parsePower() {
+        Node base = parsePrimary();
+        if (peek() == '^') {
+            pos++;
+            // Right associative: 2^3^2 = 2^(3^2)
+            return binary('^', base, parseUnary());
+        }
+        return base;
+    }
+
+    private Node parsePrimary() {
+        char c = peek();
+        if (c == '(') {
+            pos++;
+            Node inner = parseSum();
+            expect(')');
+            return inner;
+        }
+        if (c == '`') {
+            int end = src.indexOf('`', pos + 1);
+            if (end < 0) {
+                throw error("Unterminated quoted name");
+            }
+            String name = src.substring(pos + 1, end);
+            pos = end + 1;
+            return variable(name);
+        }
+        if (Character.isDigit(c) || c == '.') {
+            return number();
+        }
+        if (Character.isLetter(c) || c == '_') {
+            int start = pos;
+            while (pos < src.length() && isNameChar(src.charAt(pos))) {
+                pos++;
+            }
+            String name = src.substring(start, pos);
+            if (peek() == '(') {
+                pos++;
+                return function(name);
+            }
+            return variable(name);
+        }
+        throw error(c == 0 ? "Unexpected end of formula" : "Unexpected '" + c + "'");
+    }
+
+    private Node number() {
+        int start = pos;
+        while (pos < src.length() && (Character.isDigit(src.charAt(pos)) || src.charAt(pos) == '.')) {
+            pos++;
+        }
+        if (pos < src.length() && (src.charAt(pos) == 'e' || src.charAt(pos) == 'E')) {
+            pos++;
+            if (pos < src.length() && (src.charAt(pos) == '+' || src.charAt(pos) == '-')) {
+                pos++;
+            }
+            while (pos < src.length() && Character.isDigit(src.charAt(pos))) {
+                pos++;
+            }
+        }
+        try {
+            return new Node(Double.parseDouble(src.substring(start, pos)));
+        } catch (NumberFormatException e) {
+            throw error("Invalid number '" + src.substring(start, pos) + "'");
+        }
+    }
+
+    private Node variable(String name) {
+        referenced.add(name);
+        if (variables == null) {
+            return new Node(0);
+        }
+        int index = variables.indexOf(name);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown variable '" + name + "' in formula: " + src);
+        }
+        return new Node(vars -> vars[index]);
+    }
+
+    private Node function(String name) {
+        List<Node> args = new ArrayList<>();
+        if (peek() != ')') {
+            args.add(parseSum());
+            while (peek() == ',') {
+                pos++;
+                args.add(parseSum());
+            }
+        }
+        expect(')');
+
+        switch (name) {
+            case "abs":  return unaryFunction(name, args, Math::abs);
+            case "sqrt": return unaryFunction(name, args, Math::sqrt);
+            case "exp":  return unaryFunction(name, args, Math::exp);
+            case "log":  return unaryFunction(name, args, Math::log);
+            case "min":  return binaryFunction(name, args, 'm');
+            case "max":  return binaryFunction(name, args, 'M');
+            case "pow":  return binaryFunction(name, args, '^');
+            case "ifnan": return binaryFunction(name, args, 'n');
+            default:
+                throw error("Unknown function '" + name + "'");
+        }
+    }
+
+    private Node unaryFunction(String name, List<Node> args, DoubleUnaryOperator op) {
+        if (args.size() != 1) {
+            throw error(name + " expects 1 argument");
+        }
+        Node a = args.get(0);
+        if (a.constant) {
+            return new Node(op.applyAsDouble(a.value));
+        }
+        Expression f = a.fn;
+        return new Node(vars -> op.applyAsDouble(f.eval(vars)));
+    }
+
+    private Node binaryFunction(String name, List<Node> args, char op) {
+        if (args.size() != 2) {
+            throw error(name + " expects 2 arguments");
+        }
+        return binary(op, args.get(0), args.get(1));
+    }
+
+    /**
+     * Builds a binary node. Each operator gets its own lambda so the JIT sees
+     * a monomorphic call site per node instead of a switch on every evaluation.
+     */
+    private Node binary(char op, Node left, Node right) {
+        if (left.constant && right.constant) {
+            return new Node(apply(op, left.value, right.value));
+        }
+        Expression l = left.fn;
+        Expression r = right.fn;
+        switch (op) {
+            case '+': return new Node(vars -> l.eval(vars) + r.eval(vars));
+            case '-': return new Node(vars -> l.eval(vars) - r.eval(vars));
+            case '*': return new Node(vars -> l.eval(vars) * r.eval(vars));
+            case '/': return new Node(vars -> l.eval(vars) / r.eval(vars));
+            case '%': return new Node(vars -> l.eval(vars) % r.eval(vars));
+            case '^': return new Node(vars -> Math.pow(l.eval(vars), r.eval(vars)));
+            case 'm': return new Node(vars -> Math.min(l.eval(vars), r.eval(vars)));
+            case 'M': return new Node(vars -> Math.max(l.eval(vars), r.eval(vars)));
+            case 'n': return new Node(vars -> {
+                double v = l.eval(vars);
+                return Double.isNaN(v) ? r.eval(vars) : v;
+            });
+            default:
+                throw error("Unknown operator '" + op + "'");
+        }
+    }
+
+    private static double apply(char op, double a, double b) {
+        switch (op) {
+            case '+': return a + b;
+            case '-': return a - b;
+            case '*': return a * b;
+            case '/': return a / b;
+            case '%': return a % b;
+            case '^': return Math.pow(a, b);
+            case 'm': return Math.min(a, b);
+            case 'M': return Math.max(a, b);
+            case 'n': return Double.isNaN(a) ? b : a;
+            default:
+                throw new IllegalArgumentException("Unknown operator '" + op + "'");
+        }
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+    }
+
+    private char peek() {
+        skipSpaces();
+        return pos < src.length() ? src.charAt(pos) : 0;
+    }
+
+    private void skipSpaces() {
+        while (pos < src.length() && Character.isWhitespace(src.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + pos + " in formula: " + src);
+    }
+}
@@ -0,0 +1,120 @@
+package configs;
+
+import graph.Message;
+import graph.TopicManagerSingleton;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class ExpressionCompilerTest {
+    private static final List<String> VARS = List.of("A", "B", "C", "x.y", "my topic");
+    private static final double[] VALUES = {2, 3, 4, 10, 0.5};
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        System.out.println("=== Testing Expression Compiler ===\n");
+
+        testArithmetic();
+        testFunctions();
+        testVariables();
+        testErrors();
+        testSubstitute();
+        testDuplicateInputs();
+
+        System.out.println(failures == 0 ? "All expression tests passed" : failures + " expression test(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void testArithmetic() {
+        System.out.println("Test Case 1: Arithmetic and precedence");
+        check("(A+B)*C", eval("(A+B)*C") == 20);
+        check("A+B*C", eval("A+B*C") == 14);
+        check("C-A-B is left associative", eval("C-A-B") == -1);
+        check("C/A/A is left associative", eval("C/A/A") == 1);
+        check("A^B", eval("A^B") == 8);
+        check("unary minus", eval("-A*-B") == 6);
+        check("modulo", eval("x.y % B") == 1);
+        check("numbers with exponents", eval("1e-3 * 1000 + 0.5") == 1.5);
+        check("division by zero is Infinity", eval("A/0") == Double.POSITIVE_INFINITY);
+        check("constants are folded", ExpressionCompiler.compile("2*3+1", VARS).eval(new double[0]) == 7);
+    }
+
+    private static void testFunctions() {
+        System.out.println("Test Case 2: Functions");
+        check("abs", eval("abs(A-C)") == 2);
+        check("sqrt", eval("sqrt(C)") == 2);
+        check("min and max", eval("min(A,B) + max(A,B)") == 5);
+        check("pow", eval("pow(A, C)") == 16);
+        check("exp and log", Math.abs(eval("log(exp(B))") - 3) < 1e-12);
+        check("ifnan keeps a number", eval("ifnan(A, 0)") == 2);
+        check("ifnan replaces NaN",
+                ExpressionCompiler.compile("ifnan(A, 0) + 1", VARS).eval(new double[] {Double.NaN}) == 1);
+    }
+
+    private static void testVariables() {
+        System.out.println("Test Case 3: Variables");
+        check("dotted names", eval("x.y + A") == 12);
+        check("quoted names", eval("`my topic` * C") == 2);
+        check("variables in order of first use",
+                ExpressionCompiler.variablesOf("C*(A+C)-B").equals(Set.of("C", "A", "B"))
+                        && ExpressionCompiler.variablesOf("C*(A+C)-B").iterator().next().equals("C"));
+        check("function names are not variables", ExpressionCompiler.variablesOf("max(A, abs(B))").equals(Set.of("A", "B")));
+    }
+
+    private static void testErrors() {
+        System.out.println("Test Case 4: Invalid formulas are rejected");
+        check("unknown variable", rejects("A + D"));
+        check("unknown function", rejects("foo(A)"));
+        check("missing parenthesis", rejects("(A + B"));
+        check("trailing operator", rejects("A +"));
+        check("trailing input", rejects("A B"));
+        check("wrong number of arguments", rejects("min(A)"));
+        check("unterminated quote", rejects("`my topic"));
+        check("empty formula", rejects(""));
+    }
+
+    private static void testSubstitute() {
+        System.out.println("Test Case 5: Substitute");
+        String rewritten = ExpressionCompiler.substitute("SUM1*C + max(SUM1, 1)", Map.of("SUM1", "A+B"));
+        check("variables are replaced in parentheses", rewritten.equals("(A+B)*C + max((A+B), 1)"));
+        check("rewritten formula evaluates", eval(rewritten) == 25);
+        check("quoted names are replaced",
+                ExpressionCompiler.substitute("`my topic`+1", Map.of("my topic", "A")).equals("(A)+1"));
+        check("names with a replacement only", ExpressionCompiler.substitute("A+B", Map.of("C", "1")).equals("A+B"));
+    }
+
+    private static void testDuplicateInputs() {
+        System.out.println("Test Case 6: An input listed twice has one slot");
+        TopicManagerSingleton.get().clear();
+        ExpressionAgent agent = new ExpressionAgent(new String[] {"EA", "EA", "EB"}, new String[] {"EOUT"},
+                Map.of("expr", "EA*EA+EB"));
+        TopicManagerSingleton.get().getTopic("EA").publish(new Message(3));
+        TopicManagerSingleton.get().getTopic("EB").publish(new Message(1));
+        check("EA*EA+EB over (EA, EA, EB) is 10", "10.0".equals(TopicManagerSingleton.get().getTopic("EOUT").getLastMessage()));
+        agent.close();
+        TopicManagerSingleton.get().clear();
+    }
+
+    private static double eval(String formula) {
+        return ExpressionCompiler.compile(formula, VARS).eval(VALUES);
+    }
+
+    private static boolean rejects(String formula) {
+        try {
+            ExpressionCompiler.compile(formula, VARS);
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static void check(String name, boolean ok) {
+        System.out.println((ok ? "  PASS " : "  FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
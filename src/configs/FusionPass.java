@@ -0,0 +1,293 @@
+package configs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Config optimization that fuses linear chains of arithmetic agents into one agent.
+ *
+ * An intermediate topic is fusible when exactly one agent publishes it and exactly
+ * one agent subscribes to it, and both agents are built-in arithmetic agents
+ * (PlusAgent, SubAgent, MulAgent, IncAgent, DecAgent or ExpressionAgent). The pair
+ * is replaced by an {@link ExpressionAgent} whose formula inlines the producer into
+ * the consumer, and the pass repeats until no fusible topic is left. Fused chains run
+ * without the thread hand-offs and messages of the intermediate hops; the intermediate
+ * topics are kept as derived topics whose values are computed when read. Derived
+ * topics belong to their agent: publishing to them from outside is refused.
+ *
+ * Fused agents treat input that is not a number as the original agents did: IncAgent
+ * and DecAgent count it as 0 (their formulas wrap the input in {@code ifnan} and list it
+ * in {@code nan.inputs}), the others ignore it. A topic that is an input of both kinds
+ * of agent is not fused, since one agent cannot do both.
+ *
+ * DivAgent is never fused because it rejects division by zero instead of publishing.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class FusionPass {
+    private static final String EXPRESSION_AGENT = ExpressionAgent.class.getName();
+
+    /** A fusible agent in formula form; the formula uses quoted input topic names */
+    private static class Candidate {
+        final String formula;
+        final List<String> inputs;
+        final String output;
+        final Map<String, String> derived;
+        /** Inputs on which non-numeric messages count as NaN, see {@link ExpressionAgent#NAN_INPUTS} */
+        final Set<String> nanInputs;
+        final Map<String, String> otherOptions;
+        final String description;
+        /** The spec this candidate came from, or null once it has been fused */
+        final AgentSpec original;
+
+        Candidate(String formula, List<String> inputs, String output, Map<String, String> derived,
+                  Set<String> nanInputs, Map<String, String> otherOptions, String description, AgentSpec original) {
+            this.formula = formula;
+            this.inputs = inputs;
+            this.output = output;
+            this.derived = derived;
+            this.nanInputs = nanInputs;
+            this.otherOptions = otherOptions;
+            this.description = description;
+            this.original = original;
+        }
+    }
+
+    private FusionPass() {
+    }
+
+    /**
+     * Fuses chains of agents in a config.
+     *
+     * @param specs The agents of the config, in file order
+     * @param report Receives one line per fused topic
+     * @return The agents after fusion
+     */
+    public static List<AgentSpec> apply(List<AgentSpec> specs, List<String> report) {
+        List<Object> agents = new ArrayList<>();
+        for (AgentSpec spec : specs) {
+            Candidate c = toCandidate(spec);
+            agents.add(c != null ? c : spec);
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            Map<String, List<Integer>> publishers = new HashMap<>();
+            Map<String, List<Integer>> subscribers = new HashMap<>();
+            for (int i = 0; i < agents.size(); i++) {
+                for (String t : outputsOf(agents.get(i))) {
+                    publishers.computeIfAbsent(t, k -> new ArrayList<>()).add(i);
+                }
+                for (String t : new LinkedHashSet<>(inputsOf(agents.get(i)))) {
+                    subscribers.computeIfAbsent(t, k -> new ArrayList<>()).add(i);
+                }
+            }
+
+            for (Map.Entry<String, List<Integer>> e : publishers.entrySet()) {
+                String topic = e.getKey();
+                List<Integer> pubs = e.getValue();
+                List<Integer> subs = subscribers.get(topic);
+                if (pubs.size() != 1 || subs == null || subs.size() != 1) {
+                    continue;
+                }
+                int p = pubs.get(0);
+                int s = subs.get(0);
+                if (p == s || !(agents.get(p) instanceof Candidate) || !(agents.get(s) instanceof Candidate)) {
+                    continue;
+                }
+                Candidate producer = (Candidate) agents.get(p);
+                Candidate consumer = (Candidate) agents.get(s);
+                if (!producer.otherOptions.equals(consumer.otherOptions)) {
+                    continue;
+                }
+                Candidate fused = fuse(producer, consumer, topic);
+                if (fused == null) {
+                    continue;
+                }
+                report.add("Fused " + producer.description + " into " + consumer.description + " via " + topic);
+                agents.set(s, fused);
+                agents.remove(p);
+                changed = true;
+                break;
+            }
+        }
+
+        List<AgentSpec> result = new ArrayList<>();
+        for (Object a : agents) {
+            result.add(a instanceof Candidate ? toSpec((Candidate) a) : (AgentSpec) a);
+        }
+        return result;
+    }
+
+    private static Candidate fuse(Candidate producer, Candidate consumer, String topic) {
+        Map<String, String> replacement = Map.of(topic, producer.formula);
+
+        // A shared input must treat non-numeric messages the same way in both agents
+        for (String in : producer.inputs) {
+            if (consumer.inputs.contains(in) && producer.nanInputs.contains(in) != consumer.nanInputs.contains(in)) {
+                return null;
+            }
+        }
+        // The intermediate topic always carries a computed number, so it needs no entry
+        Set<String> nanInputs = new LinkedHashSet<>(producer.nanInputs);
+        for (String in : consumer.nanInputs) {
+            if (!in.equals(topic)) {
+                nanInputs.add(in);
+            }
+        }
+
+        Set<String> inputs = new LinkedHashSet<>();
+        for (String in : consumer.inputs) {
+            if (in.equals(topic)) {
+                inputs.addAll(producer.inputs);
+            } else {
+                inputs.add(in);
+            }
+        }
+
+        Map<String, String> derived = new LinkedHashMap<>(producer.derived);
+        for (Map.Entry<String, String> d : consumer.derived.entrySet()) {
+            derived.put(d.getKey(), ExpressionCompiler.substitute(d.getValue(), replacement));
+        }
+        derived.put(topic, producer.formula);
+
+        // A fused agent that reads its own output or intermediates would form a cycle
+        if (inputs.contains(consumer.output)) {
+            return null;
+        }
+        for (String d : derived.keySet()) {
+            if (inputs.contains(d)) {
+                return null;
+            }
+        }
+
+        String formula = ExpressionCompiler.substitute(consumer.formula, replacement);
+        return new Candidate(formula, new ArrayList<>(inputs), consumer.output, derived, nanInputs,
+                consumer.otherOptions, "[" + producer.description + " + " + consumer.description + "]", null);
+    }
+
+    /**
+     * Converts a built-in arithmetic agent to formula form, or returns null if it is not fusible.
+     */
+    private static Candidate toCandidate(AgentSpec spec) {
+        String[] subs = spec.getSubs();
+        String[] pubs = spec.getPubs();
+        if (pubs.length != 1 || pubs[0].isEmpty()) {
+            return null;
+        }
+
+        Map<String, String> derived = new LinkedHashMap<>();
+        Set<String> nanInputs = new LinkedHashSet<>();
+        Map<String, String> otherOptions = new LinkedHashMap<>();
+        for (Map.Entry<String, String> o : spec.getOptions().entrySet()) {
+            if (o.getKey().startsWith(ExpressionAgent.DERIVE_PREFIX)) {
+                derived.put(o.getKey().substring(ExpressionAgent.DERIVE_PREFIX.length()), o.getValue());
+            } else if (o.getKey().equals(ExpressionAgent.NAN_INPUTS)) {
+                for (String in : o.getValue().split(",")) {
+                    if (!in.trim().isEmpty()) {
+                        nanInputs.add(in.trim());
+                    }
+                }
+            } else if (!o.getKey().equals("expr")) {
+                otherOptions.put(o.getKey(), o.getValue());
+            }
+        }
+
+        String formula;
+        List<String> inputs;
+        switch (spec.getClassName()) {
+            case "configs.PlusAgent":
+                formula = binary(subs, "+");
+                inputs = firstInputs(subs, 2);
+                break;
+            case "configs.SubAgent":
+                formula = binary(subs, "-");
+                inputs = firstInputs(subs, 2);
+                break;
+            case "configs.MulAgent":
+                formula = binary(subs, "*");
+                inputs = firstInputs(subs, 2);
+                break;
+            case "configs.IncAgent":
+                // IncAgent and DecAgent count input that is not a number as 0
+                formula = subs.length >= 1 ? "ifnan(" + ExpressionCompiler.quote(subs[0]) + ",0)+1" : null;
+                inputs = firstInputs(subs, 1);
+                if (inputs != null) {
+                    nanInputs.add(subs[0]);
+                }
+                break;
+            case "configs.DecAgent":
+                formula = subs.length >= 1 ? "ifnan(" + ExpressionCompiler.quote(subs[0]) + ",0)-1" : null;
+                inputs = firstInputs(subs, 1);
+                if (inputs != null) {
+                    nanInputs.add(subs[0]);
+                }
+                break;
+            default:
+                if (!EXPRESSION_AGENT.equals(spec.getClassName()) || spec.getOption("expr", null) == null) {
+                    return null;
+                }
+                formula = spec.getOption("expr", null);
+                inputs = firstInputs(subs, subs.length);
+        }
+        if (formula == null || inputs == null) {
+            return null;
+        }
+        String description = spec.getClassName().substring(spec.getClassName().lastIndexOf('.') + 1)
+                + "(" + String.join(",", inputs) + " -> " + pubs[0] + ")";
+        return new Candidate(formula, inputs, pubs[0], derived, nanInputs, otherOptions, description, spec);
+    }
+
+    private static String binary(String[] subs, String op) {
+        if (subs.length < 2) {
+            return null;
+        }
+        return ExpressionCompiler.quote(subs[0]) + op + ExpressionCompiler.quote(subs[1]);
+    }
+
+    private static List<String> firstInputs(String[] subs, int count) {
+        if (subs.length < count) {
+            return null;
+        }
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            inputs.add(subs[i]);
+        }
+        return inputs;
+    }
+
+    private static AgentSpec toSpec(Candidate c) {
+        if (c.original != null) {
+            return c.original;
+        }
+        Map<String, String> options = new LinkedHashMap<>(c.otherOptions);
+        options.put("expr", c.formula);
+        if (!c.nanInputs.isEmpty()) {
+            options.put(ExpressionAgent.NAN_INPUTS, String.join(",", c.nanInputs));
+        }
+        for (Map.Entry<String, String> d : c.derived.entrySet()) {
+            options.put(ExpressionAgent.DERIVE_PREFIX + d.getKey(), d.getValue());
+        }
+        return new AgentSpec(EXPRESSION_AGENT, c.inputs.toArray(new String[0]), new String[] {c.output}, options);
+    }
+
+    private static List<String> outputsOf(Object agent) {
+        if (agent instanceof Candidate) {
+            return List.of(((Candidate) agent).output);
+        }
+        return List.of(((AgentSpec) agent).getPubs());
+    }
+
+    private static List<String> inputsOf(Object agent) {
+        if (agent instanceof Candidate) {
+            return ((Candidate) agent).inputs;
+        }
+        return List.of(((AgentSpec) agent).getSubs());
+    }
+}
@@ -0,0 +1,139 @@
+package configs;
+
+import graph.Agent;
+import graph.Message;
+import graph.TopicManagerSingleton;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class FusionPassTest {
+    /** Agents of the test graph: class line, subscriptions, publications */
+    private static final String[][] CONFIG = {
+            {"configs.PlusAgent", "A,B", "C"},
+            {"configs.IncAgent", "C", "E"},
+            {"configs.IncAgent", "P", "X"},
+            {"configs.MulAgent", "X,Y", "Z"},
+            {"configs.SubAgent", "Z,E", "W"},
+            {"configs.ExpressionAgent expr=W*2+A", "W,A", "V"},
+            {"configs.DivAgent", "V,D", "Q"},
+    };
+    private static final String[] INPUTS = {"A", "B", "P", "Y"};
+    /** The divisor of the DivAgent, which throws on 0, so it is only set once */
+    private static final String DIVISOR = "D";
+    private static final String[] OBSERVED = {"C", "E", "X", "Z", "W", "V", "Q"};
+    private static final String[] MESSAGES = {"1", "2.5", "-3", "0", "7", "abc", "NaN", "1e3"};
+    private static int failures = 0;
+
+    public static void main(String[] args) throws ReflectiveOperationException {
+        System.out.println("=== Testing Fusion Pass ===\n");
+
+        testChainsAreFused();
+        testFusedGraphComputesTheSameValues();
+        testDerivedTopicsAreMarked();
+
+        System.out.println(failures == 0 ? "All fusion tests passed" : failures + " fusion test(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void testChainsAreFused() {
+        System.out.println("Test Case 1: Chains are fused");
+        List<String> report = new ArrayList<>();
+        List<AgentSpec> fused = FusionPass.apply(specs(), report);
+        check("report lists the fused topics (" + report.size() + ")", !report.isEmpty());
+        check("fewer agents after fusion (" + fused.size() + ")", fused.size() < CONFIG.length);
+        boolean divKept = false;
+        for (AgentSpec spec : fused) {
+            divKept |= spec.getClassName().equals(DivAgent.class.getName());
+        }
+        check("DivAgent is never fused", divKept);
+    }
+
+    private static void testFusedGraphComputesTheSameValues() throws ReflectiveOperationException {
+        System.out.println("Test Case 2: Fused graph computes the same values");
+        List<String> plain = run(specs());
+        List<String> fused = run(FusionPass.apply(specs(), new ArrayList<>()));
+        int firstDifference = -1;
+        for (int i = 0; i < Math.min(plain.size(), fused.size()) && firstDifference < 0; i++) {
+            if (!plain.get(i).equals(fused.get(i))) {
+                firstDifference = i;
+            }
+        }
+        check("same number of observations", plain.size() == fused.size());
+        check("values match after every publish"
+                + (firstDifference >= 0 ? ": " + plain.get(firstDifference) + " vs " + fused.get(firstDifference) : ""),
+                firstDifference < 0);
+    }
+
+    private static void testDerivedTopicsAreMarked() throws ReflectiveOperationException {
+        System.out.println("Test Case 3: Intermediate topics become derived topics");
+        TopicManagerSingleton.get().clear();
+        List<Agent> agents = instantiate(FusionPass.apply(specs(), new ArrayList<>()));
+        check("C is derived", TopicManagerSingleton.get().getTopic("C").isDerived());
+        check("input A is not derived", !TopicManagerSingleton.get().getTopic("A").isDerived());
+        check("Q of the unfused DivAgent is not derived", !TopicManagerSingleton.get().getTopic("Q").isDerived());
+        close(agents);
+    }
+
+    /**
+     * Publishes the same random messages to the graph's inputs and records the value of
+     * every observed topic after each one. Every input is set once before recording: a
+     * derived topic has a value as soon as its agent has any input, while the unfused
+     * topic waits for its own agent to publish.
+     */
+    private static List<String> run(List<AgentSpec> specs) throws ReflectiveOperationException {
+        TopicManagerSingleton.get().clear();
+        List<Agent> agents = instantiate(specs);
+        Random random = new Random(1);
+        List<String> observations = new ArrayList<>();
+        TopicManagerSingleton.get().getTopic(DIVISOR).publish(new Message(4));
+        for (int i = 0; i < 500; i++) {
+            String input = i < INPUTS.length ? INPUTS[i] : INPUTS[random.nextInt(INPUTS.length)];
+            String message = i < INPUTS.length ? "1" : MESSAGES[random.nextInt(MESSAGES.length)];
+            TopicManagerSingleton.get().getTopic(input).publish(new Message(message));
+            if (i < INPUTS.length) {
+                continue;
+            }
+            StringBuilder line = new StringBuilder(input + "=" + message + ":");
+            for (String topic : OBSERVED) {
+                line.append(' ').append(topic).append('=').append(TopicManagerSingleton.get().getTopic(topic).getLastMessage());
+            }
+            observations.add(line.toString());
+        }
+        close(agents);
+        TopicManagerSingleton.get().clear();
+        return observations;
+    }
+
+    private static List<AgentSpec> specs() {
+        List<AgentSpec> specs = new ArrayList<>();
+        for (String[] agent : CONFIG) {
+            specs.add(AgentSpec.parse(agent[0], agent[1], agent[2]));
+        }
+        return specs;
+    }
+
+    private static List<Agent> instantiate(List<AgentSpec> specs) throws ReflectiveOperationException {
+        List<Agent> agents = new ArrayList<>();
+        for (AgentSpec spec : specs) {
+            agents.add(spec.instantiate());
+        }
+        return agents;
+    }
+
+    private static void close(List<Agent> agents) {
+        for (Agent agent : agents) {
+            agent.close();
+        }
+    }
+
+    private static void check(String name, boolean ok) {
+        System.out.println((ok ? "  PASS " : "  FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
@@ -3,18 +3,55 @@ package configs;
 
 import graph.Agent;
 import graph.ParallelAgent;
+import graph.TopicManagerSingleton;
+import metrics.JfrEvents;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.UnaryOperator;
 import java.util.logging.Logger;
 
+/**
+ * Configuration loaded from a text file with three lines per agent.
+ *
+ * Blank lines and lines starting with '#' are skipped; the file is read with
+ * {@link ConfigReader}. Lines starting with "#!" are directives
+ * that enable optional passes for the whole config:
+ * <ul>
+ *   <li>{@code #!cse=true} - create identical agents only once ({@link CommonSubexpressionPass})</li>
+ *   <li>{@code #!fuse=true} - fuse linear chains of arithmetic agents ({@link FusionPass})</li>
+ *   <li>{@code #!glitchfree=true} - make agents with several inputs wait for all the inputs a
+ *       publish reaches instead of firing on every input ({@link ParallelAgent#setGlitchFree})</li>
+ * </ul>
+ *
+ * Every agent runs in a {@link ParallelAgent}. Its mailbox is set with class-line options:
+ * {@code mailbox} is one of block (default), timeout, drop-oldest, drop-newest or conflate;
+ * {@code capacity} is the queue size (default 10); {@code timeout} is the wait in
+ * milliseconds for the timeout policy (default 100); {@code wait} is spin, yield or park
+ * (default) and sets how the lock-free mailbox used by block, timeout and drop-newest
+ * waits; {@code glitchfree} and {@code glitchfree.timeout} override the glitch-free
+ * setting and its timeout (default 100ms) for one agent. For example:
+ * <pre>
+ * configs.PlusAgent mailbox=conflate
+ * </pre>
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
 public class GenericConfig implements Config {
     private static final Logger LOGGER = Logger.getLogger(GenericConfig.class.getName());
+    private static final int DEFAULT_CAPACITY = 10;
+    private static final long DEFAULT_TIMEOUT_MS = 100;
     private String name;
     private int version;
-    private final List<ParallelAgent> agents = new ArrayList<>();
+    private final List<ParallelAgent> agents = new CopyOnWriteArrayList<>();
+    private boolean fuse = false;
+    private boolean cse = false;
+    private boolean glitchFree = false;
+    private UnaryOperator<List<AgentSpec>> partitionFilter = null;
+    private final List<String> optimizationReport = new ArrayList<>();
 
     @Override
     public String getName() {
@@ -40,51 +77,134 @@ public class GenericConfig implements Config {
         this.name = confFile;
     }
 
+    /**
+     * Enables the fusion pass; a {@code #!fuse} directive in the file overrides this.
+     */
+    public void setFuse(boolean fuse) {
+        this.fuse = fuse;
+    }
+
+    /**
+     * Enables duplicate agent elimination; a {@code #!cse} directive in the file overrides this.
+     */
+    public void setCse(boolean cse) {
+        this.cse = cse;
+    }
+
+    /**
+     * Sets a filter that picks the agents this process runs, out of all the agents of the
+     * file after the optimization passes. Used by cluster nodes, which each run one partition.
+     */
+    public void setPartitionFilter(UnaryOperator<List<AgentSpec>> partitionFilter) {
+        this.partitionFilter = partitionFilter;
+    }
+
+    /**
+     * Returns one line per change made by the optimization passes during {@link #create()}.
+     */
+    public List<String> getOptimizationReport() {
+        return optimizationReport;
+    }
+
+    /**
+     * Returns the running agents, each wrapped in its mailbox. The list is safe to
+     * iterate while the config is reloaded on another thread.
+     */
+    public List<ParallelAgent> getAgents() {
+        return agents;
+    }
+
+    private void applyDirective(String directive) {
+        int eq = directive.indexOf('=');
+        String key = (eq > 0 ? directive.substring(0, eq) : directive).trim();
+        String value = eq > 0 ? directive.substring(eq + 1).trim() : "true";
+        switch (key) {
+            case "fuse":
+                fuse = Boolean.parseBoolean(value);
+                break;
+            case "cse":
+                cse = Boolean.parseBoolean(value);
+                break;
+            case "glitchfree":
+                glitchFree = Boolean.parseBoolean(value);
+                break;
+            default:
+                LOGGER.warning("Unknown config directive: " + key);
+        }
+    }
+
     @Override
     public void create() {
+        create(null);
+    }
+
+    /**
+     * Creates the agents of a configuration that was already read, e.g. while it was
+     * being uploaded, instead of reading the file again.
+     *
+     * @param parsed The configuration read from this config's file, or null to read it now
+     */
+    public void create(ConfigReader parsed) {
         
         if (name == null || name.isEmpty()) {
             throw new IllegalArgumentException("Config name cannot be null or empty");
         }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(name))) {
-            List<String> lines = new ArrayList<>();
-            String line;
-            
-            while ((line = reader.readLine()) != null) {
-                String trimmedLine = line.trim();
-                lines.add(trimmedLine);
+        JfrEvents.ConfigPhase event = JfrEvents.ConfigPhase.start("parse", name);
+        try {
+            ConfigReader config = parsed != null ? parsed : ConfigReader.read(name);
+            List<AgentSpec> specs = new ArrayList<>(config.finish());
+            for (String directive : config.getDirectives()) {
+                applyDirective(directive);
             }
-            
-            
-            if (lines.size() % 3 != 0) {
-                throw new IllegalArgumentException("Invalid config file: " + name);
+
+            event.commit();
+
+            optimizationReport.clear();
+            if (cse) {
+                event = JfrEvents.ConfigPhase.start("cse", name);
+                Map<String, String> aliases = new LinkedHashMap<>();
+                specs = CommonSubexpressionPass.apply(specs, aliases, optimizationReport);
+                for (Map.Entry<String, String> alias : aliases.entrySet()) {
+                    TopicManagerSingleton.get().alias(alias.getKey(), alias.getValue());
+                }
+                event.commit();
             }
-            
-            for (int i = 0; i < lines.size(); i += 3) {
-                
-                String className = lines.get(i);
-                String[] subs = lines.get(i + 1).split(",");
-                String[] pubs = lines.get(i + 2).split(",");
+            if (fuse) {
+                event = JfrEvents.ConfigPhase.start("fuse", name);
+                specs = FusionPass.apply(specs, optimizationReport);
+                event.commit();
+            }
+            for (String entry : optimizationReport) {
+                LOGGER.info(entry);
+            }
+            if (partitionFilter != null) {
+                specs = partitionFilter.apply(specs);
+            }
+
+            event = JfrEvents.ConfigPhase.start("instantiate", name);
+            for (AgentSpec spec : specs) {
+                String className = spec.getClassName();
 
                 try {
-                    Class<?> clazz = Class.forName(className);
-                    
-                    Object agentInstance = clazz.getConstructor(String[].class, String[].class)
-                            .newInstance((Object) subs, (Object) pubs);
-                    
-                    if (agentInstance instanceof Agent) {
-                        ParallelAgent parallelAgent = new ParallelAgent((Agent) agentInstance, 10);
-                        agents.add(parallelAgent);
-                    } else {
-                        throw new IllegalArgumentException("Class " + className + " does not implement Agent interface");
-                    }
+                    Agent agent = spec.instantiate();
+                    ParallelAgent parallelAgent = new ParallelAgent(agent,
+                            Integer.parseInt(spec.getOption("capacity", String.valueOf(DEFAULT_CAPACITY))),
+                            ParallelAgent.OverflowPolicy.parse(spec.getOption("mailbox", "block")),
+                            Long.parseLong(spec.getOption("timeout", String.valueOf(DEFAULT_TIMEOUT_MS))),
+                            ParallelAgent.WaitStrategy.parse(spec.getOption("wait", "park")));
+                    parallelAgent.setGlitchFree(
+                            Boolean.parseBoolean(spec.getOption("glitchfree", String.valueOf(glitchFree))),
+                            Long.parseLong(spec.getOption("glitchfree.timeout", String.valueOf(ParallelAgent.DEFAULT_GLITCH_TIMEOUT_MS))));
+                    parallelAgent.start();
+                    agents.add(parallelAgent);
                 } catch (ClassNotFoundException e) {
                     throw new RuntimeException("Class not found: " + className, e);
                 } catch (Exception e) {
                     throw new RuntimeException("Error creating agent: " + e.getMessage(), e);
                 }
             }
+            event.commit();
             
         } catch (Exception e) {
             e.printStackTrace();
@@ -2,11 +2,13 @@ package configs;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import graph.Agent;
 import graph.Topic;
 import graph.TopicManagerSingleton;
 import graph.TopicManagerSingleton.TopicManager;
+import metrics.JfrEvents;
 
 public class Graph extends ArrayList<Node>{
     
@@ -20,6 +22,7 @@ public class Graph extends ArrayList<Node>{
     }
 
     public void createFromTopics(){
+        JfrEvents.ConfigPhase event = JfrEvents.ConfigPhase.start("build graph", null);
         TopicManager tm = TopicManagerSingleton.get();
         
         HashMap<String, Node> nodes = new HashMap<>();
@@ -56,9 +59,42 @@ public class Graph extends ArrayList<Node>{
                 agentNode.addEdge(topicNode);
             }
         }
+        event.commit();
         logGraphData();
     }
 
+    /**
+     * Builds the graph a list of agent specifications would create, without creating
+     * any agents or topics. Topic nodes are named "T" + the topic, like in
+     * {@link #createFromTopics()}; agent nodes are named "A#" + the index of the spec.
+     *
+     * @param specs The agents of a configuration, in file order
+     */
+    public void createFromSpecs(List<AgentSpec> specs) {
+        HashMap<String, Node> topics = new HashMap<>();
+        for (int i = 0; i < specs.size(); i++) {
+            AgentSpec spec = specs.get(i);
+            Node agentNode = new Node("A#" + i);
+            this.add(agentNode);
+            for (String sub : spec.getSubs()) {
+                topicNode(topics, sub).addEdge(agentNode);
+            }
+            for (String pub : spec.getPubs()) {
+                agentNode.addEdge(topicNode(topics, pub));
+            }
+        }
+    }
+
+    private Node topicNode(HashMap<String, Node> topics, String topic) {
+        Node node = topics.get(topic);
+        if (node == null) {
+            node = new Node("T" + topic);
+            topics.put(topic, node);
+            this.add(node);
+        }
+        return node;
+    }
+
     /**
      * Logs all node names and all edges in the graph.
      */
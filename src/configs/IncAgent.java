@@ -1,10 +1,10 @@
 package configs;
 
-import graph.Agent;
 import graph.Message;
+import graph.StatefulAgent;
 import graph.TopicManagerSingleton;
 
-public class IncAgent implements Agent {
+public class IncAgent implements StatefulAgent {
 
     private double x = 0;
     private final String[] subs;
@@ -64,6 +64,16 @@ public class IncAgent implements Agent {
         }
     }
 
+    @Override
+    public String saveState() {
+        return String.valueOf(x);
+    }
+
+    @Override
+    public void restoreState(String state) {
+        x = Double.parseDouble(state);
+    }
+
     @Override
     public void close() {
         this.reset();
@@ -0,0 +1,283 @@
+package configs;
+
+/**
+ * Sliding window of (timestamp, value) samples with O(1) amortized aggregates.
+ *
+ * The window is either count-based (the last N samples) or time-based (samples
+ * newer than a duration). Samples live in primitive ring buffers. A running sum gives
+ * the sum; the mean and variance come from Welford's running mean and sum of squared
+ * deviations, updated as samples enter and leave, which stay accurate for values with
+ * a large offset such as prices or timestamps. Two monotonic deques of sample sequence
+ * numbers give the minimum and maximum. Adding a sample never allocates, except
+ * when a time-based window outgrows its buffers and they are doubled.
+ *
+ * Timestamps are expected to be non-decreasing; an older one is recorded as the
+ * newest timestamp so far, so time-based eviction stays correct.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class SlidingWindow {
+    private final int maxCount;
+    private final long durationMs;
+
+    private long[] timestamps;
+    private double[] values;
+    /** Monotonic deques holding sequence numbers, same capacity as the sample buffers */
+    private long[] minDeque;
+    private long[] maxDeque;
+    private long minHead, minTail, maxHead, maxTail;
+
+    /** Sequence number of the oldest sample in the window */
+    private long first = 0;
+    /** Sequence number the next sample will get */
+    private long next = 0;
+
+    private double sum = 0;
+    /** Running mean of the samples in the window */
+    private double mean = 0;
+    /** Running sum of squared deviations from the mean */
+    private double m2 = 0;
+
+    private SlidingWindow(int maxCount, long durationMs, int capacity) {
+        this.maxCount = maxCount;
+        this.durationMs = durationMs;
+        allocate(capacity);
+    }
+
+    /**
+     * Creates a window over the last {@code count} samples.
+     *
+     * @param count The number of samples in the window
+     * @return The new window
+     */
+    public static SlidingWindow ofCount(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Window size must be positive: " + count);
+        }
+        return new SlidingWindow(count, 0, count);
+    }
+
+    /**
+     * Creates a window over the samples of the last {@code durationMs} milliseconds.
+     *
+     * @param durationMs The window length in milliseconds
+     * @param initialCapacity The initial buffer capacity, grown as needed
+     * @return The new window
+     */
+    public static SlidingWindow ofDuration(long durationMs, int initialCapacity) {
+        if (durationMs <= 0) {
+            throw new IllegalArgumentException("Window duration must be positive: " + durationMs);
+        }
+        return new SlidingWindow(0, durationMs, Math.max(initialCapacity, 2));
+    }
+
+    /**
+     * Parses a window specification: a plain number is a sample count, a number
+     * with a unit suffix (ms, s, m, h) is a duration, e.g. "20", "500ms", "5s".
+     *
+     * @param spec The window specification
+     * @return The new window
+     */
+    public static SlidingWindow parse(String spec) {
+        String s = spec.trim().toLowerCase();
+        long multiplier;
+        String number;
+        if (s.endsWith("ms")) {
+            multiplier = 1;
+            number = s.substring(0, s.length() - 2);
+        } else if (s.endsWith("s")) {
+            multiplier = 1000;
+            number = s.substring(0, s.length() - 1);
+        } else if (s.endsWith("m")) {
+            multiplier = 60_000;
+            number = s.substring(0, s.length() - 1);
+        } else if (s.endsWith("h")) {
+            multiplier = 3_600_000;
+            number = s.substring(0, s.length() - 1);
+        } else {
+            try {
+                return ofCount(Integer.parseInt(s));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid window: " + spec);
+            }
+        }
+        try {
+            return ofDuration(Long.parseLong(number.trim()) * multiplier, 64);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid window: " + spec);
+        }
+    }
+
+    /**
+     * Adds a sample and evicts the samples that fall out of the window.
+     *
+     * @param timestamp The sample time in milliseconds
+     * @param value The sample value
+     */
+    public void add(long timestamp, double value) {
+        if (maxCount > 0) {
+            if (count() == maxCount) {
+                evictOldest();
+            }
+        } else {
+            evictBefore(timestamp - durationMs);
+            if (count() == timestamps.length) {
+                allocate(timestamps.length * 2);
+            }
+        }
+
+        if (count() > 0) {
+            timestamp = Math.max(timestamp, timestamps[slot(next - 1)]);
+        }
+        long seq = next++;
+        int slot = slot(seq);
+        timestamps[slot] = timestamp;
+        values[slot] = value;
+        sum += value;
+        double delta = value - mean;
+        mean += delta / count();
+        m2 += delta * (value - mean);
+
+        int cap = timestamps.length;
+        while (minTail > minHead && values[slot(minDeque[(int) ((minTail - 1) % cap)])] >= value) {
+            minTail--;
+        }
+        minDeque[(int) (minTail++ % cap)] = seq;
+        while (maxTail > maxHead && values[slot(maxDeque[(int) ((maxTail - 1) % cap)])] <= value) {
+            maxTail--;
+        }
+        maxDeque[(int) (maxTail++ % cap)] = seq;
+    }
+
+    /**
+     * Evicts samples older than the given time. Only meaningful for time-based windows.
+     *
+     * @param cutoff Samples with a timestamp before this are removed
+     */
+    public void evictBefore(long cutoff) {
+        while (count() > 0 && timestamps[slot(first)] < cutoff) {
+            evictOldest();
+        }
+    }
+
+    private void evictOldest() {
+        int slot = slot(first);
+        double v = values[slot];
+        sum -= v;
+        int remaining = count() - 1;
+        if (remaining > 0) {
+            // Welford's update run backwards
+            double oldMean = mean;
+            mean -= (v - mean) / remaining;
+            m2 -= (v - oldMean) * (v - mean);
+        }
+        int cap = timestamps.length;
+        if (minTail > minHead && minDeque[(int) (minHead % cap)] == first) {
+            minHead++;
+        }
+        if (maxTail > maxHead && maxDeque[(int) (maxHead % cap)] == first) {
+            maxHead++;
+        }
+        first++;
+        if (first == next) {
+            // Reset the running sums to drop accumulated rounding error
+            sum = 0;
+            mean = 0;
+            m2 = 0;
+        }
+    }
+
+    private int slot(long seq) {
+        return (int) (seq % timestamps.length);
+    }
+
+    /**
+     * (Re)allocates the buffers, keeping the current samples and deque contents.
+     */
+    private void allocate(int capacity) {
+        long[] oldTs = timestamps;
+        double[] oldValues = values;
+        long[] oldMin = minDeque;
+        long[] oldMax = maxDeque;
+
+        timestamps = new long[capacity];
+        values = new double[capacity];
+        minDeque = new long[capacity];
+        maxDeque = new long[capacity];
+        if (oldTs == null) {
+            return;
+        }
+
+        int oldCap = oldTs.length;
+        for (long seq = first; seq < next; seq++) {
+            timestamps[slot(seq)] = oldTs[(int) (seq % oldCap)];
+            values[slot(seq)] = oldValues[(int) (seq % oldCap)];
+        }
+        for (long i = minHead; i < minTail; i++) {
+            minDeque[(int) (i % capacity)] = oldMin[(int) (i % oldCap)];
+        }
+        for (long i = maxHead; i < maxTail; i++) {
+            maxDeque[(int) (i % capacity)] = oldMax[(int) (i % oldCap)];
+        }
+    }
+
+    /**
+     * Removes all samples.
+     */
+    public void clear() {
+        first = next;
+        minHead = minTail;
+        maxHead = maxTail;
+        sum = 0;
+        mean = 0;
+        m2 = 0;
+    }
+
+    public int count() {
+        return (int) (next - first);
+    }
+
+    public double sum() {
+        return sum;
+    }
+
+    public double mean() {
+        return count() == 0 ? 0 : mean;
+    }
+
+    public double min() {
+        return count() == 0 ? 0 : values[slot(minDeque[(int) (minHead % timestamps.length)])];
+    }
+
+    public double max() {
+        return count() == 0 ? 0 : values[slot(maxDeque[(int) (maxHead % timestamps.length)])];
+    }
+
+    /**
+     * Returns the population variance of the samples in the window.
+     */
+    public double variance() {
+        int n = count();
+        if (n == 0) {
+            return 0;
+        }
+        // m2 is a sum of squares, but rounding can take it a hair below zero
+        return Math.max(0, m2 / n);
+    }
+
+    /**
+     * Returns the change per second between the oldest and newest sample.
+     */
+    public double rate() {
+        if (count() < 2) {
+            return 0;
+        }
+        int oldest = slot(first);
+        int newest = slot(next - 1);
+        long elapsed = timestamps[newest] - timestamps[oldest];
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return (values[newest] - values[oldest]) * 1000.0 / elapsed;
+    }
+}
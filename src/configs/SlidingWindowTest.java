@@ -0,0 +1,168 @@
+package configs;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+public class SlidingWindowTest {
+    private static final double EPSILON = 1e-6;
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        System.out.println("=== Testing Sliding Window ===\n");
+
+        testCountWindowAgainstBruteForce();
+        testDurationWindowAgainstBruteForce();
+        testVarianceWithLargeOffset();
+        testRate();
+        testParse();
+        testClear();
+
+        System.out.println(failures == 0 ? "All sliding window tests passed" : failures + " sliding window test(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void testCountWindowAgainstBruteForce() {
+        System.out.println("Test Case 1: Count window matches a brute-force window");
+        SlidingWindow window = SlidingWindow.ofCount(16);
+        Deque<double[]> expected = new ArrayDeque<>();
+        Random random = new Random(42);
+        boolean ok = true;
+        for (int i = 0; i < 10_000; i++) {
+            double value = random.nextGaussian() * 100;
+            window.add(i, value);
+            expected.addLast(new double[] {i, value});
+            if (expected.size() > 16) {
+                expected.removeFirst();
+            }
+            ok &= matches(window, expected);
+        }
+        check("sum, mean, min, max and variance match after every add", ok);
+        check("count is capped", window.count() == 16);
+    }
+
+    private static void testDurationWindowAgainstBruteForce() {
+        System.out.println("Test Case 2: Duration window matches a brute-force window");
+        SlidingWindow window = SlidingWindow.ofDuration(1000, 4);
+        Deque<double[]> expected = new ArrayDeque<>();
+        Random random = new Random(7);
+        long time = 0;
+        boolean ok = true;
+        int largest = 0;
+        for (int i = 0; i < 10_000; i++) {
+            // Bursts of samples make the window grow past its initial capacity
+            time += random.nextInt(10) == 0 ? random.nextInt(400) : random.nextInt(3);
+            double value = random.nextInt(1000);
+            window.add(time, value);
+            expected.addLast(new double[] {time, value});
+            while (expected.peekFirst()[0] < time - 1000) {
+                expected.removeFirst();
+            }
+            largest = Math.max(largest, expected.size());
+            ok &= matches(window, expected);
+        }
+        check("aggregates match after every add", ok);
+        check("window grew past its initial capacity (" + largest + " samples)", largest > 4);
+    }
+
+    private static void testVarianceWithLargeOffset() {
+        System.out.println("Test Case 3: Variance does not cancel for large values");
+        SlidingWindow window = SlidingWindow.ofCount(3);
+        double offset = 1e9;
+        for (int i = 0; i < 100; i++) {
+            window.add(i, offset + (i % 3));
+        }
+        check("variance of {0,1,2} + 1e9 is 2/3", Math.abs(window.variance() - 2.0 / 3) < EPSILON);
+        check("mean is 1e9 + 1", Math.abs(window.mean() - (offset + 1)) < EPSILON);
+
+        SlidingWindow constant = SlidingWindow.ofCount(5);
+        for (int i = 0; i < 50; i++) {
+            constant.add(i, 123456789.123);
+        }
+        check("variance of a constant is never negative", constant.variance() >= 0 && constant.variance() < EPSILON);
+    }
+
+    private static void testRate() {
+        System.out.println("Test Case 4: Rate");
+        SlidingWindow window = SlidingWindow.ofCount(3);
+        check("rate of an empty window is 0", window.rate() == 0);
+        window.add(1000, 10);
+        window.add(2000, 20);
+        window.add(3000, 40);
+        check("rate between oldest and newest per second", Math.abs(window.rate() - 15) < EPSILON);
+        window.add(2500, 50);
+        check("late timestamp is clamped, not reordered", Math.abs(window.rate() - 30) < EPSILON);
+    }
+
+    private static void testParse() {
+        System.out.println("Test Case 5: Parse window specifications");
+        check("plain number is a count window", fill(SlidingWindow.parse("5")) == 5);
+        check("seconds suffix", fill(SlidingWindow.parse("2s")) == 21);
+        check("milliseconds suffix", fill(SlidingWindow.parse("500ms")) == 6);
+        check("invalid specification is rejected", rejects("abc") && rejects("5x") && rejects("ms"));
+    }
+
+    private static void testClear() {
+        System.out.println("Test Case 6: Clear");
+        SlidingWindow window = SlidingWindow.ofCount(4);
+        window.add(0, 5);
+        window.add(1, 7);
+        window.clear();
+        check("cleared window is empty", window.count() == 0 && window.sum() == 0 && window.variance() == 0);
+        window.add(2, 3);
+        check("cleared window starts over", window.mean() == 3 && window.min() == 3 && window.max() == 3);
+    }
+
+    /** Adds one sample every 100ms for 10 seconds and returns how many the window kept */
+    private static int fill(SlidingWindow window) {
+        for (int t = 0; t <= 10_000; t += 100) {
+            window.add(t, 1);
+        }
+        return window.count();
+    }
+
+    private static boolean rejects(String spec) {
+        try {
+            SlidingWindow.parse(spec);
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static boolean matches(SlidingWindow window, Deque<double[]> expected) {
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double[] sample : expected) {
+            sum += sample[1];
+            min = Math.min(min, sample[1]);
+            max = Math.max(max, sample[1]);
+        }
+        double mean = sum / expected.size();
+        double squares = 0;
+        for (double[] sample : expected) {
+            squares += (sample[1] - mean) * (sample[1] - mean);
+        }
+        double variance = squares / expected.size();
+        return window.count() == expected.size()
+                && close(window.sum(), sum)
+                && close(window.mean(), mean)
+                && window.min() == min
+                && window.max() == max
+                && close(window.variance(), variance);
+    }
+
+    private static boolean close(double actual, double expected) {
+        return Math.abs(actual - expected) <= EPSILON * Math.max(1, Math.abs(expected));
+    }
+
+    private static void check(String name, boolean ok) {
+        System.out.println((ok ? "  PASS " : "  FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package configs;
+
+import graph.Agent;
+import graph.Message;
+import graph.TopicManagerSingleton;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Agent that aggregates the values of one input topic over a sliding window.
+ *
+ * The statistic is set with the {@code stat} option and the window with the
+ * {@code window} option on the class line of the config file, the window either as a
+ * sample count or as a duration:
+ * <pre>
+ * configs.WindowAgent stat=mean;window=20
+ * PRICE
+ * AVG20
+ * configs.WindowAgent stat=max;window=5s
+ * PRICE
+ * MAX5S
+ * </pre>
+ * The statistics are sum, mean (default), min, max, variance and rate (change per
+ * second between the oldest and newest sample). Without the window option the window
+ * holds the last {@value #DEFAULT_WINDOW} samples. Every numeric input updates the
+ * window in O(1) and publishes the new aggregate.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public final class WindowAgent implements Agent {
+    /** Window size used when the config does not set one */
+    public static final String DEFAULT_WINDOW = "10";
+
+    /**
+     * The aggregate a window agent publishes.
+     */
+    public enum Statistic {
+        SUM, MEAN, MIN, MAX, VARIANCE, RATE;
+
+        /**
+         * Parses a statistic name as written in config files, e.g. "variance".
+         *
+         * @param name The statistic name
+         * @return The statistic
+         */
+        public static Statistic parse(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown window statistic: " + name);
+            }
+        }
+
+        double of(SlidingWindow window) {
+            switch (this) {
+                case SUM: return window.sum();
+                case MIN: return window.min();
+                case MAX: return window.max();
+                case VARIANCE: return window.variance();
+                case RATE: return window.rate();
+                default: return window.mean();
+            }
+        }
+    }
+
+    private final String[] subs;
+    private final String[] pubs;
+    private final Statistic statistic;
+    private final SlidingWindow window;
+    private final int id;
+    private static int windowCounter = 0;
+
+    public WindowAgent(String[] subs, String[] pubs) {
+        this(subs, pubs, Collections.emptyMap());
+    }
+
+    public WindowAgent(String[] subs, String[] pubs, Map<String, String> options) {
+        this.subs = subs;
+        this.pubs = pubs;
+        this.statistic = Statistic.parse(options.getOrDefault("stat", "mean"));
+        this.window = SlidingWindow.parse(options.getOrDefault("window", DEFAULT_WINDOW));
+        this.id = nextId();
+        if(subs.length >= 1){
+            TopicManagerSingleton.get().getTopic(subs[0]).subscribe(this);
+        }
+        else{
+            throw new IllegalArgumentException("WindowAgent requires at least 1 subscriptions");
+        }
+
+        // Register as publisher for output topics
+        if (pubs.length > 0) {
+            TopicManagerSingleton.get().getTopic(pubs[0]).addPublisher(this);
+        }
+    }
+
+    private static synchronized int nextId() {
+        return windowCounter++;
+    }
+
+    public Statistic getStatistic() {
+        return statistic;
+    }
+
+    @Override
+    public String getName() {
+        return "WindowAgent" + id;
+    }
+
+    @Override
+    public void reset() {
+        window.clear();
+    }
+
+    @Override
+    public void callback(String topic, Message msg) {
+        if (Double.isNaN(msg.asDouble)) {
+            return;
+        }
+        if (topic.equals(TopicManagerSingleton.get().getTopic(subs[0]).name)) {
+            double result;
+            synchronized (window) {
+                window.add(msg.date.getTime(), msg.asDouble);
+                result = statistic.of(window);
+            }
+            if (pubs.length > 0) {
+                TopicManagerSingleton.get().getTopic(pubs[0]).publish(new Message(result));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        this.reset();
+    }
+}
@@ -9,7 +9,11 @@
  *   <li><strong>GenericConfig</strong> - File-based configuration loader</li>
  *   <li><strong>Graph</strong> - Graph representation and cycle detection</li>
  *   <li><strong>Node</strong> - Graph node implementation</li>
+ *   <li><strong>AgentSpec</strong> - Parsed agent entry of a configuration file</li>
  *   <li><strong>Agent implementations</strong> - PlusAgent, IncAgent, BinOpAgent</li>
+ *   <li><strong>ExpressionAgent</strong> - Evaluates a formula compiled by {@link configs.ExpressionCompiler}</li>
+ *   <li><strong>Window agent</strong> - WindowAgent, publishing the sum, mean, min, max,
+ *       variance or rate of a {@link configs.SlidingWindow}</li>
  * </ul>
  * 
  * Configurations can be loaded from text files or created programmatically,
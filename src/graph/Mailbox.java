@@ -0,0 +1,73 @@
+package graph;
+
+/**
+ * The message queue between the topics a {@link ParallelAgent} subscribes to and
+ * the thread that runs the agent. Any number of threads may enqueue; only the
+ * agent's thread drains.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+interface Mailbox {
+
+    /**
+     * Receives drained messages.
+     */
+    @FunctionalInterface
+    interface Handler {
+        /**
+         * @param topic The topic the message was published to
+         * @param msg The message
+         * @param enqueuedNanos The {@link System#nanoTime()} at which it entered the mailbox
+         */
+        void handle(String topic, Message msg, long enqueuedNanos);
+    }
+
+    /**
+     * Adds a message, applying the mailbox's overflow policy if it is full.
+     *
+     * @param topic The topic the message was published to
+     * @param msg The message
+     * @throws InterruptedException If interrupted while waiting for room
+     */
+    void enqueue(String topic, Message msg) throws InterruptedException;
+
+    /**
+     * Adds a message only if there is room right away, without applying the overflow
+     * policy and without waiting.
+     *
+     * @param topic The topic the message was published to
+     * @param msg The message
+     * @return Whether the message was added
+     */
+    boolean offer(String topic, Message msg);
+
+    /**
+     * Waits until at least one message is available, then passes every available
+     * message to the handler in order. Called only from the agent's thread.
+     *
+     * @param handler Receives each drained message
+     * @return The number of messages handled
+     * @throws InterruptedException If interrupted while waiting
+     */
+    int drain(Handler handler) throws InterruptedException;
+
+    /**
+     * Returns the number of messages waiting.
+     */
+    int size();
+
+    /**
+     * Returns how many messages were dropped because the mailbox was full.
+     */
+    long getDroppedCount();
+
+    /**
+     * Returns how many messages were replaced by a newer one on the same topic.
+     */
+    long getConflatedCount();
+
+    /**
+     * Stops accepting messages and releases producers waiting for room.
+     */
+    void close();
+}
@@ -18,6 +18,8 @@ public class Message {
     public final double asDouble;
     /** Timestamp when the message was created */
     public final Date date;
+    /** The wave this message is part of, taken from the creating thread (null outside of any wave) */
+    public final Wave wave;
 
     /**
      * Constructor to initialize a Message given a string value.
@@ -25,7 +27,18 @@ public class Message {
      * @param s The string value to create a message from
      */
     public Message(String s) {
+        this(s, Wave.current());
+    }
+
+    /**
+     * Constructor to initialize a Message that belongs to the given wave.
+     *
+     * @param s The string value to create a message from
+     * @param wave The wave the message belongs to, or null
+     */
+    Message(String s, Wave wave) {
         this.date = new Date();
+        this.wave = wave;
         this.asText = s;
         this.data = s.getBytes();
         this.asDouble = parseDouble(s);
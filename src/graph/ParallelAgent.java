@@ -1,31 +1,439 @@
 package graph;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import metrics.JfrEvents;
+import metrics.LatencyHistogram;
+import metrics.Tracer;
 
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs an agent on its own thread, fed by a bounded {@link Mailbox}.
+ *
+ * When started, the ParallelAgent takes over the wrapped agent's topic subscriptions,
+ * so publishers only enqueue messages and the agent's callbacks run on the mailbox
+ * thread. What happens when the mailbox is full is set by the {@link OverflowPolicy}.
+ *
+ * In glitch-free mode an agent with several inputs holds back the messages of a
+ * {@link Wave} until every input the wave can reach has delivered, then runs the
+ * callback for each with only the last one allowed to publish.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
 public class ParallelAgent implements Agent {
+
+    /**
+     * What a publisher does when the mailbox is full.
+     */
+    public enum OverflowPolicy {
+        /** Wait until there is room (back-pressure on the publisher) */
+        BLOCK,
+        /** Wait up to a timeout, then drop the new message */
+        BLOCK_TIMEOUT,
+        /** Drop the oldest queued message to make room */
+        DROP_OLDEST,
+        /** Drop the new message */
+        DROP_NEWEST,
+        /** Keep only the newest message per input topic; never blocks */
+        CONFLATE;
+
+        /**
+         * Parses a policy name as written in config files, e.g. "drop-oldest".
+         *
+         * @param name The policy name
+         * @return The policy
+         */
+        public static OverflowPolicy parse(String name) {
+            switch (name.trim().toLowerCase()) {
+                case "block": return BLOCK;
+                case "timeout":
+                case "block-timeout": return BLOCK_TIMEOUT;
+                case "drop-oldest": return DROP_OLDEST;
+                case "drop-newest": return DROP_NEWEST;
+                case "conflate": return CONFLATE;
+                default:
+                    throw new IllegalArgumentException("Unknown mailbox policy: " + name);
+            }
+        }
+    }
+
+    /**
+     * How the agent's thread waits for messages, and publishers wait for room,
+     * on the ring buffer mailbox.
+     */
+    public enum WaitStrategy {
+        /** Busy-spin: lowest latency, keeps a core busy */
+        SPIN,
+        /** Spin briefly, then yield the CPU between checks */
+        YIELD,
+        /** Spin briefly, then park until a message arrives */
+        PARK;
+
+        public static WaitStrategy parse(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown wait strategy: " + name);
+            }
+        }
+    }
+
+    /** Default time a wave may wait for its other inputs before it is delivered anyway */
+    public static final long DEFAULT_GLITCH_TIMEOUT_MS = 100;
+    /** Delivers stale-wave flushes for all agents */
+    private static final ScheduledExecutorService FLUSH_TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "wave-flush");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final String FLUSH_TOPIC = "";
+    private static final Message FLUSH = new Message("flush", null);
+
     // ParallelAgent has an Agent field
     private final Agent agent;
-    private final BlockingQueue<MessageWrapper> blockingQueue;
+    private final OverflowPolicy policy;
+    private final Mailbox mailbox;
+    private final List<Topic> inputs = new ArrayList<>();
     private final Thread queueHandler;
     private volatile boolean stop = false;
 
+    private volatile boolean glitchFree = false;
+    private volatile long glitchTimeoutMs = DEFAULT_GLITCH_TIMEOUT_MS;
+    // Only used from the agent's thread
+    private final TreeMap<Long, PendingWave> pendingWaves = new TreeMap<>();
+    private final Map<String, Set<String>> expectedInputsBySource = new HashMap<>();
+    private long flushDueNanos = 0;
+
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram serviceTime = new LatencyHistogram();
+    private final AtomicInteger highWaterMark = new AtomicInteger();
+
     public ParallelAgent(Agent agent, int capacity){
+        this(agent, capacity, OverflowPolicy.BLOCK, 0);
+    }
+
+    public ParallelAgent(Agent agent, int capacity, OverflowPolicy policy, long timeoutMs){
+        this(agent, capacity, policy, timeoutMs, WaitStrategy.PARK);
+    }
+
+    /**
+     * Creates a parallel agent with the given mailbox settings.
+     *
+     * The block, timeout and drop-newest policies use a lock-free ring buffer that
+     * is drained in batches; drop-oldest and conflate need to remove queued messages
+     * and use a blocking queue.
+     *
+     * @param agent The agent to run
+     * @param capacity The mailbox capacity (ignored by CONFLATE, which holds one message per topic)
+     * @param policy What to do when the mailbox is full
+     * @param timeoutMs How long BLOCK_TIMEOUT waits before dropping, in milliseconds
+     * @param waitStrategy How waiting is done on the ring buffer mailbox
+     */
+    public ParallelAgent(Agent agent, int capacity, OverflowPolicy policy, long timeoutMs, WaitStrategy waitStrategy){
         this.agent = agent;
-        this.blockingQueue = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+        if (policy == OverflowPolicy.DROP_OLDEST || policy == OverflowPolicy.CONFLATE) {
+            this.mailbox = new QueueMailbox(capacity, policy, timeoutMs);
+        } else {
+            this.mailbox = new RingMailbox(capacity, policy, waitStrategy, timeoutMs);
+        }
 
+        Mailbox.Handler deliver = this::deliver;
         this.queueHandler = new Thread(()->{
             try{
-                while (!stop || !blockingQueue.isEmpty()){
-                    MessageWrapper next = blockingQueue.take();
-                    agent.callback(next.topic, next.message);
+                while (!stop){
+                    mailbox.drain(deliver);
                 }
-            } catch (Exception e) {
+            } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
-        });
+        }, "agent-" + agent.getName());
+    }
 
+    /**
+     * Takes over the wrapped agent's subscriptions and starts the mailbox thread.
+     * Called once, after the agent is configured.
+     *
+     * @return This agent
+     */
+    public ParallelAgent start() {
+        takeOverSubscriptions();
         queueHandler.start();
+        return this;
+    }
+
+    private void deliver(String topic, Message message, long enqueuedNanos) {
+        if (message == FLUSH) {
+            flushStale();
+            return;
+        }
+        long now = System.nanoTime();
+        queueWait.record(now - enqueuedNanos);
+        JfrEvents.MailboxWait waitEvent = new JfrEvents.MailboxWait();
+        if (waitEvent.shouldCommit()) {
+            waitEvent.agent = agent.getName();
+            waitEvent.topic = topic;
+            waitEvent.queueWait = now - enqueuedNanos;
+            waitEvent.depth = mailbox.size();
+            waitEvent.commit();
+        }
+        Wave wave = message.wave;
+        if (wave != null && wave.isSampled()) {
+            Tracer.span(wave.getId(), "mailbox " + agent.getName() + " <- " + topic, "queue", enqueuedNanos, now);
+        }
+        if (!glitchFree || wave == null || inputs.size() < 2) {
+            run(topic, message, false);
+            return;
+        }
+        Set<String> expected = expectedInputs(wave.getSource());
+        if (expected.size() < 2 || !expected.contains(topic)) {
+            run(topic, message, false);
+            return;
+        }
+
+        // Hold the message until every input this wave reaches has delivered
+        PendingWave pending = pendingWaves.computeIfAbsent(wave.getId(), id -> new PendingWave(expected));
+        pending.add(topic, message);
+        if (pending.isComplete()) {
+            flushThrough(wave.getId());
+        }
+        if (!pendingWaves.isEmpty()) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Runs the agent's callback for one message, with the message's wave current
+     * so that messages the agent publishes belong to the same wave.
+     *
+     * @param muted Whether the agent's publishes are suppressed for this call
+     */
+    private void run(String topic, Message message, boolean muted) {
+        Wave previous = Wave.enter(message.wave);
+        if (muted) {
+            Topic.setMuted(true);
+        }
+        JfrEvents.AgentCallback event = new JfrEvents.AgentCallback();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            agent.callback(topic, message);
+        } catch (RuntimeException e) {
+            // A failing message must not stop the agent's thread
+            System.out.println("[ParallelAgent] " + agent.getName() + " failed on topic " + topic + ": " + e.getMessage());
+        } finally {
+            long end = System.nanoTime();
+            serviceTime.record(end - start);
+            if (event.shouldCommit()) {
+                event.agent = agent.getName();
+                event.topic = topic;
+                event.muted = muted;
+                event.wave = message.wave != null ? message.wave.getId() : 0;
+                event.commit();
+            }
+            if (message.wave != null && message.wave.isSampled()) {
+                Tracer.span(message.wave.getId(), agent.getName() + (muted ? " (muted)" : ""), "agent", start, end);
+            }
+            if (muted) {
+                Topic.setMuted(false);
+            }
+            Wave.exit(previous);
+            Wave.release(message);
+        }
+    }
+
+    /**
+     * Delivers every pending wave up to and including the given one, oldest first.
+     * Only the very last message publishes, so the agent emits one result that
+     * reflects all of the delivered inputs.
+     */
+    private void flushThrough(long waveId) {
+        List<Map.Entry<String, Message>> batch = new ArrayList<>();
+        while (!pendingWaves.isEmpty() && pendingWaves.firstKey() <= waveId) {
+            batch.addAll(pendingWaves.pollFirstEntry().getValue().messages);
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            run(batch.get(i).getKey(), batch.get(i).getValue(), i < batch.size() - 1);
+        }
+    }
+
+    /**
+     * Delivers the waves that waited longer than the glitch timeout, e.g. because an
+     * upstream agent dropped its message or did not publish.
+     */
+    private void flushStale() {
+        flushDueNanos = 0;
+        long cutoff = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(glitchTimeoutMs);
+        long lastStale = -1;
+        for (Map.Entry<Long, PendingWave> entry : pendingWaves.entrySet()) {
+            if (entry.getValue().createdNanos - cutoff <= 0) {
+                lastStale = entry.getKey();
+            }
+        }
+        if (lastStale >= 0) {
+            flushThrough(lastStale);
+        }
+        if (!pendingWaves.isEmpty()) {
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        long now = System.nanoTime();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(glitchTimeoutMs);
+        // Re-arm if no flush is due, or the one that was due never arrived (dropped by a full mailbox)
+        if (flushDueNanos != 0 && now - flushDueNanos < timeoutNanos) {
+            return;
+        }
+        flushDueNanos = now + timeoutNanos;
+        // The timer thread is shared by every agent, so it must never wait for room;
+        // a flush that does not fit is re-armed by the next message
+        FLUSH_TIMER.schedule(() -> mailbox.offer(FLUSH_TOPIC, FLUSH), glitchTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the names of this agent's inputs that a wave starting at the given
+     * topic can reach, following subscriptions and publications through the graph.
+     */
+    private Set<String> expectedInputs(String source) {
+        Set<String> expected = expectedInputsBySource.get(source);
+        if (expected != null) {
+            return expected;
+        }
+        expected = new HashSet<>();
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        if (tm.topicExists(source)) {
+            Map<Agent, List<Topic>> outputs = new HashMap<>();
+            for (Topic t : tm.getTopics()) {
+                for (Agent publisher : t.getPubs()) {
+                    outputs.computeIfAbsent(publisher, k -> new ArrayList<>()).add(t);
+                }
+            }
+            Set<Topic> reached = new HashSet<>();
+            Deque<Topic> todo = new ArrayDeque<>();
+            Topic start = tm.getTopic(source);
+            reached.add(start);
+            todo.add(start);
+            while (!todo.isEmpty()) {
+                for (Agent sub : todo.poll().getSubs()) {
+                    Agent raw = sub instanceof ParallelAgent ? ((ParallelAgent) sub).agent : sub;
+                    for (Topic out : outputs.getOrDefault(raw, Collections.emptyList())) {
+                        if (reached.add(out)) {
+                            todo.add(out);
+                        }
+                    }
+                }
+            }
+            for (Topic input : inputs) {
+                if (reached.contains(input)) {
+                    expected.add(input.name);
+                }
+            }
+        }
+        expectedInputsBySource.put(source, expected);
+        return expected;
+    }
+
+    /**
+     * Makes the agent wait, when it has several inputs, until a wave has delivered
+     * all the inputs it reaches before running, so it never combines a new value from
+     * one path with a stale value from another. A wave still incomplete after
+     * {@code timeoutMs} is delivered as it is.
+     *
+     * @param enabled Whether to hold back incomplete waves
+     * @param timeoutMs How long a wave may wait for its other inputs, in milliseconds
+     */
+    public void setGlitchFree(boolean enabled, long timeoutMs) {
+        this.glitchTimeoutMs = timeoutMs;
+        this.glitchFree = enabled;
+    }
+
+    public boolean isGlitchFree() {
+        return glitchFree;
+    }
+
+    /**
+     * Replaces the wrapped agent with this one in the subscribers of every topic,
+     * so messages go through the mailbox instead of calling the agent directly.
+     */
+    private void takeOverSubscriptions() {
+        for (Topic topic : TopicManagerSingleton.get().getTopics()) {
+            if (topic.replaceSubscriber(agent, this)) {
+                inputs.add(topic);
+            }
+        }
+    }
+
+    /**
+     * Returns the topics this agent receives messages from.
+     *
+     * @return The input topics
+     */
+    public List<Topic> getInputs() {
+        return Collections.unmodifiableList(inputs);
+    }
+
+    public Agent getAgent() {
+        return agent;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns the number of messages waiting in the mailbox.
+     */
+    public int getQueueSize() {
+        return mailbox.size();
+    }
+
+    /**
+     * Returns the largest number of messages that have been waiting in the mailbox at once.
+     */
+    public int getHighWaterMark() {
+        return highWaterMark.get();
+    }
+
+    /**
+     * Returns how long messages waited in the mailbox before the agent got to them.
+     */
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    /**
+     * Returns how long the agent's callback took per message.
+     */
+    public LatencyHistogram getServiceTime() {
+        return serviceTime;
+    }
+
+    /**
+     * Returns how many messages were dropped because the mailbox was full.
+     */
+    public long getDroppedCount() {
+        return mailbox.getDroppedCount();
+    }
+
+    /**
+     * Returns how many messages were replaced by a newer one on the same topic.
+     */
+    public long getConflatedCount() {
+        return mailbox.getConflatedCount();
     }
 
     @Override
@@ -40,9 +448,30 @@ public class ParallelAgent implements Agent {
 
     @Override
     public void callback(String topic, Message msg) {
+        if (stop) {
+            return;
+        }
+        // Count the message in its wave until it is handled or dropped
+        if (msg.wave != null) {
+            msg.wave.retain();
+        }
+        JfrEvents.MailboxEnqueue event = new JfrEvents.MailboxEnqueue();
+        event.begin();
         try{
-            blockingQueue.put(new MessageWrapper(topic, msg));
-        } catch (Exception e) {
+            mailbox.enqueue(topic, msg);
+            if (event.shouldCommit()) {
+                event.agent = agent.getName();
+                event.topic = topic;
+                event.policy = policy.name();
+                event.commit();
+            }
+            int depth = mailbox.size();
+            if (depth > highWaterMark.get()) {
+                highWaterMark.accumulateAndGet(depth, Math::max);
+            }
+        } catch (InterruptedException e) {
+            Wave.release(msg);
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
         }
     }
@@ -50,16 +479,31 @@ public class ParallelAgent implements Agent {
     @Override
     public void close() {
         stop = true;
+        for (Topic topic : inputs) {
+            topic.unsubscribe(this);
+        }
+        mailbox.close();
         queueHandler.interrupt();
+        agent.close();
     }
 
-    private static class MessageWrapper{
-        final String topic;
-        final Message message;
+    /** The messages of one wave received so far, in arrival order */
+    private static class PendingWave {
+        final long createdNanos = System.nanoTime();
+        final Set<String> missing;
+        final List<Map.Entry<String, Message>> messages = new ArrayList<>(2);
+
+        PendingWave(Set<String> expected) {
+            this.missing = new HashSet<>(expected);
+        }
+
+        void add(String topic, Message message) {
+            messages.add(new AbstractMap.SimpleImmutableEntry<>(topic, message));
+            missing.remove(topic);
+        }
 
-        public MessageWrapper(String topic, Message message){
-            this.topic = topic;
-            this.message = message;
+        boolean isComplete() {
+            return missing.isEmpty();
         }
     }
 }
@@ -0,0 +1,148 @@
+package graph;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mailbox backed by a {@link BlockingQueue}. Supports every overflow policy,
+ * including the ones where a producer removes or replaces queued messages
+ * (drop-oldest and conflate), which the ring buffer mailbox cannot do.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+class QueueMailbox implements Mailbox {
+    private final ParallelAgent.OverflowPolicy policy;
+    private final long timeoutMs;
+    private final BlockingQueue<MessageWrapper> queue;
+    /** Newest pending message per topic, only used by the CONFLATE policy */
+    private final ConcurrentHashMap<String, Message> latest = new ConcurrentHashMap<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong conflated = new AtomicLong();
+    private volatile boolean closed = false;
+
+    QueueMailbox(int capacity, ParallelAgent.OverflowPolicy policy, long timeoutMs) {
+        this.policy = policy;
+        this.timeoutMs = timeoutMs;
+        this.queue = policy == ParallelAgent.OverflowPolicy.CONFLATE
+                ? new LinkedBlockingQueue<>()
+                : new ArrayBlockingQueue<>(capacity);
+    }
+
+    @Override
+    public void enqueue(String topic, Message msg) throws InterruptedException {
+        if (closed) {
+            Wave.release(msg);
+            return;
+        }
+        switch (policy) {
+            case BLOCK:
+                queue.put(new MessageWrapper(topic, msg));
+                break;
+            case BLOCK_TIMEOUT:
+                if (!queue.offer(new MessageWrapper(topic, msg), timeoutMs, TimeUnit.MILLISECONDS)) {
+                    dropped.incrementAndGet();
+                    Wave.release(msg);
+                }
+                break;
+            case DROP_OLDEST:
+                MessageWrapper wrapper = new MessageWrapper(topic, msg);
+                while (!queue.offer(wrapper)) {
+                    MessageWrapper oldest = queue.poll();
+                    if (oldest != null) {
+                        dropped.incrementAndGet();
+                        Wave.release(oldest.message);
+                    }
+                }
+                break;
+            case DROP_NEWEST:
+                if (!queue.offer(new MessageWrapper(topic, msg))) {
+                    dropped.incrementAndGet();
+                    Wave.release(msg);
+                }
+                break;
+            case CONFLATE:
+                conflate(topic, msg);
+                break;
+        }
+    }
+
+    @Override
+    public boolean offer(String topic, Message msg) {
+        if (closed) {
+            return false;
+        }
+        if (policy == ParallelAgent.OverflowPolicy.CONFLATE) {
+            conflate(topic, msg);
+            return true;
+        }
+        return queue.offer(new MessageWrapper(topic, msg));
+    }
+
+    private void conflate(String topic, Message msg) {
+        // Only the first pending message of a topic enqueues a wake-up,
+        // later ones just replace it; the queue is unbounded so the offer succeeds
+        Message replaced = latest.put(topic, msg);
+        if (replaced != null) {
+            conflated.incrementAndGet();
+            Wave.release(replaced);
+        } else {
+            queue.offer(new MessageWrapper(topic, null));
+        }
+    }
+
+    @Override
+    public int drain(Handler handler) throws InterruptedException {
+        MessageWrapper next = queue.take();
+        int handled = 0;
+        do {
+            Message message = next.message;
+            if (message == null) {
+                message = latest.remove(next.topic);
+            }
+            if (message != null) {
+                handler.handle(next.topic, message, next.enqueuedNanos);
+                handled++;
+            }
+        } while ((next = queue.poll()) != null);
+        return handled;
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public long getConflatedCount() {
+        return conflated.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        MessageWrapper pending;
+        while ((pending = queue.poll()) != null) {
+            Wave.release(pending.message != null ? pending.message : latest.remove(pending.topic));
+        }
+    }
+
+    private static class MessageWrapper {
+        final String topic;
+        final Message message;
+        final long enqueuedNanos = System.nanoTime();
+
+        MessageWrapper(String topic, Message message) {
+            this.topic = topic;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package graph;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free multi-producer, single-consumer mailbox on a preallocated ring buffer.
+ *
+ * Each slot has a sequence number telling whose turn it is: a slot is free for the
+ * producer claiming position p when its sequence is p, and holds a message for the
+ * consumer at position p when its sequence is p + 1. Producers claim positions with
+ * a CAS on the tail and write the topic, message and enqueue time into parallel arrays,
+ * so enqueueing allocates nothing. The consumer drains every published slot per
+ * wakeup and hands each slot back by advancing its sequence by the ring size.
+ *
+ * The ring size is the capacity rounded up to a power of two, but producers also
+ * check the distance between the tail and the head, so no more than the configured
+ * capacity of messages ever wait and the overflow policies take effect exactly there.
+ *
+ * Supports the BLOCK, BLOCK_TIMEOUT and DROP_NEWEST policies; the others need a
+ * producer to remove queued messages and use {@link QueueMailbox}.
+ *
+ * Closing releases the waves of the messages still in the ring, like
+ * {@link QueueMailbox#close()}. Whichever of {@link #close()} and the consumer finishes
+ * last does it, so the slots never have two consumers.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+class RingMailbox implements Mailbox {
+    /** Busy-wait iterations before the YIELD and PARK strategies back off */
+    private static final int SPIN_TRIES = 100;
+    /** How long a producer waiting for room parks between retries */
+    private static final long PRODUCER_PARK_NANOS = 50_000;
+
+    private final ParallelAgent.OverflowPolicy policy;
+    private final ParallelAgent.WaitStrategy waitStrategy;
+    private final long timeoutNanos;
+    private final int mask;
+    /** The configured capacity; the ring itself is rounded up to a power of two */
+    private final int limit;
+    private final AtomicLongArray sequences;
+    private final String[] topics;
+    private final Message[] messages;
+    private final long[] enqueuedAt;
+    private final AtomicLong tail = new AtomicLong();
+    /** Next position to consume, written only by the consumer */
+    private volatile long head = 0;
+
+    private volatile Thread consumer;
+    private volatile boolean consumerParked = false;
+    private volatile boolean closed = false;
+    /** Held by the thread consuming slots: the consumer in drain, or the one releasing them after close */
+    private final AtomicBoolean consuming = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+
+    RingMailbox(int capacity, ParallelAgent.OverflowPolicy policy, ParallelAgent.WaitStrategy waitStrategy, long timeoutMs) {
+        if (policy != ParallelAgent.OverflowPolicy.BLOCK && policy != ParallelAgent.OverflowPolicy.BLOCK_TIMEOUT
+                && policy != ParallelAgent.OverflowPolicy.DROP_NEWEST) {
+            throw new IllegalArgumentException("Ring mailbox does not support policy " + policy);
+        }
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.policy = policy;
+        this.waitStrategy = waitStrategy;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        this.mask = size - 1;
+        this.limit = Math.max(capacity, 1);
+        this.sequences = new AtomicLongArray(size);
+        this.topics = new String[size];
+        this.messages = new Message[size];
+        this.enqueuedAt = new long[size];
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    @Override
+    public void enqueue(String topic, Message msg) throws InterruptedException {
+        if (tryEnqueue(topic, msg)) {
+            return;
+        }
+        if (policy == ParallelAgent.OverflowPolicy.DROP_NEWEST) {
+            dropped.incrementAndGet();
+            Wave.release(msg);
+            return;
+        }
+
+        long deadline = System.nanoTime() + timeoutNanos;
+        for (int tries = 0; ; tries++) {
+            if (closed || (policy == ParallelAgent.OverflowPolicy.BLOCK_TIMEOUT && System.nanoTime() - deadline >= 0)) {
+                dropped.incrementAndGet();
+                Wave.release(msg);
+                return;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            backOff(tries, true);
+            if (tryEnqueue(topic, msg)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean offer(String topic, Message msg) {
+        return tryEnqueue(topic, msg);
+    }
+
+    /**
+     * Claims the next slot and publishes the message into it.
+     *
+     * @return false if the ring is full or closed
+     */
+    private boolean tryEnqueue(String topic, Message msg) {
+        if (closed) {
+            return false;
+        }
+        long pos = tail.get();
+        while (true) {
+            if (pos - head >= limit) {
+                // Full at the configured capacity, though the ring may have more slots
+                return false;
+            }
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    topics[index] = topic;
+                    messages[index] = msg;
+                    enqueuedAt[index] = System.nanoTime();
+                    // Volatile write publishes the slot contents to the consumer
+                    sequences.set(index, pos + 1);
+                    if (consumerParked) {
+                        LockSupport.unpark(consumer);
+                    }
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // The slot still holds a message from one lap ago
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    @Override
+    public int drain(Handler handler) throws InterruptedException {
+        if (!consuming.compareAndSet(false, true)) {
+            // Closed, and the remaining messages were released
+            return 0;
+        }
+        try {
+            return drainSlots(handler);
+        } finally {
+            consuming.set(false);
+            if (closed) {
+                releaseRemaining();
+            }
+        }
+    }
+
+    private int drainSlots(Handler handler) throws InterruptedException {
+        if (consumer == null) {
+            consumer = Thread.currentThread();
+        }
+        long pos = head;
+        for (int tries = 0; !isPublished(pos); tries++) {
+            if (closed) {
+                return 0;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (waitStrategy == ParallelAgent.WaitStrategy.PARK && tries >= SPIN_TRIES) {
+                // Announce the park, then re-check so a producer that published
+                // before seeing the flag is not missed
+                consumerParked = true;
+                if (!isPublished(pos)) {
+                    LockSupport.park(this);
+                }
+                consumerParked = false;
+            } else {
+                backOff(tries, false);
+            }
+        }
+
+        int handled = 0;
+        int capacity = mask + 1;
+        while (handled < capacity && isPublished(pos)) {
+            int index = (int) pos & mask;
+            String topic = topics[index];
+            Message msg = messages[index];
+            long enqueued = enqueuedAt[index];
+            topics[index] = null;
+            messages[index] = null;
+            // Hand the slot back to producers before running the callback
+            sequences.set(index, pos + capacity);
+            head = ++pos;
+            handler.handle(topic, msg, enqueued);
+            handled++;
+        }
+        return handled;
+    }
+
+    private boolean isPublished(long pos) {
+        return sequences.get((int) pos & mask) == pos + 1;
+    }
+
+    private void backOff(int tries, boolean producer) {
+        switch (waitStrategy) {
+            case SPIN:
+                Thread.onSpinWait();
+                break;
+            case YIELD:
+                if (tries < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+                break;
+            case PARK:
+                if (tries < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                } else if (producer) {
+                    LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+                } else {
+                    Thread.yield();
+                }
+                break;
+        }
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public long getConflatedCount() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Thread c = consumer;
+        if (c != null) {
+            LockSupport.unpark(c);
+        }
+        releaseRemaining();
+    }
+
+    /**
+     * Releases the waves of the messages left in the ring, unless the consumer is still
+     * in drain; it calls this again on its way out.
+     */
+    private void releaseRemaining() {
+        if (!consuming.compareAndSet(false, true)) {
+            return;
+        }
+        // The flag is kept, so nothing is consumed after this
+        long pos = head;
+        while (pos < tail.get()) {
+            int index = (int) pos & mask;
+            while (!isPublished(pos)) {
+                // Claimed by a producer that is still writing the slot
+                Thread.onSpinWait();
+            }
+            Message msg = messages[index];
+            topics[index] = null;
+            messages[index] = null;
+            head = ++pos;
+            Wave.release(msg);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class RingMailboxTest {
+    private static int failures = 0;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("=== Testing Ring Mailbox ===\n");
+
+        testFifo();
+        testCapacityAndOffer();
+        testDropNewest();
+        testBlockTimeout();
+        testBlockWaitsForRoom();
+        testUnsupportedPolicy();
+        testClose();
+        testCloseReleasesWaves();
+        // SPIN is left out: with more threads than cores, spinning producers starve the consumer
+        testManyProducers(ParallelAgent.WaitStrategy.YIELD);
+        testManyProducers(ParallelAgent.WaitStrategy.PARK);
+
+        System.out.println(failures == 0 ? "All ring mailbox tests passed" : failures + " ring mailbox test(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void testFifo() throws InterruptedException {
+        System.out.println("Test Case 1: Messages are drained in order");
+        RingMailbox box = mailbox(8, ParallelAgent.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 5; i++) {
+            box.enqueue("T" + i, new Message(i));
+        }
+        check("size counts waiting messages", box.size() == 5);
+        List<String> drained = new ArrayList<>();
+        int handled = box.drain((topic, msg, enqueued) -> drained.add(topic + "=" + (int) msg.asDouble));
+        check("one drain handles every waiting message", handled == 5);
+        check("order is kept", drained.equals(List.of("T0=0", "T1=1", "T2=2", "T3=3", "T4=4")));
+        check("mailbox is empty afterwards", box.size() == 0);
+    }
+
+    private static void testCapacityAndOffer() throws InterruptedException {
+        System.out.println("Test Case 2: Capacity is exact, not rounded to the ring size");
+        RingMailbox box = mailbox(5, ParallelAgent.OverflowPolicy.BLOCK);
+        int accepted = 0;
+        while (box.offer("T", new Message(accepted)) && accepted < 100) {
+            accepted++;
+        }
+        check("capacity 5 holds 5 messages", accepted == 5);
+        box.drain((topic, msg, enqueued) -> { });
+        check("drained slots are reused", box.offer("T", new Message(0)));
+        check("offer does not count drops", box.getDroppedCount() == 0);
+
+        RingMailbox dropping = mailbox(10, ParallelAgent.OverflowPolicy.DROP_NEWEST);
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 11; i++) {
+                dropping.enqueue("T", new Message(i));
+            }
+            dropping.drain((topic, msg, enqueued) -> { });
+        }
+        check("capacity 10 drops the 11th message on every lap", dropping.getDroppedCount() == 3);
+    }
+
+    private static void testDropNewest() throws InterruptedException {
+        System.out.println("Test Case 3: DROP_NEWEST drops when full");
+        RingMailbox box = mailbox(2, ParallelAgent.OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 5; i++) {
+            box.enqueue("T", new Message(i));
+        }
+        check("three messages dropped", box.getDroppedCount() == 3);
+        List<Double> drained = new ArrayList<>();
+        box.drain((topic, msg, enqueued) -> drained.add(msg.asDouble));
+        check("the oldest messages are kept", drained.equals(List.of(0.0, 1.0)));
+    }
+
+    private static void testBlockTimeout() throws InterruptedException {
+        System.out.println("Test Case 4: BLOCK_TIMEOUT gives up after the timeout");
+        RingMailbox box = new RingMailbox(2, ParallelAgent.OverflowPolicy.BLOCK_TIMEOUT, ParallelAgent.WaitStrategy.PARK, 20);
+        box.enqueue("T", new Message(0));
+        box.enqueue("T", new Message(1));
+        long start = System.nanoTime();
+        box.enqueue("T", new Message(2));
+        long waitedMs = (System.nanoTime() - start) / 1_000_000;
+        check("enqueue waited about the timeout (" + waitedMs + "ms)", waitedMs >= 15 && waitedMs < 2000);
+        check("message dropped after the timeout", box.getDroppedCount() == 1);
+    }
+
+    private static void testBlockWaitsForRoom() throws InterruptedException {
+        System.out.println("Test Case 5: BLOCK waits until the consumer makes room");
+        RingMailbox box = mailbox(2, ParallelAgent.OverflowPolicy.BLOCK);
+        box.enqueue("T", new Message(0));
+        box.enqueue("T", new Message(1));
+        AtomicBoolean done = new AtomicBoolean();
+        Thread producer = new Thread(() -> {
+            try {
+                box.enqueue("T", new Message(2));
+                done.set(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        Thread.sleep(50);
+        check("producer is still waiting", !done.get());
+        box.drain((topic, msg, enqueued) -> { });
+        producer.join(2000);
+        check("producer finished after the drain", done.get());
+        check("nothing dropped", box.getDroppedCount() == 0);
+    }
+
+    private static void testUnsupportedPolicy() {
+        System.out.println("Test Case 6: Policies that remove queued messages are rejected");
+        boolean rejected = false;
+        try {
+            mailbox(8, ParallelAgent.OverflowPolicy.DROP_OLDEST);
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        check("DROP_OLDEST needs the queue mailbox", rejected);
+    }
+
+    private static void testClose() throws InterruptedException {
+        System.out.println("Test Case 7: Closed mailbox refuses messages");
+        RingMailbox box = mailbox(2, ParallelAgent.OverflowPolicy.BLOCK);
+        box.enqueue("T", new Message(0));
+        box.enqueue("T", new Message(1));
+        Thread producer = new Thread(() -> {
+            try {
+                box.enqueue("T", new Message(2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        Thread.sleep(20);
+        box.close();
+        producer.join(2000);
+        check("waiting producer is released", !producer.isAlive());
+        check("offer fails after close", !box.offer("T", new Message(3)));
+    }
+
+    private static void testCloseReleasesWaves() throws InterruptedException {
+        System.out.println("Test Case 8: Closing releases the waves of queued messages");
+        RingMailbox box = mailbox(8, ParallelAgent.OverflowPolicy.BLOCK);
+        Thread consumer = new Thread(() -> {
+            try {
+                box.drain((topic, msg, enqueued) -> { });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.start();
+        Thread.sleep(20);
+        // The consumer is waiting in drain; it must return once the mailbox is closed
+        box.close();
+        consumer.join(2000);
+        check("waiting consumer returns on close", !consumer.isAlive());
+
+        RingMailbox queued = mailbox(8, ParallelAgent.OverflowPolicy.BLOCK);
+        Wave wave = Wave.begin("T");
+        for (int i = 0; i < 3; i++) {
+            // Counted the way ParallelAgent counts a message entering its mailbox
+            wave.retain();
+            queued.enqueue("T", new Message(i));
+        }
+        wave.end();
+        check("wave waits for the queued messages", !wave.await(20));
+        queued.close();
+        check("wave completes once the mailbox is closed", wave.await(1000));
+        check("nothing is drained after close", queued.drain((topic, msg, enqueued) -> { }) == 0 && queued.size() == 0);
+    }
+
+    private static void testManyProducers(ParallelAgent.WaitStrategy strategy) throws InterruptedException {
+        System.out.println("Test Case 9: Four producers, one consumer, " + strategy);
+        int producers = 4;
+        int perProducer = 20_000;
+        RingMailbox box = new RingMailbox(64, ParallelAgent.OverflowPolicy.BLOCK, strategy, 0);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            String topic = "P" + p;
+            Thread t = new Thread(() -> {
+                try {
+                    for (int i = 0; i < perProducer; i++) {
+                        box.enqueue(topic, new Message(i));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+
+        int[] next = new int[producers];
+        boolean[] inOrder = {true};
+        int received = 0;
+        while (received < producers * perProducer) {
+            received += box.drain((topic, msg, enqueued) -> {
+                int p = topic.charAt(1) - '0';
+                inOrder[0] &= (int) msg.asDouble == next[p];
+                next[p]++;
+            });
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        check("every message received", received == producers * perProducer && box.size() == 0);
+        check("each producer's messages arrive in order", inOrder[0]);
+        check("nothing dropped", box.getDroppedCount() == 0);
+    }
+
+    private static RingMailbox mailbox(int capacity, ParallelAgent.OverflowPolicy policy) {
+        return new RingMailbox(capacity, policy, ParallelAgent.WaitStrategy.PARK, 0);
+    }
+
+    private static void check(String name, boolean ok) {
+        System.out.println((ok ? "  PASS " : "  FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package graph;
+
+/**
+ * An agent whose internal state can be saved and restored.
+ *
+ * The {@link TopicJournal} stores the state of every stateful agent in its
+ * snapshots so that a restarted server resumes with the same values instead of
+ * waiting for all inputs to be published again.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public interface StatefulAgent extends Agent {
+
+    /**
+     * Returns the agent's internal state encoded as a string.
+     *
+     * @return The encoded state
+     */
+    String saveState();
+
+    /**
+     * Restores the agent's internal state from a string produced by {@link #saveState()}.
+     *
+     * @param state The encoded state
+     */
+    void restoreState(String state);
+}
@@ -1,7 +1,15 @@
 package graph;
 
-import java.util.HashSet;
+import metrics.JfrEvents;
+import metrics.Tracer;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 /**
  * Represents a topic in the publisher/subscriber system.
@@ -14,14 +22,34 @@ import java.util.Set;
  * @author Omri Triki, Yuval Disatnik
  */
 public class Topic {
+    /** Set on threads whose publishes are currently suppressed, see {@link #setMuted(boolean)} */
+    private static final ThreadLocal<Boolean> MUTED = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    /**
+     * Source of {@link #instance} numbers. Starts at a random value in each process, so a
+     * topic of a restarted server does not reuse the instance number of the one before.
+     */
+    private static final AtomicLong INSTANCES = new AtomicLong(ThreadLocalRandom.current().nextLong() >>> 1);
     /** The name of this topic */
     public final String name;
-    /** Set of agents subscribed to this topic */
-    private final Set<Agent> subs;
+    /**
+     * Set of agents subscribed to this topic. Never changed in place: publishes iterate
+     * it while config loads and reloads swap subscribers on other threads.
+     */
+    private volatile Set<Agent> subs;
     /** Set of agents that publish to this topic */
-    private final Set<Agent> pubs;
+    private volatile Set<Agent> pubs;
     /** The last message published to this topic (thread-safe) */
     private volatile String lastMessage = null;
+    /** Computes the value on demand for topics whose publisher was fused away, or null */
+    private volatile Supplier<String> valueSupplier = null;
+    /** Recent numeric values of this topic, or null if history is disabled */
+    private volatile TopicHistory history = null;
+    /** Number of messages published to this topic */
+    private final LongAdder publishCount = new LongAdder();
+    /** Tells this topic apart from an earlier topic of the same name, e.g. before a config reload */
+    private final long instance = INSTANCES.incrementAndGet();
+    /** Incremented after every change of the last message */
+    private final AtomicLong version = new AtomicLong();
 
 	/**
 	 * Creates a new topic with the specified name.
@@ -30,8 +58,8 @@ public class Topic {
 	 */
 	Topic(String name) {
 		this.name = name;
-		subs = new HashSet<>();
-		pubs = new HashSet<>();
+		subs = Collections.emptySet();
+		pubs = Collections.emptySet();
 	}
 
 	/**
@@ -40,8 +68,8 @@ public class Topic {
 	 * 
 	 * @param a The agent to subscribe
 	 */
-	public void subscribe(Agent a) {
-        subs.add(a);
+	public synchronized void subscribe(Agent a) {
+		subs = with(subs, a);
 	}
 
 	/**
@@ -50,8 +78,51 @@ public class Topic {
 	 * 
 	 * @param a The agent to unsubscribe
 	 */
-	public void unsubscribe(Agent a) {
-		subs.remove(a);
+	public synchronized void unsubscribe(Agent a) {
+		subs = without(subs, a);
+	}
+
+	/**
+	 * Replaces a subscriber in one step, so a concurrent publish reaches either the old
+	 * or the new subscriber but never both or neither.
+	 *
+	 * @param old The agent to unsubscribe
+	 * @param replacement The agent to subscribe in its place
+	 * @return Whether {@code old} was subscribed; if not, nothing changes
+	 */
+	public synchronized boolean replaceSubscriber(Agent old, Agent replacement) {
+		if (!subs.contains(old)) {
+			return false;
+		}
+		subs = with(without(subs, old), replacement);
+		return true;
+	}
+
+	private static Set<Agent> with(Set<Agent> set, Agent a) {
+		Set<Agent> copy = new LinkedHashSet<>(set);
+		copy.add(a);
+		return Collections.unmodifiableSet(copy);
+	}
+
+	private static Set<Agent> without(Set<Agent> set, Agent a) {
+		Set<Agent> copy = new LinkedHashSet<>(set);
+		copy.remove(a);
+		return Collections.unmodifiableSet(copy);
+	}
+
+	/**
+	 * Suppresses publishing on the current thread. A {@link ParallelAgent} mutes the
+	 * deliveries of a wave that are followed by another one for the same agent, so
+	 * the agent only publishes once, with all of the wave's inputs applied.
+	 *
+	 * @param muted Whether publish calls on this thread should be ignored
+	 */
+	static void setMuted(boolean muted) {
+		if (muted) {
+			MUTED.set(Boolean.TRUE);
+		} else {
+			MUTED.remove();
+		}
 	}
 
 	/**
@@ -61,10 +132,34 @@ public class Topic {
 	 * @param m The message to publish
 	 */
 	public void publish(Message m) {
+		if (MUTED.get()) {
+			return;
+		}
+		JfrEvents.Publish event = new JfrEvents.Publish();
+		event.begin();
 		this.lastMessage = m.asText;
+		version.incrementAndGet();
+		publishCount.increment();
+		if (m.wave != null && m.wave.isSampled()) {
+			Tracer.instant(m.wave.getId(), "publish " + name + "=" + m.asText, "topic", System.nanoTime());
+		}
+		TopicHistory h = history;
+		if (h != null && !Double.isNaN(m.asDouble)) {
+			h.record(m.date.getTime(), m.asDouble);
+		}
+		for (TopicListener listener : TopicManagerSingleton.get().getListeners()) {
+			listener.published(name, m.asText);
+		}
+		Set<Agent> subs = this.subs;
 		for (Agent agent : subs) {
 			agent.callback(name, m);
 		}
+		if (event.shouldCommit()) {
+			event.topic = name;
+			event.subscribers = subs.size();
+			event.wave = m.wave != null ? m.wave.getId() : 0;
+			event.commit();
+		}
 	}
 
 	/**
@@ -73,16 +168,96 @@ public class Topic {
 	 * @return The last message as a string, or null if no message has been published
 	 */
 	public String getLastMessage() {
+		Supplier<String> supplier = valueSupplier;
+		if (supplier != null) {
+			return supplier.get();
+		}
 		return this.lastMessage;
 	}
 
+	/**
+	 * Returns a number that changes whenever the last message does, for clients that
+	 * want to know whether a topic changed since they last read it. The version is
+	 * bumped after the message is stored, so a value read after the version is at least
+	 * as new as that version. Topics that compute their value on demand are not
+	 * published to and return -1.
+	 *
+	 * @return The version, or -1 if the value is computed on demand
+	 */
+	public long getVersion() {
+		return valueSupplier != null ? -1 : version.get();
+	}
+
+	/**
+	 * Returns a number that no other topic created by this process has, so versions of
+	 * a topic from before a config reload are not mistaken for those of the new one.
+	 * Numbers start at a random value per process, so the same goes across restarts.
+	 *
+	 * @return The instance number
+	 */
+	public long getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Makes this topic compute its value on demand instead of reporting the last published one.
+	 * Used for intermediate topics of fused agents, which no agent publishes to any more
+	 * and which are only read for display.
+	 * 
+	 * @param supplier Computes the current value, or returns null if there is none
+	 */
+	public void setValueSupplier(Supplier<String> supplier) {
+		this.valueSupplier = supplier;
+	}
+
+	/**
+	 * Returns whether this topic's value is computed on demand by an agent, see
+	 * {@link #setValueSupplier(Supplier)}. Such a topic is never published to, and
+	 * publishes from outside the graph would be lost, so callers refuse them.
+	 *
+	 * @return Whether the value is computed on demand
+	 */
+	public boolean isDerived() {
+		return valueSupplier != null;
+	}
+
+	/**
+	 * Starts retaining the last {@code capacity} numeric values published to this topic.
+	 * Replaces any existing history.
+	 * 
+	 * @param capacity The number of samples to retain
+	 */
+	public void enableHistory(int capacity) {
+		this.history = new TopicHistory(capacity);
+	}
+
+	/**
+	 * Returns the value history of this topic.
+	 * 
+	 * @return The history, or null if history is disabled
+	 */
+	public TopicHistory getHistory() {
+		return history;
+	}
+
+	/**
+	 * Restores the last message without notifying subscribers.
+	 * Used when recovering topic values from the {@link TopicJournal}.
+	 * 
+	 * @param value The value to restore
+	 */
+	void restore(String value) {
+		this.lastMessage = value;
+		version.incrementAndGet();
+	}
+
 	/**
 	 * Registers an agent as a publisher to this topic.
 	 * 
 	 * @param a The agent to register as a publisher
 	 */
-	public void addPublisher(Agent a) {
-        pubs.add(a);
+	public synchronized void addPublisher(Agent a) {
+		pubs = with(pubs, a);
 	}
 
 	/**
@@ -90,14 +265,23 @@ public class Topic {
 	 * 
 	 * @param a The agent to remove as a publisher
 	 */
-	public void removePublisher(Agent a) {
-		pubs.remove(a);
+	public synchronized void removePublisher(Agent a) {
+		pubs = without(pubs, a);
+	}
+
+	/**
+	 * Returns the number of messages published to this topic.
+	 * 
+	 * @return The publish count
+	 */
+	public long getPublishCount() {
+		return publishCount.sum();
 	}
 
 	/**
 	 * Returns the set of agents subscribed to this topic.
 	 * 
-	 * @return A set of subscribed agents
+	 * @return A read-only snapshot of the subscribed agents
 	 */
 	public Set<Agent> getSubs() {
 		return subs;
@@ -106,7 +290,7 @@ public class Topic {
 	/**
 	 * Returns the set of agents that publish to this topic.
 	 * 
-	 * @return A set of publishing agents
+	 * @return A read-only snapshot of the publishing agents
 	 */
 	public Set<Agent> getPubs() {
 		return pubs;
@@ -0,0 +1,233 @@
+package graph;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size time-series history of the numeric values published to a topic.
+ *
+ * Samples are stored in two primitive ring buffers (timestamps and values), so
+ * recording a sample never allocates. When the buffer is full the oldest sample
+ * is overwritten. Range queries return a {@link Series} that can be downsampled
+ * on the server before it is sent to a chart.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class TopicHistory {
+    private final long[] timestamps;
+    private final double[] values;
+    /** Index where the next sample will be written */
+    private int head = 0;
+    /** Number of valid samples in the buffers */
+    private int size = 0;
+
+    /**
+     * Creates a history that retains the given number of samples.
+     *
+     * @param capacity The maximum number of samples to keep
+     */
+    public TopicHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("History capacity must be positive: " + capacity);
+        }
+        this.timestamps = new long[capacity];
+        this.values = new double[capacity];
+    }
+
+    /**
+     * Records a sample, overwriting the oldest one if the history is full.
+     * A timestamp older than the newest sample (a concurrent publisher that
+     * created its message earlier but recorded it later) is clamped to the
+     * newest one, so the buffer stays sorted for {@link #query}.
+     *
+     * @param timestamp The sample time in milliseconds since the epoch
+     * @param value The sample value
+     */
+    public synchronized void record(long timestamp, double value) {
+        if (size > 0) {
+            long newest = timestamps[(head - 1 + timestamps.length) % timestamps.length];
+            timestamp = Math.max(timestamp, newest);
+        }
+        timestamps[head] = timestamp;
+        values[head] = value;
+        head = (head + 1) % timestamps.length;
+        if (size < timestamps.length) {
+            size++;
+        }
+    }
+
+    /**
+     * Returns the maximum number of samples this history retains.
+     *
+     * @return The capacity
+     */
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    /**
+     * Returns the number of samples currently retained.
+     *
+     * @return The number of samples
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns all samples with from &lt;= timestamp &lt;= to, oldest first.
+     *
+     * @param from The start of the range in milliseconds (inclusive)
+     * @param to The end of the range in milliseconds (inclusive)
+     * @return The samples in the range
+     */
+    public synchronized Series query(long from, long to) {
+        int start = (head - size + timestamps.length) % timestamps.length;
+        // Samples are appended in time order, so binary search the ring for the range
+        int lo = lowerBound(start, from);
+        int hi = lowerBound(start, to == Long.MAX_VALUE ? to : to + 1);
+        int count = Math.max(0, hi - lo);
+
+        long[] ts = new long[count];
+        double[] vs = new double[count];
+        for (int i = 0; i < count; i++) {
+            int idx = (start + lo + i) % timestamps.length;
+            ts[i] = timestamps[idx];
+            vs[i] = values[idx];
+        }
+        return new Series(ts, vs);
+    }
+
+    /**
+     * Returns the logical position of the first sample with timestamp &gt;= t.
+     */
+    private int lowerBound(int start, long t) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamps[(start + mid) % timestamps.length] < t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * An immutable sequence of (timestamp, value) samples in time order.
+     */
+    public static class Series {
+        /** Sample timestamps in milliseconds since the epoch */
+        public final long[] timestamps;
+        /** Sample values */
+        public final double[] values;
+
+        public Series(long[] timestamps, double[] values) {
+            this.timestamps = timestamps;
+            this.values = values;
+        }
+
+        public int size() {
+            return timestamps.length;
+        }
+
+        /**
+         * Downsamples with Largest-Triangle-Three-Buckets, which keeps the visual
+         * shape of the series. The first and last samples are always kept.
+         *
+         * @param threshold The maximum number of samples to return
+         * @return The downsampled series, or this series if it is already small enough
+         */
+        public Series downsampleLttb(int threshold) {
+            int n = size();
+            if (threshold >= n || threshold < 3) {
+                return this;
+            }
+            long[] ts = new long[threshold];
+            double[] vs = new double[threshold];
+            double bucketSize = (double) (n - 2) / (threshold - 2);
+
+            int a = 0;
+            ts[0] = timestamps[0];
+            vs[0] = values[0];
+            for (int i = 0; i < threshold - 2; i++) {
+                // Average of the next bucket is the third point of the triangle
+                int nextStart = (int) Math.floor((i + 1) * bucketSize) + 1;
+                int nextEnd = Math.min((int) Math.floor((i + 2) * bucketSize) + 1, n);
+                double avgX = 0;
+                double avgY = 0;
+                for (int j = nextStart; j < nextEnd; j++) {
+                    avgX += timestamps[j];
+                    avgY += values[j];
+                }
+                int nextCount = nextEnd - nextStart;
+                avgX /= nextCount;
+                avgY /= nextCount;
+
+                int start = (int) Math.floor(i * bucketSize) + 1;
+                int end = (int) Math.floor((i + 1) * bucketSize) + 1;
+                double ax = timestamps[a];
+                double ay = values[a];
+                double maxArea = -1;
+                int chosen = start;
+                for (int j = start; j < end; j++) {
+                    double area = Math.abs((ax - avgX) * (values[j] - ay) - (ax - timestamps[j]) * (avgY - ay));
+                    if (area > maxArea) {
+                        maxArea = area;
+                        chosen = j;
+                    }
+                }
+                ts[i + 1] = timestamps[chosen];
+                vs[i + 1] = values[chosen];
+                a = chosen;
+            }
+            ts[threshold - 1] = timestamps[n - 1];
+            vs[threshold - 1] = values[n - 1];
+            return new Series(ts, vs);
+        }
+
+        /**
+         * Downsamples by splitting the series into equal buckets and keeping the
+         * minimum and maximum sample of each, in time order. Spikes are never lost.
+         *
+         * @param threshold The maximum number of samples to return
+         * @return The downsampled series, or this series if it is already small enough
+         */
+        public Series downsampleMinMax(int threshold) {
+            int n = size();
+            int buckets = threshold / 2;
+            if (threshold >= n || buckets < 1) {
+                return this;
+            }
+            long[] ts = new long[buckets * 2];
+            double[] vs = new double[buckets * 2];
+            int out = 0;
+            for (int b = 0; b < buckets; b++) {
+                int start = (int) ((long) b * n / buckets);
+                int end = (int) ((long) (b + 1) * n / buckets);
+                if (start >= end) {
+                    continue;
+                }
+                int min = start;
+                int max = start;
+                for (int j = start + 1; j < end; j++) {
+                    if (values[j] < values[min]) min = j;
+                    if (values[j] > values[max]) max = j;
+                }
+                int first = Math.min(min, max);
+                int second = Math.max(min, max);
+                ts[out] = timestamps[first];
+                vs[out++] = values[first];
+                if (second != first) {
+                    ts[out] = timestamps[second];
+                    vs[out++] = values[second];
+                }
+            }
+            if (out == ts.length) {
+                return new Series(ts, vs);
+            }
+            return new Series(Arrays.copyOf(ts, out), Arrays.copyOf(vs, out));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package graph;
+
+public class TopicHistoryTest {
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        System.out.println("=== Testing Topic History ===\n");
+
+        testQueryRange();
+        testWrapAround();
+        testOutOfOrderTimestamps();
+        testDownsampling();
+
+        System.out.println(failures == 0 ? "All history tests passed" : failures + " history test(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void testQueryRange() {
+        System.out.println("Test Case 1: Query a time range");
+        TopicHistory history = new TopicHistory(10);
+        for (int i = 0; i < 5; i++) {
+            history.record(1000 + i * 10, i);
+        }
+        TopicHistory.Series series = history.query(1010, 1030);
+        check("inclusive range holds three samples", series.size() == 3);
+        check("first sample is at 1010", series.timestamps[0] == 1010 && series.values[0] == 1);
+        check("last sample is at 1030", series.timestamps[2] == 1030 && series.values[2] == 3);
+        check("empty range", history.query(2000, 3000).size() == 0);
+        check("open range returns everything", history.query(0, Long.MAX_VALUE).size() == 5);
+    }
+
+    private static void testWrapAround() {
+        System.out.println("Test Case 2: Oldest samples are overwritten");
+        TopicHistory history = new TopicHistory(4);
+        for (int i = 0; i < 10; i++) {
+            history.record(i, i);
+        }
+        TopicHistory.Series series = history.query(0, Long.MAX_VALUE);
+        check("size is capped at the capacity", history.size() == 4 && series.size() == 4);
+        check("oldest retained sample is 6", series.timestamps[0] == 6);
+        check("samples stay in time order", series.timestamps[3] == 9);
+        check("range across the wrap point", history.query(7, 8).size() == 2);
+    }
+
+    private static void testOutOfOrderTimestamps() {
+        System.out.println("Test Case 3: Late timestamps keep the buffer sorted");
+        TopicHistory history = new TopicHistory(8);
+        history.record(100, 1);
+        history.record(300, 2);
+        history.record(200, 3);
+        history.record(400, 4);
+        TopicHistory.Series series = history.query(0, Long.MAX_VALUE);
+        boolean sorted = true;
+        for (int i = 1; i < series.size(); i++) {
+            sorted &= series.timestamps[i - 1] <= series.timestamps[i];
+        }
+        check("timestamps are sorted", sorted);
+        check("late sample is clamped to the newest time", series.timestamps[2] == 300 && series.values[2] == 3);
+        check("range query finds both samples at 300", history.query(300, 300).size() == 2);
+        check("range query before the late sample", history.query(0, 250).size() == 1);
+    }
+
+    private static void testDownsampling() {
+        System.out.println("Test Case 4: Downsampling");
+        int n = 1000;
+        long[] ts = new long[n];
+        double[] vs = new double[n];
+        for (int i = 0; i < n; i++) {
+            ts[i] = i;
+            vs[i] = i == 500 ? 1000 : Math.sin(i / 50.0);
+        }
+        TopicHistory.Series series = new TopicHistory.Series(ts, vs);
+
+        TopicHistory.Series lttb = series.downsampleLttb(100);
+        check("LTTB returns the threshold", lttb.size() == 100);
+        check("LTTB keeps the endpoints", lttb.timestamps[0] == 0 && lttb.timestamps[99] == n - 1);
+        check("LTTB keeps the spike", contains(lttb, 1000));
+
+        TopicHistory.Series minMax = series.downsampleMinMax(100);
+        check("min-max returns at most the threshold", minMax.size() <= 100 && minMax.size() > 0);
+        check("min-max keeps the spike", contains(minMax, 1000));
+        check("small series is returned unchanged", series.downsampleLttb(n) == series);
+    }
+
+    private static boolean contains(TopicHistory.Series series, double value) {
+        for (double v : series.values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void check(String name, boolean ok) {
+        System.out.println((ok ? "  PASS " : "  FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
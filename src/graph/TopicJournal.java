@@ -0,0 +1,579 @@
+package graph;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal that makes topic values survive a server restart.
+ *
+ * Every publish is appended to a memory-mapped segment file. Segments have a fixed
+ * size and a new one is started when the current one is full. Appending only copies
+ * the record into the mapped pages; a background committer thread forces dirty pages
+ * to disk every few milliseconds, so all publishes in that window share one fsync
+ * (group commit) and {@link Topic#publish(Message)} never waits for the disk.
+ *
+ * Periodically the journal writes a compacted snapshot holding the loaded config
+ * file, the last value of every topic and the state of every {@link StatefulAgent}
+ * (keyed by its class and topics, see {@link #statefulAgents()}),
+ * and the position in the current segment it was taken at. Segments older than that
+ * are deleted. On startup, {@link #recover()} reads the snapshot and replays the
+ * records after that position. Topic values are therefore exact
+ * up to the last group commit, while agent states are as of the latest snapshot
+ * (a clean {@link #close()} always writes one).
+ *
+ * Record layout inside a segment:
+ * <pre>
+ * int length | int crc32 | long timestamp | short topicLength | topic bytes | value bytes
+ * </pre>
+ * A zero length marks the end of the written part of a segment. Topic names and
+ * values longer than 65535 bytes are not journaled; they are logged and skipped, as
+ * the snapshot could not hold them either.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class TopicJournal implements Closeable, TopicListener {
+    /** Default size of one segment file in bytes */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    /** Default interval between group commits in milliseconds */
+    public static final long DEFAULT_COMMIT_INTERVAL_MS = 50;
+    /** Default interval between snapshots in milliseconds */
+    public static final long DEFAULT_SNAPSHOT_INTERVAL_MS = 60_000;
+
+    private static final int SNAPSHOT_MAGIC = 0x534E4151;
+    /** Snapshots without the segment offset, which replay their first segment from the start */
+    private static final int SNAPSHOT_MAGIC_V1 = 0x534E4150;
+    /** The longest topic name or value a record or snapshot can hold, in encoded bytes */
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+    private static final int RECORD_HEADER = 4 + 4;
+    private static final int RECORD_FIXED = 8 + 2;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long commitIntervalMs;
+    private final long snapshotIntervalMs;
+
+    /** Guards the current segment and the CRC instance */
+    private final Object lock = new Object();
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long segmentIndex = -1;
+
+    private volatile boolean dirty = false;
+    private volatile boolean stop = false;
+    private volatile String configFile = null;
+    private Thread committer;
+
+    /**
+     * Creates a journal in the given directory using the default sizes and intervals.
+     *
+     * @param directory The directory holding segments and snapshots
+     */
+    public TopicJournal(Path directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_COMMIT_INTERVAL_MS, DEFAULT_SNAPSHOT_INTERVAL_MS);
+    }
+
+    /**
+     * Creates a journal in the given directory.
+     *
+     * @param directory The directory holding segments and snapshots
+     * @param segmentSize The size of one segment file in bytes
+     * @param commitIntervalMs The interval between group commits in milliseconds
+     * @param snapshotIntervalMs The interval between snapshots in milliseconds
+     */
+    public TopicJournal(Path directory, int segmentSize, long commitIntervalMs, long snapshotIntervalMs) {
+        if (segmentSize <= RECORD_HEADER + RECORD_FIXED) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.commitIntervalMs = commitIntervalMs;
+        this.snapshotIntervalMs = snapshotIntervalMs;
+    }
+
+    /**
+     * Appends a published value to the journal.
+     * The record becomes durable at the next group commit.
+     *
+     * @param topic The name of the topic
+     * @param value The published value
+     */
+    public void append(String topic, String value) {
+        // Called from Topic.publish, so a record that cannot be written is skipped, never thrown
+        if (!fits(topic) || !fits(value)) {
+            System.out.println("[TopicJournal] Not journaling topic " + abbreviate(topic)
+                    + ": name or value longer than " + MAX_STRING_BYTES + " bytes");
+            return;
+        }
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_FIXED + topicBytes.length + valueBytes.length;
+        if (length + RECORD_HEADER + 4 > segmentSize) {
+            System.out.println("[TopicJournal] Not journaling topic " + abbreviate(topic)
+                    + ": record does not fit in a segment");
+            return;
+        }
+        long timestamp = System.currentTimeMillis();
+
+        synchronized (lock) {
+            if (segment == null) {
+                return;
+            }
+            // Keep room for the terminating zero length
+            if (segment.remaining() < length + RECORD_HEADER + 4) {
+                try {
+                    roll();
+                } catch (IOException e) {
+                    // The next snapshot tries to open a segment again
+                    System.out.println("[TopicJournal] Error rolling journal segment, record dropped: " + e.getMessage());
+                    return;
+                }
+            }
+            crc.reset();
+            crc.update(topicBytes);
+            crc.update(valueBytes);
+
+            int start = segment.position();
+            segment.position(start + RECORD_HEADER);
+            segment.putLong(timestamp);
+            segment.putShort((short) topicBytes.length);
+            segment.put(topicBytes);
+            segment.put(valueBytes);
+            // Write the header last so a torn record is never seen as complete
+            segment.putInt(start + 4, (int) crc.getValue());
+            segment.putInt(start, length);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Appends every published value, see {@link #append(String, String)}.
+     */
+    @Override
+    public void published(String topic, String value) {
+        append(topic, value);
+    }
+
+    /**
+     * Records the config file that is currently loaded and writes a fresh snapshot,
+     * since values from a previous config are no longer relevant.
+     *
+     * @param configFile The path of the loaded config file
+     */
+    @Override
+    public void configLoaded(String configFile) {
+        this.configFile = configFile;
+        if (segment != null) {
+            try {
+                snapshot();
+            } catch (IOException e) {
+                System.out.println("[TopicJournal] Error writing snapshot: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Opens a new segment, writes an initial snapshot and starts the committer thread.
+     *
+     * @throws IOException If the journal directory cannot be written
+     */
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        synchronized (lock) {
+            List<Long> existing = listSegments();
+            segmentIndex = existing.isEmpty() ? -1 : existing.get(existing.size() - 1);
+            roll();
+        }
+        snapshot();
+
+        stop = false;
+        committer = new Thread(() -> {
+            long nextSnapshot = System.currentTimeMillis() + snapshotIntervalMs;
+            while (!stop) {
+                try {
+                    Thread.sleep(commitIntervalMs);
+                    commit();
+                    if (System.currentTimeMillis() >= nextSnapshot) {
+                        snapshot();
+                        nextSnapshot = System.currentTimeMillis() + snapshotIntervalMs;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (IOException e) {
+                    System.out.println("[TopicJournal] Error committing journal: " + e.getMessage());
+                }
+            }
+        }, "topic-journal-committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Forces all appended records to disk.
+     */
+    public void commit() {
+        if (!dirty) {
+            return;
+        }
+        MappedByteBuffer current;
+        synchronized (lock) {
+            current = segment;
+            dirty = false;
+        }
+        if (current != null) {
+            current.force();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the config file, topic values and agent states,
+     * then deletes the segments the snapshot makes obsolete.
+     *
+     * @throws IOException If the snapshot cannot be written
+     */
+    public void snapshot() throws IOException {
+        long firstSegment;
+        int firstOffset;
+        synchronized (lock) {
+            if (segment == null) {
+                // A roll failed, or the journal was not started
+                roll();
+            }
+            // The current segment is kept; replay starts at this position in it
+            firstSegment = segmentIndex;
+            firstOffset = segment.position();
+        }
+
+        // Values are read after the position is taken, so any publish racing with the
+        // snapshot is also in the journal after that position and wins during replay.
+        Map<String, String> values = new LinkedHashMap<>();
+        Map<String, String> agentStates = new LinkedHashMap<>();
+        for (Topic topic : TopicManagerSingleton.get().getTopics()) {
+            String value = topic.getLastMessage();
+            if (value != null && fits(topic.name) && fits(value)) {
+                values.put(topic.name, value);
+            }
+        }
+        for (Map.Entry<String, StatefulAgent> e : statefulAgents().entrySet()) {
+            String state = e.getValue().saveState();
+            if (fits(e.getKey()) && fits(state)) {
+                agentStates.put(e.getKey(), state);
+            } else {
+                System.out.println("[TopicJournal] State of " + abbreviate(e.getKey()) + " is too long to snapshot");
+            }
+        }
+
+        Path tmp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(Channels.newOutputStream(ch))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(firstSegment);
+            out.writeInt(firstOffset);
+            out.writeUTF(configFile != null ? configFile : "");
+            writeMap(out, values);
+            writeMap(out, agentStates);
+            out.flush();
+            ch.force(true);
+        }
+        Files.move(tmp, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        for (long index : listSegments()) {
+            if (index < firstSegment) {
+                Files.deleteIfExists(segmentPath(index));
+            }
+        }
+    }
+
+    /**
+     * Reads the latest snapshot and replays the segments written after it.
+     * Must be called before {@link #start()}.
+     *
+     * @return The recovered state
+     * @throws IOException If the journal cannot be read
+     */
+    public Recovery recover() throws IOException {
+        Recovery recovery = new Recovery();
+        if (!Files.isDirectory(directory)) {
+            return recovery;
+        }
+
+        long firstSegment = 0;
+        int firstOffset = 0;
+        Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshotPath)) {
+            try (InputStream in = Files.newInputStream(snapshotPath);
+                 DataInputStream data = new DataInputStream(in)) {
+                int magic = data.readInt();
+                if (magic != SNAPSHOT_MAGIC && magic != SNAPSHOT_MAGIC_V1) {
+                    throw new IOException("Invalid journal snapshot: " + snapshotPath);
+                }
+                firstSegment = data.readLong();
+                if (magic == SNAPSHOT_MAGIC) {
+                    firstOffset = data.readInt();
+                }
+                String file = data.readUTF();
+                recovery.configFile = file.isEmpty() ? null : file;
+                readMap(data, recovery.values);
+                readMap(data, recovery.agentStates);
+            }
+        }
+
+        for (long index : listSegments()) {
+            if (index >= firstSegment) {
+                replaySegment(segmentPath(index), index == firstSegment ? firstOffset : 0, recovery.values);
+            }
+        }
+        this.configFile = recovery.configFile;
+        return recovery;
+    }
+
+    /**
+     * Stops the committer, writes a final snapshot and releases the current segment.
+     */
+    @Override
+    public void close() throws IOException {
+        stop = true;
+        if (committer != null) {
+            committer.interrupt();
+        }
+        if (segment == null) {
+            return;
+        }
+        snapshot();
+        synchronized (lock) {
+            segment.force();
+            channel.close();
+            segment = null;
+            channel = null;
+        }
+    }
+
+    /**
+     * Closes the current segment and maps the next one. Caller must hold the lock.
+     */
+    private void roll() throws IOException {
+        if (segment != null) {
+            segment.force();
+            channel.close();
+            segment = null;
+            channel = null;
+        }
+        segmentIndex++;
+        channel = FileChannel.open(segmentPath(segmentIndex), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        dirty = false;
+    }
+
+    private void replaySegment(Path path, int offset, Map<String, String> values) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (offset >= ch.size()) {
+                return;
+            }
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, offset, ch.size() - offset);
+            CRC32 check = new CRC32();
+            try {
+                while (buf.remaining() >= RECORD_HEADER) {
+                    int length = buf.getInt();
+                    if (length < RECORD_FIXED || length > buf.remaining() - 4) {
+                        break;
+                    }
+                    int expectedCrc = buf.getInt();
+                    buf.getLong(); // timestamp
+                    byte[] topicBytes = new byte[buf.getShort() & 0xFFFF];
+                    buf.get(topicBytes);
+                    byte[] valueBytes = new byte[length - RECORD_FIXED - topicBytes.length];
+                    buf.get(valueBytes);
+
+                    check.reset();
+                    check.update(topicBytes);
+                    check.update(valueBytes);
+                    if ((int) check.getValue() != expectedCrc) {
+                        System.out.println("[TopicJournal] Torn record in " + path.getFileName() + ", stopping replay");
+                        break;
+                    }
+                    values.put(new String(topicBytes, StandardCharsets.UTF_8),
+                            new String(valueBytes, StandardCharsets.UTF_8));
+                }
+            } catch (BufferUnderflowException | NegativeArraySizeException e) {
+                System.out.println("[TopicJournal] Truncated record in " + path.getFileName() + ", stopping replay");
+            }
+        }
+    }
+
+    private List<Long> listSegments() throws IOException {
+        List<Long> indexes = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return indexes;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                try {
+                    indexes.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of our segments
+                }
+            }
+        }
+        Collections.sort(indexes);
+        return indexes;
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Returns the stateful agents of the current graph keyed by their class and topics,
+     * e.g. {@code configs.PlusAgent(A,B)->(C)}. Agent names come from per-class counters
+     * that keep counting across config reloads, so they can't be matched after a restart;
+     * the class and topics of an agent are the same every time its config is loaded.
+     * Agents with the same class and topics get the same inputs, so which of them gets
+     * which numbered key does not matter.
+     */
+    static Map<String, StatefulAgent> statefulAgents() {
+        Map<Agent, List<String>> subs = new LinkedHashMap<>();
+        Map<Agent, List<String>> pubs = new LinkedHashMap<>();
+        List<Topic> topics = new ArrayList<>(TopicManagerSingleton.get().getTopics());
+        topics.sort((a, b) -> a.name.compareTo(b.name));
+        for (Topic topic : topics) {
+            for (Agent a : topic.getSubs()) {
+                subs.computeIfAbsent(unwrap(a), k -> new ArrayList<>()).add(topic.name);
+            }
+            for (Agent a : topic.getPubs()) {
+                pubs.computeIfAbsent(unwrap(a), k -> new ArrayList<>()).add(topic.name);
+            }
+        }
+        List<Agent> agents = new ArrayList<>(subs.keySet());
+        for (Agent a : pubs.keySet()) {
+            if (!subs.containsKey(a)) {
+                agents.add(a);
+            }
+        }
+
+        Map<String, StatefulAgent> keyed = new LinkedHashMap<>();
+        for (Agent a : agents) {
+            if (a instanceof StatefulAgent) {
+                String key = a.getClass().getName()
+                        + "(" + String.join(",", subs.getOrDefault(a, List.of())) + ")->("
+                        + String.join(",", pubs.getOrDefault(a, List.of())) + ")";
+                String unique = key;
+                for (int n = 2; keyed.containsKey(unique); n++) {
+                    unique = key + "#" + n;
+                }
+                keyed.put(unique, (StatefulAgent) a);
+            }
+        }
+        return keyed;
+    }
+
+    private static Agent unwrap(Agent a) {
+        return a instanceof ParallelAgent ? ((ParallelAgent) a).getAgent() : a;
+    }
+
+    /**
+     * Returns whether the string can be written with {@link DataOutputStream#writeUTF},
+     * whose modified UTF-8 is never shorter than the UTF-8 used in records.
+     */
+    static boolean fits(String s) {
+        if (s.length() > MAX_STRING_BYTES) {
+            return false;
+        }
+        int bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            bytes += c >= 1 && c <= 0x7F ? 1 : c <= 0x7FF ? 2 : 3;
+        }
+        return bytes <= MAX_STRING_BYTES;
+    }
+
+    private static String abbreviate(String s) {
+        return s.length() <= 64 ? s : s.substring(0, 64) + "...";
+    }
+
+    private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, String> e : map.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeUTF(e.getValue());
+        }
+    }
+
+    private static void readMap(DataInputStream in, Map<String, String> map) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            map.put(in.readUTF(), in.readUTF());
+        }
+    }
+
+    /**
+     * State recovered from the journal: the config file to load, the last value
+     * of every topic and the saved state of every stateful agent.
+     */
+    public static class Recovery {
+        private String configFile;
+        private final Map<String, String> values = new HashMap<>();
+        private final Map<String, String> agentStates = new HashMap<>();
+
+        public String getConfigFile() {
+            return configFile;
+        }
+
+        public Map<String, String> getValues() {
+            return values;
+        }
+
+        public Map<String, String> getAgentStates() {
+            return agentStates;
+        }
+
+        /**
+         * Restores topic values and agent states into the current graph.
+         * The config file must already be loaded so topics and agents exist.
+         */
+        public void apply() {
+            TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+            for (Map.Entry<String, String> e : values.entrySet()) {
+                if (tm.topicExists(e.getKey())) {
+                    tm.getTopic(e.getKey()).restore(e.getValue());
+                }
+            }
+            Map<String, StatefulAgent> agents = statefulAgents();
+            for (Map.Entry<String, String> e : agentStates.entrySet()) {
+                StatefulAgent agent = agents.get(e.getKey());
+                if (agent != null) {
+                    agent.restoreState(e.getValue());
+                } else {
+                    System.out.println("[TopicJournal] No agent matches saved state " + abbreviate(e.getKey()));
+                }
+            }
+        }
+    }
+}
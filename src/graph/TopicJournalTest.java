@@ -0,0 +1,250 @@
+package graph;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+public class TopicJournalTest {
+    private static final int SEGMENT_SIZE = 4096;
+    /** Intervals long enough that the committer never runs during a test */
+    private static final long NEVER = 3_600_000;
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("=== Testing Topic Journal ===\n");
+
+        testRecoverAfterCrash();
+        testTornRecord();
+        testTruncatedRecord();
+        testOversizedValueIsSkipped();
+        testRecoverAcrossSegments();
+        testSnapshotKeepsSegment();
+        testAgentStateAfterReload();
+
+        System.out.println(failures == 0 ? "All journal tests passed" : failures + " journal test(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void testRecoverAfterCrash() throws IOException {
+        System.out.println("Test Case 1: Recover after a crash");
+        Path dir = Files.createTempDirectory("journal-test");
+        TopicJournal journal = start(dir);
+        journal.append("A", "1");
+        journal.append("A", "2");
+        journal.append("B", "x");
+        journal.commit();
+        // The first journal is never closed, as if the process had been killed
+
+        Map<String, String> values = new TopicJournal(dir).recover().getValues();
+        check("last value of A wins", "2".equals(values.get("A")));
+        check("text value of B recovered", "x".equals(values.get("B")));
+        check("nothing else recovered", values.size() == 2);
+        delete(dir);
+    }
+
+    private static void testTornRecord() throws IOException {
+        System.out.println("Test Case 2: Torn record stops the replay");
+        Path dir = Files.createTempDirectory("journal-test");
+        TopicJournal journal = start(dir);
+        // Each record is 8 bytes of header, 10 fixed bytes, then "A" and one value byte
+        journal.append("A", "1");
+        journal.append("A", "2");
+        journal.append("B", "3");
+        journal.commit();
+
+        corrupt(firstSegment(dir), 2 * 20 + 8 + 10 + 1);
+        Map<String, String> values = new TopicJournal(dir).recover().getValues();
+        check("records before the torn one recovered", "2".equals(values.get("A")));
+        check("torn record not recovered", !values.containsKey("B"));
+        delete(dir);
+    }
+
+    private static void testTruncatedRecord() throws IOException {
+        System.out.println("Test Case 3: Record longer than the segment stops the replay");
+        Path dir = Files.createTempDirectory("journal-test");
+        TopicJournal journal = start(dir);
+        journal.append("A", "1");
+        journal.commit();
+
+        try (RandomAccessFile file = new RandomAccessFile(firstSegment(dir).toFile(), "rw")) {
+            file.seek(20);
+            file.writeInt(SEGMENT_SIZE);
+        }
+        Map<String, String> values = new TopicJournal(dir).recover().getValues();
+        check("record before the bad length recovered", "1".equals(values.get("A")));
+        check("only one record recovered", values.size() == 1);
+        delete(dir);
+    }
+
+    private static void testOversizedValueIsSkipped() throws IOException {
+        System.out.println("Test Case 4: Oversized values are skipped, not thrown");
+        Path dir = Files.createTempDirectory("journal-test");
+        TopicJournal journal = start(dir);
+        boolean threw = false;
+        try {
+            journal.append("BIG", "x".repeat(70_000));
+            journal.append("X".repeat(70_000), "1");
+            journal.append("SEGMENT", "y".repeat(SEGMENT_SIZE));
+        } catch (RuntimeException e) {
+            threw = true;
+        }
+        journal.append("A", "1");
+        journal.commit();
+
+        Map<String, String> values = new TopicJournal(dir).recover().getValues();
+        check("append did not throw", !threw);
+        check("oversized values not journaled", values.size() == 1);
+        check("later record recovered", "1".equals(values.get("A")));
+        check("fits() uses the encoded length", !TopicJournal.fits("é".repeat(40_000)));
+        delete(dir);
+    }
+
+    private static void testRecoverAcrossSegments() throws IOException {
+        System.out.println("Test Case 5: Recover across rolled segments");
+        Path dir = Files.createTempDirectory("journal-test");
+        TopicJournal journal = start(dir);
+        for (int i = 0; i < 1000; i++) {
+            journal.append("T" + (i % 10), Integer.toString(i));
+        }
+        journal.commit();
+
+        long segments = countSegments(dir);
+        Map<String, String> values = new TopicJournal(dir).recover().getValues();
+        check("journal rolled to several segments (" + segments + ")", segments > 1);
+        check("ten topics recovered", values.size() == 10);
+        check("latest value of T9 recovered", "999".equals(values.get("T9")));
+        check("latest value of T0 recovered", "990".equals(values.get("T0")));
+        delete(dir);
+    }
+
+    private static void testSnapshotKeepsSegment() throws IOException {
+        System.out.println("Test Case 6: Snapshot keeps the current segment");
+        Path dir = Files.createTempDirectory("journal-test");
+        TopicJournal journal = start(dir);
+        journal.append("A", "1");
+        for (int i = 0; i < 5; i++) {
+            journal.snapshot();
+        }
+        journal.append("A", "2");
+        journal.commit();
+
+        check("snapshots did not start new segments", countSegments(dir) == 1);
+        Map<String, String> values = new TopicJournal(dir).recover().getValues();
+        check("record after the snapshots recovered", "2".equals(values.get("A")));
+        journal.close();
+        delete(dir);
+    }
+
+    private static void testAgentStateAfterReload() throws IOException {
+        System.out.println("Test Case 7: Agent state is restored when agent names changed");
+        Path dir = Files.createTempDirectory("journal-test");
+        TopicManagerSingleton.get().clear();
+        Counter before = new Counter("IN", "OUT");
+        before.count = 5;
+        TopicJournal journal = start(dir);
+        journal.close();
+
+        // As after a reload: the per-class counter gives the new agent another name
+        TopicManagerSingleton.get().clear();
+        new Counter("X", "Y");
+        Counter after = new Counter("IN", "OUT");
+        TopicJournal.Recovery recovery = new TopicJournal(dir).recover();
+        check("state saved under the class and topics",
+                recovery.getAgentStates().containsKey(Counter.class.getName() + "(IN)->(OUT)"));
+        recovery.apply();
+        check("names differ", !after.getName().equals(before.getName()));
+        check("state restored into the matching agent", after.count == 5);
+        TopicManagerSingleton.get().clear();
+        delete(dir);
+    }
+
+    /** A stateful agent named by a per-class counter, like the config agents */
+    private static final class Counter implements StatefulAgent {
+        private static int counter = 0;
+        private final int id = counter++;
+        int count;
+
+        Counter(String sub, String pub) {
+            TopicManagerSingleton.get().getTopic(sub).subscribe(this);
+            TopicManagerSingleton.get().getTopic(pub).addPublisher(this);
+        }
+
+        @Override
+        public String getName() {
+            return "Counter" + id;
+        }
+
+        @Override
+        public void reset() {
+            count = 0;
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            count++;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String saveState() {
+            return Integer.toString(count);
+        }
+
+        @Override
+        public void restoreState(String state) {
+            count = Integer.parseInt(state);
+        }
+    }
+
+    private static TopicJournal start(Path dir) throws IOException {
+        TopicJournal journal = new TopicJournal(dir, SEGMENT_SIZE, NEVER, NEVER);
+        journal.start();
+        return journal;
+    }
+
+    private static Path firstSegment(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().startsWith("segment-"))
+                    .sorted()
+                    .findFirst()
+                    .orElseThrow();
+        }
+    }
+
+    private static long countSegments(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().startsWith("segment-")).count();
+        }
+    }
+
+    private static void corrupt(Path file, long position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0xFF);
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private static void check(String name, boolean ok) {
+        System.out.println((ok ? "  PASS " : "  FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package graph;
+
+/**
+ * Receives every value published to any topic, and the loading of new configurations.
+ *
+ * Listeners are registered with {@link TopicManagerSingleton.TopicManager#addListener(TopicListener)}.
+ * {@link #published(String, String)} runs on the publishing thread, inside
+ * {@link Topic#publish(Message)}, so it must not block.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public interface TopicListener {
+
+    /**
+     * Called for every message published to a topic.
+     *
+     * @param topic The name of the topic
+     * @param value The published value as text
+     */
+    void published(String topic, String value);
+
+    /**
+     * Called after a configuration file was loaded and its graph created.
+     *
+     * @param configFile The path of the loaded file
+     */
+    default void configLoaded(String configFile) {
+    }
+}
@@ -1,7 +1,11 @@
 package graph;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class TopicManagerSingleton {
 
@@ -13,13 +17,26 @@ public class TopicManagerSingleton {
 
 		private static final TopicManager instance = new TopicManager();
 		private final ConcurrentHashMap<String, Topic> map;
+		/** Topic names that resolve to another topic, e.g. outputs of removed duplicate agents */
+		private final ConcurrentHashMap<String, String> aliases;
+		private volatile TopicJournal journal;
+		/** Notified of every publish; the journal is one of them when enabled */
+		private final List<TopicListener> listeners = new CopyOnWriteArrayList<>();
+		private volatile int historyCapacity = 0;
 
 		private TopicManager() {
 			this.map = new ConcurrentHashMap<>();
+			this.aliases = new ConcurrentHashMap<>();
 		}
 
 		public Topic getTopic(String name) {
-			Topic topic = map.computeIfAbsent(name, Topic::new);
+			Topic topic = map.computeIfAbsent(aliases.getOrDefault(name, name), n -> {
+				Topic t = new Topic(n);
+				if (historyCapacity > 0) {
+					t.enableHistory(historyCapacity);
+				}
+				return t;
+			});
 			return topic;
 		}
 
@@ -29,10 +46,79 @@ public class TopicManagerSingleton {
 
 		public void clear() {
 			map.clear();
+			aliases.clear();
 		}
 
 		public boolean topicExists(String name){
-			return map.containsKey(name);
+			return map.containsKey(aliases.getOrDefault(name, name));
+		}
+
+		/**
+		 * Makes {@code alias} resolve to the topic named {@code target}.
+		 */
+		public void alias(String alias, String target) {
+			if (alias.equals(target)) {
+				return;
+			}
+			aliases.put(alias, aliases.getOrDefault(target, target));
+		}
+
+		public Map<String, String> getAliases() {
+			return Collections.unmodifiableMap(aliases);
+		}
+
+		public int getHistoryCapacity() {
+			return historyCapacity;
+		}
+
+		/**
+		 * Sets how many samples new topics keep in their history (0 disables history).
+		 */
+		public void setHistoryCapacity(int historyCapacity) {
+			this.historyCapacity = historyCapacity;
+		}
+
+		public TopicJournal getJournal() {
+			return journal;
+		}
+
+		/**
+		 * Sets the journal, which is registered as a listener in place of the previous one.
+		 */
+		public void setJournal(TopicJournal journal) {
+			if (this.journal != null) {
+				listeners.remove(this.journal);
+			}
+			this.journal = journal;
+			if (journal != null) {
+				listeners.add(journal);
+			}
+		}
+
+		public void addListener(TopicListener listener) {
+			listeners.add(listener);
+		}
+
+		public void removeListener(TopicListener listener) {
+			listeners.remove(listener);
+		}
+
+		/**
+		 * Returns the registered listeners, called by {@link Topic#publish(Message)}.
+		 */
+		List<TopicListener> getListeners() {
+			return listeners;
+		}
+
+		/**
+		 * Tells every listener that a configuration file was loaded.
+		 *
+		 * @param configFile The path of the loaded file
+		 */
+		public void configLoaded(String configFile) {
+			for (TopicListener listener : listeners) {
+				listener.configLoaded(configFile);
+			}
 		}
 	}
 
@@ -0,0 +1,182 @@
+package graph;
+
+import metrics.Tracer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * All the work caused by one external publish.
+ *
+ * A wave counts the messages it still has in flight. Messages created while a wave
+ * is current on the thread belong to it (see {@link Message#wave}); a
+ * {@link ParallelAgent} counts a message when it enters the mailbox and uncounts it
+ * after the agent's callback has run, with the message's wave current so that
+ * anything the agent publishes joins the same wave. When the count reaches zero
+ * every downstream agent has settled and the wave is complete.
+ *
+ * <pre>
+ * Wave wave = Wave.begin("A");
+ * try {
+ *     topic.publish(new Message(5));
+ * } finally {
+ *     wave.end();
+ * }
+ * wave.await(1000);
+ * </pre>
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public final class Wave {
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+    private static final ThreadLocal<Wave> CURRENT = new ThreadLocal<>();
+
+    private final long id;
+    private final String source;
+    /** Whether the hops of this wave are recorded by the {@link Tracer}, decided when it begins */
+    private final boolean sampled;
+    /** Starts at one for the publish itself, released by {@link #end()} */
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private final CompletableFuture<Wave> completion = new CompletableFuture<>();
+
+    private Wave(String source) {
+        this.id = NEXT_ID.getAndIncrement();
+        this.source = source;
+        this.sampled = Tracer.sample();
+    }
+
+    /**
+     * Starts a new wave and makes it current on this thread.
+     *
+     * @param source The topic the wave starts from
+     * @return The new wave; call {@link #end()} once the publish returns
+     */
+    public static Wave begin(String source) {
+        Wave wave = new Wave(source);
+        CURRENT.set(wave);
+        return wave;
+    }
+
+    /**
+     * Returns the wave current on this thread, or null outside of any wave.
+     */
+    public static Wave current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Marks the end of the publish that started this wave.
+     * The wave completes once the messages it caused have all been handled.
+     */
+    public void end() {
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+        release();
+    }
+
+    /**
+     * Makes a wave current while an agent handles one of its messages.
+     *
+     * @return The previously current wave, to pass to {@link #exit(Wave)}
+     */
+    static Wave enter(Wave wave) {
+        Wave previous = CURRENT.get();
+        CURRENT.set(wave);
+        return previous;
+    }
+
+    static void exit(Wave previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Counts a message of this wave that is waiting to be handled.
+     */
+    void retain() {
+        pending.incrementAndGet();
+    }
+
+    /**
+     * Uncounts a message of this wave that was handled, dropped or replaced.
+     */
+    void release() {
+        if (pending.decrementAndGet() == 0) {
+            if (sampled) {
+                Tracer.instant(id, "settled", "wave", System.nanoTime());
+            }
+            completion.complete(this);
+        }
+    }
+
+    /**
+     * Releases a message's wave, if it has one.
+     */
+    static void release(Message msg) {
+        if (msg != null && msg.wave != null) {
+            msg.wave.release();
+        }
+    }
+
+    /**
+     * Waits for the wave to complete.
+     *
+     * @param timeoutMs The maximum time to wait in milliseconds
+     * @return true if the wave completed, false if the timeout elapsed first
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean await(long timeoutMs) throws InterruptedException {
+        try {
+            completion.get(timeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Returns a future completed when the wave completes.
+     */
+    public CompletableFuture<Wave> completion() {
+        return completion;
+    }
+
+    public boolean isComplete() {
+        return completion.isDone();
+    }
+
+    /**
+     * Returns whether this wave is traced. The wave id is its trace id.
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Returns the topic the wave was started from.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the number of messages of this wave still in flight.
+     */
+    public int getPending() {
+        return pending.get();
+    }
+}
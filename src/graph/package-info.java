@@ -9,7 +9,10 @@
  *   <li><strong>Message</strong> - Immutable data containers for inter-agent communication</li>
  *   <li><strong>Topic</strong> - Communication channels between agents</li>
  *   <li><strong>ParallelAgent</strong> - Thread-safe wrapper for agents</li>
+ *   <li><strong>Wave</strong> - Tracks when all work caused by a publish has settled</li>
+ *   <li><strong>Mailbox</strong> - Message queue feeding a ParallelAgent (lock-free ring buffer or blocking queue)</li>
  *   <li><strong>TopicManagerSingleton</strong> - Central topic registry</li>
+ *   <li><strong>TopicListener</strong> - Notified of every publish and configuration load, e.g. by the journal and replication</li>
  * </ul>
  * 
  * The graph engine provides a robust foundation for building complex
@@ -0,0 +1,127 @@
+package metrics;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request latency per HTTP route, recorded by the server around each servlet call,
+ * and the effect of response compression.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public final class HttpMetrics {
+    private static final Map<String, LatencyHistogram> LATENCY = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> REJECTED = new ConcurrentHashMap<>();
+    private static volatile Queue<?> queue;
+    private static volatile AtomicInteger asyncPending;
+    private static final LongAdder COMPRESSED = new LongAdder();
+    private static final LongAdder COMPRESSION_CACHE_HITS = new LongAdder();
+    private static final LongAdder UNCOMPRESSED_BYTES = new LongAdder();
+    private static final LongAdder COMPRESSED_BYTES = new LongAdder();
+
+    private HttpMetrics() {
+    }
+
+    /**
+     * Records the time taken to handle one request.
+     *
+     * @param method The HTTP method, e.g. GET
+     * @param route The servlet route that handled the request, e.g. /publish
+     * @param nanos The handling time in nanoseconds
+     */
+    public static void record(String method, String route, long nanos) {
+        LATENCY.computeIfAbsent(key(method, route), k -> new LatencyHistogram()).record(nanos);
+    }
+
+    /**
+     * Returns the latency histograms keyed by "METHOD route".
+     */
+    public static Map<String, LatencyHistogram> getLatencies() {
+        return LATENCY;
+    }
+
+    /**
+     * Records a request answered with 503 instead of being handled.
+     *
+     * @param reason queue_full, deadline, route_limit, async_full or resume_rejected
+     */
+    public static void recordRejected(String reason) {
+        REJECTED.computeIfAbsent(reason, r -> new LongAdder()).increment();
+    }
+
+    /**
+     * Returns the number of rejected requests per reason.
+     */
+    public static Map<String, LongAdder> getRejected() {
+        return REJECTED;
+    }
+
+    /**
+     * Sets the server's queue of connections waiting for a worker, reported as a gauge.
+     */
+    public static void setQueue(Queue<?> waiting) {
+        queue = waiting;
+    }
+
+    /**
+     * Returns the number of connections waiting for a worker.
+     */
+    public static int getQueueDepth() {
+        Queue<?> q = queue;
+        return q != null ? q.size() : 0;
+    }
+
+    /**
+     * Sets the server's count of async requests waiting to complete, reported as a gauge.
+     */
+    public static void setAsyncPending(AtomicInteger pending) {
+        asyncPending = pending;
+    }
+
+    /**
+     * Returns the number of async requests waiting to complete.
+     */
+    public static int getAsyncPending() {
+        AtomicInteger pending = asyncPending;
+        return pending != null ? pending.get() : 0;
+    }
+
+    /**
+     * Records one compressed response body.
+     *
+     * @param before The body size before compression
+     * @param after The body size sent
+     * @param cached Whether the compressed body came from the static file cache
+     */
+    public static void recordCompression(long before, long after, boolean cached) {
+        COMPRESSED.increment();
+        UNCOMPRESSED_BYTES.add(before);
+        COMPRESSED_BYTES.add(after);
+        if (cached) {
+            COMPRESSION_CACHE_HITS.increment();
+        }
+    }
+
+    public static long getCompressedCount() {
+        return COMPRESSED.sum();
+    }
+
+    public static long getCompressionCacheHits() {
+        return COMPRESSION_CACHE_HITS.sum();
+    }
+
+    public static long getUncompressedBytes() {
+        return UNCOMPRESSED_BYTES.sum();
+    }
+
+    public static long getCompressedBytes() {
+        return COMPRESSED_BYTES.sum();
+    }
+
+    private static String key(String method, String route) {
+        return method + " " + route;
+    }
+}
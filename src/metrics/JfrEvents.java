@@ -0,0 +1,140 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder event types for the engine and the server.
+ *
+ * Events are used the standard way, which costs next to nothing when no recording
+ * is running:
+ * <pre>
+ * JfrEvents.Publish event = new JfrEvents.Publish();
+ * event.begin();
+ * ... the work ...
+ * if (event.shouldCommit()) {
+ *     event.topic = name;
+ *     event.commit();
+ * }
+ * </pre>
+ * They show up under "Computational Graph" in JDK Mission Control.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public final class JfrEvents {
+
+    private JfrEvents() {
+    }
+
+    /** All event types, so a recording can enable them explicitly */
+    public static final Class<?>[] ALL = {
+            Publish.class, AgentCallback.class, MailboxWait.class, MailboxEnqueue.class,
+            ConfigPhase.class, HttpRequest.class
+    };
+
+    @Name("graph.Publish")
+    @Label("Topic Publish")
+    @Category({"Computational Graph", "Engine"})
+    @Description("A message published to a topic, including handing it to the subscribers")
+    @StackTrace(false)
+    public static class Publish extends Event {
+        @Label("Topic")
+        public String topic;
+        @Label("Subscribers")
+        public int subscribers;
+        @Label("Wave")
+        public long wave;
+    }
+
+    @Name("graph.AgentCallback")
+    @Label("Agent Callback")
+    @Category({"Computational Graph", "Engine"})
+    @Description("An agent handling one message on its own thread")
+    @StackTrace(false)
+    public static class AgentCallback extends Event {
+        @Label("Agent")
+        public String agent;
+        @Label("Topic")
+        public String topic;
+        @Label("Muted")
+        @Description("Whether publishing was suppressed because more messages of the wave followed")
+        public boolean muted;
+        @Label("Wave")
+        public long wave;
+    }
+
+    @Name("graph.MailboxWait")
+    @Label("Mailbox Wait")
+    @Category({"Computational Graph", "Engine"})
+    @Description("A message leaving an agent's mailbox, with how long it waited there")
+    @StackTrace(false)
+    public static class MailboxWait extends Event {
+        @Label("Agent")
+        public String agent;
+        @Label("Topic")
+        public String topic;
+        @Label("Queue Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        public long queueWait;
+        @Label("Mailbox Depth")
+        public int depth;
+    }
+
+    @Name("graph.MailboxEnqueue")
+    @Label("Mailbox Enqueue")
+    @Category({"Computational Graph", "Engine"})
+    @Description("A publisher putting a message into an agent's mailbox; long ones were blocked by a full mailbox")
+    @Threshold("20 us")
+    public static class MailboxEnqueue extends Event {
+        @Label("Agent")
+        public String agent;
+        @Label("Topic")
+        public String topic;
+        @Label("Policy")
+        public String policy;
+    }
+
+    @Name("graph.ConfigPhase")
+    @Label("Config Load Phase")
+    @Category({"Computational Graph", "Config"})
+    @Description("One phase of loading a configuration file")
+    @StackTrace(false)
+    public static class ConfigPhase extends Event {
+        @Label("Phase")
+        public String phase;
+        @Label("File")
+        public String file;
+
+        /**
+         * Creates and begins an event for a phase.
+         */
+        public static ConfigPhase start(String phase, String file) {
+            ConfigPhase event = new ConfigPhase();
+            event.phase = phase;
+            event.file = file;
+            event.begin();
+            return event;
+        }
+    }
+
+    @Name("graph.HttpRequest")
+    @Label("HTTP Request")
+    @Category({"Computational Graph", "Server"})
+    @Description("An HTTP request handled by the server, from parsing to the servlet's return")
+    @StackTrace(false)
+    public static class HttpRequest extends Event {
+        @Label("Method")
+        public String method;
+        @Label("URI")
+        public String uri;
+        @Label("Route")
+        @Description("The servlet route that handled the request, empty if none matched")
+        public String route;
+    }
+}
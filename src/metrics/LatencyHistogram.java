@@ -0,0 +1,81 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in nanoseconds.
+ *
+ * Buckets are powers of two: a value v falls in bucket {@code 64 - numberOfLeadingZeros(v)},
+ * so bucket i holds values in [2^(i-1), 2^i). Finding the bucket is one instruction and
+ * every bucket is a {@link LongAdder}, so recording from many threads never contends
+ * on a lock or a single cache line. The price is a resolution of a factor of two,
+ * which is enough to tell microseconds from milliseconds.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class LatencyHistogram {
+    /** Number of buckets; bucket 0 holds zero and negative values */
+    public static final int BUCKETS = 65;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos The duration in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets[64 - Long.numberOfLeadingZeros(nanos)].increment();
+        sum.add(nanos);
+    }
+
+    /**
+     * Returns the number of values recorded in a bucket.
+     *
+     * @param bucket The bucket index, 0 to {@link #BUCKETS} - 1
+     */
+    public long getBucketCount(int bucket) {
+        return buckets[bucket].sum();
+    }
+
+    /**
+     * Returns the exclusive upper bound of a bucket in nanoseconds.
+     */
+    public static double getBucketUpperBound(int bucket) {
+        return Math.pow(2, bucket);
+    }
+
+    /**
+     * Returns the largest duration in nanoseconds that falls in a bucket, 2^i - 1.
+     * Durations are whole nanoseconds, so this is the inclusive bound Prometheus
+     * expects for {@code le}.
+     */
+    public static double getBucketInclusiveUpperBound(int bucket) {
+        return Math.pow(2, bucket) - 1;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the sum of all recorded values in nanoseconds.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+}
@@ -0,0 +1,136 @@
+package metrics;
+
+/**
+ * Writes metrics in the Prometheus text exposition format.
+ *
+ * <pre>
+ * PrometheusWriter out = new PrometheusWriter();
+ * out.family("graph_topic_publish_total", "counter", "Messages published per topic");
+ * out.sample("graph_topic_publish_total", "topic", "A", 42);
+ * String text = out.toString();
+ * </pre>
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class PrometheusWriter {
+    /** Smallest and largest histogram buckets written: about 1us and 68s */
+    private static final int FIRST_BUCKET = 10;
+    private static final int LAST_BUCKET = 36;
+
+    private final StringBuilder out = new StringBuilder(4096);
+
+    /**
+     * Writes the HELP and TYPE lines of a metric family.
+     *
+     * @param name The metric name
+     * @param type counter, gauge or histogram
+     * @param help A one-line description
+     */
+    public PrometheusWriter family(String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * Writes one sample without labels.
+     */
+    public PrometheusWriter sample(String name, double value) {
+        out.append(name).append(' ');
+        number(value);
+        out.append('\n');
+        return this;
+    }
+
+    /**
+     * Writes one sample with a single label.
+     */
+    public PrometheusWriter sample(String name, String label, String labelValue, double value) {
+        out.append(name).append('{');
+        label(label, labelValue);
+        out.append("} ");
+        number(value);
+        out.append('\n');
+        return this;
+    }
+
+    /**
+     * Writes a histogram of nanosecond durations as seconds, with cumulative buckets.
+     * Each {@code le} is the largest whole-nanosecond duration its bucket holds.
+     *
+     * @param name The metric name (without the _bucket, _sum and _count suffixes)
+     * @param labels Alternating label names and values
+     * @param histogram The histogram to write
+     */
+    public PrometheusWriter histogram(String name, LatencyHistogram histogram, String... labels) {
+        long cumulative = 0;
+        for (int i = 0; i < FIRST_BUCKET; i++) {
+            cumulative += histogram.getBucketCount(i);
+        }
+        for (int i = FIRST_BUCKET; i <= LAST_BUCKET; i++) {
+            cumulative += histogram.getBucketCount(i);
+            bucket(name, labels, String.valueOf(LatencyHistogram.getBucketInclusiveUpperBound(i) / 1e9), cumulative);
+        }
+        for (int i = LAST_BUCKET + 1; i < LatencyHistogram.BUCKETS; i++) {
+            cumulative += histogram.getBucketCount(i);
+        }
+        bucket(name, labels, "+Inf", cumulative);
+
+        out.append(name).append("_sum{");
+        labels(labels);
+        out.append("} ");
+        number(histogram.getSum() / 1e9);
+        out.append('\n');
+        out.append(name).append("_count{");
+        labels(labels);
+        out.append("} ").append(cumulative).append('\n');
+        return this;
+    }
+
+    private void bucket(String name, String[] labels, String le, long count) {
+        out.append(name).append("_bucket{");
+        labels(labels);
+        if (labels.length > 0) {
+            out.append(',');
+        }
+        label("le", le);
+        out.append("} ").append(count).append('\n');
+    }
+
+    private void labels(String[] labels) {
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            label(labels[i], labels[i + 1]);
+        }
+    }
+
+    private void label(String name, String value) {
+        out.append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private void number(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+}
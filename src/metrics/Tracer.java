@@ -0,0 +1,184 @@
+package metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Sampled tracing of publishes through the graph.
+ *
+ * A publish is sampled when it enters the server, with probability {@link #getSampleRate()}.
+ * Every hop of a sampled publish (the HTTP publish, mailbox waits, agent callbacks,
+ * topic publishes) records an event under the publish's trace id. Events go into a
+ * fixed-size ring, so the newest events are kept and tracing can stay on at a low
+ * rate. Unsampled publishes cost one branch per hop.
+ *
+ * Events are exported in the Chrome trace-event format, which chrome://tracing and
+ * Perfetto can open.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public final class Tracer {
+    private static final int CAPACITY = Integer.getInteger("trace.capacity", 65536);
+    private static final AtomicReferenceArray<TraceEvent> EVENTS = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong NEXT = new AtomicLong();
+    /** Trace timestamps are relative to this, in microseconds */
+    private static final long BASE_NANOS = System.nanoTime();
+
+    private static volatile double sampleRate = Double.parseDouble(System.getProperty("trace.rate", "0"));
+
+    private Tracer() {
+    }
+
+    /**
+     * Decides whether a new publish is traced.
+     *
+     * @return true with probability equal to the sample rate
+     */
+    public static boolean sample() {
+        double rate = sampleRate;
+        return rate > 0 && (rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate);
+    }
+
+    public static double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Sets the fraction of publishes that are traced.
+     *
+     * @param rate A value between 0 (off) and 1 (every publish)
+     */
+    public static void setSampleRate(double rate) {
+        if (rate < 0 || rate > 1 || Double.isNaN(rate)) {
+            throw new IllegalArgumentException("Sample rate must be between 0 and 1: " + rate);
+        }
+        sampleRate = rate;
+    }
+
+    /**
+     * Records an operation that ran from {@code startNanos} to {@code endNanos} on this thread.
+     *
+     * @param traceId The trace the operation belongs to
+     * @param name The operation name shown in the trace
+     * @param category The event category, e.g. "agent" or "queue"
+     */
+    public static void span(long traceId, String name, String category, long startNanos, long endNanos) {
+        record(new TraceEvent(traceId, name, category, 'X', startNanos, endNanos - startNanos));
+    }
+
+    /**
+     * Records a point in time on this thread.
+     */
+    public static void instant(long traceId, String name, String category, long nanos) {
+        record(new TraceEvent(traceId, name, category, 'i', nanos, 0));
+    }
+
+    private static void record(TraceEvent event) {
+        EVENTS.set((int) (NEXT.getAndIncrement() % CAPACITY), event);
+    }
+
+    /**
+     * Returns the recorded events, oldest first.
+     *
+     * @param traceId Only return events of this trace, or -1 for all
+     */
+    public static List<TraceEvent> getEvents(long traceId) {
+        long end = NEXT.get();
+        long start = Math.max(0, end - CAPACITY);
+        List<TraceEvent> events = new ArrayList<>();
+        for (long i = start; i < end; i++) {
+            TraceEvent event = EVENTS.get((int) (i % CAPACITY));
+            if (event != null && (traceId < 0 || event.traceId == traceId)) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Removes all recorded events.
+     */
+    public static void clear() {
+        for (int i = 0; i < CAPACITY; i++) {
+            EVENTS.set(i, null);
+        }
+    }
+
+    /**
+     * Writes events as a Chrome trace-event JSON document.
+     *
+     * @param events The events to write
+     * @return {"traceEvents":[...],"displayTimeUnit":"ms"}
+     */
+    public static String toChromeJson(List<TraceEvent> events) {
+        StringBuilder json = new StringBuilder(64 + events.size() * 160);
+        json.append("{\"traceEvents\":[");
+        Map<Long, String> threads = new LinkedHashMap<>();
+        boolean first = true;
+        for (TraceEvent e : events) {
+            threads.putIfAbsent(e.threadId, e.threadName);
+            if (!first) json.append(",\n");
+            first = false;
+            json.append("{\"name\":\"").append(escape(e.name)).append("\"");
+            json.append(",\"cat\":\"").append(escape(e.category)).append("\"");
+            json.append(",\"ph\":\"").append(e.phase).append("\"");
+            json.append(",\"ts\":").append((e.startNanos - BASE_NANOS) / 1000.0);
+            if (e.phase == 'X') {
+                json.append(",\"dur\":").append(e.durationNanos / 1000.0);
+            } else {
+                json.append(",\"s\":\"t\"");
+            }
+            json.append(",\"pid\":1,\"tid\":").append(e.threadId);
+            json.append(",\"args\":{\"trace\":").append(e.traceId).append("}}");
+        }
+        for (Map.Entry<Long, String> thread : threads.entrySet()) {
+            if (!first) json.append(",\n");
+            first = false;
+            json.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":").append(thread.getKey());
+            json.append(",\"args\":{\"name\":\"").append(escape(thread.getValue())).append("\"}}");
+        }
+        json.append("],\"displayTimeUnit\":\"ms\"}");
+        return json.toString();
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\")
+                .replace("\"", "\\\"")
+                .replace("\n", "\\n")
+                .replace("\r", "\\r")
+                .replace("\t", "\\t");
+    }
+
+    /**
+     * One recorded trace event.
+     */
+    public static final class TraceEvent {
+        public final long traceId;
+        public final String name;
+        public final String category;
+        /** 'X' for a span with a duration, 'i' for an instant */
+        public final char phase;
+        public final long startNanos;
+        public final long durationNanos;
+        public final long threadId;
+        public final String threadName;
+
+        @SuppressWarnings("deprecation") // Thread.threadId() needs JDK 19; getId() is the same value
+        TraceEvent(long traceId, String name, String category, char phase, long startNanos, long durationNanos) {
+            Thread thread = Thread.currentThread();
+            this.traceId = traceId;
+            this.name = name;
+            this.category = category;
+            this.phase = phase;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.threadId = thread.getId();
+            this.threadName = thread.getName();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+/**
+ * Runtime metrics for the computational graph and the HTTP server.
+ *
+ * <ul>
+ *   <li><strong>LatencyHistogram</strong> - Lock-free histogram of durations with power-of-two buckets</li>
+ *   <li><strong>HttpMetrics</strong> - Request latency per servlet route</li>
+ *   <li><strong>Tracer</strong> - Sampled tracing of publishes, exported as Chrome trace-event JSON</li>
+ *   <li><strong>JfrEvents</strong> - JDK Flight Recorder event types for publishes, callbacks, mailboxes, config loads and HTTP requests</li>
+ *   <li><strong>PrometheusWriter</strong> - Prometheus text format output used by the /metrics endpoint</li>
+ * </ul>
+ *
+ * Per-topic and per-agent numbers live on the {@code Topic} and {@code ParallelAgent}
+ * objects themselves and are read when metrics are scraped.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+package metrics;
@@ -0,0 +1,213 @@
+package replication;
+
+import configs.Graph;
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import servlets.ConfLoader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a read replica's topics in step with a {@link ReplicationLeader}.
+ *
+ * The follower runs no agents: it shows the leader's graph and publishes the values it
+ * receives into topics without subscribers, so /graph-data, /topics and the history
+ * endpoints answer from local memory. When the connection drops it reconnects with its
+ * last applied sequence number and, if the leader still has the deltas it missed,
+ * resumes without a snapshot.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class ReplicationFollower {
+    private static final long MAX_BACKOFF_MS = 5000;
+
+    private static volatile ReplicationFollower current;
+
+    private final InetSocketAddress leader;
+    private volatile Socket socket;
+    private volatile boolean stop = false;
+    private volatile boolean connected = false;
+    private volatile long epoch = 0;
+    private volatile long appliedSequence = 0;
+    private volatile long leaderSequence = 0;
+    private volatile long snapshots = 0;
+
+    public ReplicationFollower(InetSocketAddress leader) {
+        this.leader = leader;
+    }
+
+    /**
+     * Creates a follower from the replication.leader system property.
+     *
+     * @return The follower, or null if replication.leader is not set
+     */
+    public static ReplicationFollower fromSystemProperties() {
+        String hostPort = System.getProperty("replication.leader");
+        if (hostPort == null || hostPort.isEmpty()) {
+            return null;
+        }
+        int colon = hostPort.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Invalid replication leader address '" + hostPort + "', expected host:port");
+        }
+        return new ReplicationFollower(new InetSocketAddress(hostPort.substring(0, colon), Integer.parseInt(hostPort.substring(colon + 1))));
+    }
+
+    /**
+     * Returns the follower running in this process, or null.
+     */
+    public static ReplicationFollower getCurrent() {
+        return current;
+    }
+
+    public void start() {
+        Thread thread = new Thread(this::run, "replication-follower");
+        thread.setDaemon(true);
+        thread.start();
+        current = this;
+    }
+
+    private void run() {
+        long backoff = 100;
+        while (!stop) {
+            try (Socket s = new Socket()) {
+                socket = s;
+                s.connect(leader, 2000);
+                s.setTcpNoDelay(true);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+                out.writeInt(ReplicationProtocol.MAGIC);
+                out.writeByte(ReplicationProtocol.VERSION);
+                out.writeLong(epoch);
+                out.writeLong(appliedSequence);
+                out.flush();
+                connected = true;
+                backoff = 100;
+                System.out.println("[ReplicationFollower] Connected to leader " + leader);
+                receive(in);
+            } catch (IOException e) {
+                if (!stop) {
+                    System.out.println("[ReplicationFollower] Leader " + leader + " unavailable: " + e.getMessage());
+                }
+            } finally {
+                connected = false;
+            }
+            if (stop) {
+                break;
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+        }
+    }
+
+    private void receive(DataInputStream in) throws IOException {
+        TopicManager tm = TopicManagerSingleton.get();
+        List<Topic> topics = new ArrayList<>();
+        while (!stop) {
+            byte type = in.readByte();
+            if (type == ReplicationProtocol.SNAPSHOT) {
+                applySnapshot(in, tm);
+            } else if (type == ReplicationProtocol.TOPIC) {
+                int id = in.readInt();
+                String name = ReplicationProtocol.readString(in);
+                while (topics.size() <= id) {
+                    topics.add(null);
+                }
+                topics.set(id, tm.getTopic(name));
+            } else if (type == ReplicationProtocol.DELTAS) {
+                long first = in.readLong();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    Topic topic = topics.get(in.readInt());
+                    topic.publish(new Message(ReplicationProtocol.readString(in)));
+                }
+                appliedSequence = first + count - 1;
+                leaderSequence = Math.max(leaderSequence, appliedSequence);
+            } else if (type == ReplicationProtocol.HEARTBEAT) {
+                leaderSequence = in.readLong();
+            } else {
+                throw new IOException("Unknown frame type " + type);
+            }
+        }
+    }
+
+    private void applySnapshot(DataInputStream in, TopicManager tm) throws IOException {
+        long snapshotEpoch = in.readLong();
+        long seq = in.readLong();
+        boolean cycles = in.readBoolean();
+        Graph graph = ReplicationProtocol.readGraph(in);
+        int count = in.readInt();
+
+        ConfLoader.showMirroredGraph(graph, cycles);
+        // Topic objects of the previous snapshot are dropped; the next TOPIC frames look them up again
+        tm.clear();
+        for (int i = 0; i < count; i++) {
+            Topic topic = tm.getTopic(ReplicationProtocol.readString(in));
+            if (in.readBoolean()) {
+                topic.publish(new Message(ReplicationProtocol.readString(in)));
+            }
+        }
+        epoch = snapshotEpoch;
+        appliedSequence = seq;
+        leaderSequence = Math.max(leaderSequence, seq);
+        snapshots++;
+        System.out.println("[ReplicationFollower] Applied snapshot at epoch " + snapshotEpoch + ", sequence " + seq
+                + " with " + graph.size() + " node(s) and " + count + " topic(s)");
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Returns the sequence number of the last leader publish applied here.
+     */
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    /**
+     * Returns how many publishes behind the leader this replica is, as of the last
+     * message from the leader.
+     */
+    public long getLag() {
+        return Math.max(0, leaderSequence - appliedSequence);
+    }
+
+    public long getSnapshotCount() {
+        return snapshots;
+    }
+
+    public InetSocketAddress getLeader() {
+        return leader;
+    }
+
+    public void close() {
+        stop = true;
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+        if (current == this) {
+            current = null;
+        }
+    }
+}
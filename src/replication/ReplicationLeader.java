@@ -0,0 +1,305 @@
+package replication;
+
+import configs.Graph;
+import graph.Topic;
+import graph.TopicListener;
+import graph.TopicManagerSingleton;
+import servlets.ConfLoader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams topic values to read replicas.
+ *
+ * Every publish is numbered and written into a fixed-size ring of recent deltas; the
+ * publishing thread does one atomic increment and one array write and never waits for
+ * a follower. Each follower has its own thread that sends the ring's new entries in
+ * batches. A follower too far behind for the ring (or one that connects after a
+ * configuration change) first gets a snapshot of the graph and all topic values.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class ReplicationLeader implements TopicListener {
+    public static final int DEFAULT_BACKLOG = 65536;
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long HEARTBEAT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static volatile ReplicationLeader current;
+
+    private final ServerSocket serverSocket;
+    private final AtomicReferenceArray<Delta> ring;
+    private final int mask;
+    /** The sequence number of the latest publish */
+    private final AtomicLong sequence = new AtomicLong();
+    /**
+     * Starts at a random value, so a follower of an earlier leader process, whose
+     * sequence numbers started over at 0, never takes this leader's epoch for its own
+     */
+    private volatile long epoch = randomEpoch();
+    private final List<Socket> followers = new CopyOnWriteArrayList<>();
+    private volatile boolean stop = false;
+
+    /**
+     * Opens the replication port.
+     *
+     * @param port The port followers connect to
+     * @param backlog How many recent deltas are kept for followers that fall behind, rounded up to a power of two
+     */
+    public ReplicationLeader(int port, int backlog) throws IOException {
+        int capacity = Integer.highestOneBit(Math.max(2, backlog - 1)) << 1;
+        this.serverSocket = new ServerSocket(port);
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Returns the leader running in this process, or null.
+     */
+    public static ReplicationLeader getCurrent() {
+        return current;
+    }
+
+    /**
+     * Registers for publishes and starts accepting followers.
+     */
+    public void start() {
+        TopicManagerSingleton.get().addListener(this);
+        Thread acceptor = new Thread(this::acceptLoop, "replication-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        current = this;
+        System.out.println("[ReplicationLeader] Accepting followers on port " + serverSocket.getLocalPort());
+    }
+
+    @Override
+    public void published(String topic, String value) {
+        long seq = sequence.incrementAndGet();
+        ring.set((int) (seq & mask), new Delta(seq, topic, value));
+    }
+
+    @Override
+    public void configLoaded(String configFile) {
+        epoch++;
+    }
+
+    private void acceptLoop() {
+        while (!stop) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                followers.add(socket);
+                Thread thread = new Thread(() -> serve(socket), "replication-" + socket.getRemoteSocketAddress());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!stop) {
+                    System.out.println("[ReplicationLeader] Accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            if (in.readInt() != ReplicationProtocol.MAGIC || in.readByte() != ReplicationProtocol.VERSION) {
+                throw new IOException("Not a replication follower");
+            }
+            long followerEpoch = in.readLong();
+            long followerSeq = in.readLong();
+            System.out.println("[ReplicationLeader] Follower " + socket.getRemoteSocketAddress()
+                    + " connected at epoch " + followerEpoch + ", sequence " + followerSeq);
+
+            Map<String, Integer> topicIds = new HashMap<>();
+            long sentEpoch = followerEpoch;
+            long next = followerSeq + 1;
+            if (followerEpoch != epoch || !inBacklog(next)) {
+                sentEpoch = epoch;
+                next = sendSnapshot(out, sentEpoch) + 1;
+            }
+
+            List<Delta> batch = new ArrayList<>(ReplicationProtocol.MAX_DELTAS);
+            long lastWrite = System.nanoTime();
+            while (!stop) {
+                long currentEpoch = epoch;
+                if (currentEpoch != sentEpoch) {
+                    sentEpoch = currentEpoch;
+                    next = sendSnapshot(out, sentEpoch) + 1;
+                }
+
+                boolean overrun = false;
+                long latest = sequence.get();
+                while (next <= latest && batch.size() < ReplicationProtocol.MAX_DELTAS) {
+                    Delta delta = ring.get((int) (next & mask));
+                    if (delta == null || delta.seq < next) {
+                        // Claimed by a publisher that has not written it yet
+                        break;
+                    }
+                    if (delta.seq > next) {
+                        overrun = true;
+                        break;
+                    }
+                    batch.add(delta);
+                    next++;
+                }
+                if (overrun) {
+                    batch.clear();
+                    next = sendSnapshot(out, sentEpoch) + 1;
+                    lastWrite = System.nanoTime();
+                    continue;
+                }
+
+                if (!batch.isEmpty()) {
+                    for (Delta delta : batch) {
+                        if (!topicIds.containsKey(delta.topic)) {
+                            int id = topicIds.size();
+                            topicIds.put(delta.topic, id);
+                            out.writeByte(ReplicationProtocol.TOPIC);
+                            out.writeInt(id);
+                            ReplicationProtocol.writeString(out, delta.topic);
+                        }
+                    }
+                    out.writeByte(ReplicationProtocol.DELTAS);
+                    out.writeLong(batch.get(0).seq);
+                    out.writeInt(batch.size());
+                    for (Delta delta : batch) {
+                        out.writeInt(topicIds.get(delta.topic));
+                        ReplicationProtocol.writeString(out, delta.value);
+                    }
+                    out.flush();
+                    batch.clear();
+                    lastWrite = System.nanoTime();
+                } else {
+                    if (System.nanoTime() - lastWrite > HEARTBEAT_NANOS) {
+                        out.writeByte(ReplicationProtocol.HEARTBEAT);
+                        out.writeLong(sequence.get());
+                        out.flush();
+                        lastWrite = System.nanoTime();
+                    }
+                    LockSupport.parkNanos(POLL_NANOS);
+                }
+            }
+        } catch (IOException e) {
+            if (!stop) {
+                System.out.println("[ReplicationLeader] Follower " + socket.getRemoteSocketAddress() + " disconnected: " + e.getMessage());
+            }
+        } finally {
+            followers.remove(socket);
+        }
+    }
+
+    /**
+     * Returns whether the delta with this sequence number is still in the ring,
+     * or has not happened yet.
+     */
+    private boolean inBacklog(long seq) {
+        long latest = sequence.get();
+        // A follower ahead of this leader saw a different history
+        return seq > latest - mask && seq <= latest + 1;
+    }
+
+    private static long randomEpoch() {
+        long epoch;
+        do {
+            // 0 is the epoch of a follower that has no snapshot yet
+            epoch = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+        } while (epoch == 0);
+        return epoch;
+    }
+
+    /**
+     * Sends the graph and the values of all topics.
+     *
+     * @return The sequence number the snapshot is at
+     */
+    private long sendSnapshot(DataOutputStream out, long snapshotEpoch) throws IOException {
+        // Values are read after the sequence number, so they are at least as new as it
+        long seq = sequence.get();
+        Graph graph = ConfLoader.getLastGraph();
+        boolean cycles = ConfLoader.getHasCycles();
+        Collection<Topic> topics = TopicManagerSingleton.get().getTopics();
+
+        out.writeByte(ReplicationProtocol.SNAPSHOT);
+        out.writeLong(snapshotEpoch);
+        out.writeLong(seq);
+        out.writeBoolean(cycles);
+        ReplicationProtocol.writeGraph(out, graph);
+        List<Topic> list = new ArrayList<>(topics);
+        out.writeInt(list.size());
+        for (Topic topic : list) {
+            String value = topic.getLastMessage();
+            ReplicationProtocol.writeString(out, topic.name);
+            out.writeBoolean(value != null);
+            if (value != null) {
+                ReplicationProtocol.writeString(out, value);
+            }
+        }
+        out.flush();
+        return seq;
+    }
+
+    /**
+     * Returns the sequence number of the latest publish.
+     */
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getFollowerCount() {
+        return followers.size();
+    }
+
+    public void close() {
+        stop = true;
+        TopicManagerSingleton.get().removeListener(this);
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        for (Socket socket : followers) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+        if (current == this) {
+            current = null;
+        }
+    }
+
+    private static final class Delta {
+        final long seq;
+        final String topic;
+        final String value;
+
+        Delta(long seq, String topic, String value) {
+            this.seq = seq;
+            this.topic = topic;
+            this.value = value;
+        }
+    }
+}
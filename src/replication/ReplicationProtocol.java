@@ -0,0 +1,108 @@
+package replication;
+
+import configs.Graph;
+import configs.Node;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The binary protocol between a replication leader and its followers.
+ *
+ * <pre>
+ * follower -&gt; leader    HELLO      int MAGIC, byte VERSION, long epoch, long last applied sequence
+ * leader   -&gt; follower  SNAPSHOT   byte 1, long epoch, long sequence, boolean hasCycles,
+ *                                  int nodes, nodes x STR name, nodes x (int edges, edges x int target),
+ *                                  int topics, topics x (STR name, boolean hasValue, [STR value])
+ *                       TOPIC      byte 2, int id, STR name
+ *                       DELTAS     byte 3, long first sequence, int count, count x (int topic id, STR value)
+ *                       HEARTBEAT  byte 4, long leader sequence
+ * </pre>
+ * A STR is an int byte length followed by the UTF-8 bytes, so values of any length can
+ * be replicated ({@link DataOutputStream#writeUTF} stops at 65535 bytes).
+ * Every publish on the leader gets the next sequence number. The epoch starts at a
+ * random value in each leader process and changes when the leader loads a configuration. A follower that reconnects with the current epoch
+ * and a sequence number still in the leader's backlog gets only the deltas it missed;
+ * otherwise it gets a snapshot first. A snapshot at sequence {@code s} holds values at
+ * least as new as delta {@code s}, and the deltas after it are applied in order, so
+ * the follower converges on the leader's values.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+final class ReplicationProtocol {
+    static final int MAGIC = 0x43475231; // "CGR1"
+    static final byte VERSION = 2;
+
+    static final byte SNAPSHOT = 1;
+    static final byte TOPIC = 2;
+    static final byte DELTAS = 3;
+    static final byte HEARTBEAT = 4;
+
+    /** Most deltas in one frame */
+    static final int MAX_DELTAS = 1024;
+
+    private ReplicationProtocol() {
+    }
+
+    static void writeGraph(DataOutputStream out, Graph graph) throws IOException {
+        if (graph == null) {
+            out.writeInt(0);
+            return;
+        }
+        Map<Node, Integer> index = new IdentityHashMap<>();
+        for (Node node : graph) {
+            index.putIfAbsent(node, index.size());
+        }
+        List<Node> nodes = new ArrayList<>(index.keySet());
+        nodes.sort((a, b) -> index.get(a) - index.get(b));
+        out.writeInt(nodes.size());
+        for (Node node : nodes) {
+            writeString(out, node.getName());
+        }
+        for (Node node : nodes) {
+            List<Node> edges = node.getEdges();
+            out.writeInt(edges.size());
+            for (Node target : edges) {
+                out.writeInt(index.get(target));
+            }
+        }
+    }
+
+    static Graph readGraph(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Graph graph = new Graph();
+        for (int i = 0; i < count; i++) {
+            graph.add(new Node(readString(in)));
+        }
+        for (int i = 0; i < count; i++) {
+            Node node = graph.get(i);
+            int edges = in.readInt();
+            for (int e = 0; e < edges; e++) {
+                node.addEdge(graph.get(in.readInt()));
+            }
+        }
+        return graph;
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
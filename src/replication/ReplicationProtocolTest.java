@@ -0,0 +1,230 @@
+package replication;
+
+import configs.Graph;
+import configs.Node;
+import graph.Message;
+import graph.TopicManagerSingleton;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+
+public class ReplicationProtocolTest {
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Testing Replication Protocol ===\n");
+
+        testGraphRoundTrip();
+        testCatchUpAndSnapshots();
+        testLeadersHaveDifferentEpochs();
+        testBadHello();
+        testLargeValues();
+
+        System.out.println(failures == 0 ? "All replication tests passed" : failures + " replication test(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void testGraphRoundTrip() throws IOException {
+        System.out.println("Test Case 1: Graph round trip");
+        Graph graph = new Graph();
+        Node a = new Node("TA");
+        Node plus = new Node("APlusAgent0");
+        Node c = new Node("TC");
+        graph.add(a);
+        graph.add(plus);
+        graph.add(c);
+        a.addEdge(plus);
+        plus.addEdge(c);
+        c.addEdge(plus);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ReplicationProtocol.writeGraph(new DataOutputStream(bytes), graph);
+        Graph copy = ReplicationProtocol.readGraph(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        check("same nodes in the same order", copy.size() == 3 && copy.get(0).getName().equals("TA")
+                && copy.get(1).getName().equals("APlusAgent0") && copy.get(2).getName().equals("TC"));
+        check("edges point at the copied nodes", copy.get(0).getEdges().get(0) == copy.get(1)
+                && copy.get(1).getEdges().get(0) == copy.get(2));
+        check("cycles survive", copy.hasCycles());
+
+        ByteArrayOutputStream empty = new ByteArrayOutputStream();
+        ReplicationProtocol.writeGraph(new DataOutputStream(empty), null);
+        check("no graph is an empty graph",
+                ReplicationProtocol.readGraph(new DataInputStream(new ByteArrayInputStream(empty.toByteArray()))).isEmpty());
+    }
+
+    private static void testCatchUpAndSnapshots() throws IOException {
+        System.out.println("Test Case 2: Followers get deltas or a snapshot");
+        TopicManagerSingleton.get().clear();
+        ReplicationLeader leader = new ReplicationLeader(0, 16);
+        leader.start();
+        try {
+            long epoch;
+            long seq;
+            try (Connection follower = new Connection(leader, 0, 0)) {
+                check("new follower gets a snapshot first", follower.in.readByte() == ReplicationProtocol.SNAPSHOT);
+                epoch = follower.in.readLong();
+                seq = follower.in.readLong();
+                check("leader epoch is never 0", epoch != 0);
+            }
+
+            leader.published("R1", "1");
+            leader.published("R2", "2");
+            try (Connection follower = new Connection(leader, epoch, seq)) {
+                check("follower in the backlog gets only deltas", follower.in.readByte() == ReplicationProtocol.TOPIC);
+                check("topic id 0 is R1", follower.in.readInt() == 0 && ReplicationProtocol.readString(follower.in).equals("R1"));
+                check("then R2", follower.in.readByte() == ReplicationProtocol.TOPIC
+                        && follower.in.readInt() == 1 && ReplicationProtocol.readString(follower.in).equals("R2"));
+                check("deltas start after the follower's sequence", follower.in.readByte() == ReplicationProtocol.DELTAS
+                        && follower.in.readLong() == seq + 1 && follower.in.readInt() == 2);
+                check("first delta", follower.in.readInt() == 0 && ReplicationProtocol.readString(follower.in).equals("1"));
+                check("second delta", follower.in.readInt() == 1 && ReplicationProtocol.readString(follower.in).equals("2"));
+            }
+
+            try (Connection follower = new Connection(leader, epoch + 1, seq)) {
+                check("follower of another epoch gets a snapshot", follower.in.readByte() == ReplicationProtocol.SNAPSHOT
+                        && follower.in.readLong() == epoch);
+            }
+            try (Connection follower = new Connection(leader, epoch, leader.getSequence() + 5)) {
+                check("follower ahead of the leader gets a snapshot", follower.in.readByte() == ReplicationProtocol.SNAPSHOT);
+            }
+            for (int i = 0; i < 40; i++) {
+                leader.published("R1", Integer.toString(i));
+            }
+            try (Connection follower = new Connection(leader, epoch, seq)) {
+                check("follower behind the backlog gets a snapshot", follower.in.readByte() == ReplicationProtocol.SNAPSHOT);
+            }
+
+            leader.configLoaded("other.conf");
+            try (Connection follower = new Connection(leader, epoch, leader.getSequence())) {
+                check("loading a config starts a new epoch", follower.in.readByte() == ReplicationProtocol.SNAPSHOT
+                        && follower.in.readLong() != epoch);
+            }
+        } finally {
+            leader.close();
+            TopicManagerSingleton.get().clear();
+        }
+    }
+
+    private static void testLeadersHaveDifferentEpochs() throws IOException {
+        System.out.println("Test Case 3: A restarted leader has a new epoch");
+        ReplicationLeader first = new ReplicationLeader(0, 16);
+        ReplicationLeader second = new ReplicationLeader(0, 16);
+        first.start();
+        second.start();
+        try (Connection a = new Connection(first, 0, 0); Connection b = new Connection(second, 0, 0)) {
+            a.in.readByte();
+            b.in.readByte();
+            long epochA = a.in.readLong();
+            long epochB = b.in.readLong();
+            check("two leader processes never share an epoch", epochA != epochB);
+            check("epochs are positive", epochA > 0 && epochB > 0);
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    private static void testBadHello() throws IOException {
+        System.out.println("Test Case 4: Connections that are not followers are closed");
+        ReplicationLeader leader = new ReplicationLeader(0, 16);
+        leader.start();
+        try (Socket socket = new Socket("localhost", leader.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(0x12345678);
+            out.writeByte(ReplicationProtocol.VERSION);
+            out.writeLong(0);
+            out.writeLong(0);
+            out.flush();
+            boolean closed;
+            try {
+                new DataInputStream(socket.getInputStream()).readByte();
+                closed = false;
+            } catch (EOFException e) {
+                closed = true;
+            }
+            check("leader closes the connection", closed);
+        } finally {
+            leader.close();
+        }
+    }
+
+    private static void testLargeValues() throws IOException {
+        System.out.println("Test Case 5: Values longer than 64 KB");
+        String big = "v".repeat(70 * 1024);
+        TopicManagerSingleton.get().clear();
+        TopicManagerSingleton.get().getTopic("BIG").publish(new Message(big));
+        ReplicationLeader leader = new ReplicationLeader(0, 16);
+        leader.start();
+        try {
+            long epoch;
+            long seq;
+            try (Connection follower = new Connection(leader, 0, 0)) {
+                check("snapshot sent", follower.in.readByte() == ReplicationProtocol.SNAPSHOT);
+                epoch = follower.in.readLong();
+                seq = follower.in.readLong();
+                follower.in.readBoolean();
+                ReplicationProtocol.readGraph(follower.in);
+                int topics = follower.in.readInt();
+                String value = null;
+                for (int i = 0; i < topics; i++) {
+                    String name = ReplicationProtocol.readString(follower.in);
+                    String v = follower.in.readBoolean() ? ReplicationProtocol.readString(follower.in) : null;
+                    if (name.equals("BIG")) {
+                        value = v;
+                    }
+                }
+                check("large value in the snapshot", big.equals(value));
+            }
+
+            leader.published("BIG", big + "!");
+            try (Connection follower = new Connection(leader, epoch, seq)) {
+                check("topic frame", follower.in.readByte() == ReplicationProtocol.TOPIC
+                        && follower.in.readInt() == 0 && ReplicationProtocol.readString(follower.in).equals("BIG"));
+                check("delta frame", follower.in.readByte() == ReplicationProtocol.DELTAS
+                        && follower.in.readLong() == seq + 1 && follower.in.readInt() == 1 && follower.in.readInt() == 0);
+                check("large value in the delta", ReplicationProtocol.readString(follower.in).equals(big + "!"));
+            }
+        } finally {
+            leader.close();
+            TopicManagerSingleton.get().clear();
+        }
+    }
+
+    /** A follower connection that only speaks the protocol, without applying anything */
+    private static final class Connection implements AutoCloseable {
+        final Socket socket;
+        final DataInputStream in;
+
+        Connection(ReplicationLeader leader, long epoch, long sequence) throws IOException {
+            socket = new Socket("localhost", leader.getPort());
+            socket.setSoTimeout(5000);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(ReplicationProtocol.MAGIC);
+            out.writeByte(ReplicationProtocol.VERSION);
+            out.writeLong(epoch);
+            out.writeLong(sequence);
+            out.flush();
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static void check(String name, boolean ok) {
+        System.out.println((ok ? "  PASS " : "  FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+/**
+ * Read replicas: server processes that mirror another server's graph and topic values
+ * and serve them without running any agents.
+ *
+ * <ul>
+ *   <li><strong>ReplicationLeader</strong> - Numbers every publish and streams it to the connected replicas</li>
+ *   <li><strong>ReplicationFollower</strong> - Applies the leader's snapshots and deltas to the local topics</li>
+ *   <li><strong>ReplicationProtocol</strong> - The binary wire format between leader and replicas</li>
+ * </ul>
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+package replication;
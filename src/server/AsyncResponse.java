@@ -0,0 +1,62 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The response of an {@link AsyncServlet}. Writes never block: the bytes are held in
+ * memory and sent to the client by the server once the servlet's stage completes.
+ * Any thread may write until then; writing afterwards throws IllegalStateException.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public final class AsyncResponse extends OutputStream {
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+    private boolean sent = false;
+
+    @Override
+    public synchronized void write(int b) {
+        checkOpen();
+        buffer.write(b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b) {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        checkOpen();
+        buffer.write(b, off, len);
+    }
+
+    /**
+     * Writes text as UTF-8.
+     */
+    public void write(String text) {
+        write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns whether anything has been written.
+     */
+    public synchronized boolean isEmpty() {
+        return buffer.size() == 0;
+    }
+
+    /**
+     * Takes the response for sending; later writes fail.
+     */
+    synchronized byte[] send() {
+        sent = true;
+        return buffer.toByteArray();
+    }
+
+    private void checkOpen() {
+        if (sent) {
+            throw new IllegalStateException("Response already sent");
+        }
+    }
+}
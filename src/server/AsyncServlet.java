@@ -0,0 +1,49 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+import server.RequestParser.RequestInfo;
+
+/**
+ * A servlet that may finish its response after {@link #handleAsync} returns, so a
+ * request that waits (for a wave to settle, a long poll) does not hold a worker thread.
+ *
+ * The servlet writes the whole response, status line and headers included, to the
+ * {@link AsyncResponse} and completes the returned stage when it is done. The server
+ * then sends the response from one of its worker threads and closes the connection. If
+ * the stage completes exceptionally and nothing was written, the client gets 500.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public interface AsyncServlet extends Servlet {
+
+    /**
+     * Starts handling a request. Should return quickly; the waiting belongs in the stage.
+     *
+     * @param ri The request
+     * @param response Where to write the response, from any thread, until the stage completes
+     * @return A stage completed once the response is written
+     */
+    CompletionStage<Void> handleAsync(RequestInfo ri, AsyncResponse response) throws IOException;
+
+    /**
+     * Handles the request on the calling thread, for callers that don't know about
+     * async servlets.
+     */
+    @Override
+    default void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        AsyncResponse response = new AsyncResponse();
+        try {
+            handleAsync(ri, response).toCompletableFuture().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw e;
+        }
+        toClient.write(response.send());
+    }
+}
@@ -0,0 +1,351 @@
+package server;
+
+import metrics.HttpMetrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses a raw HTTP response on its way to the client.
+ *
+ * The response head is held until it is complete, then the stream decides, from the
+ * status, Content-Type, Content-Encoding, Transfer-Encoding and Content-Length headers, whether to
+ * compress. A body of unknown length is held until it reaches the threshold, so short
+ * responses are never compressed. A compressed body of unknown final size is sent
+ * without a Content-Length and delimited by closing the connection, which the server
+ * does after every response. Flushes by the servlet are passed on as deflate sync
+ * flushes once compression has started.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class CompressingOutputStream extends OutputStream {
+    private static final int MAX_HEAD = 16 * 1024;
+
+    private enum Mode { HEAD, BUFFER, CACHE, STREAM, PASS, DONE }
+
+    private final OutputStream raw;
+    private final String encoding;
+    private final String uri;
+    private final int threshold;
+    private final int level;
+    private final ResponseCompression.Cache cache;
+
+    private Mode mode = Mode.HEAD;
+    private final ByteArrayOutputStream head = new ByteArrayOutputStream(512);
+    /** How many bytes of the blank line ending the head have been seen */
+    private int headEnd = 0;
+    private List<String> headLines;
+    private ByteArrayOutputStream body;
+    private long contentLength = -1;
+    private String cacheKey;
+    private DeflaterOutputStream deflater;
+    private CountingOutputStream counter;
+    private long bodyBytes = 0;
+
+    CompressingOutputStream(OutputStream raw, String encoding, String uri, int threshold, int level, ResponseCompression.Cache cache) {
+        this.raw = raw;
+        this.encoding = encoding;
+        this.uri = uri;
+        this.threshold = threshold;
+        this.level = level;
+        this.cache = cache;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (mode == Mode.HEAD) {
+            int consumed = readHead(b, off, len);
+            off += consumed;
+            len -= consumed;
+            if (mode == Mode.HEAD || len == 0) {
+                return;
+            }
+        }
+        switch (mode) {
+            case PASS:
+                raw.write(b, off, len);
+                break;
+            case STREAM:
+                deflater.write(b, off, len);
+                bodyBytes += len;
+                break;
+            case CACHE:
+                body.write(b, off, len);
+                break;
+            case BUFFER:
+                body.write(b, off, len);
+                if (body.size() >= threshold) {
+                    startStream();
+                    byte[] held = body.toByteArray();
+                    body = null;
+                    deflater.write(held);
+                    bodyBytes += held.length;
+                }
+                break;
+            default:
+                throw new IOException("Response already finished");
+        }
+    }
+
+    /**
+     * Collects head bytes up to and including the blank line, then decides how to send
+     * the response.
+     *
+     * @return How many of the bytes belonged to the head
+     */
+    private int readHead(byte[] b, int off, int len) throws IOException {
+        for (int i = 0; i < len; i++) {
+            byte c = b[off + i];
+            head.write(c);
+            boolean expected = (headEnd % 2 == 0) ? c == '\r' : c == '\n';
+            headEnd = expected ? headEnd + 1 : (c == '\r' ? 1 : 0);
+            if (headEnd == 4) {
+                decide();
+                return i + 1;
+            }
+            if (head.size() > MAX_HEAD) {
+                passThrough();
+                return i + 1;
+            }
+        }
+        return len;
+    }
+
+    private void decide() throws IOException {
+        String text = head.toString(StandardCharsets.ISO_8859_1);
+        headLines = new ArrayList<>(List.of(text.substring(0, text.length() - 4).split("\r\n")));
+        String[] status = headLines.get(0).split(" ");
+        int code = status.length > 1 ? parseInt(status[1]) : -1;
+        String contentType = header("Content-Type");
+        String length = header("Content-Length");
+        contentLength = length != null ? parseInt(length) : -1;
+
+        if (code < 200 || code >= 300 || code == 204 || code == 206
+                || header("Content-Encoding") != null
+                || header("Transfer-Encoding") != null
+                || !ResponseCompression.isCompressible(contentType)
+                || (contentLength >= 0 && contentLength < threshold)) {
+            passThrough();
+        } else if (contentLength >= 0 && header("Last-Modified") != null) {
+            cacheKey = encoding + " " + uri + " " + header("Last-Modified") + " " + header("ETag") + " " + contentLength;
+            body = new ByteArrayOutputStream((int) Math.min(contentLength, Integer.MAX_VALUE - 8));
+            mode = Mode.CACHE;
+        } else if (contentLength >= 0) {
+            startStream();
+        } else {
+            body = new ByteArrayOutputStream(threshold);
+            mode = Mode.BUFFER;
+        }
+    }
+
+    private void passThrough() throws IOException {
+        head.writeTo(raw);
+        if (body != null) {
+            body.writeTo(raw);
+            body = null;
+        }
+        mode = Mode.PASS;
+    }
+
+    private void startStream() throws IOException {
+        raw.write(compressedHead(-1));
+        counter = new CountingOutputStream(raw);
+        deflater = newDeflater(counter);
+        mode = Mode.STREAM;
+    }
+
+    /**
+     * Builds the head of the compressed response: the original headers without
+     * Content-Length, plus Content-Encoding, Vary and either the new length or
+     * Connection: close.
+     */
+    private byte[] compressedHead(long compressedLength) {
+        StringBuilder sb = new StringBuilder(head.size() + 96);
+        boolean vary = false;
+        boolean connection = false;
+        for (String line : headLines) {
+            String name = headerName(line);
+            if ("content-length".equals(name)) {
+                continue;
+            }
+            vary |= "vary".equals(name);
+            connection |= "connection".equals(name);
+            sb.append(line).append("\r\n");
+        }
+        sb.append("Content-Encoding: ").append(encoding).append("\r\n");
+        if (!vary) {
+            sb.append("Vary: Accept-Encoding\r\n");
+        }
+        if (compressedLength >= 0) {
+            sb.append("Content-Length: ").append(compressedLength).append("\r\n");
+        } else if (!connection) {
+            sb.append("Connection: close\r\n");
+        }
+        sb.append("\r\n");
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private DeflaterOutputStream newDeflater(OutputStream out) throws IOException {
+        if (ResponseCompression.GZIP.equals(encoding)) {
+            return new GzipCompressor(out, level);
+        }
+        return new DeflateCompressor(out, level);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (mode == Mode.STREAM) {
+            deflater.flush();
+            raw.flush();
+        } else if (mode == Mode.PASS) {
+            raw.flush();
+        }
+        // Held head and body bytes are sent when the response is finished
+    }
+
+    /**
+     * Sends whatever is still held and ends the compressed body. Does not close the
+     * client stream. Calling it again does nothing.
+     */
+    public void finish() throws IOException {
+        switch (mode) {
+            case HEAD:
+            case BUFFER:
+                passThrough();
+                break;
+            case CACHE:
+                finishCached();
+                break;
+            case STREAM:
+                deflater.finish();
+                ((Compressor) deflater).end();
+                HttpMetrics.recordCompression(bodyBytes, counter.count, false);
+                break;
+            default:
+                break;
+        }
+        mode = Mode.DONE;
+        raw.flush();
+    }
+
+    private void finishCached() throws IOException {
+        if (body.size() != contentLength) {
+            passThrough();
+            return;
+        }
+        byte[] compressed = cache.get(cacheKey);
+        boolean hit = compressed != null;
+        if (!hit) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) (contentLength / 4) + 64);
+            DeflaterOutputStream d = newDeflater(out);
+            body.writeTo(d);
+            d.finish();
+            ((Compressor) d).end();
+            compressed = out.toByteArray();
+            cache.put(cacheKey, compressed);
+        }
+        raw.write(compressedHead(compressed.length));
+        raw.write(compressed);
+        HttpMetrics.recordCompression(contentLength, compressed.length, hit);
+        body = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        raw.close();
+    }
+
+    private String header(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        for (int i = 1; i < headLines.size(); i++) {
+            String line = headLines.get(i);
+            if (lower.equals(headerName(line))) {
+                return line.substring(line.indexOf(':') + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static String headerName(String line) {
+        int colon = line.indexOf(':');
+        return colon > 0 ? line.substring(0, colon).trim().toLowerCase(Locale.ROOT) : null;
+    }
+
+    private static int parseInt(String s) {
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** A deflating stream whose native deflater can be released after finishing */
+    private interface Compressor {
+        void end();
+    }
+
+    /** gzip with a chosen level and sync flushing */
+    private static final class GzipCompressor extends GZIPOutputStream implements Compressor {
+        GzipCompressor(OutputStream out, int level) throws IOException {
+            super(out, 8192, true);
+            def.setLevel(level);
+        }
+
+        @Override
+        public void end() {
+            def.end();
+        }
+    }
+
+    /** zlib-wrapped deflate, which is what HTTP calls deflate, with sync flushing */
+    private static final class DeflateCompressor extends DeflaterOutputStream implements Compressor {
+        DeflateCompressor(OutputStream out, int level) {
+            super(out, new Deflater(level), 8192, true);
+        }
+
+        @Override
+        public void end() {
+            def.end();
+        }
+    }
+
+    /** Counts the compressed bytes; closing it does not close the client stream */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
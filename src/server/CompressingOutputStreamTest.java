@@ -0,0 +1,224 @@
+package server;
+
+import metrics.HttpMetrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+public class CompressingOutputStreamTest {
+    private static final int THRESHOLD = 1024;
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("=== Testing CompressingOutputStream ===\n");
+
+        testHeadSplitAcrossWrites();
+        testSmallBodiesPassThrough();
+        testResponsesThatMustNotBeCompressed();
+        testCompressedBodies();
+        testStaticCache();
+
+        System.out.println(failures == 0 ? "All compression tests passed" : failures + " compression test(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void testHeadSplitAcrossWrites() throws IOException {
+        System.out.println("Test Case 1: Head split across writes");
+        String body = "x".repeat(2000);
+        byte[] response = ascii("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n\r\n" + body);
+
+        ByteArrayOutputStream oneByteAtATime = new ByteArrayOutputStream();
+        CompressingOutputStream out = stream(oneByteAtATime, ResponseCompression.GZIP);
+        for (byte b : response) {
+            out.write(b);
+        }
+        out.finish();
+        check("byte by byte: head found and body compressed", header(oneByteAtATime, "Content-Encoding: gzip")
+                && gunzip(body(oneByteAtATime)).equals(body));
+
+        int blank = indexOf(response, ascii("\r\n\r\n"));
+        boolean everySplit = true;
+        // Split inside the blank line and around it
+        for (int split = blank - 1; split <= blank + 5; split++) {
+            ByteArrayOutputStream sink = new ByteArrayOutputStream();
+            CompressingOutputStream s = stream(sink, ResponseCompression.GZIP);
+            s.write(response, 0, split);
+            s.write(response, split, response.length - split);
+            s.finish();
+            everySplit &= header(sink, "Content-Encoding: gzip") && gunzip(body(sink)).equals(body);
+        }
+        check("split anywhere near the blank line", everySplit);
+
+        byte[] strayCr = ascii("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\r\n\r\n" + body);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        CompressingOutputStream s = stream(sink, ResponseCompression.GZIP);
+        s.write(strayCr);
+        s.finish();
+        check("extra CR before the blank line", header(sink, "Content-Encoding: gzip") && gunzip(body(sink)).equals(body));
+    }
+
+    private static void testSmallBodiesPassThrough() throws IOException {
+        System.out.println("Test Case 2: Bodies under the threshold pass through unchanged");
+        byte[] known = ascii("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: 11\r\n\r\n{\"a\":12345}");
+        check("short Content-Length", Arrays.equals(send(known, ResponseCompression.GZIP), known));
+
+        byte[] unknown = ascii("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n\r\n" + "y".repeat(THRESHOLD - 1));
+        check("unknown length under the threshold", Arrays.equals(send(unknown, ResponseCompression.GZIP), unknown));
+
+        byte[] headOnly = ascii("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n");
+        check("unfinished head is sent as is", Arrays.equals(send(headOnly, ResponseCompression.GZIP), headOnly));
+    }
+
+    private static void testResponsesThatMustNotBeCompressed() throws IOException {
+        System.out.println("Test Case 3: Responses that are never compressed");
+        String big = "z".repeat(4000);
+        byte[] noContent = ascii("HTTP/1.1 204 No Content\r\nContent-Type: text/plain\r\n\r\n");
+        check("204", Arrays.equals(send(noContent, ResponseCompression.GZIP), noContent));
+        byte[] encoded = ascii("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Encoding: br\r\n\r\n" + big);
+        check("already Content-Encoded", Arrays.equals(send(encoded, ResponseCompression.GZIP), encoded));
+        byte[] notFound = ascii("HTTP/1.1 404 Not Found\r\nContent-Type: text/plain\r\n\r\n" + big);
+        check("error status", Arrays.equals(send(notFound, ResponseCompression.GZIP), notFound));
+        byte[] binary = ascii("HTTP/1.1 200 OK\r\nContent-Type: image/png\r\n\r\n" + big);
+        check("binary Content-Type", Arrays.equals(send(binary, ResponseCompression.GZIP), binary));
+        byte[] events = ascii("HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\n\r\n" + big);
+        check("event stream", Arrays.equals(send(events, ResponseCompression.GZIP), events));
+    }
+
+    private static void testCompressedBodies() throws IOException {
+        System.out.println("Test Case 4: Compressed bodies decompress to the original");
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 500; i++) {
+            json.append(i > 0 ? "," : "").append("{\"topic\":\"T").append(i).append("\",\"value\":").append(i * 0.5).append("}");
+        }
+        String body = json.append("]").toString();
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        CompressingOutputStream out = stream(streamed, ResponseCompression.GZIP);
+        out.write(ascii("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n\r\n"));
+        // Written in pieces, with a flush once compression has started
+        byte[] bytes = ascii(body);
+        out.write(bytes, 0, 100);
+        out.write(bytes, 100, 2000);
+        out.flush();
+        out.write(bytes, 2100, bytes.length - 2100);
+        out.finish();
+        check("unknown length: gzip round trip", gunzip(body(streamed)).equals(body));
+        check("unknown length: connection close instead of a length",
+                header(streamed, "Connection: close") && !header(streamed, "Content-Length"));
+        check("Vary header added", header(streamed, "Vary: Accept-Encoding"));
+        check("smaller than the original", body(streamed).length < bytes.length);
+
+        byte[] known = ascii("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: " + bytes.length + "\r\n\r\n" + body);
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        CompressingOutputStream d = stream(deflated, ResponseCompression.DEFLATE);
+        d.write(known);
+        d.finish();
+        check("known length: deflate round trip", inflate(body(deflated)).equals(body));
+        check("known length: original Content-Length removed",
+                header(deflated, "Content-Encoding: deflate") && !header(deflated, "Content-Length"));
+    }
+
+    private static void testStaticCache() throws IOException {
+        System.out.println("Test Case 5: Static responses are compressed once");
+        ResponseCompression.Cache cache = new ResponseCompression.Cache(1 << 20);
+        String page = "<html>" + "static page ".repeat(300) + "</html>";
+        byte[] response = ascii("HTTP/1.1 200 OK\r\nContent-Type: text/html\r\nContent-Length: " + page.length()
+                + "\r\nLast-Modified: Tue, 01 Sep 2026 10:00:00 GMT\r\n\r\n" + page);
+
+        long hitsBefore = HttpMetrics.getCompressionCacheHits();
+        byte[] first = send(response, ResponseCompression.GZIP, "/index.html", cache);
+        long cached = cache.size();
+        byte[] second = send(response, ResponseCompression.GZIP, "/index.html", cache);
+        check("first response is compressed and cached", gunzip(bodyOf(first)).equals(page) && cached > 0);
+        check("second response is a cache hit", HttpMetrics.getCompressionCacheHits() == hitsBefore + 1);
+        check("cache hit sends the same bytes", Arrays.equals(first, second) && cache.size() == cached);
+        check("compressed length in the head", new String(first, StandardCharsets.ISO_8859_1)
+                .contains("Content-Length: " + bodyOf(first).length + "\r\n"));
+
+        byte[] otherUri = send(response, ResponseCompression.GZIP, "/other.html", cache);
+        check("another URI is not a hit", HttpMetrics.getCompressionCacheHits() == hitsBefore + 1
+                && gunzip(bodyOf(otherUri)).equals(page));
+
+        // The servlet declared more bytes than it wrote
+        byte[] truncated = Arrays.copyOf(response, response.length - 10);
+        ResponseCompression.Cache empty = new ResponseCompression.Cache(1 << 20);
+        check("Content-Length mismatch passes through unchanged",
+                Arrays.equals(send(truncated, ResponseCompression.GZIP, "/index.html", empty), truncated));
+        check("mismatched body is not cached", empty.size() == 0);
+    }
+
+    private static CompressingOutputStream stream(ByteArrayOutputStream sink, String encoding) {
+        return new CompressingOutputStream(sink, encoding, "/test", THRESHOLD, 6, new ResponseCompression.Cache(1 << 20));
+    }
+
+    private static byte[] send(byte[] response, String encoding) throws IOException {
+        return send(response, encoding, "/test", new ResponseCompression.Cache(1 << 20));
+    }
+
+    private static byte[] send(byte[] response, String encoding, String uri, ResponseCompression.Cache cache) throws IOException {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        CompressingOutputStream out = new CompressingOutputStream(sink, encoding, uri, THRESHOLD, 6, cache);
+        out.write(response);
+        out.finish();
+        out.finish();
+        return sink.toByteArray();
+    }
+
+    private static boolean header(ByteArrayOutputStream sink, String line) {
+        String text = new String(sink.toByteArray(), StandardCharsets.ISO_8859_1);
+        return text.substring(0, text.indexOf("\r\n\r\n") + 2).contains(line);
+    }
+
+    private static byte[] body(ByteArrayOutputStream sink) {
+        return bodyOf(sink.toByteArray());
+    }
+
+    private static byte[] bodyOf(byte[] response) {
+        int start = indexOf(response, ascii("\r\n\r\n")) + 4;
+        return Arrays.copyOfRange(response, start, response.length);
+    }
+
+    private static String gunzip(byte[] bytes) throws IOException {
+        return readAll(new GZIPInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private static String inflate(byte[] bytes) throws IOException {
+        return readAll(new InflaterInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return "<" + e.getMessage() + ">";
+        }
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        for (int i = 0; i + needle.length <= haystack.length; i++) {
+            if (Arrays.equals(haystack, i, i + needle.length, needle, 0, needle.length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static void check(String name, boolean ok) {
+        System.out.println((ok ? "  PASS " : "  FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
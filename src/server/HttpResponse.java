@@ -0,0 +1,256 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An HTTP response built from a status, headers and a body, and written to the client
+ * in one piece.
+ *
+ * {@link #send(OutputStream)} adds the Content-Length and writes head and body with a
+ * single write call. A body that is produced bit by bit is written through
+ * {@link #stream(OutputStream)} instead, with chunked transfer encoding unless a length
+ * was given. Status lines, the CORS header and Content-Type lines are encoded once and
+ * reused.
+ *
+ * <pre>
+ * HttpResponse.ok().cors().contentType("application/json").body(json).send(toClient);
+ * </pre>
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public final class HttpResponse {
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static final byte[] CORS = ascii("Access-Control-Allow-Origin: *\r\n");
+    private static final byte[] NO_CACHE = ascii("Cache-Control: no-cache\r\n");
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+    private static final byte[] CHUNKED = ascii("Transfer-Encoding: chunked\r\n");
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final Map<Integer, String> REASONS = Map.ofEntries(
+            Map.entry(200, "OK"),
+            Map.entry(204, "No Content"),
+            Map.entry(304, "Not Modified"),
+            Map.entry(400, "Bad Request"),
+            Map.entry(403, "Forbidden"),
+            Map.entry(404, "Not Found"),
+            Map.entry(405, "Method Not Allowed"),
+            Map.entry(409, "Conflict"),
+            Map.entry(413, "Content Too Large"),
+            Map.entry(415, "Unsupported Media Type"),
+            Map.entry(500, "Internal Server Error"),
+            Map.entry(503, "Service Unavailable"));
+    private static final Map<Integer, byte[]> STATUS_LINES = new ConcurrentHashMap<>();
+    private static final Map<String, byte[]> CONTENT_TYPES = new ConcurrentHashMap<>();
+
+    private final int status;
+    private byte[] head = new byte[256];
+    private int headLength = 0;
+    private byte[] body = EMPTY;
+    private long contentLength = -1;
+
+    private HttpResponse(int status) {
+        this.status = status;
+        append(STATUS_LINES.computeIfAbsent(status, HttpResponse::statusLine));
+    }
+
+    /**
+     * Starts a response with the given status code.
+     */
+    public static HttpResponse status(int status) {
+        return new HttpResponse(status);
+    }
+
+    /**
+     * Starts a 200 OK response.
+     */
+    public static HttpResponse ok() {
+        return new HttpResponse(200);
+    }
+
+    /**
+     * Adds a header. Content-Length is set by the response itself and must not be added.
+     */
+    public HttpResponse header(String name, String value) {
+        append(ascii(name + ": " + value + "\r\n"));
+        return this;
+    }
+
+    /**
+     * Allows any origin, as every servlet of this server does.
+     */
+    public HttpResponse cors() {
+        append(CORS);
+        return this;
+    }
+
+    public HttpResponse noCache() {
+        append(NO_CACHE);
+        return this;
+    }
+
+    public HttpResponse contentType(String type) {
+        append(CONTENT_TYPES.computeIfAbsent(type, t -> ascii("Content-Type: " + t + "\r\n")));
+        return this;
+    }
+
+    public HttpResponse body(byte[] content) {
+        body = content;
+        return this;
+    }
+
+    /**
+     * Sets the body to the UTF-8 encoding of the text.
+     */
+    public HttpResponse body(String text) {
+        body = text.getBytes(StandardCharsets.UTF_8);
+        return this;
+    }
+
+    /**
+     * Sets the length of a body that will be written through {@link #stream(OutputStream)},
+     * so it is sent with a Content-Length rather than in chunks.
+     */
+    public HttpResponse contentLength(long length) {
+        contentLength = length;
+        return this;
+    }
+
+    /**
+     * Returns the complete response: head, Content-Length and body. 204 and 304
+     * responses have neither a length nor a body.
+     */
+    public byte[] toBytes() {
+        if (status == 204 || status == 304) {
+            byte[] out = Arrays.copyOf(head, headLength + CRLF.length);
+            put(out, headLength, CRLF);
+            return out;
+        }
+        byte[] length = ascii(Integer.toString(body.length));
+        int size = headLength + CONTENT_LENGTH.length + length.length + 2 * CRLF.length + body.length;
+        byte[] out = Arrays.copyOf(head, size);
+        int pos = headLength;
+        pos = put(out, pos, CONTENT_LENGTH);
+        pos = put(out, pos, length);
+        pos = put(out, pos, CRLF);
+        pos = put(out, pos, CRLF);
+        put(out, pos, body);
+        return out;
+    }
+
+    /**
+     * Writes the response with a single write and flushes it.
+     */
+    public void send(OutputStream out) throws IOException {
+        out.write(toBytes());
+        out.flush();
+    }
+
+    /**
+     * Writes the head and returns a stream for the body. Without a
+     * {@link #contentLength(long)} the body is sent in chunks, and closing the returned
+     * stream ends it; the client stream itself stays open either way.
+     */
+    public OutputStream stream(OutputStream out) throws IOException {
+        if (contentLength >= 0) {
+            append(CONTENT_LENGTH);
+            append(ascii(Long.toString(contentLength)));
+            append(CRLF);
+        } else {
+            append(CHUNKED);
+        }
+        append(CRLF);
+        out.write(head, 0, headLength);
+        return contentLength >= 0 ? new UnclosedOutputStream(out) : new ChunkedOutputStream(out);
+    }
+
+    private void append(byte[] bytes) {
+        if (headLength + bytes.length > head.length) {
+            head = Arrays.copyOf(head, Math.max(head.length * 2, headLength + bytes.length));
+        }
+        System.arraycopy(bytes, 0, head, headLength, bytes.length);
+        headLength += bytes.length;
+    }
+
+    private static int put(byte[] out, int pos, byte[] bytes) {
+        System.arraycopy(bytes, 0, out, pos, bytes.length);
+        return pos + bytes.length;
+    }
+
+    private static byte[] statusLine(int status) {
+        return ascii("HTTP/1.1 " + status + " " + REASONS.getOrDefault(status, "Unknown") + "\r\n");
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /** Passes the body through; closing it only flushes */
+    private static class UnclosedOutputStream extends OutputStream {
+        final OutputStream out;
+
+        UnclosedOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+
+    /** Frames each write as one chunk; closing it writes the last, empty chunk */
+    private static final class ChunkedOutputStream extends UnclosedOutputStream {
+        private boolean closed = false;
+
+        ChunkedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            byte[] size = ascii(Integer.toHexString(len) + "\r\n");
+            byte[] chunk = new byte[size.length + len + CRLF.length];
+            int pos = put(chunk, 0, size);
+            System.arraycopy(b, off, chunk, pos, len);
+            put(chunk, pos + len, CRLF);
+            out.write(chunk);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                out.write(ascii("0\r\n\r\n"));
+            }
+            out.flush();
+        }
+    }
+}
@@ -1,61 +1,109 @@
 package server;
 
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import metrics.HttpMetrics;
+import metrics.JfrEvents;
 
+
+/**
+ * A small HTTP server that hands each connection to a fixed pool of worker threads.
+ *
+ * The server sheds load instead of queueing without bound. Connections wait in a queue
+ * of at most {@code http.queue} entries (default 50 per thread). Connections that find
+ * the queue full, or that waited longer than {@code http.queueDeadlineMs} (default 5000,
+ * 0 to disable) before a worker took them, are answered with 503 Service Unavailable and
+ * a Retry-After of {@code http.retryAfter} seconds (default 1). A route can also be given
+ * a concurrency limit with {@link #setConcurrencyLimit(String, String, int)}; requests
+ * over the limit get the same 503 instead of waiting.
+ *
+ * Requests are routed by a {@link Router}, so routes may contain path parameters such as
+ * {@code /topics/{name}}. A path whose route has no servlet for the request's method is
+ * answered with 405 Method Not Allowed and an Allow header.
+ *
+ * An {@link AsyncServlet} gives its worker back as soon as {@code handleAsync} returns;
+ * the response is sent from a worker once the servlet's stage completes, or right away
+ * on the same worker if the stage is already complete when it is returned. At most
+ * {@code http.maxAsync} such requests (default 10000) may wait at once, and a route's
+ * concurrency limit covers only the synchronous part of the call.
+ */
 public class MyHTTPServer extends Thread implements HTTPServer {
     int port;
     private volatile boolean stop;
-    private final Map<String, Servlet> getServlets = new ConcurrentHashMap<>();
-    private final Map<String, Servlet> postServlets = new ConcurrentHashMap<>();
-    private final Map<String, Servlet> deleteServlets = new ConcurrentHashMap<>();
-    ExecutorService tp;
+    private static final Set<String> METHODS = Set.of("GET", "POST", "PUT", "DELETE");
+    private final Router router = new Router();
+    /** Permits per "METHOD route" that has a concurrency limit */
+    private final Map<String, Semaphore> routeLimits = new ConcurrentHashMap<>();
+    private final long queueDeadlineNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("http.queueDeadlineMs", 5000));
+    private static final byte[] PREFLIGHT = HttpResponse.status(204).cors()
+            .header("Access-Control-Allow-Methods", "GET, POST, PUT, OPTIONS, DELETE")
+            .header("Access-Control-Allow-Headers", "Content-Type, If-None-Match")
+            .toBytes();
+    private static final byte[] NOT_FOUND = HttpResponse.status(404).toBytes();
+    private static final byte[] SERVER_ERROR = HttpResponse.status(500).toBytes();
+    private final byte[] serviceUnavailable = HttpResponse.status(503).cors()
+            .header("Retry-After", Integer.toString(Integer.getInteger("http.retryAfter", 1)))
+            .contentType("text/plain")
+            .header("Connection", "close")
+            .body("Server busy, retry later.")
+            .toBytes();
+    private final int maxAsync = Integer.getInteger("http.maxAsync", 10_000);
+    private final AtomicInteger asyncPending = new AtomicInteger();
+    ThreadPoolExecutor tp;
 
     public MyHTTPServer(int port, int nThreads) {
+        this(port, nThreads, Integer.getInteger("http.queue", nThreads * 50));
+    }
+
+    /**
+     * @param port The port to listen on
+     * @param nThreads The number of worker threads
+     * @param queueCapacity How many accepted connections may wait for a worker
+     */
+    public MyHTTPServer(int port, int nThreads, int queueCapacity) {
         this.port = port;
-         tp = Executors.newFixedThreadPool(nThreads);
+        tp = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity));
+        HttpMetrics.setQueue(tp.getQueue());
+        HttpMetrics.setAsyncPending(asyncPending);
+    }
+
+    /**
+     * Limits how many requests to a route are handled at once. Requests beyond the limit
+     * are answered with 503 right away.
+     *
+     * @param httpCommand The HTTP method, e.g. POST
+     * @param uri The route as registered with {@link #addServlet(String, String, Servlet)}
+     * @param limit The most requests handled at once
+     */
+    public void setConcurrencyLimit(String httpCommand, String uri, int limit) {
+        routeLimits.put(httpCommand.toUpperCase() + " " + uri, new Semaphore(limit));
     }
 
     public void addServlet(String httpCommanmd, String uri, Servlet s) {
-        // add the servlet to the appropriate map based on the HTTP command
-        switch (httpCommanmd.toUpperCase()) {
-            case "GET":
-                getServlets.put(uri, s);
-                break;
-            case "POST":
-                postServlets.put(uri, s);
-                break;
-            case "DELETE":
-                deleteServlets.put(uri, s);
-                break;
-            default:
-                throw new IllegalArgumentException("Unsupported HTTP command: " + httpCommanmd);
-        }
+        router.add(checkMethod(httpCommanmd), uri, s);
     }
 
     public void removeServlet(String httpCommanmd, String uri) {
-        // remove the servlet from the appropriate map based on the HTTP command
-        switch (httpCommanmd.toUpperCase()) {
-            case "GET":
-                getServlets.remove(uri);
-                break;
-            case "POST":
-                postServlets.remove(uri);
-                break;
-            case "DELETE":
-                deleteServlets.remove(uri);
-                break;
-            default:
-                throw new IllegalArgumentException("Unsupported HTTP command: " + httpCommanmd);
+        router.remove(checkMethod(httpCommanmd), uri);
+    }
+
+    private static String checkMethod(String httpCommand) {
+        String method = httpCommand.toUpperCase();
+        if (!METHODS.contains(method)) {
+            throw new IllegalArgumentException("Unsupported HTTP command: " + httpCommand);
         }
+        return method;
     }
 
     public void run() {
@@ -73,21 +121,7 @@ public class MyHTTPServer extends Thread implements HTTPServer {
         } catch (InterruptedException e) {
             tp.shutdownNow();
         }
-        getServlets.values().forEach(servlet -> {
-            try {
-                servlet.close();
-            } catch (IOException e) {
-                System.out.println("Error closing servlet: " + e.getMessage());
-            }
-        });
-        postServlets.values().forEach(servlet -> {
-            try {
-                servlet.close();
-            } catch (IOException e) {
-                System.out.println("Error closing servlet: " + e.getMessage());
-            }
-        });
-        deleteServlets.values().forEach(servlet -> {
+        router.servlets().forEach(servlet -> {
             try {
                 servlet.close();
             } catch (IOException e) {
@@ -102,8 +136,13 @@ public class MyHTTPServer extends Thread implements HTTPServer {
             while (!stop) {
                 try {
                     Socket client = server.accept();
-                    tp.execute(() -> handleClient(client)); // Submit client handling to the thread pool
-                } catch (SocketTimeoutException _) {
+                    long accepted = System.nanoTime();
+                    try {
+                        tp.execute(() -> handleClient(client, accepted)); // Submit client handling to the thread pool
+                    } catch (RejectedExecutionException e) {
+                        reject(client, "queue_full");
+                    }
+                } catch (SocketTimeoutException e) {
                     // Ignore timeout exceptions to allow checking the stop condition
                 }
             }
@@ -112,68 +151,193 @@ public class MyHTTPServer extends Thread implements HTTPServer {
         }
     }
 
-    private Servlet findLongestMatchingServlet(Map<String, Servlet> servletMap, String uri) {
-        String longestMatch = null;
-        for (String key : servletMap.keySet()) {
-            if (uri.startsWith(key) && (longestMatch == null || key.length() > longestMatch.length())) {
-                longestMatch = key;
-            }
+    /**
+     * Answers a connection that will not be served with 503 and closes it, without
+     * reading the request.
+     */
+    private void reject(Socket client, String reason) {
+        HttpMetrics.recordRejected(reason);
+        try (client) {
+            client.getOutputStream().write(serviceUnavailable);
+            client.shutdownOutput();
+        } catch (IOException e) {
+            // The client is gone already
         }
-        return longestMatch != null ? servletMap.get(longestMatch) : null;
     }
 
-    private void handleClient(Socket client) {
-        try (BufferedReader input = new BufferedReader(new InputStreamReader(client.getInputStream()))) {
-            RequestParser.RequestInfo requestInfo = RequestParser.parseRequest(input);
+    private void handleClient(Socket client, long accepted) {
+        if (queueDeadlineNanos > 0 && System.nanoTime() - accepted > queueDeadlineNanos) {
+            // The client has most likely given up; don't spend a worker on it
+            reject(client, "deadline");
+            return;
+        }
+        JfrEvents.HttpRequest event = new JfrEvents.HttpRequest();
+        event.begin();
+        // Once an async servlet has the request, the connection is closed when it completes
+        boolean handedOff = false;
+        try {
+            BufferedInputStream input = new BufferedInputStream(client.getInputStream());
+            // The body is read once the servlet is known, so a StreamingServlet can read it itself
+            RequestParser.RequestInfo requestInfo = RequestParser.parseHead(input);
             String httpCommand = requestInfo.getHttpCommand();
+            event.method = httpCommand;
+            event.uri = requestInfo.getUri();
 
             // Handle OPTIONS request for CORS preflight
             if (httpCommand.equalsIgnoreCase("OPTIONS")) {
-                client.getOutputStream().write("HTTP/1.1 204 No Content\r\n".getBytes());
-                client.getOutputStream().write("Access-Control-Allow-Origin: *\r\n".getBytes());
-                client.getOutputStream().write("Access-Control-Allow-Methods: GET, POST, OPTIONS, DELETE\r\n".getBytes());
-                client.getOutputStream().write("Access-Control-Allow-Headers: Content-Type\r\n".getBytes());
-                client.getOutputStream().write("\r\n".getBytes());
+                client.getOutputStream().write(PREFLIGHT);
                 return;
             }
 
-            // Determine the appropriate servlet based on the longest URI match
-            Map<String, Servlet> servletMap;
-            switch (httpCommand.toUpperCase()) {
-                case "GET":
-                    servletMap = getServlets;
-                    break;
-                case "POST":
-                    servletMap = postServlets;
-                    break;
-                case "DELETE":
-                    servletMap = deleteServlets;
-                    break;
-                default:
-                    client.getOutputStream().write("HTTP/1.1 400 Bad Request\r\n\r\n".getBytes());
-                    System.out.println("Unsupported HTTP command: " + httpCommand);
-                    return;
+            // Find the servlet in the routing trie; path parameters become request parameters
+            Router.Match match = router.find(httpCommand, requestInfo.getUriSegments());
+            Servlet servlet = match != null ? match.getServlet() : null;
+            String route = match != null ? match.getRoute() : null;
+            event.route = route;
+            if (servlet != null) {
+                requestInfo.getParameters().putAll(match.getPathParameters());
+            } else if (match != null) {
+                HttpResponse.status(405)
+                        .header("Allow", String.join(", ", match.getAllowedMethods()))
+                        .send(client.getOutputStream());
+                System.out.println("Method " + httpCommand + " not allowed for " + requestInfo.getUri());
+                return;
             }
 
-            Servlet servlet = findLongestMatchingServlet(servletMap, requestInfo.getUri());
-
-            if (servlet != null) {
-                servlet.handle(requestInfo, client.getOutputStream());
+            Semaphore limit = route != null ? routeLimits.get(httpCommand.toUpperCase() + " " + route) : null;
+            if (servlet != null && limit != null && !limit.tryAcquire()) {
+                HttpMetrics.recordRejected("route_limit");
+                client.getOutputStream().write(serviceUnavailable);
+            } else if (servlet instanceof AsyncServlet async) {
+                try {
+                    requestInfo = RequestParser.readContent(requestInfo, input);
+                    handedOff = startAsync(async, client, requestInfo, route, event);
+                } finally {
+                    if (limit != null) {
+                        limit.release();
+                    }
+                }
+            } else if (servlet != null) {
+                long start = System.nanoTime();
+                CompressingOutputStream compressed = ResponseCompression.wrap(client.getOutputStream(),
+                        requestInfo.getHeaders().get("Accept-Encoding"), requestInfo.getUri());
+                OutputStream toClient = compressed != null ? compressed : client.getOutputStream();
+                try {
+                    if (servlet instanceof StreamingServlet streaming) {
+                        streaming.handle(requestInfo, RequestParser.bodyStream(requestInfo, input), toClient);
+                    } else {
+                        servlet.handle(RequestParser.readContent(requestInfo, input), toClient);
+                    }
+                    if (compressed != null) {
+                        compressed.finish();
+                    }
+                } finally {
+                    if (limit != null) {
+                        limit.release();
+                    }
+                    HttpMetrics.record(httpCommand.toUpperCase(), route, System.nanoTime() - start);
+                }
             } else {
-                client.getOutputStream().write("HTTP/1.1 404 Not Found\r\n\r\n".getBytes());
+                client.getOutputStream().write(NOT_FOUND);
                 System.out.println("No servlet found for " + httpCommand + " " + requestInfo.getUri());
             }
         } catch (IOException e) {
             try {
-                client.getOutputStream().write("HTTP/1.1 500 Internal Server Error\r\n\r\n".getBytes());
+                client.getOutputStream().write(SERVER_ERROR);
             } catch (IOException ignored) {}
             System.out.println("Error handling client: " + e.getMessage());
         } finally {
+            if (!handedOff) {
+                event.commit();
+                closeClient(client);
+            }
+        }
+    }
+
+    /**
+     * Calls an async servlet and arranges for its response to be sent when it completes.
+     *
+     * @return false if the request was rejected instead and the connection is still ours
+     */
+    private boolean startAsync(AsyncServlet servlet, Socket client, RequestParser.RequestInfo requestInfo,
+                               String route, JfrEvents.HttpRequest event) throws IOException {
+        if (asyncPending.incrementAndGet() > maxAsync) {
+            asyncPending.decrementAndGet();
+            HttpMetrics.recordRejected("async_full");
+            client.getOutputStream().write(serviceUnavailable);
+            return false;
+        }
+        long start = System.nanoTime();
+        AsyncResponse response = new AsyncResponse();
+        CompletionStage<Void> stage;
+        try {
+            stage = servlet.handleAsync(requestInfo, response);
+        } catch (IOException | RuntimeException e) {
+            stage = CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<Void> future = stage.toCompletableFuture();
+        if (future.isDone()) {
+            // Already finished (a plain publish): answer on this worker rather than queueing
+            // again, so a full queue can't turn a request that succeeded into a 503
+            Throwable error = future.handle((ignored, failure) -> failure).join();
+            finishAsync(client, requestInfo, route, response, error, start, event);
+            return true;
+        }
+        future.whenComplete((ignored, error) -> {
             try {
-                client.close();
-            } catch (IOException e) {
-                System.out.println("Error closing client socket: " + e.getMessage());
+                tp.execute(() -> finishAsync(client, requestInfo, route, response, error, start, event));
+            } catch (RejectedExecutionException e) {
+                // The completing thread may be an agent's; don't write the response on it
+                abortAsync(client, requestInfo, route, start, event);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Ends an async request whose response could not be handed to a worker: the client
+     * gets a 503, which fits in the socket's send buffer, and the connection is closed.
+     */
+    private void abortAsync(Socket client, RequestParser.RequestInfo requestInfo, String route,
+                            long start, JfrEvents.HttpRequest event) {
+        asyncPending.decrementAndGet();
+        HttpMetrics.record(requestInfo.getHttpCommand().toUpperCase(), route, System.nanoTime() - start);
+        event.commit();
+        reject(client, "resume_rejected");
+    }
+
+    private void finishAsync(Socket client, RequestParser.RequestInfo requestInfo, String route,
+                             AsyncResponse response, Throwable error, long start, JfrEvents.HttpRequest event) {
+        try {
+            byte[] bytes = response.send();
+            if (error != null) {
+                System.out.println("Error in async servlet for " + requestInfo.getUri() + ": " + error);
+                if (bytes.length == 0) {
+                    bytes = SERVER_ERROR;
+                }
+            }
+            CompressingOutputStream compressed = ResponseCompression.wrap(client.getOutputStream(),
+                    requestInfo.getHeaders().get("Accept-Encoding"), requestInfo.getUri());
+            OutputStream toClient = compressed != null ? compressed : client.getOutputStream();
+            toClient.write(bytes);
+            if (compressed != null) {
+                compressed.finish();
             }
+        } catch (IOException e) {
+            System.out.println("Error sending async response: " + e.getMessage());
+        } finally {
+            asyncPending.decrementAndGet();
+            HttpMetrics.record(requestInfo.getHttpCommand().toUpperCase(), route, System.nanoTime() - start);
+            event.commit();
+            closeClient(client);
+        }
+    }
+
+    private static void closeClient(Socket client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            System.out.println("Error closing client socket: " + e.getMessage());
         }
     }
 }
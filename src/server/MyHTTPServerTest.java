@@ -0,0 +1,122 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class MyHTTPServerTest {
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Testing MyHTTPServer ===\n");
+
+        testCompletedAsyncWithFullQueue();
+
+        System.out.println(failures == 0 ? "All server tests passed" : failures + " server test(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void testCompletedAsyncWithFullQueue() throws Exception {
+        System.out.println("Test Case 1: A completed async request is answered while the queue is full");
+        CountDownLatch inAsync = new CountDownLatch(1);
+        CountDownLatch queueFull = new CountDownLatch(1);
+        CountDownLatch releaseSlow = new CountDownLatch(1);
+
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        // Two workers and room for one waiting connection
+        MyHTTPServer server = new MyHTTPServer(port, 2, 1);
+        server.addServlet("POST", "/publish", new AsyncServlet() {
+            @Override
+            public CompletionStage<Void> handleAsync(RequestParser.RequestInfo ri, AsyncResponse response) throws IOException {
+                inAsync.countDown();
+                await(queueFull);
+                HttpResponse.ok().body("published").send(response);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        server.addServlet("GET", "/slow", new Servlet() {
+            @Override
+            public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
+                await(releaseSlow);
+                HttpResponse.ok().body("slow").send(toClient);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        server.start();
+        Thread.sleep(200);
+
+        try (Socket publish = request(port, "POST /publish HTTP/1.1\r\nContent-Length: 1\r\n\r\nx")) {
+            check("publish reached the servlet", inAsync.await(5, TimeUnit.SECONDS));
+            try (Socket busy = request(port, "GET /slow HTTP/1.1\r\n\r\n");
+                 Socket queued = request(port, "GET /slow HTTP/1.1\r\n\r\n")) {
+                long deadline = System.currentTimeMillis() + 5000;
+                while ((server.tp.getActiveCount() < 2 || server.tp.getQueue().isEmpty())
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                check("both workers busy and the queue full",
+                        server.tp.getActiveCount() == 2 && server.tp.getQueue().remainingCapacity() == 0);
+
+                queueFull.countDown();
+                String response = read(publish);
+                check("completed publish gets 200", response.startsWith("HTTP/1.1 200"));
+                check("publish response has its body", response.endsWith("published"));
+
+                releaseSlow.countDown();
+                check("slow requests still served", read(busy).startsWith("HTTP/1.1 200")
+                        && read(queued).startsWith("HTTP/1.1 200"));
+            }
+        } finally {
+            queueFull.countDown();
+            releaseSlow.countDown();
+            server.close();
+        }
+    }
+
+    private static Socket request(int port, String request) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(5000);
+        socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+        socket.getOutputStream().flush();
+        return socket;
+    }
+
+    private static String read(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void check(String name, boolean ok) {
+        System.out.println((ok ? "  PASS " : "  FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
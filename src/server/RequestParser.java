@@ -1,18 +1,113 @@
 package server;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 public class RequestParser {
 
+    /**
+     * Content types whose body is kept as the raw bytes sent, instead of being read as
+     * text lines that may start with key=value parameters.
+     */
+    private static final String[] RAW_CONTENT_TYPES = { "application/octet-stream", "application/x-cgraph" };
+
     public static RequestInfo parseRequest(BufferedReader reader) throws IOException {
         //System.out.println("[RequestParser] Starting request parsing");
 
         /* ---------- 1. Request line ---------- */
-        String start = reader.readLine();
+        RequestLine request = parseRequestLine(reader.readLine());
+
+        /* ---------- 3. Headers ---------- */
+        Map<String,String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            addHeader(line, headers);
+        }
+        int contentLength = (int) contentLength(headers);
+
+        /* ---------- 4. Extra key=value lines and Content payload ---------- */
+        byte[] content;
+        if (contentLength <= 0 && !reader.ready()) {
+            content = new byte[0];
+        } else {
+            BufferedReader body = contentLength > 0
+                    ? new BufferedReader(new StringReader(readBody(reader, contentLength)))
+                    : reader;
+            content = parseTextBody(body, contentLength > 0 ? null : reader, request.params);
+        }
+
+        //System.out.println("[RequestParser] Request parsed: " + httpCommand + " " + uriWithQuery + 
+          //               " (params: " + params.size() + ", content: " + content.length + " bytes)");
+        
+        return new RequestInfo(request.httpCommand, request.uri, request.uriSegments, request.params, headers, content);
+    }
+
+    /**
+     * Parses a request straight from the socket. The body is read as bytes, so binary
+     * bodies (see {@link #RAW_CONTENT_TYPES}) arrive intact; text bodies are parsed the
+     * same way as by {@link #parseRequest(BufferedReader)}.
+     */
+    public static RequestInfo parseRequest(InputStream in) throws IOException {
+        return readContent(parseHead(in), in);
+    }
+
+    /**
+     * Parses the request line and headers and leaves the body in the stream, to be read
+     * with {@link #readContent(RequestInfo, InputStream)} or {@link #bodyStream(RequestInfo, InputStream)}.
+     *
+     * @return The request, with empty content
+     */
+    public static RequestInfo parseHead(InputStream in) throws IOException {
+        RequestLine request = parseRequestLine(readLine(in));
+
+        Map<String,String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            addHeader(line, headers);
+        }
+        return new RequestInfo(request.httpCommand, request.uri, request.uriSegments, request.params, headers, new byte[0]);
+    }
+
+    /**
+     * Reads the body of a request parsed with {@link #parseHead(InputStream)}. Text bodies
+     * may start with key=value lines, which are added to the request's parameters.
+     *
+     * @return The request with its content
+     */
+    public static RequestInfo readContent(RequestInfo head, InputStream in) throws IOException {
+        byte[] raw = bodyStream(head, in).readAllBytes();
+        byte[] content;
+        if (raw.length == 0 || isRawContentType(head.getHeaders().get("Content-Type"))) {
+            content = raw;
+        } else {
+            String text = new String(raw, StandardCharsets.UTF_8);
+            content = parseTextBody(new BufferedReader(new StringReader(text)), null, head.getParameters());
+        }
+        return new RequestInfo(head.getHttpCommand(), head.getUri(), head.getUriSegments(), head.getParameters(),
+                head.getHeaders(), content);
+    }
+
+    /**
+     * Returns the body of a request parsed with {@link #parseHead(InputStream)} as a stream
+     * that ends after Content-Length bytes. Without a Content-Length, the body is what the
+     * client has sent so far, as in the reader version. Closing the stream does not close
+     * the connection.
+     */
+    public static InputStream bodyStream(RequestInfo head, InputStream in) throws IOException {
+        long contentLength = contentLength(head.getHeaders());
+        if (contentLength <= 0) {
+            contentLength = in.available();
+        }
+        return new BodyInputStream(in, contentLength);
+    }
+
+    private static RequestLine parseRequestLine(String start) throws IOException {
         if (start == null || start.isEmpty()) {
             System.out.println("[RequestParser] Error: Empty request");
             throw new IOException("Empty request");
@@ -48,49 +143,174 @@ public class RequestParser {
         String[] uriSegments = Arrays.stream(pathOnly.split("/"))
                 .filter(s -> !s.isEmpty())
                 .toArray(String[]::new);
+        return new RequestLine(httpCommand, uriWithQuery, uriSegments, params);
+    }
 
-        /* ---------- 3. Headers ---------- */
-        int contentLength = 0;
-        String line;
-        while ((line = reader.readLine()) != null && !line.isEmpty()) {
-            int idx = line.indexOf(':');
-            if (idx == -1) continue;
-            
-            String name  = line.substring(0, idx).trim();
-            String value = line.substring(idx + 1).trim();
-            if ("Content-Length".equalsIgnoreCase(name)) {
-                contentLength = Integer.parseInt(value);
+    private static void addHeader(String line, Map<String,String> headers) {
+        int idx = line.indexOf(':');
+        if (idx == -1) return;
+
+        String name  = line.substring(0, idx).trim();
+        String value = line.substring(idx + 1).trim();
+        headers.merge(name, value, (a, b) -> a + ", " + b);
+    }
+
+    /**
+     * Returns the request's Content-Length, or 0 if it has none.
+     */
+    public static long contentLength(Map<String,String> headers) {
+        String value = headers.get("Content-Length");
+        return value != null ? Long.parseLong(value.trim()) : 0;
+    }
+
+    private static boolean isRawContentType(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.trim().toLowerCase(Locale.ROOT);
+        for (String raw : RAW_CONTENT_TYPES) {
+            if (type.startsWith(raw)) {
+                return true;
             }
         }
+        return false;
+    }
 
-        /* ---------- 4. Extra key=value lines and Content payload ---------- */
-        byte[] content;
-        if (!reader.ready()) {
-            content = new byte[0];
-        } else {
-            StringBuilder bodyBuilder = new StringBuilder();
-            boolean inContent = false;
-            
-            while (reader.ready() && (line = reader.readLine()) != null) {
-                if (!inContent) {
-                    int eq = line.indexOf('=');
-                    if (eq > 0) {
-                        String key = line.substring(0, eq).trim();
-                        String value = line.substring(eq + 1).trim();
-                        params.put(key, value);
-                        continue;
-                    }
-                    inContent = true;
+    /**
+     * Reads the body as lines: leading key=value lines become parameters and the rest
+     * is the content.
+     *
+     * @param body The body lines
+     * @param live The connection's reader when the body has no Content-Length and lines are
+     *             read only while more has arrived, otherwise null
+     */
+    private static byte[] parseTextBody(BufferedReader body, BufferedReader live, Map<String,String> params) throws IOException {
+        StringBuilder bodyBuilder = new StringBuilder();
+        boolean inContent = false;
+        String line;
+        while ((live == null || live.ready()) && (line = body.readLine()) != null) {
+            if (!inContent) {
+                int eq = line.indexOf('=');
+                if (eq > 0) {
+                    String key = line.substring(0, eq).trim();
+                    String value = line.substring(eq + 1).trim();
+                    params.put(key, value);
+                    continue;
                 }
-                bodyBuilder.append(line).append("\n");
+                inContent = true;
             }
-            content = bodyBuilder.toString().getBytes(StandardCharsets.UTF_8.name());
+            bodyBuilder.append(line).append("\n");
         }
+        return bodyBuilder.toString().getBytes(StandardCharsets.UTF_8);
+    }
 
-        //System.out.println("[RequestParser] Request parsed: " + httpCommand + " " + uriWithQuery + 
-          //               " (params: " + params.size() + ", content: " + content.length + " bytes)");
-        
-        return new RequestInfo(httpCommand, uriWithQuery, uriSegments, params, content);
+    /**
+     * Reads one CRLF- or LF-terminated line of UTF-8, without the terminator.
+     *
+     * @return The line, or null at the end of the stream
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                break;
+            }
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a body of {@code contentLength} bytes, waiting for it to arrive if it was sent
+     * after the headers. Stops early if the client closes the connection.
+     */
+    private static String readBody(BufferedReader reader, int contentLength) throws IOException {
+        StringBuilder body = new StringBuilder();
+        char[] buffer = new char[8192];
+        int bytesRead = 0;
+        while (bytesRead < contentLength) {
+            // A char is at least one byte, so this never asks for more than is left
+            int n = reader.read(buffer, 0, Math.min(buffer.length, contentLength - bytesRead));
+            if (n < 0) {
+                break;
+            }
+            body.append(buffer, 0, n);
+            for (int i = 0; i < n; i++) {
+                bytesRead += utf8Length(buffer[i]);
+            }
+        }
+        return body.toString();
+    }
+
+    /** Bytes the char takes in UTF-8; each half of a surrogate pair counts for half of the pair's four */
+    private static int utf8Length(char c) {
+        if (c < 0x80) return 1;
+        if (c < 0x800 || Character.isSurrogate(c)) return 2;
+        return 3;
+    }
+
+    /** At most {@code remaining} bytes of the connection; closing it leaves the connection open */
+    private static final class BodyInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        BodyInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class RequestLine {
+        final String httpCommand;
+        final String uri;
+        final String[] uriSegments;
+        final Map<String, String> params;
+
+        RequestLine(String httpCommand, String uri, String[] uriSegments, Map<String, String> params) {
+            this.httpCommand = httpCommand;
+            this.uri = uri;
+            this.uriSegments = uriSegments;
+            this.params = params;
+        }
     }
 
     // RequestInfo given internal class
@@ -99,13 +319,20 @@ public class RequestParser {
         private final String uri;
         private final String[] uriSegments;
         private final Map<String, String> parameters;
+        private final Map<String, String> headers;
         private final byte[] content;
 
         public RequestInfo(String httpCommand, String uri, String[] uriSegments, Map<String, String> parameters, byte[] content) {
+            this(httpCommand, uri, uriSegments, parameters, Collections.emptyMap(), content);
+        }
+
+        public RequestInfo(String httpCommand, String uri, String[] uriSegments, Map<String, String> parameters,
+                           Map<String, String> headers, byte[] content) {
             this.httpCommand = httpCommand;
             this.uri = uri;
             this.uriSegments = uriSegments;
             this.parameters = parameters;
+            this.headers = headers;
             this.content = content;
         }
 
@@ -125,6 +352,14 @@ public class RequestParser {
             return parameters;
         }
 
+        /**
+         * Returns the request headers, looked up case-insensitively. Repeated headers are
+         * joined with commas.
+         */
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
         public byte[] getContent() {
             return content;
         }
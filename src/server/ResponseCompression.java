@@ -0,0 +1,188 @@
+package server;
+
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * gzip/deflate compression of responses, applied by the server to whatever a servlet
+ * writes.
+ *
+ * The encoding is picked from the request's Accept-Encoding header. Only successful
+ * responses with a text-like Content-Type and at least {@code http.compression.threshold}
+ * bytes of body (default 1024) are compressed; everything else passes through unchanged.
+ * Responses that carry a Content-Length and a Last-Modified header, i.e. static files,
+ * are compressed once and kept in a cache of at most {@code http.compression.cacheBytes}
+ * bytes (default 32 MB). Setting {@code http.compression=false} turns compression off.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public final class ResponseCompression {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static volatile boolean enabled = !"false".equalsIgnoreCase(System.getProperty("http.compression"));
+    private static volatile int threshold = Integer.getInteger("http.compression.threshold", 1024);
+    private static volatile int level = Integer.getInteger("http.compression.level", 6);
+    private static final Cache CACHE = new Cache(Long.getLong("http.compression.cacheBytes", 32L << 20));
+
+    private ResponseCompression() {
+    }
+
+    /**
+     * Wraps the client stream so the response written to it is compressed if the client
+     * accepts it and the response qualifies. The wrapper must be finished with
+     * {@link CompressingOutputStream#finish()} once the servlet is done.
+     *
+     * @param out The client stream
+     * @param acceptEncoding The request's Accept-Encoding header, or null
+     * @param uri The request URI, used as part of the static file cache key
+     * @return A compressing stream, or null if the client accepts no supported encoding
+     */
+    public static CompressingOutputStream wrap(OutputStream out, String acceptEncoding, String uri) {
+        if (!enabled) {
+            return null;
+        }
+        String encoding = negotiate(acceptEncoding);
+        if (encoding == null) {
+            return null;
+        }
+        return new CompressingOutputStream(out, encoding, uri, threshold, level, CACHE);
+    }
+
+    /**
+     * Picks gzip or deflate from an Accept-Encoding header, honouring q-values and
+     * preferring gzip on ties.
+     *
+     * @return The encoding, or null if neither is acceptable
+     */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return null;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.split(";");
+            String coding = tokens[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1;
+            for (int i = 1; i < tokens.length; i++) {
+                String param = tokens[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            switch (coding) {
+                case GZIP:
+                case "x-gzip":
+                    gzip = Math.max(gzip, q);
+                    break;
+                case DEFLATE:
+                    deflate = Math.max(deflate, q);
+                    break;
+                case "*":
+                    any = q;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (gzip < 0) gzip = any;
+        if (deflate < 0) deflate = any;
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        if (deflate > 0) {
+            return DEFLATE;
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether a Content-Type is worth compressing.
+     */
+    static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        if (type.startsWith("text/event-stream")) {
+            return false;
+        }
+        return type.startsWith("text/")
+                || type.startsWith("application/json")
+                || type.startsWith("application/javascript")
+                || type.startsWith("application/xml")
+                || type.startsWith("application/x-ndjson")
+                || type.startsWith("image/svg+xml");
+    }
+
+    public static void setEnabled(boolean enabled) {
+        ResponseCompression.enabled = enabled;
+    }
+
+    /**
+     * Sets the smallest body, in bytes, that is compressed.
+     */
+    public static void setThreshold(int threshold) {
+        ResponseCompression.threshold = threshold;
+    }
+
+    /**
+     * Sets the deflate level, 1 (fastest) to 9 (smallest).
+     */
+    public static void setLevel(int level) {
+        ResponseCompression.level = level;
+    }
+
+    /**
+     * Returns the number of bytes currently held by the static file cache.
+     */
+    public static long getCachedBytes() {
+        return CACHE.size();
+    }
+
+    /**
+     * Compressed static responses, least recently used first out.
+     */
+    static final class Cache {
+        private final long maxBytes;
+        private long bytes = 0;
+        private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        Cache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized byte[] get(String key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(String key, byte[] value) {
+            if (value.length > maxBytes / 4) {
+                return;
+            }
+            byte[] previous = entries.put(key, value);
+            if (previous != null) {
+                bytes -= previous.length;
+            }
+            bytes += value.length;
+            var it = entries.entrySet().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                Map.Entry<String, byte[]> eldest = it.next();
+                bytes -= eldest.getValue().length;
+                it.remove();
+            }
+        }
+
+        synchronized long size() {
+            return bytes;
+        }
+    }
+}
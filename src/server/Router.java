@@ -0,0 +1,236 @@
+package server;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps request paths to servlets with a trie of path segments, so finding the servlet
+ * for a request takes time proportional to the length of its path, not to the number
+ * of routes.
+ *
+ * A route is a path template such as {@code /app/} or {@code /topics/{name}}. A
+ * {@code {name}} segment matches any one segment and its decoded value is given to the
+ * servlet as the request parameter {@code name}. A route also matches every path below
+ * it, so {@code /app/} serves {@code /app/css/style.css}; when several routes match,
+ * the deepest one wins, and a literal segment wins over a parameter at the same depth.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class Router {
+    private final Node root = new Node();
+
+    /**
+     * The servlet found for a request, or the methods the path supports if none was
+     * found for the request's method.
+     */
+    public static final class Match {
+        private final Servlet servlet;
+        private final String route;
+        private final Map<String, String> pathParameters;
+        private final Set<String> allowedMethods;
+
+        private Match(Servlet servlet, String route, Map<String, String> pathParameters, Set<String> allowedMethods) {
+            this.servlet = servlet;
+            this.route = route;
+            this.pathParameters = pathParameters;
+            this.allowedMethods = allowedMethods;
+        }
+
+        /**
+         * Returns the servlet, or null if the path has routes for other methods only.
+         */
+        public Servlet getServlet() {
+            return servlet;
+        }
+
+        /**
+         * Returns the template of the matched route, e.g. /topics/{name}.
+         */
+        public String getRoute() {
+            return route;
+        }
+
+        public Map<String, String> getPathParameters() {
+            return pathParameters;
+        }
+
+        /**
+         * Returns the methods the deepest matching route supports.
+         */
+        public Set<String> getAllowedMethods() {
+            return allowedMethods;
+        }
+    }
+
+    /** Written under the router's lock, read by request threads without it */
+    private static final class Node {
+        final Map<String, Node> children = new ConcurrentHashMap<>();
+        volatile Node parameter;
+        volatile String parameterName;
+        final Map<String, Servlet> servlets = new ConcurrentHashMap<>();
+        volatile String route;
+    }
+
+    /**
+     * Adds a route, replacing any servlet registered for the same method and template.
+     *
+     * @param method The HTTP method, e.g. GET
+     * @param template The path template, e.g. /topics/{name}
+     * @param servlet The servlet that handles matching requests
+     */
+    public synchronized void add(String method, String template, Servlet servlet) {
+        Node node = root;
+        for (String segment : segments(template)) {
+            if (isParameter(segment)) {
+                String name = segment.substring(1, segment.length() - 1);
+                if (node.parameter == null) {
+                    node.parameterName = name;
+                    node.parameter = new Node();
+                } else if (!node.parameterName.equals(name)) {
+                    throw new IllegalArgumentException("Route " + template + " names parameter {" + name
+                            + "} where another route has {" + node.parameterName + "}");
+                }
+                node = node.parameter;
+            } else {
+                node = node.children.computeIfAbsent(segment, s -> new Node());
+            }
+        }
+        node.servlets.put(method.toUpperCase(), servlet);
+        node.route = template;
+    }
+
+    /**
+     * Removes a route. The trie keeps its now empty nodes, which match nothing.
+     *
+     * @return The servlet that was registered, or null
+     */
+    public synchronized Servlet remove(String method, String template) {
+        Node node = root;
+        for (String segment : segments(template)) {
+            node = isParameter(segment) ? node.parameter : node.children.get(segment);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.servlets.remove(method.toUpperCase());
+    }
+
+    /**
+     * Finds the route for a request.
+     *
+     * @param method The request's HTTP method
+     * @param segments The request's path segments, see {@link RequestParser.RequestInfo#getUriSegments()}
+     * @return The match, or null if no route matches the path for any method
+     */
+    public Match find(String method, String[] segments) {
+        String upper = method.toUpperCase();
+        String[] names = new String[segments.length];
+        Found found = new Found();
+        search(root, segments, 0, names, upper, found);
+        if (found.node == null) {
+            return null;
+        }
+        Servlet servlet = found.node.servlets.get(upper);
+        Set<String> allowed = new TreeSet<>(found.node.servlets.keySet());
+        if (servlet == null) {
+            return new Match(null, found.node.route, Collections.emptyMap(), allowed);
+        }
+        Map<String, String> parameters = found.parameters != null ? found.parameters : Collections.emptyMap();
+        return new Match(servlet, found.node.route, parameters, allowed);
+    }
+
+    private static final class Found {
+        Node node;
+        int depth = -1;
+        boolean hasMethod;
+        Map<String, String> parameters;
+    }
+
+    /**
+     * Walks literal children first and parameters second, remembering the deepest node
+     * with a servlet for the method (or, failing that, with any servlet).
+     */
+    private static void search(Node node, String[] segments, int depth, String[] names, String method, Found found) {
+        if (!node.servlets.isEmpty()) {
+            boolean hasMethod = node.servlets.containsKey(method);
+            if (hasMethod ? (!found.hasMethod || depth > found.depth) : (!found.hasMethod && depth > found.depth)) {
+                found.node = node;
+                found.depth = depth;
+                found.hasMethod = hasMethod;
+                found.parameters = parameters(names, segments, depth);
+            }
+        }
+        if (depth == segments.length) {
+            return;
+        }
+        Node child = node.children.get(segments[depth]);
+        if (child != null) {
+            search(child, segments, depth + 1, names, method, found);
+        }
+        if (node.parameter != null) {
+            names[depth] = node.parameterName;
+            search(node.parameter, segments, depth + 1, names, method, found);
+            names[depth] = null;
+        }
+    }
+
+    /**
+     * Collects the decoded parameter values captured on the way to the current node.
+     */
+    private static Map<String, String> parameters(String[] names, String[] values, int depth) {
+        Map<String, String> result = null;
+        for (int i = 0; i < depth; i++) {
+            if (names[i] != null) {
+                if (result == null) {
+                    result = new HashMap<>();
+                }
+                result.put(names[i], decode(values[i]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns every registered servlet once.
+     */
+    public synchronized Collection<Servlet> servlets() {
+        Map<Servlet, Boolean> all = new IdentityHashMap<>();
+        collect(root, all);
+        return all.keySet();
+    }
+
+    private static void collect(Node node, Map<Servlet, Boolean> all) {
+        for (Servlet servlet : node.servlets.values()) {
+            all.put(servlet, Boolean.TRUE);
+        }
+        for (Node child : node.children.values()) {
+            collect(child, all);
+        }
+        if (node.parameter != null) {
+            collect(node.parameter, all);
+        }
+    }
+
+    private static String[] segments(String template) {
+        return Arrays.stream(template.split("/"))
+                .filter(s -> !s.isEmpty())
+                .toArray(String[]::new);
+    }
+
+    private static boolean isParameter(String segment) {
+        return segment.length() > 2 && segment.startsWith("{") && segment.endsWith("}");
+    }
+
+    static String decode(String segment) {
+        return URLDecoder.decode(segment.replace("+", "%2B"), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,116 @@
+package server;
+
+import java.io.OutputStream;
+import java.util.Set;
+
+public class RouterTest {
+    private static int failures = 0;
+
+    /** A servlet that only has a name, to tell which one a route found */
+    private static final class Named implements Servlet {
+        final String name;
+
+        Named(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void handle(RequestParser.RequestInfo ri, OutputStream toClient) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public static void main(String[] args) {
+        System.out.println("=== Testing Router ===\n");
+
+        Router router = new Router();
+        Named app = new Named("app");
+        Named topic = new Named("topic");
+        router.add("GET", "/app/", app);
+        router.add("GET", "/app/admin", new Named("admin"));
+        router.add("GET", "/topics/{name}", topic);
+        router.add("GET", "/topics/all", new Named("all"));
+        router.add("POST", "/topics/special", new Named("special"));
+        router.add("GET", "/topics/{name}/history", new Named("history"));
+        router.add("post", "/publish", new Named("publish"));
+
+        testLiteralRoutes(router);
+        testParameters(router);
+        testMethods(router);
+        testChanges(router, app, topic);
+
+        System.out.println(failures == 0 ? "All router tests passed" : failures + " router test(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void testLiteralRoutes(Router router) {
+        System.out.println("Test Case 1: Literal routes");
+        check("exact route", name(router, "GET", "app").equals("app"));
+        check("route serves the paths below it", name(router, "GET", "app", "css", "style.css").equals("app"));
+        check("deepest route wins", name(router, "GET", "app", "admin", "users").equals("admin"));
+        check("route template is reported", router.find("GET", new String[] {"app", "x"}).getRoute().equals("/app/"));
+        check("unknown path has no match", router.find("GET", new String[] {"nothing"}) == null);
+        check("root path has no match", router.find("GET", new String[0]) == null);
+    }
+
+    private static void testParameters(Router router) {
+        System.out.println("Test Case 2: Parameters");
+        Router.Match match = router.find("GET", new String[] {"topics", "A"});
+        check("parameter segment matches", match.getServlet() instanceof Named && ((Named) match.getServlet()).name.equals("topic"));
+        check("parameter value is captured", "A".equals(match.getPathParameters().get("name")));
+        check("literal wins over a parameter", name(router, "GET", "topics", "all").equals("all"));
+        check("parameter inside a route", name(router, "GET", "topics", "B", "history").equals("history"));
+        check("value is decoded", "my topic".equals(router.find("GET", new String[] {"topics", "my%20topic"}).getPathParameters().get("name")));
+        check("plus is kept", "a+b".equals(router.find("GET", new String[] {"topics", "a+b"}).getPathParameters().get("name")));
+        check("literal for another method does not hide the parameter",
+                name(router, "GET", "topics", "special").equals("topic")
+                        && "special".equals(router.find("GET", new String[] {"topics", "special"}).getPathParameters().get("name")));
+
+        boolean rejected = false;
+        try {
+            router.add("GET", "/topics/{id}/values", new Named("values"));
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        check("two names for one parameter are rejected", rejected);
+    }
+
+    private static void testMethods(Router router) {
+        System.out.println("Test Case 3: Methods");
+        check("methods are case-insensitive", name(router, "post", "publish").equals("publish"));
+        Router.Match wrongMethod = router.find("GET", new String[] {"publish"});
+        check("wrong method has no servlet", wrongMethod != null && wrongMethod.getServlet() == null);
+        check("wrong method reports the allowed ones", wrongMethod.getAllowedMethods().equals(Set.of("POST")));
+        Router.Match special = router.find("POST", new String[] {"topics", "special"});
+        check("POST route beside a GET parameter", ((Named) special.getServlet()).name.equals("special"));
+    }
+
+    private static void testChanges(Router router, Named app, Named topic) {
+        System.out.println("Test Case 4: Adding and removing routes");
+        Named replacement = new Named("app2");
+        router.add("GET", "/app/", replacement);
+        check("adding a route again replaces its servlet", name(router, "GET", "app").equals("app2"));
+        check("removing returns the servlet", router.remove("GET", "/app/admin") != null);
+        check("removed route falls back to its parent", name(router, "GET", "app", "admin").equals("app2"));
+        check("removing an unknown route returns null", router.remove("GET", "/nothing/here") == null);
+        check("every servlet listed once", router.servlets().contains(topic) && !router.servlets().contains(app)
+                && router.servlets().size() == 6);
+    }
+
+    private static String name(Router router, String method, String... segments) {
+        Router.Match match = router.find(method, segments);
+        return match != null && match.getServlet() != null ? ((Named) match.getServlet()).name : "";
+    }
+
+    private static void check(String name, boolean ok) {
+        System.out.println((ok ? "  PASS " : "  FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import server.RequestParser.RequestInfo;
+
+/**
+ * A servlet that reads the request body from the connection itself instead of receiving
+ * it in memory, for large uploads. The server hands it the request with empty content
+ * and a stream of the body; text bodies are not searched for key=value parameter lines.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public interface StreamingServlet extends Servlet {
+
+    /**
+     * Handles a request whose body has not been read yet.
+     *
+     * @param ri The request line, headers and query parameters
+     * @param body The body, ending after Content-Length bytes
+     * @param toClient Where to write the response
+     */
+    void handle(RequestInfo ri, InputStream body, OutputStream toClient) throws IOException;
+
+    /**
+     * Handles a request whose body was already read, e.g. when called directly.
+     */
+    @Override
+    default void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        byte[] content = ri.getContent() != null ? ri.getContent() : new byte[0];
+        handle(ri, new ByteArrayInputStream(content), toClient);
+    }
+}
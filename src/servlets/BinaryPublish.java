@@ -0,0 +1,163 @@
+package servlets;
+
+import views.GraphBinaryWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The binary body of POST /publish: a batch of values for one or more topics, sent with
+ * Content-Type {@value #MEDIA_TYPE}.
+ *
+ * <pre>
+ * magic      "CGP1"
+ * entries    varint count, count x (varint byte length, UTF-8 topic, byte kind, value)
+ *              kind 1: 8-byte big-endian IEEE 754 double
+ *              kind 2: varint byte length, UTF-8 text
+ * </pre>
+ * Varints are unsigned LEB128, as in the binary graph format.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public final class BinaryPublish {
+    public static final String MEDIA_TYPE = "application/x-cgraph-publish";
+
+    private static final byte[] MAGIC = { 'C', 'G', 'P', '1' };
+    private static final int KIND_NUMBER = 1;
+    private static final int KIND_TEXT = 2;
+
+    private BinaryPublish() {
+    }
+
+    /**
+     * One value for one topic; exactly one of number and text is used.
+     */
+    public static final class Entry {
+        public final String topic;
+        public final double number;
+        public final String text;
+
+        private Entry(String topic, double number, String text) {
+            this.topic = topic;
+            this.number = number;
+            this.text = text;
+        }
+
+        public static Entry number(String topic, double value) {
+            return new Entry(topic, value, null);
+        }
+
+        public static Entry text(String topic, String value) {
+            return new Entry(topic, Double.NaN, value);
+        }
+
+        public boolean isText() {
+            return text != null;
+        }
+    }
+
+    public static byte[] encode(List<Entry> entries) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 + entries.size() * 24);
+        out.write(MAGIC, 0, MAGIC.length);
+        GraphBinaryWriter.writeVarint(out, entries.size());
+        for (Entry entry : entries) {
+            writeString(out, entry.topic);
+            if (entry.isText()) {
+                out.write(KIND_TEXT);
+                writeString(out, entry.text);
+            } else {
+                out.write(KIND_NUMBER);
+                GraphBinaryWriter.writeDouble(out, entry.number);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a batch.
+     *
+     * @throws IllegalArgumentException If the body is not a valid batch
+     */
+    public static List<Entry> decode(byte[] body) {
+        Reader in = new Reader(body);
+        for (byte b : MAGIC) {
+            if (in.readByte() != b) {
+                throw new IllegalArgumentException("Not a binary publish batch");
+            }
+        }
+        int count = in.readVarint();
+        List<Entry> entries = new ArrayList<>(Math.min(count, 4096));
+        for (int i = 0; i < count; i++) {
+            String topic = in.readString();
+            int kind = in.readByte();
+            if (kind == KIND_NUMBER) {
+                entries.add(Entry.number(topic, Double.longBitsToDouble(in.readLong())));
+            } else if (kind == KIND_TEXT) {
+                entries.add(Entry.text(topic, in.readString()));
+            } else {
+                throw new IllegalArgumentException("Unknown value kind " + kind + " for topic " + topic);
+            }
+        }
+        if (in.position != body.length) {
+            throw new IllegalArgumentException((body.length - in.position) + " unexpected bytes after the last entry");
+        }
+        return entries;
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        GraphBinaryWriter.writeVarint(out, utf8.length);
+        out.write(utf8, 0, utf8.length);
+    }
+
+    private static final class Reader {
+        final byte[] data;
+        int position = 0;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() {
+            if (position >= data.length) {
+                throw new IllegalArgumentException("Batch ends unexpectedly");
+            }
+            return data[position++];
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0) {
+                        throw new IllegalArgumentException("Length out of range");
+                    }
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Varint too long");
+        }
+
+        long readLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (readByte() & 0xFF);
+            }
+            return value;
+        }
+
+        String readString() {
+            int length = readVarint();
+            if (length > data.length - position) {
+                throw new IllegalArgumentException("Batch ends unexpectedly");
+            }
+            String s = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package servlets;
+
+import server.RequestParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BinaryPublishTest {
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("=== Testing Binary Publish ===\n");
+
+        testRoundTrip();
+        testLargeBatch();
+        testInvalidBatches();
+        testBodySurvivesRequestParser();
+
+        System.out.println(failures == 0 ? "All binary publish tests passed" : failures + " binary publish test(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void testRoundTrip() {
+        System.out.println("Test Case 1: Numbers and text round-trip");
+        List<BinaryPublish.Entry> entries = List.of(
+                BinaryPublish.Entry.number("A", 2.5),
+                BinaryPublish.Entry.number("B", -0.0),
+                BinaryPublish.Entry.number("C", Double.NaN),
+                BinaryPublish.Entry.text("D", "hello"),
+                BinaryPublish.Entry.text("tëst ✓", ""));
+        List<BinaryPublish.Entry> decoded = BinaryPublish.decode(BinaryPublish.encode(entries));
+        check("entry count", decoded.size() == 5);
+        check("number", decoded.get(0).topic.equals("A") && decoded.get(0).number == 2.5 && !decoded.get(0).isText());
+        check("negative zero keeps its sign", Double.doubleToRawLongBits(decoded.get(1).number) == Double.doubleToRawLongBits(-0.0));
+        check("NaN", Double.isNaN(decoded.get(2).number) && !decoded.get(2).isText());
+        check("text", decoded.get(3).isText() && decoded.get(3).text.equals("hello"));
+        check("unicode topic and empty text", decoded.get(4).topic.equals("tëst ✓") && "".equals(decoded.get(4).text));
+        check("empty batch", BinaryPublish.decode(BinaryPublish.encode(List.of())).isEmpty());
+    }
+
+    private static void testLargeBatch() {
+        System.out.println("Test Case 2: Multi-byte lengths and counts");
+        List<BinaryPublish.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            entries.add(BinaryPublish.Entry.number("T" + i, i));
+        }
+        entries.add(BinaryPublish.Entry.text("LONG", "x".repeat(100_000)));
+        List<BinaryPublish.Entry> decoded = BinaryPublish.decode(BinaryPublish.encode(entries));
+        check("20001 entries decoded", decoded.size() == 20_001);
+        check("last number", decoded.get(19_999).topic.equals("T19999") && decoded.get(19_999).number == 19_999);
+        check("long text", decoded.get(20_000).text.length() == 100_000);
+    }
+
+    private static void testInvalidBatches() {
+        System.out.println("Test Case 3: Invalid batches are rejected");
+        byte[] valid = BinaryPublish.encode(List.of(BinaryPublish.Entry.number("A", 1), BinaryPublish.Entry.text("B", "x")));
+        check("valid batch decodes", BinaryPublish.decode(valid).size() == 2);
+
+        byte[] badMagic = valid.clone();
+        badMagic[3] = '2';
+        check("wrong magic", rejects(badMagic));
+        boolean everyTruncationRejected = true;
+        for (int length = 0; length < valid.length; length++) {
+            everyTruncationRejected &= rejects(Arrays.copyOf(valid, length));
+        }
+        check("every truncation", everyTruncationRejected);
+        check("trailing bytes", rejects(Arrays.copyOf(valid, valid.length + 1)));
+
+        byte[] badKind = BinaryPublish.encode(List.of(BinaryPublish.Entry.number("A", 1)));
+        badKind[7] = 9; // after the magic, the count, the topic length and "A"
+        check("unknown value kind", rejects(badKind));
+        check("varint too long", rejects(new byte[] {'C', 'G', 'P', '1', (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 1}));
+        check("length past the end", rejects(new byte[] {'C', 'G', 'P', '1', 1, 100, 'A'}));
+    }
+
+    private static void testBodySurvivesRequestParser() throws IOException {
+        System.out.println("Test Case 4: Binary body survives the request parser");
+        byte[] body = BinaryPublish.encode(List.of(BinaryPublish.Entry.number("A", 3), BinaryPublish.Entry.text("B", "ÿ")));
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        String head = "POST /publish HTTP/1.1\r\n"
+                + "Content-Type: " + BinaryPublish.MEDIA_TYPE + "\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "\r\n";
+        request.write(head.getBytes(StandardCharsets.US_ASCII));
+        request.write(body);
+
+        RequestParser.RequestInfo info = RequestParser.parseRequest(new ByteArrayInputStream(request.toByteArray()));
+        check("body bytes are unchanged", Arrays.equals(info.getContent(), body));
+        List<BinaryPublish.Entry> decoded = BinaryPublish.decode(info.getContent());
+        check("parsed body decodes", decoded.size() == 2 && decoded.get(0).number == 3 && decoded.get(1).text.equals("ÿ"));
+    }
+
+    private static boolean rejects(byte[] body) {
+        try {
+            BinaryPublish.decode(body);
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static void check(String name, boolean ok) {
+        System.out.println((ok ? "  PASS " : "  FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
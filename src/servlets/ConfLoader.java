@@ -1,45 +1,60 @@
 package servlets;
 
+import configs.AgentSpec;
+import configs.ConfigReader;
 import configs.GenericConfig;
 import configs.Graph;
-import server.Servlet;
+import server.HttpResponse;
+import server.RequestParser;
+import server.StreamingServlet;
 import server.RequestParser.RequestInfo;
+import views.GraphBinaryWriter;
 import views.HtmlGraphWriter;
 import graph.TopicManagerSingleton;
+import metrics.JfrEvents;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
 
 /**
  * Servlet that handles configuration file uploads and generates a computational graph visualization.
  * This servlet:
  * 1. Receives uploaded configuration files via POST requests
- * 2. Parses multipart form data to extract file content
+ * 2. Streams the body to a file server-side, checking each agent as its lines arrive
  * 3. Saves files server-side with unique names
- * 4. Creates a GenericConfig from the file
+ * 4. Creates a GenericConfig from the parsed file
  * 5. Generates a Graph from the configuration
  * 6. Returns an HTML response with the graph visualization
+ *
+ * Uploads larger than {@code upload.maxBytes} (default 64 MB) are refused with 413.
  */
-public class ConfLoader implements Servlet {
+public class ConfLoader implements StreamingServlet {
     private static Graph lastGraph = null;
     private static boolean hasCycles = false;
+    private static GenericConfig currentConfig = null;
+    private static UnaryOperator<List<AgentSpec>> partitionFilter = null;
+    private static volatile boolean uploadsEnabled = true;
 
     /** Directory where uploaded configuration files are stored */
     private static final String UPLOAD_DIR = "config_files";
 
+    private static final long MAX_UPLOAD_BYTES = Long.getLong("upload.maxBytes", 64L * 1024 * 1024);
+
     @Override
-    public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
-        // CORS headers
-        String corsHeaders = "Access-Control-Allow-Origin: *\r\n";
+    public void handle(RequestInfo ri, InputStream body, OutputStream toClient) throws IOException {
 
         if ("GET".equalsIgnoreCase(ri.getHttpCommand())) {
             if ("/graph-data".equals(ri.getUri())) {
-                handleGetGraphData(toClient, corsHeaders);
+                handleGetGraphData(ri, toClient);
             } else {
-                sendErrorResponse(toClient, 405, "Method Not Allowed", "Only POST and GET /graph-data are supported", corsHeaders);
+                sendErrorResponse(toClient, 405, "Method Not Allowed", "Only POST and GET /graph-data are supported");
             }
             return;
         }
@@ -52,101 +67,187 @@ public class ConfLoader implements Servlet {
             // Only handle POST requests
             if (!"POST".equalsIgnoreCase(ri.getHttpCommand())) {
                 System.out.println("[ConfLoader] Error: Invalid HTTP method - " + ri.getHttpCommand());
-                sendErrorResponse(toClient, 405, "Method Not Allowed", "Only POST method is supported", corsHeaders);
+                sendErrorResponse(toClient, 405, "Method Not Allowed", "Only POST method is supported");
                 return;
             }
 
-            // Try to get filename from parameters (for simple uploads)
-            String filename = ri.getParameters().get("filename");
-            //System.out.println("[ConfLoader] Filename from parameters: " + filename);
-            String fileContent = null;
-
-            // Extract file content from request
-            if (ri.getContent() != null && ri.getContent().length > 0) {
-                fileContent = new String(ri.getContent()).trim() + "\n";
-                //System.out.println("[ConfLoader] Content preview: " + fileContent.substring(0, Math.min(100, fileContent.length())) + "...");
-            } else {
-                System.out.println("[ConfLoader] Error: No content received");
-                sendErrorResponse(toClient, 400, "Bad Request", "No file content received. Please upload a configuration file.", corsHeaders);
+            if (!uploadsEnabled) {
+                sendErrorResponse(toClient, 409, "Conflict",
+                        "This server runs one partition of a cluster; the configuration is set when the nodes start");
                 return;
             }
 
-            if (fileContent.isEmpty()) {
-                System.out.println("[ConfLoader] Error: Empty file content");
-                sendErrorResponse(toClient, 400, "Bad Request", "Empty file content. Please upload a valid configuration file.", corsHeaders);
+            long declaredLength = RequestParser.contentLength(ri.getHeaders());
+            if (declaredLength > MAX_UPLOAD_BYTES) {
+                System.out.println("[ConfLoader] Error: Upload of " + declaredLength + " bytes is too large");
+                sendErrorResponse(toClient, 413, "Content Too Large",
+                    "Configuration files may be at most " + MAX_UPLOAD_BYTES + " bytes.");
                 return;
             }
 
-            // Validate configuration file format
-            if (!isValidConfigFormat(fileContent)) {
-                System.out.println("[ConfLoader] Error: Invalid configuration format");
-                sendErrorResponse(toClient, 400, "Bad Request", 
-                    "Invalid configuration format. Expected format: each agent should have 3 lines (class name, subscriptions, publications).", corsHeaders);
-                return;
-            }
+            // Stream the body into a temporary file, checking agents as they arrive
             Files.createDirectories(Paths.get(UPLOAD_DIR));
-            // Save the configuration file with a unique name based on timestamp
-            String fileName = (filename != null && !filename.isEmpty()) 
-                ? sanitizeFilename(filename) 
-                : "config_" + System.currentTimeMillis() + ".conf";
-
-                // saving the file to the upload directory
-            Path filePath = Paths.get(UPLOAD_DIR, fileName);
-            //System.out.println("[ConfLoader] Saving file to: " + filePath);
-            Files.write(filePath, fileContent.getBytes());
-            // Process the configuration file
-            TopicManagerSingleton.get().clear();
-            GenericConfig config = new GenericConfig();
-            config.setConfFile(filePath.toString());
-            config.create();
-
-            // Print graph data before creation
-            //GenericConfig.logGraphData(null); // Before creating the graph
-            Graph graph = new Graph();
-            //GenericConfig.logGraphData(graph); // After creating the graph
-            graph.createFromTopics();
-            //GenericConfig.logGraphData(graph); // After creating the graph
-            lastGraph = graph;
-            //System.out.println("[ConfLoader] Graph created successfully");
-            hasCycles = graph.hasCycles();
+            Path upload = Files.createTempFile(Paths.get(UPLOAD_DIR), "upload-", ".part");
+            Graph graph;
+            try {
+                ConfigReader parsed;
+                try {
+                    parsed = receiveConfig(body, upload, ri.getParameters());
+                    if (parsed.isEmpty()) {
+                        System.out.println("[ConfLoader] Error: No content received");
+                        sendErrorResponse(toClient, 400, "Bad Request", "No file content received. Please upload a configuration file.");
+                        return;
+                    }
+                    parsed.finish();
+                } catch (IllegalArgumentException e) {
+                    System.out.println("[ConfLoader] Error: Invalid configuration format - " + e.getMessage());
+                    // Read the rest so the client gets the response rather than a reset connection
+                    body.transferTo(OutputStream.nullOutputStream());
+                    sendErrorResponse(toClient, 400, "Bad Request",
+                        "Invalid configuration format. " + e.getMessage());
+                    return;
+                }
+
+                // Try to get filename from parameters (for simple uploads)
+                String filename = ri.getParameters().get("filename");
+                // Save the configuration file with a unique name based on timestamp
+                String fileName = (filename != null && !filename.isEmpty())
+                    ? sanitizeFilename(filename)
+                    : "config_" + System.currentTimeMillis() + ".conf";
+                Path filePath = Paths.get(UPLOAD_DIR, fileName);
+                Files.move(upload, filePath, StandardCopyOption.REPLACE_EXISTING);
+                // Process the configuration file
+                graph = loadConfig(filePath, parsed);
+            } finally {
+                Files.deleteIfExists(upload);
+            }
             // Check if we should return JSON or HTML
-            String acceptHeader = ri.getParameters().get("Accept");
+            String acceptHeader = ri.getHeaders().getOrDefault("Accept", ri.getParameters().get("Accept"));
             System.out.println("[ConfLoader] Accept header: " + acceptHeader);
             if ("application/json".equals(acceptHeader)) {
                 System.out.println("[ConfLoader] Sending JSON response");
                 String graphJson = HtmlGraphWriter.graphToJson(graph);
-                sendJsonResponse(toClient, graphJson, corsHeaders);
+                sendJsonResponse(toClient, graphJson);
             } else {
                 System.out.println("[ConfLoader] Sending HTML response");
-                sendHtmlResponse(toClient, graph, corsHeaders);
+                sendHtmlResponse(toClient, graph);
             }
 
         } catch (IllegalArgumentException e) {
             System.out.println("[ConfLoader] Configuration error: " + e.getMessage());
             e.printStackTrace();
-            sendErrorResponse(toClient, 400, "Bad Request", "Configuration error: " + e.getMessage(), corsHeaders);
+            sendErrorResponse(toClient, 400, "Bad Request", "Configuration error: " + e.getMessage());
         } catch (Exception e) {
             System.out.println("[ConfLoader] Unexpected error: " + e.getMessage());
             e.printStackTrace();
-            sendErrorResponse(toClient, 500, "Internal Server Error", "Error processing configuration: " + e.getMessage(), corsHeaders);
+            sendErrorResponse(toClient, 500, "Internal Server Error", "Error processing configuration: " + e.getMessage());
         }
     }
 
-    private void handleGetGraphData(OutputStream toClient, String corsHeaders) throws IOException {
+    private void handleGetGraphData(RequestInfo ri, OutputStream toClient) throws IOException {
         System.out.println("[ConfLoader] handleGetGraphData called");
         if (lastGraph == null) {
             System.out.println("[ConfLoader] No graph available, sending 404");
-            sendErrorResponse(toClient, 404, "Not Found", "Graph not available. Please upload a config file first.", corsHeaders);
+            sendErrorResponse(toClient, 404, "Not Found", "Graph not available. Please upload a config file first.");
+            return;
+        }
+        String accept = ri.getHeaders().get("Accept");
+        if (accept != null && accept.contains(GraphBinaryWriter.MEDIA_TYPE)) {
+            sendBinaryGraphResponse(toClient, lastGraph);
             return;
         }
         //System.out.println("[ConfLoader] Converting graph to JSON");
         String graphJson = HtmlGraphWriter.graphToJson(lastGraph);
         //System.out.println("[ConfLoader] Graph JSON generated, length: " + graphJson.length());
         //System.out.println("[ConfLoader] Graph JSON preview: " + graphJson.substring(0, Math.min(200, graphJson.length())) + "...");
-        sendJsonResponse(toClient, graphJson, corsHeaders);
+        sendJsonResponse(toClient, graphJson);
         //System.out.println("[ConfLoader] JSON response sent");
     }
 
+    /**
+     * Loads a configuration file, replacing the current graph.
+     * Also used on startup to rebuild the graph recovered from the topic journal.
+     *
+     * @param filePath The configuration file to load
+     * @return The graph created from the configuration
+     */
+    public static Graph loadConfig(Path filePath) {
+        return loadConfig(filePath, null);
+    }
+
+    /**
+     * Loads a configuration that was already read, e.g. while it was being uploaded.
+     *
+     * @param filePath The configuration file
+     * @param parsed The file's contents as read by a {@link ConfigReader}, or null to read the file
+     * @return The graph created from the configuration
+     */
+    public static synchronized Graph loadConfig(Path filePath, ConfigReader parsed) {
+        // Stop the previous agents so their threads don't outlive the graph
+        String file = filePath.toString();
+        JfrEvents.ConfigPhase event = JfrEvents.ConfigPhase.start("close previous", file);
+        if (currentConfig != null) {
+            currentConfig.close();
+            currentConfig = null;
+        }
+        TopicManagerSingleton.get().clear();
+        event.commit();
+
+        GenericConfig config = new GenericConfig();
+        config.setConfFile(file);
+        config.setPartitionFilter(partitionFilter);
+        config.create(parsed);
+        currentConfig = config;
+
+        Graph graph = new Graph();
+        graph.createFromTopics();
+        event = JfrEvents.ConfigPhase.start("cycle check", file);
+        lastGraph = graph;
+        hasCycles = graph.hasCycles();
+        event.commit();
+
+        TopicManagerSingleton.get().configLoaded(filePath.toString());
+        return graph;
+    }
+
+    /**
+     * Shows a graph that runs in another process, on a read replica. The graph's topic
+     * values are kept up to date by the replication stream; no agents run here.
+     *
+     * @param graph The graph as built on the leader
+     * @param graphHasCycles Whether the leader found cycles in it
+     */
+    public static synchronized void showMirroredGraph(Graph graph, boolean graphHasCycles) {
+        if (currentConfig != null) {
+            currentConfig.close();
+            currentConfig = null;
+        }
+        lastGraph = graph;
+        hasCycles = graphHasCycles;
+    }
+
+    /**
+     * Sets the filter given to every configuration loaded from now on, see
+     * {@link GenericConfig#setPartitionFilter(UnaryOperator)}.
+     */
+    public static synchronized void setPartitionFilter(UnaryOperator<List<AgentSpec>> filter) {
+        partitionFilter = filter;
+    }
+
+    /**
+     * Enables or disables POST /upload; when disabled, uploads are answered with 409 Conflict.
+     */
+    public static void setUploadsEnabled(boolean enabled) {
+        uploadsEnabled = enabled;
+    }
+
+    /**
+     * Returns the configuration currently running, or null if none was loaded.
+     */
+    public static GenericConfig getCurrentConfig() {
+        return currentConfig;
+    }
+
     public static Graph getLastGraph() {
         return lastGraph;
     }
@@ -154,7 +255,7 @@ public class ConfLoader implements Servlet {
     /**
      * Handles the /generate-config endpoint
      */
-    private void handleGenerateConfig(RequestInfo ri, OutputStream toClient, String corsHeaders) throws IOException {
+    private void handleGenerateConfig(RequestInfo ri, OutputStream toClient) throws IOException {
         try {
             byte[] contentBytes = ri.getContent();
             String requestBody = contentBytes != null ? new String(contentBytes) : null;
@@ -163,7 +264,7 @@ public class ConfLoader implements Servlet {
             
             if (requestBody == null || requestBody.trim().isEmpty()) {
                 System.out.println("[ConfLoader] Error: Empty request body");
-                sendErrorResponse(toClient, 400, "Bad Request", "Request body is required", corsHeaders);
+                sendErrorResponse(toClient, 400, "Bad Request", "Request body is required");
                 return;
             }
 
@@ -172,20 +273,20 @@ public class ConfLoader implements Servlet {
 
             if (description == null || description.trim().isEmpty()) {
                 System.out.println("[ConfLoader] Error: Empty description");
-                sendErrorResponse(toClient, 400, "Bad Request", "Description is required", corsHeaders);
+                sendErrorResponse(toClient, 400, "Bad Request", "Description is required");
                 return;
             }
 
             String generatedConfig = generateConfigFromDescription(description);
             //System.out.println("[ConfLoader] Generated config:\n" + generatedConfig);
             
-            sendConfigFileResponse(toClient, generatedConfig, corsHeaders);
+            sendConfigFileResponse(toClient, generatedConfig);
             //System.out.println("[ConfLoader] Config file sent successfully");
             
         } catch (Exception e) {
             System.out.println("[ConfLoader] Error in generate-config: " + e.getMessage());
             e.printStackTrace();
-            sendErrorResponse(toClient, 500, "Internal Server Error", "Error generating configuration: " + e.getMessage(), corsHeaders);
+            sendErrorResponse(toClient, 500, "Internal Server Error", "Error generating configuration: " + e.getMessage());
         }
     }
 
@@ -263,39 +364,54 @@ public class ConfLoader implements Servlet {
     /**
      * Sends a configuration file as download response
      */
-    private void sendConfigFileResponse(OutputStream toClient, String configContent, String corsHeaders) throws IOException {
+    private void sendConfigFileResponse(OutputStream toClient, String configContent) throws IOException {
         String filename = "generated-config-" + System.currentTimeMillis() + ".conf";
         System.out.println("[ConfLoader] Using filename: " + filename);
         
-        String response = "HTTP/1.1 200 OK\r\n" +
-                corsHeaders +
-                "Content-Type: application/octet-stream\r\n" +
-                "Content-Disposition: attachment; filename=\"" + filename + "\"\r\n" +
-                "Content-Length: " + configContent.getBytes().length + "\r\n" +
-                "\r\n" +
-                configContent;
-        
-        toClient.write(response.getBytes());
-        toClient.flush();
+        HttpResponse.ok().cors()
+                .contentType("application/octet-stream")
+                .header("Content-Disposition", "attachment; filename=\"" + filename + "\"")
+                .body(configContent)
+                .send(toClient);
         System.out.println("[ConfLoader] Config file response sent");
     }
 
     /**
-     * Validates the configuration file format
+     * Copies an uploaded configuration to a file one line at a time, handing each line to
+     * a {@link ConfigReader}. As with other text bodies, leading key=value lines are
+     * request parameters; a key may not contain whitespace, so agent options are not
+     * mistaken for them.
+     *
+     * @throws IllegalArgumentException As soon as a line completes an invalid agent
      */
-    private boolean isValidConfigFormat(String content) {
-        String[] lines = content.split("\n");
-        int nonEmptyLines = 0;
-        
-        for (String line : lines) {
-            if (!line.trim().isEmpty()) {
-                nonEmptyLines++;
+    private static ConfigReader receiveConfig(InputStream body, Path file, Map<String, String> params) throws IOException {
+        ConfigReader parsed = new ConfigReader("upload");
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+             BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            boolean inContent = false;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!inContent && isParameterLine(line)) {
+                    int eq = line.indexOf('=');
+                    params.put(line.substring(0, eq).trim(), line.substring(eq + 1).trim());
+                    continue;
+                }
+                inContent = true;
+                parsed.line(line);
+                out.write(line);
+                out.write('\n');
             }
         }
-        
-        // Must have a multiple of 3 non-empty lines (class, subs, pubs for each agent)
-        boolean isValid = nonEmptyLines > 0 && nonEmptyLines % 3 == 0;
-        return isValid;
+        return parsed;
+    }
+
+    private static boolean isParameterLine(String line) {
+        int eq = line.indexOf('=');
+        if (eq <= 0 || line.startsWith("#")) {
+            return false;
+        }
+        String key = line.substring(0, eq).trim();
+        return !key.isEmpty() && key.chars().noneMatch(Character::isWhitespace);
     }
 
     /**
@@ -322,7 +438,7 @@ public class ConfLoader implements Servlet {
     /**
      * Sends an HTML response with the graph visualization
      */
-    private void sendHtmlResponse(OutputStream toClient, Graph graph, String corsHeaders) throws IOException {
+    private void sendHtmlResponse(OutputStream toClient, Graph graph) throws IOException {
         try {
             // Use HtmlGraphWriter to generate the HTML
             List<String> htmlLines = HtmlGraphWriter.getGraphHTML(graph);
@@ -334,16 +450,11 @@ public class ConfLoader implements Servlet {
             }
             
             System.out.println("[ConfLoader] Sending HTML response");
-            String response = "HTTP/1.1 200 OK\r\n" +
-                    corsHeaders +
-                    "Content-Type: text/html; charset=UTF-8\r\n" +
-                    "Content-Length: " + htmlContent.toString().getBytes().length + "\r\n" +
-                    "Cache-Control: no-cache\r\n" +
-                    "\r\n" +
-                    htmlContent.toString();
-            
-            toClient.write(response.getBytes());
-            toClient.flush();
+            HttpResponse.ok().cors()
+                    .contentType("text/html; charset=UTF-8")
+                    .noCache()
+                    .body(htmlContent.toString())
+                    .send(toClient);
             
             // For testing purposes, also write to test.html
             HtmlGraphWriter.writeToTestFile(graph);
@@ -351,24 +462,32 @@ public class ConfLoader implements Servlet {
         } catch (IOException e) {
             System.out.println("[ConfLoader] Error generating HTML, using fallback HTML");
             String fallbackHtml = generateFallbackHtml(graph);
-            sendSimpleHtmlResponse(toClient, fallbackHtml, corsHeaders);
+            sendSimpleHtmlResponse(toClient, fallbackHtml);
         }
     }
 
+    /**
+     * Sends the graph in the binary form of {@link GraphBinaryWriter}, for clients that
+     * ask for it with the Accept header.
+     */
+    private void sendBinaryGraphResponse(OutputStream toClient, Graph graph) throws IOException {
+        HttpResponse.ok().cors()
+                .contentType(GraphBinaryWriter.MEDIA_TYPE)
+                .noCache()
+                .header("Vary", "Accept")
+                .body(GraphBinaryWriter.encode(graph))
+                .send(toClient);
+    }
+
     /**
      * Sends a JSON response with the graph data
      */
-    private void sendJsonResponse(OutputStream toClient, String jsonData, String corsHeaders) throws IOException {
-        String response = "HTTP/1.1 200 OK\r\n" +
-                corsHeaders +
-                "Content-Type: application/json; charset=UTF-8\r\n" +
-                "Content-Length: " + jsonData.getBytes().length + "\r\n" +
-                "Cache-Control: no-cache\r\n" +
-                "\r\n" +
-                jsonData;
-        
-        toClient.write(response.getBytes());
-        toClient.flush();
+    private void sendJsonResponse(OutputStream toClient, String jsonData) throws IOException {
+        HttpResponse.ok().cors()
+                .contentType("application/json; charset=UTF-8")
+                .noCache()
+                .body(jsonData)
+                .send(toClient);
         System.out.println("[ConfLoader] JSON response sent successfully");
     }
 
@@ -411,23 +530,18 @@ public class ConfLoader implements Servlet {
     /**
      * Sends a simple HTML response
      */
-    private void sendSimpleHtmlResponse(OutputStream toClient, String htmlContent, String corsHeaders) throws IOException {
-        String response = "HTTP/1.1 200 OK\r\n" +
-                corsHeaders +
-                "Content-Type: text/html; charset=UTF-8\r\n" +
-                "Content-Length: " + htmlContent.getBytes().length + "\r\n" +
-                "\r\n" +
-                htmlContent;
-        
-        toClient.write(response.getBytes());
-        toClient.flush();
+    private void sendSimpleHtmlResponse(OutputStream toClient, String htmlContent) throws IOException {
+        HttpResponse.ok().cors()
+                .contentType("text/html; charset=UTF-8")
+                .body(htmlContent)
+                .send(toClient);
         System.out.println("[ConfLoader] Simple HTML response sent");
     }
 
     /**
      * Sends an error response to the client with the specified status and message.
      */
-    private void sendErrorResponse(OutputStream toClient, int statusCode, String statusText, String message, String corsHeaders) throws IOException {
+    private void sendErrorResponse(OutputStream toClient, int statusCode, String statusText, String message) throws IOException {
         System.out.println("[ConfLoader] Sending error response - " + statusCode + " " + statusText + ": " + message);
         String htmlError = String.format(
             "<!DOCTYPE html>\n" +
@@ -454,18 +568,10 @@ public class ConfLoader implements Servlet {
             statusCode, statusText, statusCode, statusText, escapeHtml(message)
         );
         
-        String response = String.format(
-            "HTTP/1.1 %d %s\r\n" +
-            corsHeaders +
-            "Content-Type: text/html; charset=UTF-8\r\n" +
-            "Content-Length: %d\r\n" +
-            "\r\n" +
-            "%s",
-            statusCode, statusText, htmlError.getBytes().length, htmlError
-        );
-        
-        toClient.write(response.getBytes());
-        toClient.flush();
+        HttpResponse.status(statusCode).cors()
+                .contentType("text/html; charset=UTF-8")
+                .body(htmlError)
+                .send(toClient);
         System.out.println("[ConfLoader] Error response sent");
     }
 
@@ -1,10 +1,14 @@
 package servlets;
 
+import server.HttpResponse;
 import server.Servlet;
 import server.RequestParser.RequestInfo;
 
 import java.io.*;
 import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -64,7 +68,7 @@ public class DocLoader implements Servlet {
             }
             byte[] fileContent = Files.readAllBytes(filePath);
             String mimeType = getMimeType(requestPath);
-            sendFileResponse(toClient, fileContent, mimeType);
+            sendFileResponse(toClient, fileContent, mimeType, Files.getLastModifiedTime(filePath).toInstant());
         } catch (IOException e) {
             sendErrorResponse(toClient, 500, "Internal Server Error", "Error reading file: " + e.getMessage());
         } catch (Exception e) {
@@ -81,16 +85,13 @@ public class DocLoader implements Servlet {
         return mimeTypes.getOrDefault(extension, "application/octet-stream");
     }
 
-    private void sendFileResponse(OutputStream toClient, byte[] content, String mimeType) throws IOException {
-        StringBuilder response = new StringBuilder();
-        response.append("HTTP/1.1 200 OK\r\n");
-        response.append("Content-Type: ").append(mimeType).append("\r\n");
-        response.append("Content-Length: ").append(content.length).append("\r\n");
-        response.append("Cache-Control: no-cache\r\n");
-        response.append("\r\n");
-        toClient.write(response.toString().getBytes());
-        toClient.write(content);
-        toClient.flush();
+    private void sendFileResponse(OutputStream toClient, byte[] content, String mimeType, Instant lastModified) throws IOException {
+        HttpResponse.ok()
+                .contentType(mimeType)
+                .header("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(lastModified.atOffset(ZoneOffset.UTC)))
+                .noCache() // Prevent caching during development
+                .body(content)
+                .send(toClient);
     }
 
     private void sendErrorResponse(OutputStream toClient, int statusCode, String statusText, String message) throws IOException {
@@ -119,14 +120,10 @@ public class DocLoader implements Servlet {
             "</html>",
             statusCode, statusText, statusCode, statusText, escapeHtml(message)
         );
-        StringBuilder response = new StringBuilder();
-        response.append("HTTP/1.1 ").append(statusCode).append(" ").append(statusText).append("\r\n");
-        response.append("Content-Type: text/html; charset=UTF-8\r\n");
-        response.append("Content-Length: ").append(htmlError.getBytes().length).append("\r\n");
-        response.append("\r\n");
-        response.append(htmlError);
-        toClient.write(response.toString().getBytes());
-        toClient.flush();
+        HttpResponse.status(statusCode)
+                .contentType("text/html; charset=UTF-8")
+                .body(htmlError)
+                .send(toClient);
     }
 
     private String escapeHtml(String text) {
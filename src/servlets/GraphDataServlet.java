@@ -1,6 +1,7 @@
 package servlets;
 
 import configs.Graph;
+import server.HttpResponse;
 import server.RequestParser;
 import server.Servlet;
 import views.HtmlGraphWriter;
@@ -12,33 +13,22 @@ public class GraphDataServlet implements Servlet {
 
     @Override
     public void handle(RequestParser.RequestInfo ri, OutputStream toClient) throws IOException {
-        String corsHeaders = "Access-Control-Allow-Origin: *\r\n";
         try {
             Graph graph = ConfLoader.getLastGraph();
             if (graph == null) {
-                String errorResponse = "HTTP/1.1 404 Not Found\r\n" +
-                        corsHeaders +
-                        "Content-Type: text/plain\r\n" +
-                        "\r\n" +
-                        "Graph not created yet. Please upload a configuration file first.";
-                toClient.write(errorResponse.getBytes());
+                HttpResponse.status(404).cors().contentType("text/plain")
+                        .body("Graph not created yet. Please upload a configuration file first.")
+                        .send(toClient);
                 return;
             }
-            String graphJson = HtmlGraphWriter.graphToJson(graph);
-            String response = "HTTP/1.1 200 OK\r\n" +
-                    corsHeaders +
-                    "Content-Type: application/json\r\n" +
-                    "\r\n" +
-                    graphJson;
-            toClient.write(response.getBytes());
+            HttpResponse.ok().cors().contentType("application/json")
+                    .body(HtmlGraphWriter.graphToJson(graph))
+                    .send(toClient);
         } catch (Exception e) {
             e.printStackTrace();
-            String errorResponse = "HTTP/1.1 500 Internal Server Error\r\n" +
-                    corsHeaders +
-                    "Content-Type: text/plain\r\n" +
-                    "\r\n" +
-                    "Error generating graph data: " + e.getMessage();
-            toClient.write(errorResponse.getBytes());
+            HttpResponse.status(500).cors().contentType("text/plain")
+                    .body("Error generating graph data: " + e.getMessage())
+                    .send(toClient);
         }
     }
 
@@ -1,10 +1,14 @@
 package servlets;
 
+import server.HttpResponse;
 import server.Servlet;
 import server.RequestParser.RequestInfo;
 
 import java.io.*;
 import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -85,7 +89,7 @@ public class HtmlLoader implements Servlet {
             String mimeType = getMimeType(requestPath);
             
             // Send successful response
-            sendFileResponse(toClient, fileContent, mimeType);
+            sendFileResponse(toClient, fileContent, mimeType, Files.getLastModifiedTime(filePath).toInstant());
             
         } catch (IOException e) {
             sendErrorResponse(toClient, 500, "Internal Server Error", "Error reading file: " + e.getMessage());
@@ -105,20 +109,13 @@ public class HtmlLoader implements Servlet {
         return mimeTypes.getOrDefault(extension, "application/octet-stream");
     }
     
-    private void sendFileResponse(OutputStream toClient, byte[] content, String mimeType) throws IOException {
-        StringBuilder response = new StringBuilder();
-        response.append("HTTP/1.1 200 OK\r\n");
-        response.append("Content-Type: ").append(mimeType).append("\r\n");
-        response.append("Content-Length: ").append(content.length).append("\r\n");
-        response.append("Cache-Control: no-cache\r\n"); // Prevent caching during development
-        response.append("\r\n");
-        
-        // Send headers
-        toClient.write(response.toString().getBytes());
-        
-        // Send file content
-        toClient.write(content);
-        toClient.flush();
+    private void sendFileResponse(OutputStream toClient, byte[] content, String mimeType, Instant lastModified) throws IOException {
+        HttpResponse.ok()
+                .contentType(mimeType)
+                .header("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(lastModified.atOffset(ZoneOffset.UTC)))
+                .noCache() // Prevent caching during development
+                .body(content)
+                .send(toClient);
     }
     
     private void sendErrorResponse(OutputStream toClient, int statusCode, String statusText, String message) throws IOException {
@@ -148,15 +145,10 @@ public class HtmlLoader implements Servlet {
             statusCode, statusText, statusCode, statusText, escapeHtml(message)
         );
         
-        StringBuilder response = new StringBuilder();
-        response.append("HTTP/1.1 ").append(statusCode).append(" ").append(statusText).append("\r\n");
-        response.append("Content-Type: text/html; charset=UTF-8\r\n");
-        response.append("Content-Length: ").append(htmlError.getBytes().length).append("\r\n");
-        response.append("\r\n");
-        response.append(htmlError);
-        
-        toClient.write(response.toString().getBytes());
-        toClient.flush();
+        HttpResponse.status(statusCode)
+                .contentType("text/html; charset=UTF-8")
+                .body(htmlError)
+                .send(toClient);
     }
     
     private String escapeHtml(String text) {
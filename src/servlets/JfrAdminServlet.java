@@ -0,0 +1,118 @@
+package servlets;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import metrics.JfrEvents;
+import server.HttpResponse;
+import server.Servlet;
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Admin servlet controlling a JDK Flight Recorder recording.
+ *
+ * - POST /admin/jfr?action=start[&amp;settings=default|profile][&amp;maxAge=600] - starts a recording
+ *   with the given JDK settings plus all of the graph's events; maxAge is in seconds
+ * - POST /admin/jfr?action=stop - stops the recording, keeping it for download
+ * - GET  /admin/jfr?action=dump - downloads the recording as a .jfr file (running or stopped)
+ * - GET  /admin/jfr - shows the recording state
+ *
+ * The file opens in JDK Mission Control or with the {@code jfr} command line tool.
+ */
+public class JfrAdminServlet implements Servlet {
+    private Recording recording;
+
+    @Override
+    public synchronized void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        Map<String, String> params = ri.getParameters();
+        String action = params.getOrDefault("action", "status");
+        boolean post = "POST".equalsIgnoreCase(ri.getHttpCommand());
+
+        try {
+            if (post && "start".equals(action)) {
+                start(params.getOrDefault("settings", "default"), params.get("maxAge"));
+                sendText(toClient, 200, "Recording started");
+            } else if (post && "stop".equals(action)) {
+                if (recording == null || recording.getState() != RecordingState.RUNNING) {
+                    sendText(toClient, 409, "No recording is running");
+                    return;
+                }
+                recording.stop();
+                System.out.println("[JfrAdminServlet] Recording stopped");
+                sendText(toClient, 200, "Recording stopped");
+            } else if (!post && "dump".equals(action)) {
+                dump(toClient);
+            } else if (!post && "status".equals(action)) {
+                String state = recording == null ? "NONE" : recording.getState().name();
+                sendText(toClient, 200, "Recording state: " + state);
+            } else {
+                sendText(toClient, 400, "Unknown action for " + ri.getHttpCommand() + ": " + action);
+            }
+        } catch (ParseException | IllegalArgumentException e) {
+            sendText(toClient, 400, "Invalid recording settings: " + e.getMessage());
+        } catch (IllegalStateException e) {
+            sendText(toClient, 409, e.getMessage());
+        }
+    }
+
+    private void start(String settings, String maxAge) throws IOException, ParseException {
+        if (recording != null && recording.getState() == RecordingState.RUNNING) {
+            throw new IllegalStateException("A recording is already running");
+        }
+        if (recording != null) {
+            recording.close();
+        }
+        recording = new Recording(Configuration.getConfiguration(settings));
+        for (Class<?> eventType : JfrEvents.ALL) {
+            recording.enable(eventType.getAnnotation(Name.class).value());
+        }
+        recording.setName("computational-graph");
+        recording.setToDisk(true);
+        if (maxAge != null && !maxAge.isEmpty()) {
+            recording.setMaxAge(Duration.ofSeconds(Long.parseLong(maxAge)));
+        }
+        recording.start();
+        System.out.println("[JfrAdminServlet] Recording started with settings '" + settings + "'");
+    }
+
+    private void dump(OutputStream toClient) throws IOException {
+        if (recording == null || recording.getState() == RecordingState.CLOSED) {
+            sendText(toClient, 404, "No recording to download");
+            return;
+        }
+        Path file = Files.createTempFile("graph-", ".jfr");
+        try {
+            recording.dump(file);
+            try (OutputStream body = HttpResponse.ok().cors()
+                    .contentType("application/octet-stream")
+                    .header("Content-Disposition", "attachment; filename=\"graph.jfr\"")
+                    .contentLength(Files.size(file))
+                    .stream(toClient)) {
+                Files.copy(file, body);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private void sendText(OutputStream toClient, int status, String message) throws IOException {
+        HttpResponse.status(status).cors().contentType("text/plain").body(message).send(toClient);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (recording != null) {
+            recording.close();
+            recording = null;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package servlets;
+
+import cluster.BridgeSender;
+import cluster.ClusterNode;
+import configs.GenericConfig;
+import graph.ParallelAgent;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import metrics.HttpMetrics;
+import metrics.LatencyHistogram;
+import metrics.PrometheusWriter;
+import replication.ReplicationFollower;
+import replication.ReplicationLeader;
+import server.HttpResponse;
+import server.Servlet;
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Servlet that exposes runtime metrics in the Prometheus text format.
+ *
+ * Metrics:
+ * - graph_topic_publish_total{topic}             - messages published per topic
+ * - graph_agent_mailbox_depth{agent}             - messages waiting in the agent's mailbox
+ * - graph_agent_mailbox_high_water{agent}        - most messages ever waiting at once
+ * - graph_agent_dropped_total{agent}             - messages dropped by a full mailbox
+ * - graph_agent_conflated_total{agent}           - messages replaced by a newer one
+ * - graph_agent_queue_wait_seconds{agent}        - time from enqueue to callback (histogram)
+ * - graph_agent_service_seconds{agent}           - callback duration (histogram)
+ * - http_request_duration_seconds{method,route}  - servlet handling time (histogram)
+ * - http_rejected_total{reason}                  - requests answered with 503 (queue_full, deadline, route_limit, async_full, resume_rejected)
+ * - http_queue_depth                             - connections waiting for a worker
+ * - http_async_pending                           - async requests waiting to complete, holding no thread
+ * - http_compressed_responses_total{source}      - responses sent compressed, streamed or from the static cache
+ * - http_compression_bytes_total{stage}          - body bytes before and after compression
+ * In cluster mode, also:
+ * - graph_bridge_sent_total{peer}                - messages forwarded to another node
+ * - graph_bridge_batches_total{peer}             - batches those messages were sent in
+ * - graph_bridge_dropped_total{peer}             - messages dropped because the peer fell behind or was down
+ * - graph_bridge_queue_depth{peer}               - messages waiting to be forwarded
+ * - graph_bridge_connected{peer}                 - 1 while connected to the peer
+ * - graph_bridge_received_total{peer}            - messages received from another node
+ * On a replication leader:
+ * - graph_replication_sequence{port}             - sequence number of the latest publish
+ * - graph_replication_followers{port}            - connected read replicas
+ * On a read replica:
+ * - graph_replica_connected{leader}              - 1 while connected to the leader
+ * - graph_replica_applied_sequence{leader}       - last leader publish applied here
+ * - graph_replica_lag{leader}                    - publishes behind the leader
+ * - graph_replica_snapshots_total{leader}        - snapshots received from the leader
+ */
+public class MetricsServlet implements Servlet {
+
+    @Override
+    public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        PrometheusWriter out = new PrometheusWriter();
+
+        Collection<Topic> topics = TopicManagerSingleton.get().getTopics();
+        out.family("graph_topic_publish_total", "counter", "Messages published per topic.");
+        for (Topic topic : topics) {
+            out.sample("graph_topic_publish_total", "topic", topic.name, topic.getPublishCount());
+        }
+
+        GenericConfig config = ConfLoader.getCurrentConfig();
+        List<ParallelAgent> agents = config != null ? config.getAgents() : Collections.emptyList();
+        out.family("graph_agent_mailbox_depth", "gauge", "Messages waiting in the agent's mailbox.");
+        for (ParallelAgent agent : agents) {
+            out.sample("graph_agent_mailbox_depth", "agent", agent.getName(), agent.getQueueSize());
+        }
+        out.family("graph_agent_mailbox_high_water", "gauge", "Most messages waiting in the agent's mailbox at once.");
+        for (ParallelAgent agent : agents) {
+            out.sample("graph_agent_mailbox_high_water", "agent", agent.getName(), agent.getHighWaterMark());
+        }
+        out.family("graph_agent_dropped_total", "counter", "Messages dropped because the agent's mailbox was full.");
+        for (ParallelAgent agent : agents) {
+            out.sample("graph_agent_dropped_total", "agent", agent.getName(), agent.getDroppedCount());
+        }
+        out.family("graph_agent_conflated_total", "counter", "Messages replaced by a newer one on the same topic.");
+        for (ParallelAgent agent : agents) {
+            out.sample("graph_agent_conflated_total", "agent", agent.getName(), agent.getConflatedCount());
+        }
+        out.family("graph_agent_queue_wait_seconds", "histogram", "Time messages waited in the agent's mailbox.");
+        for (ParallelAgent agent : agents) {
+            out.histogram("graph_agent_queue_wait_seconds", agent.getQueueWait(), "agent", agent.getName());
+        }
+        out.family("graph_agent_service_seconds", "histogram", "Time the agent's callback took per message.");
+        for (ParallelAgent agent : agents) {
+            out.histogram("graph_agent_service_seconds", agent.getServiceTime(), "agent", agent.getName());
+        }
+
+        ClusterNode cluster = ClusterNode.getCurrent();
+        if (cluster != null) {
+            writeClusterMetrics(out, cluster);
+        }
+        writeReplicationMetrics(out);
+
+        out.family("http_request_duration_seconds", "histogram", "Time taken to handle HTTP requests per route.");
+        for (Map.Entry<String, LatencyHistogram> entry : HttpMetrics.getLatencies().entrySet()) {
+            String[] methodAndRoute = entry.getKey().split(" ", 2);
+            out.histogram("http_request_duration_seconds", entry.getValue(),
+                    "method", methodAndRoute[0], "route", methodAndRoute[1]);
+        }
+        out.family("http_rejected_total", "counter", "Requests answered with 503 instead of being handled.");
+        for (Map.Entry<String, LongAdder> entry : HttpMetrics.getRejected().entrySet()) {
+            out.sample("http_rejected_total", "reason", entry.getKey(), entry.getValue().sum());
+        }
+        out.family("http_queue_depth", "gauge", "Connections waiting for a worker thread.");
+        out.sample("http_queue_depth", HttpMetrics.getQueueDepth());
+        out.family("http_async_pending", "gauge", "Async requests waiting to complete without a worker thread.");
+        out.sample("http_async_pending", HttpMetrics.getAsyncPending());
+        out.family("http_compressed_responses_total", "counter", "Responses sent with gzip or deflate encoding.");
+        out.sample("http_compressed_responses_total", "source", "compressed", HttpMetrics.getCompressedCount() - HttpMetrics.getCompressionCacheHits());
+        out.sample("http_compressed_responses_total", "source", "cache", HttpMetrics.getCompressionCacheHits());
+        out.family("http_compression_bytes_total", "counter", "Body bytes of compressed responses, before and after compression.");
+        out.sample("http_compression_bytes_total", "stage", "before", HttpMetrics.getUncompressedBytes());
+        out.sample("http_compression_bytes_total", "stage", "after", HttpMetrics.getCompressedBytes());
+
+        HttpResponse.ok().cors()
+                .contentType("text/plain; version=0.0.4; charset=UTF-8")
+                .noCache()
+                .body(out.toString())
+                .send(toClient);
+    }
+
+    private void writeReplicationMetrics(PrometheusWriter out) {
+        ReplicationLeader leader = ReplicationLeader.getCurrent();
+        if (leader != null) {
+            String port = String.valueOf(leader.getPort());
+            out.family("graph_replication_sequence", "counter", "Sequence number of the latest publish sent to read replicas.");
+            out.sample("graph_replication_sequence", "port", port, leader.getSequence());
+            out.family("graph_replication_followers", "gauge", "Read replicas connected to this leader.");
+            out.sample("graph_replication_followers", "port", port, leader.getFollowerCount());
+        }
+        ReplicationFollower follower = ReplicationFollower.getCurrent();
+        if (follower != null) {
+            String address = follower.getLeader().getHostString() + ":" + follower.getLeader().getPort();
+            out.family("graph_replica_connected", "gauge", "Whether this read replica is connected to its leader.");
+            out.sample("graph_replica_connected", "leader", address, follower.isConnected() ? 1 : 0);
+            out.family("graph_replica_applied_sequence", "gauge", "Sequence number of the last leader publish applied here.");
+            out.sample("graph_replica_applied_sequence", "leader", address, follower.getAppliedSequence());
+            out.family("graph_replica_lag", "gauge", "Publishes this read replica is behind its leader.");
+            out.sample("graph_replica_lag", "leader", address, follower.getLag());
+            out.family("graph_replica_snapshots_total", "counter", "Snapshots received from the leader.");
+            out.sample("graph_replica_snapshots_total", "leader", address, follower.getSnapshotCount());
+        }
+    }
+
+    private void writeClusterMetrics(PrometheusWriter out, ClusterNode cluster) {
+        List<BridgeSender> senders = cluster.getSenders();
+        out.family("graph_bridge_sent_total", "counter", "Messages forwarded to another cluster node.");
+        for (BridgeSender sender : senders) {
+            out.sample("graph_bridge_sent_total", "peer", String.valueOf(sender.getPeerId()), sender.getSentCount());
+        }
+        out.family("graph_bridge_batches_total", "counter", "Batches the forwarded messages were sent in.");
+        for (BridgeSender sender : senders) {
+            out.sample("graph_bridge_batches_total", "peer", String.valueOf(sender.getPeerId()), sender.getBatchCount());
+        }
+        out.family("graph_bridge_dropped_total", "counter", "Messages dropped because the peer fell behind or was down.");
+        for (BridgeSender sender : senders) {
+            out.sample("graph_bridge_dropped_total", "peer", String.valueOf(sender.getPeerId()), sender.getDroppedCount());
+        }
+        out.family("graph_bridge_queue_depth", "gauge", "Messages waiting to be forwarded to another cluster node.");
+        for (BridgeSender sender : senders) {
+            out.sample("graph_bridge_queue_depth", "peer", String.valueOf(sender.getPeerId()), sender.getQueueSize());
+        }
+        out.family("graph_bridge_connected", "gauge", "Whether the bridge to another cluster node is connected.");
+        for (BridgeSender sender : senders) {
+            out.sample("graph_bridge_connected", "peer", String.valueOf(sender.getPeerId()), sender.isConnected() ? 1 : 0);
+        }
+        out.family("graph_bridge_received_total", "counter", "Messages received from another cluster node.");
+        for (Map.Entry<Integer, LongAdder> entry : cluster.getReceiver().getReceivedCounts().entrySet()) {
+            out.sample("graph_bridge_received_total", "peer", String.valueOf(entry.getKey()), entry.getValue().sum());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+}
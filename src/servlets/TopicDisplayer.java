@@ -4,21 +4,47 @@ import graph.Message;
 import graph.Topic;
 import graph.TopicManagerSingleton;
 import graph.TopicManagerSingleton.TopicManager;
-import server.Servlet;
+import graph.Wave;
+import metrics.Tracer;
+import server.AsyncResponse;
+import server.AsyncServlet;
+import server.HttpResponse;
 import server.RequestParser.RequestInfo;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 
 
-public class TopicDisplayer implements Servlet {
+/**
+ * Publishes values and shows the topic table. A publish with {@code await} is answered
+ * once its wave settles, without holding a server thread while it waits. Every successful
+ * publish returns the id of its wave in the {@code X-Wave-Id} header (one id per entry,
+ * comma-separated, for a binary batch), for use with {@code /trace?wave=}.
+ */
+public class TopicDisplayer implements AsyncServlet {
+    private static final long DEFAULT_AWAIT_TIMEOUT_MS = 1000;
+    private static final long MAX_AWAIT_TIMEOUT_MS = 30_000;
+    private static volatile boolean publishEnabled = true;
+    private static final String DERIVED_TOPIC_ERROR =
+            "This topic is computed inside a fused agent and cannot be published to; load the config without #!fuse to publish to it.";
+    private static final String WAVE_ID_HEADER = "X-Wave-Id";
 
-    @Override
-    public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
-        String corsHeaders = "Access-Control-Allow-Origin: *\r\n";
+    /**
+     * Enables or disables publishing; when disabled, publish requests are answered with
+     * 409 Conflict and only the topic table is served. Read replicas disable it.
+     */
+    public static void setPublishEnabled(boolean enabled) {
+        publishEnabled = enabled;
+    }
 
+    @Override
+    public CompletionStage<Void> handleAsync(RequestInfo ri, AsyncResponse toClient) throws IOException {
         Map<String, String> params = ri.getParameters();
         String topic = params.get("topic");
         String message = params.get("message");
@@ -28,7 +54,18 @@ public class TopicDisplayer implements Servlet {
         System.out.println("Topic parameter: '" + topic + "'");
         System.out.println("Message parameter: '" + message + "'");
 
-        if (topic != null && !topic.isEmpty() && message != null && !message.isEmpty()) {
+        String contentType = ri.getHeaders().get("Content-Type");
+        if ("POST".equalsIgnoreCase(ri.getHttpCommand()) && contentType != null
+                && contentType.startsWith(BinaryPublish.MEDIA_TYPE)) {
+            handleBinaryPublish(ri.getContent(), toClient);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        if (topic != null && !topic.isEmpty() && message != null && !message.isEmpty() && !publishEnabled) {
+            sendText(toClient, 409, "This server is a read-only replica; publish to the leader.");
+        } else if (topic != null && message != null && !message.isEmpty() && isDerived(topic)) {
+            sendText(toClient, 409, DERIVED_TOPIC_ERROR);
+        } else if (topic != null && !topic.isEmpty() && message != null && !message.isEmpty()) {
             // If topic and message are provided, publish the message
             System.out.println("Publishing message to topic: " + topic);
             try {
@@ -42,36 +79,174 @@ public class TopicDisplayer implements Servlet {
                 System.out.println("Value before: " + TopicManagerSingleton.get().getTopic(topic).getLastMessage());
                 double msgValue = Double.parseDouble(message);
                 System.out.println("Parsed message value: " + msgValue);
-                TopicManagerSingleton.get().getTopic(topic).publish(new Message(msgValue));
+                long publishStart = System.nanoTime();
+                Wave wave = Wave.begin(topic);
+                try {
+                    TopicManagerSingleton.get().getTopic(topic).publish(new Message(msgValue));
+                } finally {
+                    if (wave.isSampled()) {
+                        Tracer.span(wave.getId(), "GET /publish " + topic, "http", publishStart, System.nanoTime());
+                    }
+                    wave.end();
+                }
                 System.out.println("Value after: " + TopicManagerSingleton.get().getTopic(topic).getLastMessage());
 
-                String response = "HTTP/1.1 200 OK\r\n" +
-                                  corsHeaders +
-                                  "Content-Type: text/plain\r\n" +
-                                  "\r\n" +
-                                  "Message published successfully.";
-                toClient.write(response.getBytes());
+                String await = params.get("await");
+                if (await != null && !await.isEmpty()) {
+                    return sendAwaitResponse(toClient, wave, await, params.get("timeout"));
+                }
+
+                sendPublished(toClient, "Message published successfully.", String.valueOf(wave.getId()));
                 System.out.println("Response sent: Message published successfully");
             } catch (NumberFormatException e) {
                 System.out.println("Error parsing message: " + e.getMessage());
-                String errorResponse = "HTTP/1.1 400 Bad Request\r\n" +
-                                       corsHeaders +
-                                       "Content-Type: text/plain\r\n" +
-                                       "\r\n" +
-                                       "Invalid message format. Must be a number.";
-                toClient.write(errorResponse.getBytes());
+                sendText(toClient, 400, "Invalid message format. Must be a number.");
             }
         } else {
             // Otherwise, display the topics
             System.out.println("Displaying topics (no message to publish)");
-            String response = "HTTP/1.1 200 OK\r\n" +
-                              corsHeaders +
-                              "Content-Type: text/html\r\n" +
-                              "\r\n" +
-                              getTopicsHtml();
-            toClient.write(response.getBytes());
+            HttpResponse.ok().cors().contentType("text/html").body(getTopicsHtml()).send(toClient);
             System.out.println("Response sent: HTML with topics");
         }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Publishes a batch sent in the {@link BinaryPublish} format. The whole batch is
+     * checked before anything is published, so a bad entry publishes nothing.
+     */
+    private void handleBinaryPublish(byte[] body, OutputStream toClient) throws IOException {
+        String error = null;
+        int status = 400;
+        List<BinaryPublish.Entry> entries = null;
+        TopicManager tm = TopicManagerSingleton.get();
+        if (!publishEnabled) {
+            status = 409;
+            error = "This server is a read-only replica; publish to the leader.";
+        } else if (ConfLoader.getHasCycles()) {
+            status = 409;
+            error = "Graph has cycles, can't process message";
+        } else {
+            try {
+                entries = BinaryPublish.decode(body);
+                for (BinaryPublish.Entry entry : entries) {
+                    if (!tm.topicExists(entry.topic)) {
+                        error = "Topic " + entry.topic + " doesn't exist in the current graph";
+                        break;
+                    }
+                    if (isDerived(entry.topic)) {
+                        status = 409;
+                        error = "Topic " + entry.topic + ": " + DERIVED_TOPIC_ERROR;
+                        break;
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                error = "Invalid binary publish body: " + e.getMessage();
+            }
+        }
+        if (error != null) {
+            sendText(toClient, status, error);
+            return;
+        }
+
+        StringBuilder waveIds = new StringBuilder();
+        for (BinaryPublish.Entry entry : entries) {
+            long publishStart = System.nanoTime();
+            Wave wave = Wave.begin(entry.topic);
+            if (waveIds.length() > 0) {
+                waveIds.append(',');
+            }
+            waveIds.append(wave.getId());
+            try {
+                Message msg = entry.isText() ? new Message(entry.text) : new Message(entry.number);
+                tm.getTopic(entry.topic).publish(msg);
+            } finally {
+                if (wave.isSampled()) {
+                    Tracer.span(wave.getId(), "POST /publish " + entry.topic, "http", publishStart, System.nanoTime());
+                }
+                wave.end();
+            }
+        }
+        sendPublished(toClient, "Published " + entries.size() + " message(s).", waveIds.toString());
+    }
+
+    /** Whether the topic is computed by a fused agent, so a publish to it would be lost */
+    private static boolean isDerived(String topic) {
+        TopicManager tm = TopicManagerSingleton.get();
+        return tm.topicExists(topic) && tm.getTopic(topic).isDerived();
+    }
+
+    private void sendText(OutputStream toClient, int status, String message) throws IOException {
+        HttpResponse.status(status).cors().contentType("text/plain").body(message).send(toClient);
+    }
+
+    private void sendPublished(OutputStream toClient, String message, String waveIds) throws IOException {
+        HttpResponse.ok().cors()
+                .header(WAVE_ID_HEADER, waveIds)
+                .header("Access-Control-Expose-Headers", WAVE_ID_HEADER)
+                .contentType("text/plain")
+                .body(message)
+                .send(toClient);
+    }
+
+    /**
+     * Responds, once every agent downstream of the publish has finished, with the values
+     * of the requested topics as JSON: {"wave":12,"settled":true,"values":{"OUT":"8.0"}}.
+     * If the timeout elapses first, "settled" is false and the current values are returned.
+     */
+    private CompletionStage<Void> sendAwaitResponse(AsyncResponse toClient, Wave wave, String await, String timeoutParam) {
+        long timeoutMs = DEFAULT_AWAIT_TIMEOUT_MS;
+        if (timeoutParam != null && !timeoutParam.isEmpty()) {
+            try {
+                timeoutMs = Math.min(Long.parseLong(timeoutParam), MAX_AWAIT_TIMEOUT_MS);
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid await timeout '" + timeoutParam + "', using default");
+            }
+        }
+        return wave.completion()
+                .thenApply(settledWave -> true)
+                .completeOnTimeout(false, timeoutMs, TimeUnit.MILLISECONDS)
+                .thenAccept(settled -> writeAwaitResponse(toClient, wave, await, settled));
+    }
+
+    private void writeAwaitResponse(AsyncResponse toClient, Wave wave, String await, boolean settled) {
+        TopicManager tm = TopicManagerSingleton.get();
+        StringBuilder json = new StringBuilder();
+        json.append("{\"wave\":").append(wave.getId());
+        json.append(",\"settled\":").append(settled);
+        json.append(",\"values\":{");
+        boolean first = true;
+        for (String name : await.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!first) json.append(",");
+            first = false;
+            json.append("\"").append(escapeJson(name)).append("\":");
+            String value = tm.topicExists(name) ? tm.getTopic(name).getLastMessage() : null;
+            if (value == null) {
+                json.append("null");
+            } else {
+                json.append("\"").append(escapeJson(value)).append("\"");
+            }
+        }
+        json.append("}}");
+
+        toClient.write(HttpResponse.ok().cors()
+                .contentType("application/json; charset=UTF-8")
+                .noCache()
+                .body(json.toString())
+                .toBytes());
+        System.out.println("Response sent: wave " + wave.getId() + (settled ? " settled" : " timed out"));
+    }
+
+    private String escapeJson(String text) {
+        return text.replace("\\", "\\\\")
+                .replace("\"", "\\\"")
+                .replace("\n", "\\n")
+                .replace("\r", "\\r")
+                .replace("\t", "\\t");
     }
 
     private String getTopicsHtml() {
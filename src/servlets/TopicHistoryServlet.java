@@ -0,0 +1,127 @@
+package servlets;
+
+import graph.Topic;
+import graph.TopicHistory;
+import graph.TopicManagerSingleton;
+import server.HttpResponse;
+import server.Servlet;
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Servlet that returns the recorded value history of a topic as JSON.
+ *
+ * Query parameters:
+ * - topic  - name of the topic (required)
+ * - from   - start of the range in milliseconds since the epoch (default: oldest sample)
+ * - to     - end of the range in milliseconds since the epoch (default: newest sample)
+ * - points - maximum number of points to return (default 500); at least 3 for lttb
+ *            and 2 for minmax, smaller values are answered with 400
+ * - mode   - downsampling mode, "lttb" (default) or "minmax"
+ *
+ * Response: {"topic":"A","mode":"lttb","total":12000,"points":[[timestamp,value],...]}
+ */
+public class TopicHistoryServlet implements Servlet {
+    private static final int DEFAULT_POINTS = 500;
+    /** LTTB keeps the first and last sample and at least one in between */
+    private static final int MIN_POINTS_LTTB = 3;
+    /** Min-max keeps two samples per bucket */
+    private static final int MIN_POINTS_MINMAX = 2;
+
+    @Override
+    public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        Map<String, String> params = ri.getParameters();
+        String topicName = params.get("topic");
+
+        if (topicName == null || topicName.isEmpty()) {
+            sendError(toClient, 400, "Missing topic parameter");
+            return;
+        }
+        if (!TopicManagerSingleton.get().topicExists(topicName)) {
+            sendError(toClient, 404, "Topic doesn't exist in the current graph");
+            return;
+        }
+        Topic topic = TopicManagerSingleton.get().getTopic(topicName);
+        TopicHistory history = topic.getHistory();
+        if (history == null) {
+            sendError(toClient, 404, "History is not enabled for this topic");
+            return;
+        }
+
+        long from;
+        long to;
+        int points;
+        try {
+            from = params.containsKey("from") ? Long.parseLong(params.get("from")) : Long.MIN_VALUE;
+            to = params.containsKey("to") ? Long.parseLong(params.get("to")) : Long.MAX_VALUE;
+            points = params.containsKey("points") ? Integer.parseInt(params.get("points")) : DEFAULT_POINTS;
+        } catch (NumberFormatException e) {
+            sendError(toClient, 400, "from, to and points must be numbers");
+            return;
+        }
+        String mode = params.getOrDefault("mode", "lttb");
+        int minPoints;
+        if ("minmax".equals(mode)) {
+            minPoints = MIN_POINTS_MINMAX;
+        } else if ("lttb".equals(mode)) {
+            minPoints = MIN_POINTS_LTTB;
+        } else {
+            sendError(toClient, 400, "Unknown mode: " + mode);
+            return;
+        }
+        if (points < minPoints) {
+            // The downsamplers return the whole series below their minimum
+            sendError(toClient, 400, "points must be at least " + minPoints + " for mode " + mode);
+            return;
+        }
+
+        TopicHistory.Series series = history.query(from, to);
+        TopicHistory.Series sampled = "minmax".equals(mode)
+                ? series.downsampleMinMax(points)
+                : series.downsampleLttb(points);
+
+        StringBuilder json = new StringBuilder(32 + sampled.size() * 32);
+        json.append("{\"topic\":\"").append(escapeJson(topic.name)).append("\",");
+        json.append("\"mode\":\"").append(mode).append("\",");
+        json.append("\"total\":").append(series.size()).append(",");
+        json.append("\"points\":[");
+        for (int i = 0; i < sampled.size(); i++) {
+            if (i > 0) json.append(",");
+            json.append("[").append(sampled.timestamps[i]).append(",");
+            double v = sampled.values[i];
+            if (Double.isFinite(v)) {
+                json.append(v);
+            } else {
+                json.append("null");
+            }
+            json.append("]");
+        }
+        json.append("]}");
+
+        HttpResponse.ok().cors()
+                .contentType("application/json; charset=UTF-8")
+                .noCache()
+                .body(json.toString())
+                .send(toClient);
+    }
+
+    private void sendError(OutputStream toClient, int status, String message) throws IOException {
+        HttpResponse.status(status).cors().contentType("text/plain").body(message).send(toClient);
+    }
+
+    private String escapeJson(String text) {
+        return text.replace("\\", "\\\\")
+                .replace("\"", "\\\"")
+                .replace("\n", "\\n")
+                .replace("\r", "\\r")
+                .replace("\t", "\\t");
+    }
+
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+}
@@ -0,0 +1,175 @@
+package servlets;
+
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import server.HttpResponse;
+import server.Servlet;
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Servlet that returns the current values of topics as JSON, reading only the topics
+ * asked for, so polling a few topics of a large graph stays cheap.
+ *
+ * Endpoints:
+ * - GET /topics/{name}      - one topic: {"name":"A","value":"3.0","version":7}
+ * - GET /topics?names=A,B,C - several topics in the order given, and the names that are
+ *                             not in the graph: {"topics":[{...},{...}],"missing":["C"]}
+ *
+ * The ETag of a response is made from the versions of its topics (see
+ * {@link Topic#getVersion()}). A request whose If-None-Match holds the current ETag is
+ * answered with 304 Not Modified and no body. Topics computed on demand have no version,
+ * so a response that includes one has no ETag and is always sent in full.
+ */
+public class TopicValueServlet implements Servlet {
+
+    @Override
+    public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        Map<String, String> params = ri.getParameters();
+        TopicManager tm = TopicManagerSingleton.get();
+        String ifNoneMatch = ri.getHeaders().get("If-None-Match");
+
+        if (ri.getUriSegments().length > 1) {
+            String name = params.get("name");
+            if (name == null || !tm.topicExists(name)) {
+                sendError(toClient, 404, "Topic doesn't exist in the current graph");
+                return;
+            }
+            StringBuilder json = new StringBuilder(64);
+            String stamp = appendTopic(json, tm.getTopic(name), name);
+            send(toClient, stamp != null ? "\"" + stamp + "\"" : null, ifNoneMatch, json);
+            return;
+        }
+
+        String names = params.get("names");
+        if (names == null || names.isBlank()) {
+            sendError(toClient, 400, "Missing names parameter, e.g. /topics?names=A,B");
+            return;
+        }
+        StringBuilder json = new StringBuilder(64);
+        StringBuilder stamps = new StringBuilder(64);
+        boolean versioned = true;
+        List<String> missing = new ArrayList<>();
+        json.append("{\"topics\":[");
+        boolean first = true;
+        for (String part : names.split(",")) {
+            String name = part.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!tm.topicExists(name)) {
+                missing.add(name);
+                stamps.append("!").append(name).append(',');
+                continue;
+            }
+            if (!first) json.append(",");
+            first = false;
+            String stamp = appendTopic(json, tm.getTopic(name), name);
+            versioned &= stamp != null;
+            stamps.append(stamp).append(',');
+        }
+        json.append("],\"missing\":[");
+        for (int i = 0; i < missing.size(); i++) {
+            if (i > 0) json.append(",");
+            json.append("\"").append(escapeJson(missing.get(i))).append("\"");
+        }
+        json.append("]}");
+        send(toClient, versioned ? "\"" + Long.toHexString(hash(stamps)) + "\"" : null, ifNoneMatch, json);
+    }
+
+    /**
+     * Appends a topic's JSON object and returns the part of the ETag it contributes, or
+     * null if the topic has no version. The version is read before the value, so the
+     * value is never older than the tag.
+     */
+    private static String appendTopic(StringBuilder json, Topic topic, String name) {
+        long version = topic.getVersion();
+        String value = topic.getLastMessage();
+        json.append("{\"name\":\"").append(escapeJson(name)).append("\",\"value\":");
+        if (value == null) {
+            json.append("null");
+        } else {
+            json.append("\"").append(escapeJson(value)).append("\"");
+        }
+        json.append(",\"version\":").append(version).append("}");
+        if (version < 0) {
+            return null;
+        }
+        return Long.toHexString(topic.getInstance()) + "-" + Long.toHexString(version);
+    }
+
+    private static void send(OutputStream toClient, String etag, String ifNoneMatch, StringBuilder json) throws IOException {
+        if (etag == null) {
+            HttpResponse.ok().cors()
+                    .contentType("application/json; charset=UTF-8")
+                    .noCache()
+                    .body(json.toString())
+                    .send(toClient);
+            return;
+        }
+        if (matches(ifNoneMatch, etag)) {
+            HttpResponse.status(304).cors()
+                    .header("Access-Control-Expose-Headers", "ETag")
+                    .noCache()
+                    .header("ETag", etag)
+                    .send(toClient);
+            return;
+        }
+        HttpResponse.ok().cors()
+                .header("Access-Control-Expose-Headers", "ETag")
+                .contentType("application/json; charset=UTF-8")
+                .noCache()
+                .header("ETag", etag)
+                .body(json.toString())
+                .send(toClient);
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** 64-bit FNV-1a, so the ETag of a long list of topics stays short */
+    private static long hash(CharSequence text) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            h ^= text.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private void sendError(OutputStream toClient, int status, String message) throws IOException {
+        HttpResponse.status(status).cors().contentType("text/plain").body(message).send(toClient);
+    }
+
+    private static String escapeJson(String text) {
+        return text.replace("\\", "\\\\")
+                .replace("\"", "\\\"")
+                .replace("\n", "\\n")
+                .replace("\r", "\\r")
+                .replace("\t", "\\t");
+    }
+
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+}
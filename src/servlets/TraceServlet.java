@@ -0,0 +1,70 @@
+package servlets;
+
+import metrics.Tracer;
+import server.HttpResponse;
+import server.Servlet;
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Servlet for sampled publish tracing.
+ *
+ * GET /trace returns the recorded events as Chrome trace-event JSON, which can be
+ * opened in chrome://tracing or Perfetto. Query parameters:
+ * - wave  - only return the events of this publish (its wave id, from the X-Wave-Id header of the publish)
+ * - clear - "true" to empty the event buffer after returning the events
+ *
+ * POST /trace?rate=0.01 sets the fraction of publishes that are traced (0 turns tracing off).
+ */
+public class TraceServlet implements Servlet {
+
+    @Override
+    public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        Map<String, String> params = ri.getParameters();
+
+        if ("POST".equalsIgnoreCase(ri.getHttpCommand())) {
+            String rate = params.get("rate");
+            try {
+                Tracer.setSampleRate(Double.parseDouble(rate));
+            } catch (NullPointerException | IllegalArgumentException e) {
+                sendText(toClient, 400, "rate must be a number between 0 and 1");
+                return;
+            }
+            System.out.println("[TraceServlet] Sample rate set to " + Tracer.getSampleRate());
+            sendText(toClient, 200, "Sample rate set to " + Tracer.getSampleRate());
+            return;
+        }
+
+        long wave = -1;
+        String waveParam = params.get("wave");
+        if (waveParam != null && !waveParam.isEmpty()) {
+            try {
+                wave = Long.parseLong(waveParam);
+            } catch (NumberFormatException e) {
+                sendText(toClient, 400, "Invalid wave id");
+                return;
+            }
+        }
+
+        HttpResponse response = HttpResponse.ok().cors()
+                .contentType("application/json; charset=UTF-8")
+                .noCache()
+                .body(Tracer.toChromeJson(Tracer.getEvents(wave)));
+        if ("true".equals(params.get("clear"))) {
+            Tracer.clear();
+        }
+        response.send(toClient);
+    }
+
+    private void sendText(OutputStream toClient, int status, String message) throws IOException {
+        HttpResponse.status(status).cors().contentType("text/plain").body(message).send(toClient);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // No resources to close
+    }
+}
@@ -0,0 +1,242 @@
+package tools;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates synthetic configuration files in the {@code GenericConfig} three-line format,
+ * for load tests and benchmarks of graphs much larger than the ones in config_files.
+ *
+ * The graph is built in layers. Layer 0 is the input topics; every agent of layer
+ * {@code l} reads from topics of layer {@code l-1} (and earlier layers when that one
+ * has too few) and publishes one topic of its own. The shape is controlled by:
+ * <ul>
+ *   <li><strong>agents</strong> - total number of agents, spread evenly over the layers</li>
+ *   <li><strong>depth</strong> - number of agent layers, the longest path through the graph</li>
+ *   <li><strong>inputs</strong> - number of input topics (default: the layer width)</li>
+ *   <li><strong>fan-in</strong> - topics each agent reads: 1 gives IncAgents, 2 PlusAgents,
+ *       more ExpressionAgents averaging their inputs</li>
+ *   <li><strong>fan-out</strong> - how many agents of the next layer read each topic; when a
+ *       layer needs more inputs than that allows, topics are read more often</li>
+ *   <li><strong>cycles</strong> - number of extra IncAgents publishing from a deep topic back
+ *       into one of its ancestors, each closing a cycle</li>
+ *   <li><strong>seed</strong> - the same seed always gives the same file</li>
+ * </ul>
+ *
+ * Usage:
+ * <pre>
+ * java -cp out tools.GraphGenerator --agents 10000 --depth 20 --fan-in 2 --fan-out 2 --out config_files/big.conf
+ * </pre>
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class GraphGenerator {
+    private int agents = 100;
+    private int depth = 10;
+    private int inputs = -1;
+    private int fanIn = 2;
+    private int fanOut = 2;
+    private int cycles = 0;
+    private long seed = 42;
+
+    public void setAgents(int agents) {
+        if (agents < 1) {
+            throw new IllegalArgumentException("agents must be at least 1");
+        }
+        this.agents = agents;
+    }
+
+    public void setDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("depth must be at least 1");
+        }
+        this.depth = depth;
+    }
+
+    /**
+     * Sets the number of input topics; a value below 1 uses the layer width.
+     */
+    public void setInputs(int inputs) {
+        this.inputs = inputs;
+    }
+
+    public void setFanIn(int fanIn) {
+        if (fanIn < 1) {
+            throw new IllegalArgumentException("fan-in must be at least 1");
+        }
+        this.fanIn = fanIn;
+    }
+
+    public void setFanOut(int fanOut) {
+        if (fanOut < 1) {
+            throw new IllegalArgumentException("fan-out must be at least 1");
+        }
+        this.fanOut = fanOut;
+    }
+
+    public void setCycles(int cycles) {
+        if (cycles < 0) {
+            throw new IllegalArgumentException("cycles cannot be negative");
+        }
+        this.cycles = cycles;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Generates the configuration.
+     *
+     * @return The file content, starting with comments that record the parameters
+     */
+    public String generate() {
+        Random random = new Random(seed);
+        int layers = Math.min(depth, agents);
+        int inputCount = inputs > 0 ? inputs : (agents + layers - 1) / layers;
+
+        // topics.get(l) holds the topics of layer l; layer 0 is the inputs
+        List<List<String>> topics = new ArrayList<>();
+        List<String> inputTopics = new ArrayList<>();
+        for (int i = 0; i < inputCount; i++) {
+            inputTopics.add("IN" + i);
+        }
+        topics.add(inputTopics);
+
+        // The inputs of the agent publishing each topic, used to find ancestors for cycles
+        Map<String, String[]> publisherSubs = new HashMap<>();
+        StringBuilder body = new StringBuilder();
+
+        for (int layer = 1; layer <= layers; layer++) {
+            int width = agents / layers + (layer <= agents % layers ? 1 : 0);
+            List<String> previous = topics.get(layer - 1);
+            List<String> pool = new ArrayList<>();
+            List<String> current = new ArrayList<>();
+
+            for (int i = 0; i < width; i++) {
+                Set<String> subs = new LinkedHashSet<>();
+                int wanted = Math.min(fanIn, countTopics(topics, layer));
+                int attempts = 0;
+                while (subs.size() < wanted && attempts++ < 4 * wanted + previous.size()) {
+                    if (pool.isEmpty()) {
+                        for (int f = 0; f < fanOut; f++) {
+                            pool.addAll(previous);
+                        }
+                        Collections.shuffle(pool, random);
+                    }
+                    subs.add(pool.remove(pool.size() - 1));
+                }
+                // The previous layer is too narrow: take the rest from earlier layers
+                while (subs.size() < wanted) {
+                    List<String> earlier = topics.get(random.nextInt(layer));
+                    subs.add(earlier.get(random.nextInt(earlier.size())));
+                }
+
+                String pub = "L" + layer + "_" + i;
+                String[] subArray = subs.toArray(new String[0]);
+                appendAgent(body, subArray, pub);
+                publisherSubs.put(pub, subArray);
+                current.add(pub);
+            }
+            topics.add(current);
+        }
+
+        for (int c = 0; c < cycles; c++) {
+            // Walk up from a topic of the last layer; publishing into any topic on the way closes a cycle
+            List<String> last = topics.get(layers);
+            String from = last.get(random.nextInt(last.size()));
+            List<String> path = new ArrayList<>();
+            String topic = from;
+            String[] subs;
+            while ((subs = publisherSubs.get(topic)) != null) {
+                path.add(topic);
+                topic = subs[random.nextInt(subs.length)];
+            }
+            String to = path.get(random.nextInt(path.size()));
+            body.append("configs.IncAgent\n").append(from).append('\n').append(to).append('\n');
+        }
+
+        // The first line has no '=' so the upload request parser doesn't take it for a parameter
+        String header = "# Generated by tools.GraphGenerator\n# agents=" + agents + " depth=" + layers
+                + " inputs=" + inputCount + " fan-in=" + fanIn + " fan-out=" + fanOut
+                + " cycles=" + cycles + " seed=" + seed + "\n";
+        return header + body;
+    }
+
+    private static int countTopics(List<List<String>> topics, int layers) {
+        int count = 0;
+        for (int l = 0; l < layers; l++) {
+            count += topics.get(l).size();
+        }
+        return count;
+    }
+
+    private static void appendAgent(StringBuilder body, String[] subs, String pub) {
+        if (subs.length == 1) {
+            body.append("configs.IncAgent\n");
+        } else if (subs.length == 2) {
+            body.append("configs.PlusAgent\n");
+        } else {
+            body.append("configs.ExpressionAgent expr=(").append(String.join("+", subs))
+                    .append(")/").append(subs.length).append('\n');
+        }
+        body.append(String.join(",", subs)).append('\n').append(pub).append('\n');
+    }
+
+    public static void main(String[] args) throws IOException {
+        GraphGenerator generator = new GraphGenerator();
+        String out = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("--help".equals(arg) || "-h".equals(arg)) {
+                    usage(System.out);
+                    return;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                String value = args[++i];
+                switch (arg) {
+                    case "--agents": generator.setAgents(Integer.parseInt(value)); break;
+                    case "--depth": generator.setDepth(Integer.parseInt(value)); break;
+                    case "--inputs": generator.setInputs(Integer.parseInt(value)); break;
+                    case "--fan-in": generator.setFanIn(Integer.parseInt(value)); break;
+                    case "--fan-out": generator.setFanOut(Integer.parseInt(value)); break;
+                    case "--cycles": generator.setCycles(Integer.parseInt(value)); break;
+                    case "--seed": generator.setSeed(Long.parseLong(value)); break;
+                    case "--out": out = value; break;
+                    default: throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage(System.err);
+            System.exit(2);
+        }
+
+        String conf = generator.generate();
+        if (out == null) {
+            System.out.print(conf);
+        } else {
+            Files.writeString(Paths.get(out), conf, StandardCharsets.UTF_8);
+            System.out.println("[GraphGenerator] Wrote " + generator.agents + " agents to " + out);
+        }
+    }
+
+    private static void usage(PrintStream stream) {
+        stream.println("Usage: java tools.GraphGenerator [--agents N] [--depth D] [--inputs I] [--fan-in K]");
+        stream.println("                                 [--fan-out F] [--cycles C] [--seed S] [--out FILE]");
+    }
+}
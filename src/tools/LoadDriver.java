@@ -0,0 +1,390 @@
+package tools;
+
+import configs.AgentSpec;
+import servlets.BinaryPublish;
+import views.GraphBinaryWriter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end HTTP load driver for a running server.
+ *
+ * Uploads a configuration, then sends a weighted mix of requests from several threads
+ * for a fixed time and reports throughput and latency percentiles per operation:
+ * <ul>
+ *   <li><strong>publish</strong> - GET /publish with a random value to a random input topic</li>
+ *   <li><strong>graph</strong> - GET /graph-data</li>
+ *   <li><strong>upload</strong> - POST /upload of the configuration again, replacing the running graph</li>
+ * </ul>
+ *
+ * Without {@code --rate} every thread sends its next request as soon as the previous one
+ * returns. With {@code --rate} requests are started on a fixed schedule, and latency is
+ * measured from the time a request should have started, so a stalled server shows up in
+ * the percentiles instead of lowering the request rate. Requests started during the
+ * warmup are not counted. With {@code --format binary}, publishes are sent as binary
+ * POST /publish batches of one value and the graph is requested in the binary format.
+ *
+ * Usage:
+ * <pre>
+ * java -cp out tools.LoadDriver --config config_files/big.conf --concurrency 16 --rate 1000 --duration 60
+ * java -cp out tools.LoadDriver --config config_files/simple.conf --mix publish=90,graph=9,upload=1
+ * </pre>
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class LoadDriver {
+    private static final String[] OPERATIONS = {"publish", "graph", "upload"};
+    private static final int PUBLISH = 0;
+    private static final int GRAPH = 1;
+    private static final int UPLOAD = 2;
+
+    private String url = "http://localhost:8080";
+    private Path config;
+    private List<String> topics = new ArrayList<>();
+    private final int[] weights = {100, 0, 0};
+    private int concurrency = 8;
+    private int durationSeconds = 30;
+    private int warmupSeconds = 5;
+    private double rate = 0;
+    private long timeoutMs = 10_000;
+    private boolean binary = false;
+
+    private HttpClient client;
+    private byte[] configBytes;
+
+    /**
+     * Runs the load test and prints the report.
+     */
+    public void run(PrintStream out) throws IOException, InterruptedException {
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(timeoutMs))
+                .build();
+
+        if (config != null) {
+            configBytes = Files.readAllBytes(config);
+            if (topics.isEmpty()) {
+                topics = inputTopics(config);
+            }
+            long start = System.nanoTime();
+            int status = send(UPLOAD);
+            if (status / 100 != 2) {
+                throw new IOException("Uploading " + config + " failed with status " + status);
+            }
+            out.printf("Uploaded %s in %.1f ms%n", config, (System.nanoTime() - start) / 1e6);
+        } else if (weights[UPLOAD] > 0) {
+            throw new IllegalArgumentException("The upload operation needs --config");
+        }
+        if (weights[PUBLISH] > 0 && topics.isEmpty()) {
+            throw new IllegalArgumentException("No topics to publish to, pass --config or --topics");
+        }
+        int totalWeight = weights[PUBLISH] + weights[GRAPH] + weights[UPLOAD];
+        if (totalWeight <= 0) {
+            throw new IllegalArgumentException("The request mix is empty");
+        }
+
+        out.printf("Running %d threads for %ds (+%ds warmup), %s, mix publish=%d graph=%d upload=%d%n",
+                concurrency, durationSeconds, warmupSeconds,
+                rate > 0 ? "target " + rate + " req/s" : "no rate limit",
+                weights[PUBLISH], weights[GRAPH], weights[UPLOAD]);
+
+        long start = System.nanoTime();
+        long measureFrom = start + warmupSeconds * 1_000_000_000L;
+        long end = measureFrom + durationSeconds * 1_000_000_000L;
+        long periodNanos = rate > 0 ? (long) (1e9 / rate) : 0;
+        AtomicLong tickets = new AtomicLong();
+
+        Worker[] workers = new Worker[concurrency];
+        Thread[] threads = new Thread[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            workers[i] = new Worker(start, measureFrom, end, periodNanos, tickets, totalWeight);
+            threads[i] = new Thread(workers[i], "load-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Stats[] totals = new Stats[OPERATIONS.length];
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            totals[op] = new Stats();
+            for (Worker worker : workers) {
+                totals[op].add(worker.stats[op]);
+            }
+        }
+        report(out, totals, durationSeconds);
+    }
+
+    /**
+     * Returns the topics the configuration reads but no agent publishes.
+     */
+    static List<String> inputTopics(Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                lines.add(trimmed);
+            }
+        }
+        Set<String> subs = new LinkedHashSet<>();
+        Set<String> pubs = new LinkedHashSet<>();
+        for (int i = 0; i + 2 < lines.size(); i += 3) {
+            AgentSpec spec = AgentSpec.parse(lines.get(i), lines.get(i + 1), lines.get(i + 2));
+            subs.addAll(Arrays.asList(spec.getSubs()));
+            pubs.addAll(Arrays.asList(spec.getPubs()));
+        }
+        subs.removeAll(pubs);
+        return new ArrayList<>(subs);
+    }
+
+    private int send(int operation) throws IOException, InterruptedException {
+        HttpRequest.Builder request;
+        switch (operation) {
+            case PUBLISH: {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                String topic = topics.get(random.nextInt(topics.size()));
+                int value = random.nextInt(1000);
+                if (binary) {
+                    byte[] body = BinaryPublish.encode(List.of(BinaryPublish.Entry.number(topic, value)));
+                    request = HttpRequest.newBuilder(URI.create(url + "/publish"))
+                            .header("Content-Type", BinaryPublish.MEDIA_TYPE)
+                            .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+                } else {
+                    request = HttpRequest.newBuilder(URI.create(url + "/publish?topic="
+                            + URLEncoder.encode(topic, StandardCharsets.UTF_8) + "&message=" + value)).GET();
+                }
+                break;
+            }
+            case GRAPH:
+                request = HttpRequest.newBuilder(URI.create(url + "/graph-data")).GET();
+                if (binary) {
+                    request.header("Accept", GraphBinaryWriter.MEDIA_TYPE);
+                }
+                break;
+            default:
+                request = HttpRequest.newBuilder(URI.create(url + "/upload?filename="
+                                + URLEncoder.encode(config.getFileName().toString(), StandardCharsets.UTF_8)))
+                        .header("Content-Type", "text/plain")
+                        .header("Accept", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(configBytes));
+        }
+        request.timeout(Duration.ofMillis(timeoutMs));
+        HttpResponse<Void> response = client.send(request.build(), HttpResponse.BodyHandlers.discarding());
+        return response.statusCode();
+    }
+
+    /**
+     * One sending thread, with its own statistics so threads don't contend while recording.
+     */
+    private class Worker implements Runnable {
+        final Stats[] stats = {new Stats(), new Stats(), new Stats()};
+        private final long start;
+        private final long measureFrom;
+        private final long end;
+        private final long periodNanos;
+        private final AtomicLong tickets;
+        private final int totalWeight;
+
+        Worker(long start, long measureFrom, long end, long periodNanos, AtomicLong tickets, int totalWeight) {
+            this.start = start;
+            this.measureFrom = measureFrom;
+            this.end = end;
+            this.periodNanos = periodNanos;
+            this.tickets = tickets;
+            this.totalWeight = totalWeight;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                long intended;
+                if (periodNanos > 0) {
+                    intended = start + tickets.getAndIncrement() * periodNanos;
+                    if (intended >= end) {
+                        return;
+                    }
+                    long now;
+                    while ((now = System.nanoTime()) < intended) {
+                        LockSupport.parkNanos(intended - now);
+                    }
+                } else {
+                    intended = System.nanoTime();
+                    if (intended >= end) {
+                        return;
+                    }
+                }
+
+                int operation = pick();
+                boolean ok;
+                try {
+                    ok = send(operation) / 100 == 2;
+                } catch (IOException e) {
+                    ok = false;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (intended >= measureFrom) {
+                    stats[operation].record(System.nanoTime() - intended, ok);
+                }
+            }
+        }
+
+        private int pick() {
+            int r = ThreadLocalRandom.current().nextInt(totalWeight);
+            if (r < weights[PUBLISH]) {
+                return PUBLISH;
+            }
+            return r < weights[PUBLISH] + weights[GRAPH] ? GRAPH : UPLOAD;
+        }
+    }
+
+    /**
+     * Latencies and error count of one operation.
+     */
+    private static class Stats {
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+
+        void record(long nanos, boolean ok) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+            if (!ok) {
+                errors++;
+            }
+        }
+
+        void add(Stats other) {
+            for (int i = 0; i < other.count; i++) {
+                record(other.latencies[i], true);
+            }
+            errors += other.errors;
+        }
+
+        /** Returns the latency in milliseconds at a percentile; the latencies must be sorted */
+        double percentile(double p) {
+            int index = (int) Math.ceil(p / 100.0 * count) - 1;
+            return latencies[Math.max(0, Math.min(count - 1, index))] / 1e6;
+        }
+    }
+
+    private static void report(PrintStream out, Stats[] stats, int seconds) {
+        out.printf("%n%-8s %9s %7s %9s %9s %9s %9s %9s %9s%n",
+                "op", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        Stats all = new Stats();
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            if (stats[op].count > 0) {
+                printRow(out, OPERATIONS[op], stats[op], seconds);
+                all.add(stats[op]);
+            }
+        }
+        if (all.count == 0) {
+            out.println("No requests completed during the measurement");
+            return;
+        }
+        printRow(out, "total", all, seconds);
+    }
+
+    private static void printRow(PrintStream out, String name, Stats stats, int seconds) {
+        Arrays.sort(stats.latencies, 0, stats.count);
+        out.printf("%-8s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                name, stats.count, stats.errors, stats.count / (double) seconds,
+                stats.percentile(50), stats.percentile(90), stats.percentile(99), stats.percentile(99.9),
+                stats.latencies[stats.count - 1] / 1e6);
+    }
+
+    private void setMix(String mix) {
+        Arrays.fill(weights, 0);
+        for (String part : mix.split(",")) {
+            String[] entry = part.split("=");
+            int op = Arrays.asList(OPERATIONS).indexOf(entry[0].trim());
+            if (op < 0 || entry.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry '" + part + "', expected publish=N, graph=N or upload=N");
+            }
+            weights[op] = Integer.parseInt(entry[1].trim());
+            if (weights[op] < 0) {
+                throw new IllegalArgumentException("Mix weights cannot be negative");
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadDriver driver = new LoadDriver();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("--help".equals(arg) || "-h".equals(arg)) {
+                    usage(System.out);
+                    return;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                String value = args[++i];
+                switch (arg) {
+                    case "--url": driver.url = value.endsWith("/") ? value.substring(0, value.length() - 1) : value; break;
+                    case "--config": driver.config = Paths.get(value); break;
+                    case "--topics": driver.topics = new ArrayList<>(Arrays.asList(value.split(","))); break;
+                    case "--mix": driver.setMix(value); break;
+                    case "--concurrency": driver.concurrency = positive(arg, value); break;
+                    case "--duration": driver.durationSeconds = positive(arg, value); break;
+                    case "--warmup": driver.warmupSeconds = Integer.parseInt(value); break;
+                    case "--rate": driver.rate = Double.parseDouble(value); break;
+                    case "--timeout": driver.timeoutMs = positive(arg, value); break;
+                    case "--format": driver.binary = format(value); break;
+                    default: throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            driver.run(System.out);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage(System.err);
+            System.exit(2);
+        }
+    }
+
+    private static int positive(String option, String value) {
+        int n = Integer.parseInt(value);
+        if (n < 1) {
+            throw new IllegalArgumentException(option + " must be at least 1");
+        }
+        return n;
+    }
+
+    private static boolean format(String value) {
+        switch (value) {
+            case "text": return false;
+            case "binary": return true;
+            default: throw new IllegalArgumentException("--format must be text or binary");
+        }
+    }
+
+    private static void usage(PrintStream stream) {
+        stream.println("Usage: java tools.LoadDriver [--url http://localhost:8080] [--config FILE] [--topics A,B]");
+        stream.println("                             [--mix publish=100,graph=0,upload=0] [--concurrency 8]");
+        stream.println("                             [--duration 30] [--warmup 5] [--rate REQ_PER_SEC] [--timeout MS]");
+        stream.println("                             [--format text|binary]");
+    }
+}
@@ -0,0 +1,13 @@
+/**
+ * Command line tools for capacity planning.
+ *
+ * <ul>
+ *   <li><strong>GraphGenerator</strong> - Writes synthetic configuration files of a given size, depth,
+ *       fan-in and fan-out, optionally with cycles</li>
+ *   <li><strong>LoadDriver</strong> - Sends publish, graph-data and upload requests to a running server
+ *       and reports throughput and latency percentiles</li>
+ * </ul>
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+package tools;
@@ -0,0 +1,178 @@
+package views;
+
+import configs.Graph;
+import configs.Node;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a graph and its topic values in a compact binary form, the alternative to
+ * {@link HtmlGraphWriter#graphToJson(Graph)} for programmatic clients. Node ids,
+ * labels and text values are written once in a string table and referenced by index,
+ * edges are varint-encoded and numeric values are raw doubles.
+ *
+ * <pre>
+ * magic      "CGG1"
+ * strings    varint count, count x (varint byte length, UTF-8 bytes)
+ * nodes      varint count, count x (varint id string, varint label string, byte type, byte value kind, value)
+ *              type:       0 topic, 1 agent, 2 result
+ *              value kind: 0 none, 1 number (8-byte big-endian IEEE 754 double), 2 text (varint string)
+ *              a value is a number only if the double prints as exactly the same text
+ * edges      for each node, in node order: varint count, count x varint target
+ *              targets are node indices in ascending order, each written as the difference to the previous
+ * </pre>
+ * All varints are unsigned LEB128. Node ids, labels, types and edges match the JSON form.
+ *
+ * @author Omri Triki, Yuval Disatnik
+ */
+public class GraphBinaryWriter {
+    public static final String MEDIA_TYPE = "application/x-cgraph-graph";
+
+    static final byte[] MAGIC = { 'C', 'G', 'G', '1' };
+
+    static final int TYPE_TOPIC = 0;
+    static final int TYPE_AGENT = 1;
+    static final int TYPE_RESULT = 2;
+
+    static final int VALUE_NONE = 0;
+    static final int VALUE_NUMBER = 1;
+    static final int VALUE_TEXT = 2;
+
+    private GraphBinaryWriter() {
+    }
+
+    /**
+     * Encodes the graph with the current values of its topics.
+     */
+    public static byte[] encode(Graph graph) {
+        TopicManager tm = TopicManagerSingleton.get();
+        Map<String, Integer> nodeIndex = new LinkedHashMap<>();
+        List<Node> nodes = new ArrayList<>();
+        List<List<Integer>> edges = new ArrayList<>();
+        if (graph != null) {
+            for (Node node : graph) {
+                if (nodeIndex.putIfAbsent(node.getName(), nodes.size()) == null) {
+                    nodes.add(node);
+                    edges.add(new ArrayList<>());
+                }
+            }
+            for (Node node : graph) {
+                List<Integer> out = edges.get(nodeIndex.get(node.getName()));
+                for (Node target : node.getEdges()) {
+                    Integer index = nodeIndex.get(target.getName());
+                    if (index != null) {
+                        out.add(index);
+                    }
+                }
+            }
+        }
+
+        StringTable strings = new StringTable();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(nodes.size() * 16 + 64);
+        writeVarint(body, nodes.size());
+        for (Node node : nodes) {
+            String type = HtmlGraphWriter.getNodeType(node);
+            String label = HtmlGraphWriter.getDisplayLabel(node);
+            writeVarint(body, strings.index(node.getName()));
+            writeVarint(body, strings.index(label));
+            if ("agent".equals(type)) {
+                body.write(TYPE_AGENT);
+                body.write(VALUE_NONE);
+                continue;
+            }
+            body.write("result".equals(type) ? TYPE_RESULT : TYPE_TOPIC);
+            String value = tm.topicExists(label) ? tm.getTopic(label).getLastMessage() : null;
+            if (value == null) {
+                body.write(VALUE_NONE);
+                continue;
+            }
+            double number = parseNumber(value);
+            if (!Double.isNaN(number) && String.valueOf(number).equals(value)) {
+                // Only values that print back the same, as agents publish them, so the
+                // decoded text matches the JSON form
+                body.write(VALUE_NUMBER);
+                writeDouble(body, number);
+            } else {
+                body.write(VALUE_TEXT);
+                writeVarint(body, strings.index(value));
+            }
+        }
+        for (List<Integer> out : edges) {
+            int[] targets = out.stream().mapToInt(Integer::intValue).toArray();
+            Arrays.sort(targets);
+            writeVarint(body, targets.length);
+            int previous = 0;
+            for (int target : targets) {
+                writeVarint(body, target - previous);
+                previous = target;
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() + strings.bytes + 16);
+        out.write(MAGIC, 0, MAGIC.length);
+        writeVarint(out, strings.list.size());
+        for (byte[] s : strings.list) {
+            writeVarint(out, s.length);
+            out.write(s, 0, s.length);
+        }
+        out.writeBytes(body.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static double parseNumber(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint, the integer encoding of this format and of
+     * {@link servlets.BinaryPublish}.
+     */
+    public static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Writes a double as 8 big-endian bytes of its IEEE 754 bits.
+     */
+    public static void writeDouble(ByteArrayOutputStream out, double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (bits >>> shift));
+        }
+    }
+
+    private static final class StringTable {
+        final Map<String, Integer> indices = new HashMap<>();
+        final List<byte[]> list = new ArrayList<>();
+        int bytes = 0;
+
+        int index(String s) {
+            Integer index = indices.get(s);
+            if (index == null) {
+                index = list.size();
+                indices.put(s, index);
+                byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+                list.add(utf8);
+                bytes += utf8.length + 2;
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package views;
+
+import configs.Graph;
+import configs.Node;
+import graph.Message;
+import graph.TopicManagerSingleton;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class GraphBinaryWriterTest {
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        System.out.println("=== Testing Binary Graph Format ===\n");
+
+        testVarints();
+        testRoundTrip();
+        testEmptyGraph();
+
+        System.out.println(failures == 0 ? "All binary graph tests passed" : failures + " binary graph test(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void testVarints() {
+        System.out.println("Test Case 1: Varints");
+        check("0 is one byte", Arrays.equals(varint(0), new byte[] {0}));
+        check("127 is one byte", Arrays.equals(varint(127), new byte[] {127}));
+        check("128 is two bytes", Arrays.equals(varint(128), new byte[] {(byte) 0x80, 1}));
+        check("300", Arrays.equals(varint(300), new byte[] {(byte) 0xAC, 2}));
+        boolean allRoundTrip = true;
+        for (int value : new int[] {1, 16_383, 16_384, 2_097_151, 2_097_152, Integer.MAX_VALUE}) {
+            allRoundTrip &= new Reader(varint(value)).varint() == value;
+        }
+        check("values round-trip", allRoundTrip);
+    }
+
+    private static void testRoundTrip() {
+        System.out.println("Test Case 2: Nodes, values and edges round-trip");
+        TopicManagerSingleton.get().clear();
+        String[] names = {"TA", "TB", "TC", "TD", "TE", "TF", "APlusAgent0", "Tresult", "TN"};
+        Graph graph = new Graph();
+        List<Node> nodes = new ArrayList<>();
+        for (String name : names) {
+            Node node = new Node(name);
+            graph.add(node);
+            nodes.add(node);
+        }
+        nodes.get(0).addEdge(nodes.get(6));
+        nodes.get(1).addEdge(nodes.get(6));
+        nodes.get(6).addEdge(nodes.get(7));
+        nodes.get(6).addEdge(nodes.get(2));
+        nodes.get(7).addEdge(nodes.get(6));
+
+        publish("A", new Message(2.5));
+        publish("B", new Message("5"));
+        publish("C", new Message(-0.0));
+        publish("D", new Message("1d"));
+        publish("E", new Message("0x1p3"));
+        publish("F", new Message(" 7.0"));
+        publish("result", new Message("hello"));
+        TopicManagerSingleton.get().getTopic("N");
+
+        Decoded decoded = decode(GraphBinaryWriter.encode(graph));
+        check("node count", decoded.ids.size() == names.length);
+        boolean sameNodes = true;
+        for (int i = 0; i < names.length; i++) {
+            sameNodes &= decoded.ids.get(i).equals(names[i])
+                    && decoded.labels.get(i).equals(HtmlGraphWriter.getDisplayLabel(nodes.get(i)))
+                    && decoded.types.get(i).equals(HtmlGraphWriter.getNodeType(nodes.get(i)));
+        }
+        check("ids, labels and types match the JSON form", sameNodes);
+
+        check("number published by an agent is a number", decoded.kinds.get(0) == GraphBinaryWriter.VALUE_NUMBER
+                && decoded.values.get(0).equals("2.5"));
+        check("negative zero keeps its sign", decoded.kinds.get(2) == GraphBinaryWriter.VALUE_NUMBER
+                && decoded.values.get(2).equals("-0.0"));
+        check("\"5\" stays text", decoded.kinds.get(1) == GraphBinaryWriter.VALUE_TEXT && decoded.values.get(1).equals("5"));
+        check("Java literals stay text", decoded.kinds.get(3) == GraphBinaryWriter.VALUE_TEXT
+                && decoded.values.get(3).equals("1d") && decoded.values.get(4).equals("0x1p3"));
+        check("padded number stays text", decoded.values.get(5).equals(" 7.0"));
+        check("every topic value is the same text as in the JSON form", decoded.values.subList(0, 6)
+                .equals(List.of("2.5", "5", "-0.0", "1d", "0x1p3", " 7.0")) && decoded.values.get(7).equals("hello"));
+        check("agent and unset topic have no value", decoded.kinds.get(6) == GraphBinaryWriter.VALUE_NONE
+                && decoded.kinds.get(8) == GraphBinaryWriter.VALUE_NONE);
+
+        check("edges", decoded.edges.get(0).equals(List.of(6)) && decoded.edges.get(6).equals(List.of(2, 7))
+                && decoded.edges.get(7).equals(List.of(6)) && decoded.edges.get(8).isEmpty());
+        TopicManagerSingleton.get().clear();
+    }
+
+    private static void testEmptyGraph() {
+        System.out.println("Test Case 3: No graph");
+        byte[] bytes = GraphBinaryWriter.encode(null);
+        check("magic, no strings, no nodes", Arrays.equals(bytes, new byte[] {'C', 'G', 'G', '1', 0, 0}));
+        check("decodes to an empty graph", decode(bytes).ids.isEmpty());
+    }
+
+    private static void publish(String topic, Message msg) {
+        TopicManagerSingleton.get().getTopic(topic).publish(msg);
+    }
+
+    private static byte[] varint(int value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GraphBinaryWriter.writeVarint(out, value);
+        return out.toByteArray();
+    }
+
+    /** The graph as a client would decode it, with values turned back into text */
+    private static final class Decoded {
+        final List<String> ids = new ArrayList<>();
+        final List<String> labels = new ArrayList<>();
+        final List<String> types = new ArrayList<>();
+        final List<Integer> kinds = new ArrayList<>();
+        final List<String> values = new ArrayList<>();
+        final List<List<Integer>> edges = new ArrayList<>();
+    }
+
+    private static Decoded decode(byte[] bytes) {
+        Reader in = new Reader(bytes);
+        for (byte b : GraphBinaryWriter.MAGIC) {
+            if (in.data[in.position++] != b) {
+                throw new IllegalArgumentException("Bad magic");
+            }
+        }
+        List<String> strings = new ArrayList<>();
+        int stringCount = in.varint();
+        for (int i = 0; i < stringCount; i++) {
+            int length = in.varint();
+            strings.add(new String(bytes, in.position, length, StandardCharsets.UTF_8));
+            in.position += length;
+        }
+
+        Decoded decoded = new Decoded();
+        String[] typeNames = {"topic", "agent", "result"};
+        int nodeCount = in.varint();
+        for (int i = 0; i < nodeCount; i++) {
+            decoded.ids.add(strings.get(in.varint()));
+            decoded.labels.add(strings.get(in.varint()));
+            decoded.types.add(typeNames[in.data[in.position++]]);
+            int kind = in.data[in.position++];
+            decoded.kinds.add(kind);
+            if (kind == GraphBinaryWriter.VALUE_NUMBER) {
+                long bits = 0;
+                for (int b = 0; b < 8; b++) {
+                    bits = (bits << 8) | (in.data[in.position++] & 0xFF);
+                }
+                decoded.values.add(String.valueOf(Double.longBitsToDouble(bits)));
+            } else if (kind == GraphBinaryWriter.VALUE_TEXT) {
+                decoded.values.add(strings.get(in.varint()));
+            } else {
+                decoded.values.add(null);
+            }
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            List<Integer> targets = new ArrayList<>();
+            int count = in.varint();
+            int previous = 0;
+            for (int e = 0; e < count; e++) {
+                previous += in.varint();
+                targets.add(previous);
+            }
+            decoded.edges.add(targets);
+        }
+        check("no bytes left over", in.position == bytes.length);
+        return decoded;
+    }
+
+    private static final class Reader {
+        final byte[] data;
+        int position = 0;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int varint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = data[position++];
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+    }
+
+    private static void check(String name, boolean ok) {
+        System.out.println((ok ? "  PASS " : "  FAIL ") + name);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
@@ -160,7 +160,7 @@ public class HtmlGraphWriter {
         return htmlLines;
     }
     
-    private static String getNodeType(Node node) {
+    static String getNodeType(Node node) {
         String name = node.getName();
         String type;
         
@@ -178,7 +178,7 @@ public class HtmlGraphWriter {
         return type;
     }
     
-    private static String getDisplayLabel(Node node) {
+    static String getDisplayLabel(Node node) {
         String name = node.getName();
         String label = name;
         